@@ -33,6 +33,7 @@ public class GBDaoGenerator {
     private static final String MODEL_PACKAGE = MAIN_PACKAGE + ".model";
     private static final String VALID_BY_DATE = MODEL_PACKAGE + ".ValidByDate";
     private static final String ACTIVITY_SUMMARY = MODEL_PACKAGE + ".ActivitySummary";
+    private static final String ACTIVITY_KIND_OVERLAY = MODEL_PACKAGE + ".ActivityKindOverlay";
     private static final String OVERRIDE = "@Override";
     private static final String SAMPLE_RAW_INTENSITY = "rawIntensity";
     private static final String SAMPLE_STEPS = "steps";
@@ -43,7 +44,7 @@ public class GBDaoGenerator {
 
 
     public static void main(String[] args) throws Exception {
-        Schema schema = new Schema(22, MAIN_PACKAGE + ".entities");
+        Schema schema = new Schema(24, MAIN_PACKAGE + ".entities");
 
         Entity userAttributes = addUserAttributes(schema);
         Entity user = addUserInfo(schema, userAttributes);
@@ -71,6 +72,7 @@ public class GBDaoGenerator {
         addZeTimeActivitySample(schema, user, device);
         addID115ActivitySample(schema, user, device);
         addJYouActivitySample(schema, user, device);
+        addActivityHourRollup(schema, device);
         addCalendarSyncState(schema, device);
         addAlarms(schema, user, device);
 
@@ -222,6 +224,7 @@ public class GBDaoGenerator {
 
     private static Entity addPebbleHealthActivityKindOverlay(Schema schema, Entity user, Entity device) {
         Entity activityOverlay = addEntity(schema, "PebbleHealthActivityOverlay");
+        activityOverlay.implementsInterface(ACTIVITY_KIND_OVERLAY);
 
         activityOverlay.addIntProperty(TIMESTAMP_FROM).notNull().primaryKey();
         activityOverlay.addIntProperty(TIMESTAMP_TO).notNull().primaryKey();
@@ -267,6 +270,7 @@ public class GBDaoGenerator {
 
     private static Entity addHPlusHealthActivityKindOverlay(Schema schema, Entity user, Entity device) {
         Entity activityOverlay = addEntity(schema, "HPlusHealthActivityOverlay");
+        activityOverlay.implementsInterface(ACTIVITY_KIND_OVERLAY);
 
         activityOverlay.addIntProperty(TIMESTAMP_FROM).notNull().primaryKey();
         activityOverlay.addIntProperty(TIMESTAMP_TO).notNull().primaryKey();
@@ -348,13 +352,57 @@ public class GBDaoGenerator {
                 "This class represents a sample specific to the device. Values like activity kind or\n" +
                         "intensity, are device specific. Normalized values can be retrieved through the\n" +
                         "corresponding {@link SampleProvider}.");
-        activitySample.addIntProperty("timestamp").notNull().codeBeforeGetterAndSetter(OVERRIDE).primaryKey();
+        Property timestamp = activitySample.addIntProperty("timestamp").notNull().codeBeforeGetterAndSetter(OVERRIDE).primaryKey().getProperty();
         Property deviceId = activitySample.addLongProperty("deviceId").primaryKey().notNull().codeBeforeGetterAndSetter(OVERRIDE).getProperty();
         activitySample.addToOne(device, deviceId);
+        addDeviceTimestampIndex(activitySample, deviceId, timestamp);
         Property userId = activitySample.addLongProperty("userId").notNull().codeBeforeGetterAndSetter(OVERRIDE).getProperty();
         activitySample.addToOne(user, userId);
     }
 
+    /**
+     * The primary key is (timestamp, deviceId), but all range queries filter by device
+     * first. Also see GadgetbridgeUpdate_24, which must use the same index names.
+     */
+    private static void addDeviceTimestampIndex(Entity entity, Property deviceId, Property timestamp) {
+        Index index = new Index();
+        index.addProperty(deviceId);
+        index.addProperty(timestamp);
+        entity.addIndex(index);
+    }
+
+    private static Entity addActivityHourRollup(Schema schema, Entity device) {
+        Entity rollup = addEntity(schema, "ActivityHourRollup");
+        rollup.setJavaDoc(
+                "Pre-aggregated activity data of one device for one hour, derived from the device\n" +
+                        "specific samples. The first and last sample of the hour are kept so that\n" +
+                        "consecutive hours can be joined exactly like ActivityAnalysis does.");
+        Property timestamp = rollup.addIntProperty("timestamp").notNull().primaryKey().javaDocGetterAndSetter("The start of the hour (UTC, in seconds).").getProperty();
+        Property deviceId = rollup.addLongProperty("deviceId").primaryKey().notNull().getProperty();
+        rollup.addToOne(device, deviceId);
+        addDeviceTimestampIndex(rollup, deviceId, timestamp);
+        rollup.addIntProperty("sampleCount").notNull();
+        rollup.addIntProperty("firstTimestamp").notNull();
+        rollup.addIntProperty("firstRawKind").notNull();
+        rollup.addIntProperty("firstKind").notNull();
+        rollup.addIntProperty("lastTimestamp").notNull();
+        rollup.addIntProperty("lastRawKind").notNull();
+        rollup.addIntProperty("lastKind").notNull();
+        rollup.addIntProperty("activitySeconds").notNull();
+        rollup.addIntProperty("activitySteps").notNull();
+        rollup.addIntProperty("lightSleepSeconds").notNull();
+        rollup.addIntProperty("lightSleepSteps").notNull();
+        rollup.addIntProperty("deepSleepSeconds").notNull();
+        rollup.addIntProperty("deepSleepSteps").notNull();
+        rollup.addIntProperty("notWornSeconds").notNull();
+        rollup.addIntProperty("notWornSteps").notNull();
+        rollup.addIntProperty("heartRateMin").notNull();
+        rollup.addIntProperty("heartRateMax").notNull();
+        rollup.addIntProperty("heartRateAverage").notNull();
+        rollup.addIntProperty("heartRateCount").notNull();
+        return rollup;
+    }
+
     private static void addCalendarSyncState(Schema schema, Entity device) {
         Entity calendarSyncState = addEntity(schema, "CalendarSyncState");
         calendarSyncState.addIdProperty();
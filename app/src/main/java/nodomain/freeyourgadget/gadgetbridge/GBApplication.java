@@ -42,6 +42,7 @@ import android.provider.ContactsContract.PhoneLookup;
 import android.util.Log;
 import android.util.TypedValue;
 
+import androidx.annotation.Nullable;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import java.io.File;
@@ -56,6 +57,7 @@ import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
@@ -101,13 +103,22 @@ public class GBApplication extends Application {
     public static final String DATABASE_NAME = "Gadgetbridge";
 
     private static GBApplication context;
+    /**
+     * The single writer lane: serializes all DB users that may write.
+     */
     private static final Lock dbLock = new ReentrantLock();
+    /**
+     * Held shared by all readers, and exclusively while the database is closed (e.g.
+     * for exporting or importing it). Writers do not take it, so readers never wait
+     * for a running sync.
+     */
+    private static final ReentrantReadWriteLock readersLock = new ReentrantReadWriteLock();
     private static DeviceService deviceService;
     private static SharedPreferences sharedPrefs;
     private static final String PREFS_VERSION = "shared_preferences_version";
     //if preferences have to be migrated, increment the following and add the migration logic in migratePrefs below; see http://stackoverflow.com/questions/16397848/how-can-i-migrate-android-preferences-with-a-new-version
     private static final int CURRENT_PREFS_VERSION = 7;
-    private static LimitedQueue mIDSenderLookup = new LimitedQueue(16);
+    private static LimitedQueue<String> mIDSenderLookup = new LimitedQueue<>(16);
     private static Prefs prefs;
     private static GBPrefs gbPrefs;
     private static LockHandler lockHandler;
@@ -271,6 +282,8 @@ public class GBApplication extends Application {
             helper = new DaoMaster.DevOpenHelper(this, null, null);
         } else {
             helper = new DBOpenHelper(this, DATABASE_NAME, null);
+            // allows readers to run concurrently with the (single) writer
+            helper.setWriteAheadLoggingEnabled(true);
         }
         SQLiteDatabase db = helper.getWritableDatabase();
         DaoMaster daoMaster = new DaoMaster(db);
@@ -302,12 +315,32 @@ public class GBApplication extends Application {
      * <p>
      * Callers must not hold a reference to the returned instance because it
      * will be invalidated at some point.
+     * <p>
+     * This is the same as #acquireWriteDB().
      *
      * @return the DBHandler
      * @throws GBException
      * @see #releaseDB()
+     * @see #acquireReadDB()
      */
     public static DBHandler acquireDB() throws GBException {
+        return acquireWriteDB();
+    }
+
+    /**
+     * Returns the DBHandler instance for reading/writing or throws GBException
+     * when that was not successful. There is only a single writer at a time, so
+     * this blocks while another thread (e.g. a sync in progress) holds the DB.
+     * <p>
+     * Callers must close the returned handler (or call #releaseDB) from the same
+     * thread when they are done. Callers must not hold a reference to the returned
+     * instance because it will be invalidated at some point.
+     *
+     * @return the DBHandler
+     * @throws GBException
+     * @see #releaseDB()
+     */
+    public static DBHandler acquireWriteDB() throws GBException {
         try {
             if (dbLock.tryLock(30, TimeUnit.SECONDS)) {
                 return lockHandler;
@@ -318,6 +351,71 @@ public class GBApplication extends Application {
         throw new GBException("Unable to access the database.");
     }
 
+    /**
+     * Like #acquireWriteDB(), but returns null instead of waiting when another
+     * thread currently holds the writer lane.
+     *
+     * @return the DBHandler or null
+     */
+    @Nullable
+    public static DBHandler tryAcquireWriteDB() {
+        if (dbLock.tryLock()) {
+            return lockHandler;
+        }
+        return null;
+    }
+
+    /**
+     * Like #acquireWriteDB(), but waits at most the given time for the writer lane
+     * and returns null instead of throwing when it could not be acquired.
+     *
+     * @param timeoutMillis the maximum time to wait
+     * @return the DBHandler or null
+     */
+    @Nullable
+    public static DBHandler tryAcquireWriteDB(long timeoutMillis) {
+        try {
+            if (dbLock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return lockHandler;
+            }
+        } catch (InterruptedException ex) {
+            Log.i(TAG, "Interrupted while waiting for DB lock");
+        }
+        return null;
+    }
+
+    /**
+     * Returns a DBHandler for reading only or throws GBException when that was not
+     * successful. Readers use their own DaoSession without an identity scope and do
+     * not wait for writers, so they see the last committed state of the database.
+     * <p>
+     * Callers must not write through the returned handler and must close it when
+     * they are done, from the same thread that acquired it.
+     *
+     * @return the DBHandler
+     * @throws GBException
+     */
+    public static DBHandler acquireReadDB() throws GBException {
+        acquireReadLock();
+        try {
+            return new ReadLockHandler(lockHandler);
+        } catch (RuntimeException ex) {
+            releaseReadDB();
+            throw ex;
+        }
+    }
+
+    static void acquireReadLock() throws GBException {
+        try {
+            if (readersLock.readLock().tryLock(30, TimeUnit.SECONDS)) {
+                return;
+            }
+        } catch (InterruptedException ex) {
+            Log.i(TAG, "Interrupted while waiting for DB read lock");
+        }
+        throw new GBException("Unable to access the database.");
+    }
+
     /**
      * Releases the database lock.
      *
@@ -328,6 +426,33 @@ public class GBApplication extends Application {
         dbLock.unlock();
     }
 
+    static void releaseReadDB() {
+        readersLock.readLock().unlock();
+    }
+
+    /**
+     * Waits until all readers are done and keeps new ones out until #unlockReaders()
+     * is called from the same thread.
+     *
+     * @throws IllegalStateException if the readers did not finish in time
+     */
+    static void lockReaders() {
+        try {
+            if (readersLock.writeLock().tryLock(30, TimeUnit.SECONDS)) {
+                return;
+            }
+        } catch (InterruptedException ex) {
+            Log.i(TAG, "Interrupted while waiting for DB readers");
+        }
+        throw new IllegalStateException("Unable to close the database while it is being read");
+    }
+
+    static void unlockReaders() {
+        if (readersLock.isWriteLockedByCurrentThread()) {
+            readersLock.writeLock().unlock();
+        }
+    }
+
     public static boolean isRunningLollipopOrLater() {
         return VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
     }
@@ -571,9 +696,13 @@ public class GBApplication extends Application {
         if (lockHandler != null) {
             lockHandler.closeDb();
         }
-        boolean result = deleteOldActivityDatabase(context);
-        result &= getContext().deleteDatabase(DATABASE_NAME);
-        return result;
+        try {
+            boolean result = deleteOldActivityDatabase(context);
+            result &= getContext().deleteDatabase(DATABASE_NAME);
+            return result;
+        } finally {
+            unlockReaders();
+        }
     }
 
     /**
@@ -920,7 +1049,7 @@ public class GBApplication extends Application {
         LocalBroadcastManager.getInstance(context).sendBroadcast(intent);
     }
 
-    public static LimitedQueue getIDSenderLookup() {
+    public static LimitedQueue<String> getIDSenderLookup() {
         return mIDSenderLookup;
     }
 
@@ -19,9 +19,16 @@ package nodomain.freeyourgadget.gadgetbridge;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import de.greenrobot.dao.identityscope.IdentityScopeType;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.EntityIdCache;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityAmountsCache;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.externalevents.NotificationFilterCache;
 
 /**
  * Provides low-level access to the database.
@@ -31,6 +38,10 @@ public class LockHandler implements DBHandler {
     private DaoMaster daoMaster = null;
     private DaoSession session = null;
     private SQLiteOpenHelper helper = null;
+    /**
+     * Idle sessions for readers, see #obtainReadSession()
+     */
+    private final Queue<DaoSession> readSessions = new ConcurrentLinkedQueue<>();
 
     public LockHandler() {
     }
@@ -52,6 +63,28 @@ public class LockHandler implements DBHandler {
         if (session == null) {
             throw new RuntimeException("Unable to create database session");
         }
+        // readers were kept out since #closeDb()
+        GBApplication.unlockReaders();
+    }
+
+    /**
+     * Returns a session for a single reader. Reader sessions have no identity scope,
+     * so that entities are never shared between threads, and are pooled because
+     * creating a session instantiates all DAOs.
+     */
+    DaoSession obtainReadSession() {
+        ensureValid();
+        DaoSession readSession = readSessions.poll();
+        if (readSession == null) {
+            readSession = daoMaster.newSession(IdentityScopeType.None);
+        }
+        return readSession;
+    }
+
+    void recycleReadSession(DaoSession readSession) {
+        if (isValid() && readSession.getDatabase() == daoMaster.getDatabase()) {
+            readSessions.offer(readSession);
+        }
     }
 
     @Override
@@ -89,6 +122,13 @@ public class LockHandler implements DBHandler {
         if (session == null) {
             throw new IllegalStateException("session must not be null");
         }
+        // wait for all readers, they are let in again in #init()
+        GBApplication.lockReaders();
+        readSessions.clear();
+        // ids may be different after the database has been replaced
+        EntityIdCache.invalidateAll();
+        ActivityAmountsCache.clear();
+        NotificationFilterCache.invalidate();
         session.clear();
         session.getDatabase().close();
         session = null;
@@ -0,0 +1,130 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+
+/**
+ * Provides read access to the database for a single reader, see GBApplication#acquireReadDB().
+ * Closing and opening the database is done through the writer lane.
+ */
+class ReadLockHandler implements DBHandler {
+
+    private final LockHandler lockHandler;
+    private DaoSession session;
+    // the writer lane, held from #closeDb() until #openDb()
+    private DBHandler writer;
+
+    ReadLockHandler(LockHandler lockHandler) {
+        this.lockHandler = lockHandler;
+        this.session = lockHandler.obtainReadSession();
+    }
+
+    private void ensureValid() {
+        if (session == null) {
+            throw new IllegalStateException("ReadLockHandler has already been closed");
+        }
+    }
+
+    @Override
+    public void close() {
+        ensureValid();
+        releaseReadSession();
+    }
+
+    private void releaseReadSession() {
+        DaoSession readSession = session;
+        session = null;
+        lockHandler.recycleReadSession(readSession);
+        GBApplication.releaseReadDB();
+    }
+
+    /**
+     * Closes the database on the writer lane. Since closing waits for all readers, this
+     * reader is released first, and only acquired again by #openDb().
+     */
+    @Override
+    public void closeDb() {
+        ensureValid();
+        releaseReadSession();
+        try {
+            writer = GBApplication.acquireWriteDB();
+        } catch (GBException ex) {
+            throw new IllegalStateException("Unable to close the database", ex);
+        }
+        try {
+            writer.closeDb();
+        } catch (RuntimeException ex) {
+            writer = null;
+            GBApplication.releaseDB();
+            throw ex;
+        }
+    }
+
+    @Override
+    public void openDb() {
+        if (writer == null) {
+            throw new IllegalStateException("Database has not been closed through this handler");
+        }
+        try {
+            writer.openDb();
+        } finally {
+            writer = null;
+            GBApplication.releaseDB();
+        }
+        try {
+            GBApplication.acquireReadLock();
+        } catch (GBException ex) {
+            throw new IllegalStateException("Unable to access the database again", ex);
+        }
+        try {
+            session = lockHandler.obtainReadSession();
+        } catch (RuntimeException ex) {
+            GBApplication.releaseReadDB();
+            throw ex;
+        }
+    }
+
+    @Override
+    public SQLiteOpenHelper getHelper() {
+        ensureValid();
+        return lockHandler.getHelper();
+    }
+
+    @Override
+    public DaoMaster getDaoMaster() {
+        ensureValid();
+        return lockHandler.getDaoMaster();
+    }
+
+    @Override
+    public DaoSession getDaoSession() {
+        ensureValid();
+        return session;
+    }
+
+    @Override
+    public SQLiteDatabase getDatabase() {
+        ensureValid();
+        return session.getDatabase();
+    }
+}
@@ -48,6 +48,7 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.IncrementalExporter;
 import nodomain.freeyourgadget.gadgetbridge.database.PeriodicExporter;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.util.AndroidUtils;
@@ -237,7 +238,7 @@ public class DbManagementActivity extends AbstractGBActivity {
     }
 
     private void exportDB() {
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
+        try (DBHandler dbHandler = GBApplication.acquireReadDB()) {
             exportShared();
             DBHelper helper = new DBHelper(this);
             File dir = FileUtils.getExternalFilesDir();
@@ -261,7 +262,12 @@ public class DbManagementActivity extends AbstractGBActivity {
                             File dir = FileUtils.getExternalFilesDir();
                             SQLiteOpenHelper sqLiteOpenHelper = dbHandler.getHelper();
                             File sourceFile = new File(dir, sqLiteOpenHelper.getDatabaseName());
-                            helper.importDB(dbHandler, sourceFile);
+                            File incrementalDir = new File(dir, IncrementalExporter.EXPORT_DIR_NAME);
+                            if (!sourceFile.exists() && IncrementalExporter.hasExport(incrementalDir)) {
+                                helper.importDB(dbHandler, new File(incrementalDir, IncrementalExporter.BASE_FILE_NAME), incrementalDir);
+                            } else {
+                                helper.importDB(dbHandler, sourceFile);
+                            }
                             helper.validateDB(sqLiteOpenHelper);
                             GB.toast(DbManagementActivity.this, getString(R.string.dbmanagementactivity_import_successful), Toast.LENGTH_LONG, GB.INFO);
                         } catch (Exception ex) {
@@ -39,6 +39,7 @@ import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import androidx.annotation.Nullable;
 import androidx.core.app.NavUtils;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.RemoteInput;
@@ -99,6 +100,15 @@ public class DebugActivity extends AbstractGBActivity {
     private Spinner sendTypeSpinner;
     private EditText editContent;
 
+    /**
+     * @return the device the reset and the heart rate test are sent to, the same one the
+     * last sync time is set for
+     */
+    @Nullable
+    private GBDevice getSelectedDevice() {
+        return GBApplication.app().getDeviceManager().getSelectedDevice();
+    }
+
     private void handleRealtimeSample(Serializable extra) {
         if (extra instanceof ActivitySample) {
             ActivitySample sample = (ActivitySample) extra;
@@ -187,7 +197,7 @@ public class DebugActivity extends AbstractGBActivity {
         rebootButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                GBApplication.deviceService().onReset(GBDeviceProtocol.RESET_FLAGS_REBOOT);
+                GBApplication.deviceService().onReset(getSelectedDevice(), GBDeviceProtocol.RESET_FLAGS_REBOOT);
             }
         });
 
@@ -202,7 +212,7 @@ public class DebugActivity extends AbstractGBActivity {
                         .setPositiveButton(R.string.ok, new DialogInterface.OnClickListener() {
                             @Override
                             public void onClick(DialogInterface dialog, int which) {
-                                GBApplication.deviceService().onReset(GBDeviceProtocol.RESET_FLAGS_FACTORY_RESET);
+                                GBApplication.deviceService().onReset(getSelectedDevice(), GBDeviceProtocol.RESET_FLAGS_FACTORY_RESET);
                             }
                         })
                         .setNegativeButton(R.string.Cancel, new DialogInterface.OnClickListener() {
@@ -219,7 +229,7 @@ public class DebugActivity extends AbstractGBActivity {
             @Override
             public void onClick(View v) {
                 GB.toast("Measuring heart rate, please wait...", Toast.LENGTH_LONG, GB.INFO);
-                GBApplication.deviceService().onHeartRateTest();
+                GBApplication.deviceService().onHeartRateTest(getSelectedDevice());
             }
         });
 
@@ -78,20 +78,23 @@ public class FwAppInstallerActivity extends AbstractGBActivity implements Instal
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             if (GBDevice.ACTION_DEVICE_CHANGED.equals(action)) {
-                device = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
-                if (device != null) {
-                    refreshBusyState(device);
-                    if (!device.isInitialized()) {
-                        setInstallEnabled(false);
-                        if (mayConnect) {
-                            GB.toast(FwAppInstallerActivity.this, getString(R.string.connecting), Toast.LENGTH_SHORT, GB.INFO);
-                            connect();
-                        } else {
-                            setInfoText(getString(R.string.fwappinstaller_connection_state, device.getStateString()));
-                        }
+                GBDevice changedDevice = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
+                if (changedDevice == null || (device != null && !device.getAddress().equals(changedDevice.getAddress()))) {
+                    // another connected device, stay with the one that was chosen
+                    return;
+                }
+                device = changedDevice;
+                refreshBusyState(device);
+                if (!device.isInitialized()) {
+                    setInstallEnabled(false);
+                    if (mayConnect) {
+                        GB.toast(FwAppInstallerActivity.this, getString(R.string.connecting), Toast.LENGTH_SHORT, GB.INFO);
+                        connect();
                     } else {
-                        validateInstallation();
+                        setInfoText(getString(R.string.fwappinstaller_connection_state, device.getStateString()));
                     }
+                } else {
+                    validateInstallation();
                 }
             } else if (GB.ACTION_DISPLAY_MESSAGE.equals(action)) {
                 String message = intent.getStringExtra(GB.DISPLAY_MESSAGE_MESSAGE);
@@ -162,7 +165,7 @@ public class FwAppInstallerActivity extends AbstractGBActivity implements Instal
             public void onClick(View v) {
                 setInstallEnabled(false);
                 installHandler.onStartInstall(device);
-                GBApplication.deviceService().onInstallApp(uri);
+                GBApplication.deviceService().onInstallApp(device, uri);
             }
         });
 
@@ -180,7 +183,7 @@ public class FwAppInstallerActivity extends AbstractGBActivity implements Instal
             if (device == null || !device.isConnected()) {
                 connect();
             } else {
-                GBApplication.deviceService().requestDeviceInfo();
+                GBApplication.deviceService().requestDeviceInfo(device);
             }
         }
     }
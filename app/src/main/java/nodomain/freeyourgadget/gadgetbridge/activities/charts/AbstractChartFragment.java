@@ -67,6 +67,7 @@ import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.SampleColumns;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
@@ -421,6 +422,10 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
     protected abstract void renderCharts();
 
     protected DefaultChartsData<LineData> refresh(GBDevice gbDevice, List<? extends ActivitySample> samples) {
+        return refresh(gbDevice, SampleColumns.fromSamples(samples));
+    }
+
+    protected DefaultChartsData<LineData> refresh(GBDevice gbDevice, SampleColumns samples) {
 //        Calendar cal = GregorianCalendar.getInstance();
 //        cal.clear();
         TimestampTranslation tsTranslation = new TimestampTranslation();
@@ -444,14 +449,12 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
             List<Entry> notWornEntries = new ArrayList<>(numEntries);
             boolean hr = supportsHeartrate(gbDevice);
             List<Entry> heartrateEntries = hr ? new ArrayList<Entry>(numEntries) : null;
-            List<Integer> colors = new ArrayList<>(numEntries); // this is kinda inefficient...
             int lastHrSampleIndex = -1;
             HeartRateUtils heartRateUtilsInstance = HeartRateUtils.getInstance();
 
             for (int i = 0; i < numEntries; i++) {
-                ActivitySample sample = samples.get(i);
-                int type = sample.getKind();
-                int ts = tsTranslation.shorten(sample.getTimestamp());
+                int type = samples.getKind(i);
+                int ts = tsTranslation.shorten(samples.getTimestamp(i));
 
 //                System.out.println(ts);
 //                ts = i;
@@ -466,7 +469,7 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
 //                    dateStringTo = dateFormat.format(date);
 //                }
 
-                float movement = sample.getIntensity();
+                float movement = samples.getIntensity(i);
 
                 float value = movement;
                 switch (type) {
@@ -516,13 +519,14 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
                         }
                         activityEntries.add(createLineEntry(value, ts));
                 }
-                if (hr && sample.getKind() != ActivityKind.TYPE_NOT_WORN && heartRateUtilsInstance.isValidHeartRateValue(sample.getHeartRate())) {
+                int heartRate = samples.getHeartRate(i);
+                if (hr && type != ActivityKind.TYPE_NOT_WORN && heartRateUtilsInstance.isValidHeartRateValue(heartRate)) {
                     if (lastHrSampleIndex > -1 && ts - lastHrSampleIndex > 1800*HeartRateUtils.MAX_HR_MEASUREMENTS_GAP_MINUTES) {
                         heartrateEntries.add(createLineEntry(0, lastHrSampleIndex + 1));
                         heartrateEntries.add(createLineEntry(0, ts - 1));
                     }
 
-                    heartrateEntries.add(createLineEntry(sample.getHeartRate(), ts));
+                    heartrateEntries.add(createLineEntry(heartRate, ts));
                     lastHrSampleIndex = ts;
                 }
 
@@ -717,6 +721,19 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
         return samples;
     }
 
+    /**
+     * Like #getSamples(DBHandler, GBDevice), but streams all samples of the current range
+     * into primitive columns instead of creating a list of sample objects.
+     */
+    protected SampleColumns getSampleColumns(DBHandler db, GBDevice device) {
+        int tsStart = getTSStart();
+        int tsEnd = getTSEnd();
+        SampleProvider<? extends AbstractActivitySample> provider = getProvider(db, device);
+        SampleColumns samples = SampleColumns.fromProvider(provider, tsStart, tsEnd);
+        ensureStartAndEndSamples(samples, provider, tsStart, tsEnd);
+        return samples;
+    }
+
     protected List<? extends ActivitySample> getSamplesofSleep(DBHandler db, GBDevice device) {
         int SLEEP_HOUR_LIMIT = 12;
 
@@ -755,6 +772,21 @@ public abstract class AbstractChartFragment extends AbstractGBFragment {
         }
     }
 
+    protected void ensureStartAndEndSamples(SampleColumns samples, SampleProvider<?> provider, int tsStart, int tsEnd) {
+        if (samples.isEmpty()) {
+            return;
+        }
+        // same values as a TrailingActivitySample would provide
+        int kind = provider.normalizeType(ActivitySample.NOT_MEASURED);
+        float intensity = provider.normalizeIntensity(ActivitySample.NOT_MEASURED);
+        if (samples.getTimestamp(samples.size() - 1) < tsEnd) {
+            samples.add(tsEnd, kind, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, intensity, ActivitySample.NOT_MEASURED);
+        }
+        if (samples.getTimestamp(0) > tsStart) {
+            samples.insert(0, tsStart, kind, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, intensity, ActivitySample.NOT_MEASURED);
+        }
+    }
+
     private ActivitySample createTrailingActivitySample(ActivitySample referenceSample, int timestamp) {
         TrailingActivitySample sample = new TrailingActivitySample();
         if (referenceSample instanceof AbstractActivitySample) {
@@ -20,33 +20,73 @@ package nodomain.freeyourgadget.gadgetbridge.activities.charts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.SampleColumns;
 
 public class ActivityAnalysis {
     public static final Logger LOG = LoggerFactory.getLogger(ActivityAnalysis.class);
 
-    // store raw steps and duration
-    protected HashMap<Integer, Long> stats = new HashMap<Integer, Long>();
+    // steps above this (usually garbage) are counted in this top speed zone, to bound the histogram
+    private static final int MAX_SPEED_ZONE = 0xffff;
+
+    // store duration per raw steps value, indexed by steps
+    private long[] speedZoneSeconds = new long[256];
     // max speed determined from samples
     private int maxSpeed = 0;
 
     public ActivityAmounts calculateActivityAmounts(List<? extends ActivitySample> samples) {
-        ActivityAmount deepSleep = new ActivityAmount(ActivityKind.TYPE_DEEP_SLEEP);
-        ActivityAmount lightSleep = new ActivityAmount(ActivityKind.TYPE_LIGHT_SLEEP);
-        ActivityAmount notWorn = new ActivityAmount(ActivityKind.TYPE_NOT_WORN);
-        ActivityAmount activity = new ActivityAmount(ActivityKind.TYPE_ACTIVITY);
-
-        ActivityAmount previousAmount = null;
-        ActivitySample previousSample = null;
+        AmountsCalculator calculator = new AmountsCalculator();
         for (ActivitySample sample : samples) {
+            calculator.visit(sample);
+        }
+        return calculator.getResult();
+    }
+
+    public ActivityAmounts calculateActivityAmounts(SampleColumns samples) {
+        AmountsCalculator calculator = new AmountsCalculator();
+        for (int i = 0; i < samples.size(); i++) {
+            calculator.add(samples.getTimestamp(i), samples.getKind(i), samples.getRawKind(i), samples.getSteps(i));
+        }
+        return calculator.getResult();
+    }
+
+    /**
+     * Like #calculateActivityAmounts(List), but streams the samples from the provider
+     * instead of loading them all into memory.
+     */
+    public ActivityAmounts calculateActivityAmounts(SampleProvider<? extends AbstractActivitySample> provider, int timestamp_from, int timestamp_to) {
+        AmountsCalculator calculator = new AmountsCalculator();
+        provider.visitAllActivitySamples(timestamp_from, timestamp_to, calculator);
+        return calculator.getResult();
+    }
+
+    private class AmountsCalculator implements SampleVisitor<ActivitySample> {
+        private final ActivityAmount deepSleep = new ActivityAmount(ActivityKind.TYPE_DEEP_SLEEP);
+        private final ActivityAmount lightSleep = new ActivityAmount(ActivityKind.TYPE_LIGHT_SLEEP);
+        private final ActivityAmount notWorn = new ActivityAmount(ActivityKind.TYPE_NOT_WORN);
+        private final ActivityAmount activity = new ActivityAmount(ActivityKind.TYPE_ACTIVITY);
+
+        private ActivityAmount previousAmount = null;
+        private int previousTimestamp;
+        private int previousRawKind;
+
+        @Override
+        public void visit(ActivitySample sample) {
+            add(sample.getTimestamp(), sample.getKind(), sample.getRawKind(), sample.getSteps());
+        }
+
+        void add(int timestamp, int kind, int rawKind, int steps) {
             ActivityAmount amount;
-            switch (sample.getKind()) {
+            switch (kind) {
                 case ActivityKind.TYPE_DEEP_SLEEP:
                     amount = deepSleep;
                     break;
@@ -62,14 +102,13 @@ public class ActivityAnalysis {
                     break;
             }
 
-            int steps = sample.getSteps();
             if (steps > 0) {
                 amount.addSteps(steps);
             }
 
-            if (previousSample != null) {
-                long timeDifference = sample.getTimestamp() - previousSample.getTimestamp();
-                if (previousSample.getRawKind() == sample.getRawKind()) {
+            if (previousAmount != null) {
+                long timeDifference = timestamp - previousTimestamp;
+                if (previousRawKind == rawKind) {
                     amount.addSeconds(timeDifference);
                 } else {
                     long sharedTimeDifference = (long) (timeDifference / 2.0f);
@@ -78,42 +117,61 @@ public class ActivityAnalysis {
                 }
 
                 // add time
-                if (steps > 0 && sample.getKind() == ActivityKind.TYPE_ACTIVITY) {
+                if (steps > 0 && kind == ActivityKind.TYPE_ACTIVITY) {
                     if (steps > maxSpeed) {
                         maxSpeed = steps;
                     }
-
-                    if (!stats.containsKey(steps)) {
-//                        LOG.debug("Adding: " + steps);
-                        stats.put(steps, timeDifference);
-                    } else {
-                        long time = stats.get(steps);
-//                        LOG.debug("Updating: " + steps + " " + timeDifference + time);
-                        stats.put(steps, timeDifference + time);
-                    }
+                    addSpeedZoneSeconds(steps, timeDifference);
                 }
             }
 
-            amount.setStartDate(sample.getTimestamp());
-            amount.setEndDate(sample.getTimestamp());
+            amount.setStartDate(timestamp);
+            amount.setEndDate(timestamp);
 
             previousAmount = amount;
-            previousSample = sample;
+            previousTimestamp = timestamp;
+            previousRawKind = rawKind;
         }
 
-        ActivityAmounts result = new ActivityAmounts();
-        if (deepSleep.getTotalSeconds() > 0) {
-            result.addAmount(deepSleep);
+        ActivityAmounts getResult() {
+            ActivityAmounts result = new ActivityAmounts();
+            if (deepSleep.getTotalSeconds() > 0) {
+                result.addAmount(deepSleep);
+            }
+            if (lightSleep.getTotalSeconds() > 0) {
+                result.addAmount(lightSleep);
+            }
+            if (activity.getTotalSeconds() > 0) {
+                result.addAmount(activity);
+            }
+            result.calculatePercentages();
+
+            return result;
         }
-        if (lightSleep.getTotalSeconds() > 0) {
-            result.addAmount(lightSleep);
+    }
+
+    private void addSpeedZoneSeconds(int steps, long seconds) {
+        steps = Math.min(steps, MAX_SPEED_ZONE);
+        if (steps >= speedZoneSeconds.length) {
+            speedZoneSeconds = Arrays.copyOf(speedZoneSeconds, Math.max(steps + 1, speedZoneSeconds.length * 2));
         }
-        if (activity.getTotalSeconds() > 0) {
-            result.addAmount(activity);
+        speedZoneSeconds[steps] += seconds;
+    }
+
+    /**
+     * Returns the total duration of activity samples with exactly the given number of steps,
+     * accumulated over all calculations done with this instance. The top zone, MAX_SPEED_ZONE,
+     * also contains the samples with more steps.
+     */
+    public long getSpeedZoneSeconds(int steps) {
+        if (steps < 0 || steps >= speedZoneSeconds.length) {
+            return 0;
         }
-        result.calculatePercentages();
+        return speedZoneSeconds[steps];
+    }
 
-        return result;
+    public int getMaxSpeed() {
+        return maxSpeed;
     }
 
     int calculateTotalSteps(List<? extends ActivitySample> samples) {
@@ -21,6 +21,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 
@@ -32,6 +33,8 @@ import com.github.mikephil.charting.components.LegendEntry;
 import com.github.mikephil.charting.components.XAxis;
 import com.github.mikephil.charting.components.YAxis;
 import com.github.mikephil.charting.data.LineData;
+import com.github.mikephil.charting.listener.ChartTouchListener;
+import com.github.mikephil.charting.listener.OnChartGestureListener;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,6 +47,7 @@ import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.SampleColumns;
 
 
 public class ActivitySleepChartFragment extends AbstractChartFragment {
@@ -56,6 +60,13 @@ public class ActivitySleepChartFragment extends AbstractChartFragment {
     private int mTimestampFrom = -1;
     private int mSmartAlarmGoneOff = -1;
 
+    // all samples of the current range, the chart only gets as many as it can show
+    private volatile SampleColumns mSamples;
+    private volatile int mChartWidth;
+    // the range shown in full detail, if zoomed in
+    private int mDetailFrom;
+    private int mDetailTo = -1;
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
@@ -107,6 +118,18 @@ public class ActivitySleepChartFragment extends AbstractChartFragment {
         yAxisRight.setAxisMaximum(HeartRateUtils.getInstance().getMaxHeartRate());
         yAxisRight.setAxisMinimum(HeartRateUtils.getInstance().getMinHeartRate());
 
+        // until laid out, assume the chart spans the screen
+        mChartWidth = getResources().getDisplayMetrics().widthPixels;
+        mChart.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+            @Override
+            public void onLayoutChange(View v, int left, int top, int right, int bottom, int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                if (right > left) {
+                    mChartWidth = right - left;
+                }
+            }
+        });
+        mChart.setOnChartGestureListener(new DetailOnZoomListener());
+
         // refresh immediately instead of use refreshIfVisible(), for perceived performance
         refresh();
     }
@@ -128,19 +151,54 @@ public class ActivitySleepChartFragment extends AbstractChartFragment {
 
     @Override
     protected ChartsData refreshInBackground(ChartsHost chartsHost, DBHandler db, GBDevice device) {
-        List<? extends ActivitySample> samples = getSamples(db, device);
-        return refresh(device, samples);
+        SampleColumns samples = getSampleColumns(db, device);
+        mSamples = samples;
+        return refresh(device, SampleDownsampler.downsample(samples, mChartWidth));
     }
 
     @Override
     protected void updateChartsnUIThread(ChartsData chartsData) {
-        DefaultChartsData dcd = (DefaultChartsData) chartsData;
+        mDetailFrom = 0;
+        mDetailTo = -1;
+        setChartData((DefaultChartsData) chartsData);
+    }
+
+    private void setChartData(DefaultChartsData dcd) {
         mChart.getLegend().setTextColor(LEGEND_TEXT_COLOR);
         mChart.setData(null); // workaround for https://github.com/PhilJay/MPAndroidChart/issues/2317
         mChart.getXAxis().setValueFormatter(dcd.getXValueFormatter());
         mChart.setData((LineData) dcd.getData());
     }
 
+    /**
+     * Replaces the downsampled chart data with data in full detail for the visible range,
+     * or with the overview again when zoomed out completely. The samples are kept from the
+     * last refresh, so this does not access the database.
+     */
+    private void showVisibleDetail() {
+        SampleColumns samples = mSamples;
+        ChartsHost chartsHost = getChartsHost();
+        if (samples == null || samples.isEmpty() || chartsHost == null) {
+            return;
+        }
+        int detailFrom = 0;
+        int detailTo = -1;
+        if (!mChart.isFullyZoomedOut()) {
+            // chart x values are relative to the first sample, see TimestampTranslation
+            int offset = samples.getTimestamp(0);
+            detailFrom = offset + (int) Math.floor(mChart.getLowestVisibleX());
+            detailTo = offset + (int) Math.ceil(mChart.getHighestVisibleX());
+        }
+        if (detailFrom == mDetailFrom && detailTo == mDetailTo) {
+            return;
+        }
+        mDetailFrom = detailFrom;
+        mDetailTo = detailTo;
+        SampleColumns downsampled = SampleDownsampler.downsample(samples, mChartWidth, detailFrom, detailTo);
+        setChartData(refresh(chartsHost.getDevice(), downsampled));
+        mChart.invalidate();
+    }
+
     @Override
     protected void renderCharts() {
         mChart.animateX(ANIM_TIME, Easing.EaseInOutQuart);
@@ -186,4 +244,49 @@ public class ActivitySleepChartFragment extends AbstractChartFragment {
     protected List<? extends ActivitySample> getSamples(DBHandler db, GBDevice device, int tsFrom, int tsTo) {
         return getAllSamples(db, device, tsFrom, tsTo);
     }
+
+    private class DetailOnZoomListener implements OnChartGestureListener {
+        @Override
+        public void onChartGestureStart(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {
+        }
+
+        @Override
+        public void onChartGestureEnd(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {
+            switch (lastPerformedGesture) {
+                case DRAG:
+                case X_ZOOM:
+                case PINCH_ZOOM:
+                case DOUBLE_TAP:
+                case FLING:
+                    showVisibleDetail();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void onChartLongPressed(MotionEvent me) {
+        }
+
+        @Override
+        public void onChartDoubleTapped(MotionEvent me) {
+        }
+
+        @Override
+        public void onChartSingleTapped(MotionEvent me) {
+        }
+
+        @Override
+        public void onChartFling(MotionEvent me1, MotionEvent me2, float velocityX, float velocityY) {
+        }
+
+        @Override
+        public void onChartScale(MotionEvent me, float scaleX, float scaleY) {
+        }
+
+        @Override
+        public void onChartTranslate(MotionEvent me, float dX, float dY) {
+        }
+    }
 }
@@ -53,7 +53,6 @@ import nodomain.freeyourgadget.gadgetbridge.model.RecordedDataTypes;
 import nodomain.freeyourgadget.gadgetbridge.util.DateTimeUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
-import nodomain.freeyourgadget.gadgetbridge.util.LimitedQueue;
 
 public class ChartsActivity extends AbstractGBFragmentActivity implements ChartsHost {
 
@@ -63,8 +62,6 @@ public class ChartsActivity extends AbstractGBFragmentActivity implements Charts
     private Date mEndDate;
     private SwipeRefreshLayout swipeLayout;
 
-    LimitedQueue mActivityAmountCache = new LimitedQueue(60);
-
     private static class ShowDurationDialog extends Dialog {
         private final String mDuration;
         private TextView durationLabel;
@@ -315,7 +312,7 @@ public class ChartsActivity extends AbstractGBFragmentActivity implements Charts
 
     private void fetchActivityData() {
         if (getDevice().isInitialized()) {
-            GBApplication.deviceService().onFetchRecordedData(RecordedDataTypes.TYPE_ACTIVITY);
+            GBApplication.deviceService().onFetchRecordedData(getDevice(), RecordedDataTypes.TYPE_ACTIVITY);
         } else {
             swipeLayout.setRefreshing(false);
             GB.toast(this, getString(R.string.device_not_connected), Toast.LENGTH_SHORT, GB.ERROR);
@@ -60,6 +60,7 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.devices.RealtimeSampleRecorder;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
@@ -71,6 +72,7 @@ public class LiveActivityFragment extends AbstractChartFragment {
     private static final int MAX_STEPS_PER_MINUTE = 300;
     private static final int MIN_STEPS_PER_MINUTE = 60;
     private static final int RESET_COUNT = 10; // reset the max steps per minute value every 10s
+    private static final int HEART_RATE_REPLAY_SECONDS = 5 * 60;
 
     private BarEntry totalStepsEntry;
     private BarEntry stepsPerMinuteEntry;
@@ -89,6 +91,7 @@ public class LiveActivityFragment extends AbstractChartFragment {
     private int mHeartRate;
     private int mMaxHeartRate = 0;
     private TimestampTranslation tsTranslation;
+    private RealtimeSampleRecorder mRecorder;
 
     private class Steps {
         private int steps;
@@ -160,21 +163,43 @@ public class LiveActivityFragment extends AbstractChartFragment {
             String action = intent.getAction();
             switch (action) {
                 case DeviceService.ACTION_REALTIME_SAMPLES: {
+                    GBDevice device = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
+                    if (device != null && mRecorder != null && device.getAddress().equals(mRecorder.getAddress())) {
+                        // already received through mRecorderListener
+                        break;
+                    }
                     ActivitySample sample = (ActivitySample) intent.getSerializableExtra(DeviceService.EXTRA_REALTIME_SAMPLE);
-                    addSample(sample);
+                    addSample(sample.getTimestamp(), sample.getHeartRate(), sample.getSteps());
                     break;
                 }
             }
         }
     };
 
-    private void addSample(ActivitySample sample) {
-        int heartRate = sample.getHeartRate();
-        int timestamp = tsTranslation.shorten(sample.getTimestamp());
+    /**
+     * Receives the samples of devices with a RealtimeSampleRecorder directly, instead of
+     * as broadcasts.
+     */
+    private final RealtimeSampleRecorder.Listener mRecorderListener = new RealtimeSampleRecorder.Listener() {
+        @Override
+        public void onRealtimeSample(final int timestamp, final int heartRate, final int steps) {
+            FragmentActivity activity = getActivity();
+            if (activity != null && !activity.isFinishing() && !activity.isDestroyed()) {
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        addSample(timestamp, heartRate, steps);
+                    }
+                });
+            }
+        }
+    };
+
+    private void addSample(int sampleTimestamp, int heartRate, int steps) {
+        int timestamp = tsTranslation.shorten(sampleTimestamp);
         if (HeartRateUtils.getInstance().isValidHeartRateValue(heartRate)) {
             setCurrentHeartRate(heartRate, timestamp);
         }
-        int steps = sample.getSteps();
         if (steps > 0) {
             addEntries(steps, timestamp);
         }
@@ -286,6 +311,12 @@ public class LiveActivityFragment extends AbstractChartFragment {
         mMaxHeartRateView = rootView.findViewById(R.id.livechart_max_heart_rate);
 
         LocalBroadcastManager.getInstance(getActivity()).registerReceiver(mReceiver, filterLocal);
+        GBDevice device = getChartsHost().getDevice();
+        if (device != null) {
+            mRecorder = RealtimeSampleRecorder.getInstance(device);
+            replayHeartRates(mRecorder);
+            mRecorder.addListener(mRecorderListener);
+        }
 
         return rootView;
     }
@@ -347,7 +378,7 @@ public class LiveActivityFragment extends AbstractChartFragment {
         renderCharts();
 
         // have to enable it again and again to keep it measuring
-        GBApplication.deviceService().onEnableRealtimeHeartRateMeasurement(true);
+        GBApplication.deviceService().onEnableRealtimeHeartRateMeasurement(getChartsHost().getDevice(), true);
     }
 
     private int getPulseIntervalMillis() {
@@ -366,8 +397,9 @@ public class LiveActivityFragment extends AbstractChartFragment {
             return;
         }
 
-        GBApplication.deviceService().onEnableRealtimeSteps(enable);
-        GBApplication.deviceService().onEnableRealtimeHeartRateMeasurement(enable);
+        GBDevice device = getChartsHost().getDevice();
+        GBApplication.deviceService().onEnableRealtimeSteps(device, enable);
+        GBApplication.deviceService().onEnableRealtimeHeartRateMeasurement(device, enable);
         if (enable) {
             if (getActivity() != null) {
                 getActivity().getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
@@ -391,9 +423,32 @@ public class LiveActivityFragment extends AbstractChartFragment {
     public void onDestroyView() {
         onMadeInvisibleInActivity();
         LocalBroadcastManager.getInstance(getActivity()).unregisterReceiver(mReceiver);
+        if (mRecorder != null) {
+            mRecorder.removeListener(mRecorderListener);
+            mRecorder = null;
+        }
         super.onDestroyView();
     }
 
+    /**
+     * Shows the heart rates of the last minutes again, e.g. when returning to the live
+     * activity while the device is still measuring.
+     */
+    private void replayHeartRates(RealtimeSampleRecorder recorder) {
+        int since = (int) (System.currentTimeMillis() / 1000) - HEART_RATE_REPLAY_SECONDS;
+        recorder.visitSince(since, new RealtimeSampleRecorder.Listener() {
+            @Override
+            public void onRealtimeSample(int sampleTimestamp, int heartRate, int steps) {
+                if (HeartRateUtils.getInstance().isValidHeartRateValue(heartRate)) {
+                    int timestamp = tsTranslation.shorten(sampleTimestamp);
+                    setCurrentHeartRate(heartRate, timestamp);
+                    mHeartRateSet.addEntry(new Entry(timestamp, heartRate));
+                }
+            }
+        });
+        mHeartRate = -1; // already in the history
+    }
+
     private BarDataSet setupCurrentChart(CustomBarChart chart, BarEntry entry, String title) {
         mStepsPerMinuteCurrentChart.getAxisLeft().setAxisMaximum(MAX_STEPS_PER_MINUTE);
         return setupCommonChart(chart, entry, title);
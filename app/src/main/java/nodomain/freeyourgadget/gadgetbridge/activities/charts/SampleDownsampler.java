@@ -0,0 +1,163 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.activities.charts;
+
+import java.util.Arrays;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
+import nodomain.freeyourgadget.gadgetbridge.model.SampleColumns;
+
+/**
+ * Reduces the samples of a line chart to what can actually be seen at a given resolution.
+ * <p/>
+ * The time range is split into buckets, usually one per horizontal pixel. Within a bucket,
+ * every run of samples with the same activity kind is reduced to its first and last sample,
+ * and the samples with the minimum and maximum intensity and valid heart rate (min/max
+ * bucketing per activity kind). So the kind changes, which the charts draw as edges, stay
+ * exactly where they were, as do the peaks.
+ * <p/>
+ * Buckets inside the optional detail range are sized to that range instead of the whole
+ * one, so that a zoomed in chart only needs to be downsampled again, not re-queried.
+ */
+public class SampleDownsampler {
+    // at most first, last, min/max intensity and min/max heart rate of a run
+    private static final int MAX_POINTS_PER_RUN = 6;
+
+    private final SampleColumns samples;
+    private final SampleColumns result;
+    private final HeartRateUtils heartRateUtils = HeartRateUtils.getInstance();
+
+    private final int[] points = new int[MAX_POINTS_PER_RUN];
+    private int runFirst = -1;
+    private int runLast;
+    private int runMinIntensity;
+    private int runMaxIntensity;
+    private int runMinHeartRate;
+    private int runMaxHeartRate;
+
+    private SampleDownsampler(SampleColumns samples, int capacity) {
+        this.samples = samples;
+        result = new SampleColumns(capacity);
+    }
+
+    /**
+     * Downsamples the whole range evenly, see #downsample(SampleColumns, int, int, int).
+     */
+    public static SampleColumns downsample(SampleColumns samples, int buckets) {
+        return downsample(samples, buckets, 0, -1);
+    }
+
+    /**
+     * @param samples      the samples, ascending by timestamp
+     * @param buckets      the number of buckets over the whole range, and over the detail
+     *                     range, e.g. the width of the chart in pixels
+     * @param detailFrom   the start of the detail range, e.g. of the visible part of a
+     *                     zoomed chart
+     * @param detailTo     the end of the detail range, less than detailFrom for none
+     * @return the given samples if they are few enough already, a reduced copy otherwise.
+     * The first and the last sample are always kept.
+     */
+    public static SampleColumns downsample(SampleColumns samples, int buckets, int detailFrom, int detailTo) {
+        if (buckets <= 0 || samples.size() <= 2 * buckets) {
+            return samples;
+        }
+        int from = samples.getTimestamp(0);
+        int to = samples.getTimestamp(samples.size() - 1);
+        int width = Math.max(1, (to - from) / buckets);
+        int detailWidth = Math.max(1, (detailTo - detailFrom) / buckets);
+        if (detailTo < detailFrom || detailWidth >= width) {
+            detailFrom = 0;
+            detailTo = -1;
+        }
+
+        SampleDownsampler downsampler = new SampleDownsampler(samples, 4 * buckets);
+        long lastBucket = Long.MIN_VALUE;
+        int lastKind = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            int timestamp = samples.getTimestamp(i);
+            long bucket;
+            if (timestamp >= detailFrom && timestamp <= detailTo) {
+                // keep detail buckets apart from the regular ones they overlap
+                bucket = ((long) ((timestamp - detailFrom) / detailWidth) << 1) | 1;
+            } else {
+                bucket = (long) ((timestamp - from) / width) << 1;
+            }
+            int kind = samples.getKind(i);
+            if (bucket != lastBucket || kind != lastKind) {
+                downsampler.flushRun();
+                lastBucket = bucket;
+                lastKind = kind;
+            }
+            downsampler.add(i);
+        }
+        downsampler.flushRun();
+        return downsampler.result;
+    }
+
+    private void add(int index) {
+        if (runFirst < 0) {
+            runFirst = index;
+            runMinIntensity = index;
+            runMaxIntensity = index;
+            runMinHeartRate = -1;
+            runMaxHeartRate = -1;
+        } else {
+            float intensity = samples.getIntensity(index);
+            if (intensity < samples.getIntensity(runMinIntensity)) {
+                runMinIntensity = index;
+            } else if (intensity > samples.getIntensity(runMaxIntensity)) {
+                runMaxIntensity = index;
+            }
+        }
+        int heartRate = samples.getHeartRate(index);
+        if (heartRateUtils.isValidHeartRateValue(heartRate)) {
+            if (runMinHeartRate < 0 || heartRate < samples.getHeartRate(runMinHeartRate)) {
+                runMinHeartRate = index;
+            }
+            if (runMaxHeartRate < 0 || heartRate > samples.getHeartRate(runMaxHeartRate)) {
+                runMaxHeartRate = index;
+            }
+        }
+        runLast = index;
+    }
+
+    private void flushRun() {
+        if (runFirst < 0) {
+            return;
+        }
+        int count = 0;
+        points[count++] = runFirst;
+        points[count++] = runLast;
+        points[count++] = runMinIntensity;
+        points[count++] = runMaxIntensity;
+        if (runMinHeartRate >= 0) {
+            points[count++] = runMinHeartRate;
+            points[count++] = runMaxHeartRate;
+        }
+        Arrays.sort(points, 0, count);
+        int previous = -1;
+        for (int i = 0; i < count; i++) {
+            int index = points[i];
+            if (index != previous) {
+                result.add(samples.getTimestamp(index), samples.getKind(index), samples.getRawKind(index),
+                        samples.getSteps(index), samples.getIntensity(index), samples.getHeartRate(index));
+                previous = index;
+            }
+        }
+        runFirst = -1;
+    }
+}
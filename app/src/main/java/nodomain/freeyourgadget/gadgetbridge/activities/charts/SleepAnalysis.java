@@ -20,8 +20,12 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.SampleColumns;
 
 public class SleepAnalysis {
 
@@ -29,29 +33,61 @@ public class SleepAnalysis {
     public static final long MAX_WAKE_PHASE_LENGTH = 2 * 60 * 60;
 
     public List<SleepSession> calculateSleepSessions(List<? extends ActivitySample> samples) {
-        List<SleepSession> result = new ArrayList<>();
+        SessionCalculator calculator = new SessionCalculator();
+        for (ActivitySample sample : samples) {
+            calculator.visit(sample);
+        }
+        return calculator.getResult();
+    }
 
-        ActivitySample previousSample = null;
-        Date sleepStart = null;
-        Date sleepEnd = null;
-        long lightSleepDuration = 0;
-        long deepSleepDuration = 0;
-        long durationSinceLastSleep = 0;
+    public List<SleepSession> calculateSleepSessions(SampleColumns samples) {
+        SessionCalculator calculator = new SessionCalculator();
+        for (int i = 0; i < samples.size(); i++) {
+            calculator.add(samples.getTimestamp(i), samples.getKind(i));
+        }
+        return calculator.getResult();
+    }
 
-        for (ActivitySample sample : samples) {
-            if (isSleep(sample)) {
+    /**
+     * Like #calculateSleepSessions(List), but streams the samples from the provider
+     * instead of loading them all into memory.
+     */
+    public List<SleepSession> calculateSleepSessions(SampleProvider<? extends AbstractActivitySample> provider, int timestamp_from, int timestamp_to) {
+        SessionCalculator calculator = new SessionCalculator();
+        provider.visitAllActivitySamples(timestamp_from, timestamp_to, calculator);
+        return calculator.getResult();
+    }
+
+    private class SessionCalculator implements SampleVisitor<ActivitySample> {
+        private final List<SleepSession> result = new ArrayList<>();
+
+        private boolean hasPreviousSample = false;
+        private int previousTimestamp;
+        private Date sleepStart = null;
+        private Date sleepEnd = null;
+        private long lightSleepDuration = 0;
+        private long deepSleepDuration = 0;
+        private long durationSinceLastSleep = 0;
+
+        @Override
+        public void visit(ActivitySample sample) {
+            add(sample.getTimestamp(), sample.getKind());
+        }
+
+        void add(int timestamp, int kind) {
+            if (isSleep(kind)) {
                 if (sleepStart == null)
-                    sleepStart = getDateFromSample(sample);
-                sleepEnd = getDateFromSample(sample);
+                    sleepStart = getDateFromTimestamp(timestamp);
+                sleepEnd = getDateFromTimestamp(timestamp);
 
                 durationSinceLastSleep = 0;
             }
 
-            if (previousSample != null) {
-                long durationSinceLastSample = sample.getTimestamp() - previousSample.getTimestamp();
-                if (sample.getKind() == ActivityKind.TYPE_LIGHT_SLEEP) {
+            if (hasPreviousSample) {
+                long durationSinceLastSample = timestamp - previousTimestamp;
+                if (kind == ActivityKind.TYPE_LIGHT_SLEEP) {
                     lightSleepDuration += durationSinceLastSample;
-                } else if (sample.getKind() == ActivityKind.TYPE_DEEP_SLEEP) {
+                } else if (kind == ActivityKind.TYPE_DEEP_SLEEP) {
                     deepSleepDuration += durationSinceLastSample;
                 } else {
                     durationSinceLastSleep += durationSinceLastSample;
@@ -66,20 +102,24 @@ public class SleepAnalysis {
                 }
             }
 
-            previousSample = sample;
+            hasPreviousSample = true;
+            previousTimestamp = timestamp;
         }
-        if (lightSleepDuration + deepSleepDuration > MIN_SESSION_LENGTH) {
-            result.add(new SleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration));
+
+        List<SleepSession> getResult() {
+            if (lightSleepDuration + deepSleepDuration > MIN_SESSION_LENGTH) {
+                result.add(new SleepSession(sleepStart, sleepEnd, lightSleepDuration, deepSleepDuration));
+            }
+            return result;
         }
-        return result;
     }
 
-    private boolean isSleep(ActivitySample sample) {
-        return sample.getKind() == ActivityKind.TYPE_DEEP_SLEEP || sample.getKind() == ActivityKind.TYPE_LIGHT_SLEEP;
+    private boolean isSleep(int kind) {
+        return kind == ActivityKind.TYPE_DEEP_SLEEP || kind == ActivityKind.TYPE_LIGHT_SLEEP;
     }
 
-    private Date getDateFromSample(ActivitySample sample) {
-        return new Date(sample.getTimestamp() * 1000L);
+    private Date getDateFromTimestamp(int timestamp) {
+        return new Date(timestamp * 1000L);
     }
 
 
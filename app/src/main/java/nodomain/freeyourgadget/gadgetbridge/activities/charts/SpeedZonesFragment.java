@@ -35,7 +35,6 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
@@ -43,6 +42,7 @@ import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityUser;
+import nodomain.freeyourgadget.gadgetbridge.model.SampleColumns;
 
 
 public class SpeedZonesFragment extends AbstractChartFragment {
@@ -52,14 +52,14 @@ public class SpeedZonesFragment extends AbstractChartFragment {
 
     @Override
     protected ChartsData refreshInBackground(ChartsHost chartsHost, DBHandler db, GBDevice device) {
-        List<? extends ActivitySample> samples = getSamples(db, device);
+        SampleColumns samples = getSampleColumns(db, device);
 
         MySpeedZonesData mySpeedZonesData = refreshStats(samples);
 
         return new MyChartsData(mySpeedZonesData);
     }
 
-    private MySpeedZonesData refreshStats(List<? extends ActivitySample> samples) {
+    private MySpeedZonesData refreshStats(SampleColumns samples) {
         ActivityAnalysis analysis = new ActivityAnalysis();
         analysis.calculateActivityAmounts(samples);
         BarData data = new BarData();
@@ -74,8 +74,11 @@ public class SpeedZonesFragment extends AbstractChartFragment {
             distanceFactorCm = user.getHeightCm() * user.GENDER_FEMALE_DISTANCE_FACTOR / 1000;
         }*/
 
-        for (Map.Entry<Integer, Long> entry : analysis.stats.entrySet()) {
-            entries.add(new BarEntry(entry.getKey(), entry.getValue() / 60));
+        for (int steps = 0; steps <= analysis.getMaxSpeed(); steps++) {
+            long seconds = analysis.getSpeedZoneSeconds(steps);
+            if (seconds != 0) {
+                entries.add(new BarEntry(steps, seconds / 60));
+            }
         }
 
         BarDataSet set = new BarDataSet(entries, "");
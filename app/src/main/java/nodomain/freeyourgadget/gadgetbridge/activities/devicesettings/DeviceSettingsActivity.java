@@ -49,7 +49,7 @@ public class DeviceSettingsActivity extends AbstractGBActivity implements
             Fragment fragment = getSupportFragmentManager().findFragmentByTag(DeviceSpecificSettingsFragment.FRAGMENT_TAG);
             if (fragment == null) {
                 DeviceCoordinator coordinator = DeviceHelper.getInstance().getCoordinator(device);
-                fragment = DeviceSpecificSettingsFragment.newInstance(device.getAddress(), coordinator.getSupportedDeviceSpecificSettings(device));
+                fragment = DeviceSpecificSettingsFragment.newInstance(device, coordinator.getSupportedDeviceSpecificSettings(device));
             }
             getSupportFragmentManager()
                     .beginTransaction()
@@ -63,7 +63,7 @@ public class DeviceSettingsActivity extends AbstractGBActivity implements
     public boolean onPreferenceStartScreen(PreferenceFragmentCompat caller, PreferenceScreen preferenceScreen) {
         DeviceCoordinator coordinator = DeviceHelper.getInstance().getCoordinator(device);
 
-        PreferenceFragmentCompat fragment = DeviceSpecificSettingsFragment.newInstance(device.getAddress(), coordinator.getSupportedDeviceSpecificSettings(device));
+        PreferenceFragmentCompat fragment = DeviceSpecificSettingsFragment.newInstance(device, coordinator.getSupportedDeviceSpecificSettings(device));
         Bundle args = fragment.getArguments();
         args.putString(PreferenceFragmentCompat.ARG_PREFERENCE_ROOT, preferenceScreen.getKey());
         fragment.setArguments(args);
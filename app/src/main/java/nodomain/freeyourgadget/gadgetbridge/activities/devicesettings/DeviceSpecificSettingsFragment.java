@@ -35,6 +35,7 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiConst;
 import nodomain.freeyourgadget.gadgetbridge.devices.makibeshr3.MakibesHR3Constants;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandConst;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 import nodomain.freeyourgadget.gadgetbridge.util.XTimePreference;
 import nodomain.freeyourgadget.gadgetbridge.util.XTimePreferenceFragment;
@@ -72,8 +73,11 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
 
     static final String FRAGMENT_TAG = "DEVICE_SPECIFIC_SETTINGS_FRAGMENT";
 
-    private void setSettingsFileSuffix(String settingsFileSuffix, @NonNull int[] supportedSettings) {
+    private GBDevice device;
+
+    private void setSettingsFileSuffix(GBDevice device, String settingsFileSuffix, @NonNull int[] supportedSettings) {
         Bundle args = new Bundle();
+        args.putParcelable(GBDevice.EXTRA_DEVICE, device);
         args.putString("settingsFileSuffix", settingsFileSuffix);
         args.putIntArray("supportedSettings", supportedSettings);
         setArguments(args);
@@ -86,6 +90,7 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
         if (arguments == null) {
             return;
         }
+        device = arguments.getParcelable(GBDevice.EXTRA_DEVICE);
         String settingsFileSuffix = arguments.getString("settingsFileSuffix", null);
         int[] supportedSettings = arguments.getIntArray("supportedSettings");
         if (settingsFileSuffix == null || supportedSettings == null) {
@@ -140,7 +145,7 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
                     invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            GBApplication.deviceService().onSendConfiguration(PREF_DISCONNECT_NOTIFICATION_START);
+                            GBApplication.deviceService().onSendConfiguration(device, PREF_DISCONNECT_NOTIFICATION_START);
                         }
                     });
                     return true;
@@ -157,7 +162,7 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
                     invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            GBApplication.deviceService().onSendConfiguration(PREF_DISCONNECT_NOTIFICATION_END);
+                            GBApplication.deviceService().onSendConfiguration(device, PREF_DISCONNECT_NOTIFICATION_END);
                         }
                     });
                     return true;
@@ -177,7 +182,7 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
                     invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            GBApplication.deviceService().onSendConfiguration(PREF_DISCONNECT_NOTIFICATION);
+                            GBApplication.deviceService().onSendConfiguration(device, PREF_DISCONNECT_NOTIFICATION);
                         }
                     });
                     return true;
@@ -198,7 +203,7 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
                     invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            GBApplication.deviceService().onSendConfiguration(PREF_NIGHT_MODE_START);
+                            GBApplication.deviceService().onSendConfiguration(device, PREF_NIGHT_MODE_START);
                         }
                     });
                     return true;
@@ -215,7 +220,7 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
                     invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            GBApplication.deviceService().onSendConfiguration(PREF_NIGHT_MODE_END);
+                            GBApplication.deviceService().onSendConfiguration(device, PREF_NIGHT_MODE_END);
                         }
                     });
                     return true;
@@ -237,7 +242,7 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
                     invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            GBApplication.deviceService().onSendConfiguration(PREF_NIGHT_MODE);
+                            GBApplication.deviceService().onSendConfiguration(device, PREF_NIGHT_MODE);
                         }
                     });
                     return true;
@@ -258,7 +263,7 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
                     invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            GBApplication.deviceService().onSendConfiguration(PREF_DO_NOT_DISTURB_START);
+                            GBApplication.deviceService().onSendConfiguration(device, PREF_DO_NOT_DISTURB_START);
                         }
                     });
                     return true;
@@ -275,7 +280,7 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
                     invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            GBApplication.deviceService().onSendConfiguration(PREF_DO_NOT_DISTURB_END);
+                            GBApplication.deviceService().onSendConfiguration(device, PREF_DO_NOT_DISTURB_END);
                         }
                     });
                     return true;
@@ -296,7 +301,7 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
                     invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            GBApplication.deviceService().onSendConfiguration(PREF_DO_NOT_DISTURB);
+                            GBApplication.deviceService().onSendConfiguration(device, PREF_DO_NOT_DISTURB);
                         }
                     });
                     return true;
@@ -326,7 +331,7 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
                     invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            GBApplication.deviceService().onSendConfiguration(PREF_MI2_ROTATE_WRIST_TO_SWITCH_INFO);
+                            GBApplication.deviceService().onSendConfiguration(device, PREF_MI2_ROTATE_WRIST_TO_SWITCH_INFO);
                         }
                     });
                     return true;
@@ -343,7 +348,7 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
                     invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            GBApplication.deviceService().onSendConfiguration(PREF_DISPLAY_ON_LIFT_START);
+                            GBApplication.deviceService().onSendConfiguration(device, PREF_DISPLAY_ON_LIFT_START);
                         }
                     });
                     return true;
@@ -360,7 +365,7 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
                     invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            GBApplication.deviceService().onSendConfiguration(PREF_DISPLAY_ON_LIFT_END);
+                            GBApplication.deviceService().onSendConfiguration(device, PREF_DISPLAY_ON_LIFT_END);
                         }
                     });
                     return true;
@@ -382,7 +387,7 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
                     invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            GBApplication.deviceService().onSendConfiguration(PREF_ACTIVATE_DISPLAY_ON_LIFT);
+                            GBApplication.deviceService().onSendConfiguration(device, PREF_ACTIVATE_DISPLAY_ON_LIFT);
                         }
                     });
                     return true;
@@ -398,9 +403,9 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
         setInputTypeFor(DeviceSettingsPreferenceConst.PREF_RESERVER_ALARMS_CALENDAR, InputType.TYPE_CLASS_NUMBER);
     }
 
-    static DeviceSpecificSettingsFragment newInstance(String settingsFileSuffix, @NonNull int[] supportedSettings) {
+    static DeviceSpecificSettingsFragment newInstance(GBDevice device, @NonNull int[] supportedSettings) {
         DeviceSpecificSettingsFragment fragment = new DeviceSpecificSettingsFragment();
-        fragment.setSettingsFileSuffix(settingsFileSuffix, supportedSettings);
+        fragment.setSettingsFileSuffix(device, device.getAddress(), supportedSettings);
 
         return fragment;
     }
@@ -430,7 +435,7 @@ public class DeviceSpecificSettingsFragment extends PreferenceFragmentCompat {
                     invokeLater(new Runnable() {
                         @Override
                         public void run() {
-                            GBApplication.deviceService().onSendConfiguration(preferenceKey);
+                            GBApplication.deviceService().onSendConfiguration(device, preferenceKey);
                         }
                     });
                     return true;
@@ -24,6 +24,10 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
+/**
+ * Runs a task in the background with read-only database access, see
+ * GBApplication#acquireReadDB().
+ */
 public abstract class DBAccess extends AsyncTask {
     private final String mTask;
     private final Context mContext;
@@ -42,7 +46,7 @@ public abstract class DBAccess extends AsyncTask {
 
     @Override
     protected Object doInBackground(Object[] params) {
-        try (DBHandler db = GBApplication.acquireDB()) {
+        try (DBHandler db = GBApplication.acquireReadDB()) {
             doInBackground(db);
         } catch (Exception e) {
             mError = e;
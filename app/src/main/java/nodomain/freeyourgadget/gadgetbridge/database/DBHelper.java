@@ -19,8 +19,11 @@ package nodomain.freeyourgadget.gadgetbridge.database;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -79,6 +82,7 @@ import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
  */
 public class DBHelper {
     private static final Logger LOG = LoggerFactory.getLogger(DBHelper.class);
+    private static final long SNAPSHOT_WRITE_LOCK_TIMEOUT_MILLIS = 10000;
 
     private final Context context;
 
@@ -105,48 +109,189 @@ public class DBHelper {
         return path;
     }
 
+    /**
+     * Exports a snapshot of the database into the given directory. The database stays
+     * open and usable during the export, see #createSnapshot(DBHandler, File).
+     *
+     * @param dbHandler a read or write handler of the database
+     * @return the exported file
+     */
     public File exportDB(DBHandler dbHandler, File toDir) throws IllegalStateException, IOException {
-        String dbPath = getClosedDBPath(dbHandler);
+        File sourceFile = new File(dbHandler.getDatabase().getPath());
+        File destFile = new File(toDir, sourceFile.getName());
+        if (!toDir.exists()) {
+            if (!toDir.mkdirs()) {
+                throw new IOException("Unable to create directory: " + toDir.getAbsolutePath());
+            }
+        }
+        // snapshot next to the destination, so that it only needs to be renamed
+        File tempFile = new File(toDir, destFile.getName() + ".tmp");
         try {
-            File sourceFile = new File(dbPath);
-            File destFile = new File(toDir, sourceFile.getName());
+            createSnapshot(dbHandler, tempFile);
             if (destFile.exists()) {
                 File backup = new File(toDir, destFile.getName() + "_" + getDate());
                 destFile.renameTo(backup);
-            } else if (!toDir.exists()) {
-                if (!toDir.mkdirs()) {
-                    throw new IOException("Unable to create directory: " + toDir.getAbsolutePath());
-                }
             }
-
-            FileUtils.copyFile(sourceFile, destFile);
+            if (!tempFile.renameTo(destFile)) {
+                FileUtils.copyFile(tempFile, destFile);
+            }
             return destFile;
         } finally {
-            dbHandler.openDb();
+            SQLiteDatabase.deleteDatabase(tempFile);
         }
     }
 
     public void exportDB(DBHandler dbHandler, OutputStream dest) throws IOException {
-        String dbPath = getClosedDBPath(dbHandler);
+        exportDB(dbHandler, dest, null);
+    }
+
+    /**
+     * Exports a snapshot of the database to the given stream. The database stays open
+     * and usable during the export, see #createSnapshot(DBHandler, File).
+     *
+     * @param dbHandler a read or write handler of the database
+     * @param listener notified about the progress of writing to the stream, may be null
+     */
+    public void exportDB(DBHandler dbHandler, OutputStream dest, @Nullable FileUtils.CopyProgressListener listener) throws IOException {
+        File tempFile = File.createTempFile("export", ".db", context.getCacheDir());
+        try {
+            createSnapshot(dbHandler, tempFile);
+            long start = SystemClock.elapsedRealtime();
+            FileUtils.copyFileToStream(tempFile, dest, listener);
+            logThroughput("Wrote export", tempFile.length(), start);
+        } finally {
+            SQLiteDatabase.deleteDatabase(tempFile);
+        }
+    }
+
+    /**
+     * Writes a consistent copy of the live database into the given file, without closing
+     * the database. With VACUUM INTO (SQLite 3.27 and later), neither readers nor the
+     * writer have to wait. Otherwise the database file and its write-ahead log are copied
+     * while holding the writer lane, which blocks writers for the time of a local copy.
+     */
+    void createSnapshot(DBHandler dbHandler, File destFile) throws IOException {
+        SQLiteDatabase db = dbHandler.getDatabase();
+        String dbPath = db.getPath();
+        SQLiteDatabase.deleteDatabase(destFile);
+        long start = SystemClock.elapsedRealtime();
+        if (supportsVacuumInto(db)) {
+            try {
+                vacuumInto(dbPath, destFile);
+                logThroughput("Created snapshot with VACUUM INTO", destFile.length(), start);
+                return;
+            } catch (SQLiteException ex) {
+                LOG.warn("VACUUM INTO failed, copying the database file instead", ex);
+                SQLiteDatabase.deleteDatabase(destFile);
+            }
+        }
+        copyDatabaseFiles(dbPath, destFile);
+        logThroughput("Created snapshot by copying", destFile.length(), start);
+    }
+
+    private static boolean supportsVacuumInto(SQLiteDatabase db) {
+        String version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null);
+        String[] parts = version.split("\\.");
         try {
-            File source = new File(dbPath);
-            FileUtils.copyFileToStream(source, dest);
+            int major = Integer.parseInt(parts[0]);
+            int minor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return major > 3 || (major == 3 && minor >= 27);
+        } catch (NumberFormatException ex) {
+            LOG.warn("Unexpected SQLite version: " + version);
+            return false;
+        }
+    }
+
+    private static void vacuumInto(String dbPath, File destFile) {
+        // a connection of its own, so that it reads a snapshot of the last commit without
+        // keeping the connection of the live database busy
+        try (SQLiteDatabase snapshotDb = SQLiteDatabase.openDatabase(dbPath, null, SQLiteDatabase.OPEN_READONLY)) {
+            snapshotDb.execSQL("VACUUM INTO ?", new Object[] { destFile.getAbsolutePath() });
+        }
+    }
+
+    private static void copyDatabaseFiles(String dbPath, File destFile) throws IOException {
+        File walFile = new File(dbPath + "-wal");
+        File destWalFile = new File(destFile.getPath() + "-wal");
+        DBHandler writeHandler = GBApplication.tryAcquireWriteDB(SNAPSHOT_WRITE_LOCK_TIMEOUT_MILLIS);
+        if (writeHandler == null) {
+            throw new IOException("Database is busy, unable to create a snapshot");
+        }
+        try {
+            // nothing is committed meanwhile, so the database file and the log match
+            FileUtils.copyFile(new File(dbPath), destFile);
+            if (walFile.exists()) {
+                FileUtils.copyFile(walFile, destWalFile);
+            }
         } finally {
-            dbHandler.openDb();
+            writeHandler.close();
+        }
+        if (destWalFile.exists()) {
+            // apply the log to the snapshot, so that it is a single file again
+            try (SQLiteDatabase snapshotDb = SQLiteDatabase.openDatabase(destFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+                 Cursor cursor = snapshotDb.rawQuery("PRAGMA journal_mode=DELETE", null)) {
+                cursor.moveToFirst();
+            }
         }
     }
 
+    private static void logThroughput(String what, long bytes, long startMillis) {
+        long millis = Math.max(SystemClock.elapsedRealtime() - startMillis, 1);
+        LOG.info(what + ": " + bytes + " bytes in " + millis + "ms, " + (bytes * 1000 / millis / 1024) + " KiB/s");
+    }
+
     private String getDate() {
         return new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
     }
 
+    /**
+     * Replaces the database with the given file. The file is copied and checked while
+     * the database is still open, so that it is only closed for renaming the copy.
+     */
     public void importDB(DBHandler dbHandler, File fromFile) throws IllegalStateException, IOException {
-        String dbPath = getClosedDBPath(dbHandler);
+        importDB(dbHandler, fromFile, null);
+    }
+
+    /**
+     * Like #importDB(DBHandler, File), but also replays the chunk files of an incremental
+     * export onto the imported database.
+     *
+     * @param chunkDir the directory of the incremental export, whose base is fromFile, or null
+     * @see IncrementalExporter
+     */
+    public void importDB(DBHandler dbHandler, File fromFile, @Nullable File chunkDir) throws IllegalStateException, IOException {
+        File tempFile = new File(dbHandler.getDatabase().getPath() + "-import");
+        SQLiteDatabase.deleteDatabase(tempFile);
         try {
-            File toFile = new File(dbPath);
-            FileUtils.copyFile(fromFile, toFile);
+            FileUtils.copyFile(fromFile, tempFile);
+            // also turns a database exported in WAL mode into a single file
+            try (SQLiteDatabase importDb = SQLiteDatabase.openDatabase(tempFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE)) {
+                // a base of an incremental export comes with the change tracking, which must
+                // neither record the replay nor continue after the import
+                IncrementalExporter.stopTracking(importDb);
+                if (chunkDir != null) {
+                    IncrementalExporter.replayChunks(importDb, chunkDir);
+                }
+                if (!importDb.isDatabaseIntegrityOk()) {
+                    throw new IOException("Database integrity is not OK: " + fromFile.getAbsolutePath());
+                }
+            }
+
+            String dbPath = getClosedDBPath(dbHandler);
+            try {
+                File toFile = new File(dbPath);
+                // a log left behind would be applied to the imported database
+                new File(dbPath + "-wal").delete();
+                new File(dbPath + "-shm").delete();
+                new File(dbPath + "-journal").delete();
+                if (!tempFile.renameTo(toFile)) {
+                    FileUtils.copyFile(tempFile, toFile);
+                }
+            } finally {
+                dbHandler.openDb();
+            }
         } finally {
-            dbHandler.openDb();
+            SQLiteDatabase.deleteDatabase(tempFile);
         }
     }
 
@@ -220,10 +365,37 @@ public class DBHelper {
             ensureUserUpToDate(user, prefsUser, session);
         }
         ensureUserAttributes(user, prefsUser, session);
+        EntityIdCache.putUserId(getCacheKey(prefsUser), user.getId());
 
         return user;
     }
 
+    /**
+     * Like #getUser(DaoSession), but returns only the id of the user. The database
+     * is only accessed when the user preferences changed since the last call.
+     */
+    public static long getUserId(DaoSession session) {
+        Long id = EntityIdCache.getUserId(getCacheKey(new ActivityUser()));
+        if (id != null) {
+            return id;
+        }
+        return getUser(session).getId();
+    }
+
+    /**
+     * @return the cached id of the user, or null if it has to be looked up, see #getUserId(DaoSession)
+     */
+    static Long getCachedUserId() {
+        return EntityIdCache.getUserId(getCacheKey(new ActivityUser()));
+    }
+
+    private static String getCacheKey(ActivityUser prefsUser) {
+        Date birthday = prefsUser.getUserBirthday();
+        return prefsUser.getName() + '|' + (birthday != null ? birthday.getTime() : 0) + '|' + prefsUser.getGender()
+                + '|' + prefsUser.getHeightCm() + '|' + prefsUser.getWeightKg()
+                + '|' + prefsUser.getSleepDuration() + '|' + prefsUser.getStepsGoal();
+    }
+
     @NonNull
     public static UserAttributes getUserAttributes(User user) {
         List<UserAttributes> list = user.getUserAttributesList();
@@ -380,11 +552,29 @@ public class DBHelper {
         Query<Device> query = deviceDao.queryBuilder().where(DeviceDao.Properties.Identifier.eq(gbDevice.getAddress())).build();
         List<Device> devices = query.list();
         if (devices.size() > 0) {
-            return devices.get(0);
+            Device device = devices.get(0);
+            EntityIdCache.putDeviceId(gbDevice.getAddress(), device.getId());
+            return device;
         }
         return null;
     }
 
+    /**
+     * Like #findDevice(GBDevice, DaoSession), but returns only the id of the device,
+     * and only accesses the database if the id has not been cached before.
+     *
+     * @return the id of the device or null if the device is not in the database
+     */
+    @Nullable
+    public static Long findDeviceId(GBDevice gbDevice, DaoSession session) {
+        Long id = EntityIdCache.getDeviceId(gbDevice.getAddress());
+        if (id != null) {
+            return id;
+        }
+        Device device = findDevice(gbDevice, session);
+        return device != null ? device.getId() : null;
+    }
+
     /**
      * Returns all active (that is, not old, archived ones) from the database.
      * (currently the active handling is not available)
@@ -412,10 +602,24 @@ public class DBHelper {
         if (gbDevice.isInitialized()) {
             ensureDeviceAttributes(device, gbDevice, session);
         }
+        EntityIdCache.putDeviceId(gbDevice.getAddress(), device.getId());
 
         return device;
     }
 
+    /**
+     * Like #getDevice(GBDevice, DaoSession), but returns only the id of the device.
+     * Once the id is cached, this does not update the device entry anymore, that is
+     * left to #getDevice(GBDevice, DaoSession).
+     */
+    public static long getDeviceId(GBDevice gbDevice, DaoSession session) {
+        Long id = EntityIdCache.getDeviceId(gbDevice.getAddress());
+        if (id != null) {
+            return id;
+        }
+        return getDevice(gbDevice, session).getId();
+    }
+
     @NonNull
     public static DeviceAttributes getDeviceAttributes(Device device) {
         List<DeviceAttributes> list = device.getDeviceAttributesList();
@@ -0,0 +1,134 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the database ids of devices (by address) and of the user, so that sample
+ * queries do not need to look them up every time. Only ids are cached, never
+ * entities, because entities are bound to the session that loaded them.
+ * <p>
+ * The cache must be invalidated whenever devices are removed or the whole database
+ * is replaced. DBHelper takes care of additions, and the user id is bound to the
+ * user preferences it was stored for.
+ */
+public class EntityIdCache {
+    private static final Logger LOG = LoggerFactory.getLogger(EntityIdCache.class);
+
+    private static final Map<String, Long> deviceIds = new ConcurrentHashMap<>();
+    private static volatile CachedUser user;
+
+    private static final AtomicLong deviceHits = new AtomicLong();
+    private static final AtomicLong deviceMisses = new AtomicLong();
+    private static final AtomicLong userHits = new AtomicLong();
+    private static final AtomicLong userMisses = new AtomicLong();
+
+    private EntityIdCache() {
+    }
+
+    /**
+     * @return the cached id of the device with the given address, or null
+     */
+    static Long getDeviceId(String address) {
+        Long id = deviceIds.get(address);
+        if (id != null) {
+            deviceHits.incrementAndGet();
+        } else {
+            deviceMisses.incrementAndGet();
+        }
+        return id;
+    }
+
+    static void putDeviceId(String address, Long id) {
+        if (address != null && id != null) {
+            deviceIds.put(address, id);
+        }
+    }
+
+    /**
+     * @param prefsKey describes the user preferences the cached user is up to date with
+     * @return the cached id of the user, or null if the user preferences changed since
+     */
+    static Long getUserId(String prefsKey) {
+        CachedUser cachedUser = user;
+        if (cachedUser != null && cachedUser.prefsKey.equals(prefsKey)) {
+            userHits.incrementAndGet();
+            return cachedUser.id;
+        }
+        userMisses.incrementAndGet();
+        return null;
+    }
+
+    static void putUserId(String prefsKey, Long id) {
+        if (id != null) {
+            user = new CachedUser(prefsKey, id);
+        }
+    }
+
+    /**
+     * Must be called when the device with the given address has been deleted.
+     */
+    public static void invalidateDevice(String address) {
+        deviceIds.remove(address);
+    }
+
+    /**
+     * Must be called when the database is closed, e.g. to import another one.
+     */
+    public static void invalidateAll() {
+        LOG.info("Invalidating entity id cache, " + getStatistics());
+        deviceIds.clear();
+        user = null;
+    }
+
+    public static long getDeviceHits() {
+        return deviceHits.get();
+    }
+
+    public static long getDeviceMisses() {
+        return deviceMisses.get();
+    }
+
+    public static long getUserHits() {
+        return userHits.get();
+    }
+
+    public static long getUserMisses() {
+        return userMisses.get();
+    }
+
+    public static String getStatistics() {
+        return "devices: " + deviceIds.size() + " cached, " + getDeviceHits() + " hits, " + getDeviceMisses() + " misses; "
+                + "user: " + getUserHits() + " hits, " + getUserMisses() + " misses";
+    }
+
+    private static class CachedUser {
+        private final String prefsKey;
+        private final Long id;
+
+        CachedUser(String prefsKey, Long id) {
+            this.prefsKey = prefsKey;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,516 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.GBException;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
+
+/**
+ * Exports the database incrementally into a directory: a full snapshot as base
+ * (#BASE_FILE_NAME), followed by compact chunk files containing only what changed
+ * since the previous export.
+ * <p>
+ * Changes are recorded by triggers into the #CHANGE_TABLE, coalesced per table,
+ * device and hour of the TIMESTAMP column. Tables without DEVICE_ID and TIMESTAMP
+ * columns are small and recorded as a whole. A chunk contains the current rows of
+ * all recorded ranges, so replaying it replaces these ranges, including deletions.
+ * <p>
+ * A new base is written whenever the change tracking is missing, e.g. after
+ * importing a database, or the schema version differs from the one of the base.
+ */
+public class IncrementalExporter {
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalExporter.class);
+
+    public static final String EXPORT_DIR_NAME = "incremental-export";
+    public static final String BASE_FILE_NAME = "base.db";
+    static final String CHANGE_TABLE = "EXPORT_CHANGE";
+
+    private static final String TRIGGER_PREFIX = "EXPORT_";
+    private static final String CHUNK_PREFIX = "chunk-";
+    private static final String CHUNK_SUFFIX = ".gbc";
+    private static final int CHUNK_MAGIC = 0x47424331; // "GBC1"
+    private static final int HOUR = 60 * 60;
+
+    private static final byte RECORD_END = 0;
+    private static final byte RECORD_RANGE = 1;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_INTEGER = 1;
+    private static final byte VALUE_FLOAT = 2;
+    private static final byte VALUE_STRING = 3;
+    private static final byte VALUE_BLOB = 4;
+
+    private final DBHelper dbHelper;
+
+    public IncrementalExporter(Context context) {
+        dbHelper = new DBHelper(context);
+    }
+
+    public static File getExportDir() throws IOException {
+        return new File(FileUtils.getExternalFilesDir(), EXPORT_DIR_NAME);
+    }
+
+    /**
+     * @return true if the given directory contains an incremental export
+     */
+    public static boolean hasExport(File dir) {
+        return new File(dir, BASE_FILE_NAME).exists();
+    }
+
+    /**
+     * Writes the changes since the last export as a new chunk file into the given
+     * directory, or a new base if necessary.
+     *
+     * @return the written file, or null if nothing changed since the last export
+     */
+    public File export(File dir) throws IOException, GBException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory: " + dir.getAbsolutePath());
+        }
+        File baseFile = new File(dir, BASE_FILE_NAME);
+        try (DBHandler dbHandler = GBApplication.acquireWriteDB()) {
+            SQLiteDatabase db = dbHandler.getDatabase();
+            if (baseFile.exists() && isTracking(db) && getVersion(baseFile) == db.getVersion()) {
+                return writeChunk(db, dir);
+            }
+            // changes made from now on are contained in the base, in a chunk, or both
+            startTracking(db);
+        }
+        return writeBase(dir);
+    }
+
+    /**
+     * Removes the change tracking, when incremental export is not used (anymore).
+     */
+    public static void disable() throws GBException {
+        try (DBHandler dbHandler = GBApplication.acquireWriteDB()) {
+            SQLiteDatabase db = dbHandler.getDatabase();
+            if (isTracking(db)) {
+                stopTracking(db);
+            }
+        }
+    }
+
+    private File writeBase(File dir) throws IOException, GBException {
+        File baseFile = new File(dir, BASE_FILE_NAME);
+        File tempFile = new File(dir, BASE_FILE_NAME + ".tmp");
+        try (DBHandler dbHandler = GBApplication.acquireReadDB()) {
+            dbHelper.createSnapshot(dbHandler, tempFile);
+        }
+        // without the old base, the old chunks are never replayed onto the new one,
+        // even if we are interrupted in between
+        SQLiteDatabase.deleteDatabase(baseFile);
+        for (File chunk : getChunkFiles(dir)) {
+            if (!chunk.delete()) {
+                throw new IOException("Unable to delete " + chunk.getAbsolutePath());
+            }
+        }
+        if (!tempFile.renameTo(baseFile)) {
+            throw new IOException("Unable to rename " + tempFile.getAbsolutePath());
+        }
+        LOG.info("Wrote new base of incremental export: " + baseFile.length() + " bytes");
+        return baseFile;
+    }
+
+    /**
+     * Writes all recorded changes into a new chunk file and clears them. Must be called
+     * with the writer lane held, so that no changes get lost in between.
+     *
+     * @return the chunk file, or null if there were no changes
+     */
+    static File writeChunk(SQLiteDatabase db, File dir) throws IOException {
+        db.beginTransaction();
+        try {
+            List<ChangeRange> ranges = readChanges(db);
+            if (ranges.isEmpty()) {
+                db.setTransactionSuccessful();
+                return null;
+            }
+            File chunkFile = new File(dir, String.format(Locale.US, "%s%06d%s", CHUNK_PREFIX, getNextChunkNumber(dir), CHUNK_SUFFIX));
+            File tempFile = new File(dir, chunkFile.getName() + ".tmp");
+            int rows = 0;
+            try (FileOutputStream fileOut = new FileOutputStream(tempFile)) {
+                GZIPOutputStream gzipOut = new GZIPOutputStream(new BufferedOutputStream(fileOut));
+                DataOutputStream out = new DataOutputStream(gzipOut);
+                out.writeInt(CHUNK_MAGIC);
+                out.writeInt(db.getVersion());
+                for (ChangeRange range : ranges) {
+                    rows += writeRange(db, range, out);
+                }
+                out.writeByte(RECORD_END);
+                gzipOut.finish();
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            if (!tempFile.renameTo(chunkFile)) {
+                tempFile.delete();
+                throw new IOException("Unable to rename " + tempFile.getAbsolutePath());
+            }
+            db.delete(CHANGE_TABLE, null, null);
+            db.setTransactionSuccessful();
+            LOG.info("Wrote " + chunkFile.getName() + ": " + ranges.size() + " ranges, " + rows + " rows, " + chunkFile.length() + " bytes");
+            return chunkFile;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Applies all chunk files of the given directory in order to the given database,
+     * which must have been restored from the base of the same directory.
+     */
+    public static void replayChunks(SQLiteDatabase db, File dir) throws IOException {
+        for (File chunkFile : getChunkFiles(dir)) {
+            db.beginTransaction();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(chunkFile))))) {
+                if (in.readInt() != CHUNK_MAGIC) {
+                    throw new IOException("Not a chunk file: " + chunkFile.getAbsolutePath());
+                }
+                int version = in.readInt();
+                if (version != db.getVersion()) {
+                    throw new IOException("Schema version " + version + " of " + chunkFile.getName() + " does not match " + db.getVersion());
+                }
+                while (in.readByte() == RECORD_RANGE) {
+                    replayRange(db, in);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            LOG.info("Replayed " + chunkFile.getName());
+        }
+    }
+
+    static boolean isTracking(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT count(*) FROM sqlite_master WHERE type='table' AND name=?", new String[] { CHANGE_TABLE }) > 0;
+    }
+
+    static void startTracking(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + CHANGE_TABLE + " (TABLE_NAME TEXT NOT NULL, DEVICE_ID INTEGER NOT NULL, "
+                    + "HOUR INTEGER NOT NULL, PRIMARY KEY (TABLE_NAME, DEVICE_ID, HOUR))");
+            db.delete(CHANGE_TABLE, null, null);
+            for (String table : getTables(db)) {
+                boolean ranged = DBHelper.existsColumn(table, "DEVICE_ID", db) && DBHelper.existsColumn(table, "TIMESTAMP", db);
+                createTrigger(db, table, "INSERT", ranged);
+                createTrigger(db, table, "UPDATE", ranged);
+                createTrigger(db, table, "DELETE", ranged);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Removes the change tracking from the given database, e.g. from one that has been
+     * restored from an incremental export.
+     */
+    static void stopTracking(SQLiteDatabase db) {
+        List<String> triggers = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='trigger' AND name LIKE ? ESCAPE '\\'",
+                new String[] { TRIGGER_PREFIX.replace("_", "\\_") + "%" })) {
+            while (cursor.moveToNext()) {
+                triggers.add(cursor.getString(0));
+            }
+        }
+        db.beginTransaction();
+        try {
+            for (String trigger : triggers) {
+                db.execSQL("DROP TRIGGER IF EXISTS \"" + trigger + "\"");
+            }
+            db.execSQL("DROP TABLE IF EXISTS " + CHANGE_TABLE);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void createTrigger(SQLiteDatabase db, String table, String event, boolean ranged) {
+        StringBuilder sql = new StringBuilder("CREATE TRIGGER IF NOT EXISTS \"").append(TRIGGER_PREFIX).append(table).append('_').append(event)
+                .append("\" AFTER ").append(event).append(" ON \"").append(table).append("\" BEGIN ");
+        if (!ranged) {
+            sql.append(getRecordStatement(table, "-1", "-1"));
+        } else {
+            if (!"DELETE".equals(event)) {
+                sql.append(getRecordStatement(table, "NEW.DEVICE_ID", "NEW.TIMESTAMP / " + HOUR));
+            }
+            if (!"INSERT".equals(event)) {
+                sql.append(getRecordStatement(table, "OLD.DEVICE_ID", "OLD.TIMESTAMP / " + HOUR));
+            }
+        }
+        sql.append("END");
+        db.execSQL(sql.toString());
+    }
+
+    private static String getRecordStatement(String table, String deviceId, String hour) {
+        // never let a failing record fail the actual write, negative values mean the whole table
+        return "INSERT OR IGNORE INTO " + CHANGE_TABLE + " (TABLE_NAME, DEVICE_ID, HOUR) VALUES ("
+                + DatabaseUtils.sqlEscapeString(table) + ", IFNULL(" + deviceId + ", -1), IFNULL(" + hour + ", -1)); ";
+    }
+
+    private static List<String> getTables(SQLiteDatabase db) {
+        List<String> tables = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table' AND name NOT LIKE 'sqlite\\_%' ESCAPE '\\' "
+                + "AND name NOT IN ('android_metadata', '" + CHANGE_TABLE + "')", null)) {
+            while (cursor.moveToNext()) {
+                tables.add(cursor.getString(0));
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Reads the recorded changes and merges consecutive hours into ranges.
+     */
+    private static List<ChangeRange> readChanges(SQLiteDatabase db) {
+        List<ChangeRange> ranges = new ArrayList<>();
+        ChangeRange current = null;
+        try (Cursor cursor = db.rawQuery("SELECT TABLE_NAME, DEVICE_ID, HOUR FROM " + CHANGE_TABLE + " ORDER BY TABLE_NAME, DEVICE_ID, HOUR", null)) {
+            while (cursor.moveToNext()) {
+                String table = cursor.getString(0);
+                long deviceId = cursor.getLong(1);
+                long hour = cursor.getLong(2);
+                if (current != null && current.table.equals(table) && current.isWholeTable()) {
+                    continue;
+                }
+                if (deviceId < 0 || hour < 0) {
+                    // the whole table replaces all ranges of it
+                    while (!ranges.isEmpty() && ranges.get(ranges.size() - 1).table.equals(table)) {
+                        ranges.remove(ranges.size() - 1);
+                    }
+                    current = new ChangeRange(table, -1, -1, -1);
+                    ranges.add(current);
+                } else if (current != null && current.table.equals(table) && current.deviceId == deviceId && current.toHour + 1 == hour) {
+                    current.toHour = hour;
+                } else {
+                    current = new ChangeRange(table, deviceId, hour, hour);
+                    ranges.add(current);
+                }
+            }
+        }
+        return ranges;
+    }
+
+    private static int writeRange(SQLiteDatabase db, ChangeRange range, DataOutputStream out) throws IOException {
+        Cursor cursor;
+        if (range.isWholeTable()) {
+            cursor = db.rawQuery("SELECT * FROM \"" + range.table + "\"", null);
+        } else {
+            cursor = db.rawQuery("SELECT * FROM \"" + range.table + "\" WHERE DEVICE_ID=? AND TIMESTAMP>=? AND TIMESTAMP<?", new String[] {
+                    String.valueOf(range.deviceId), String.valueOf(range.fromHour * HOUR), String.valueOf((range.toHour + 1) * HOUR)
+            });
+        }
+        int rows = 0;
+        try {
+            out.writeByte(RECORD_RANGE);
+            out.writeUTF(range.table);
+            out.writeLong(range.deviceId);
+            out.writeLong(range.fromHour);
+            out.writeLong(range.toHour);
+            String[] columns = cursor.getColumnNames();
+            out.writeShort(columns.length);
+            for (String column : columns) {
+                out.writeUTF(column);
+            }
+            while (cursor.moveToNext()) {
+                out.writeBoolean(true);
+                for (int i = 0; i < columns.length; i++) {
+                    writeValue(cursor, i, out);
+                }
+                rows++;
+            }
+            out.writeBoolean(false);
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    private static void writeValue(Cursor cursor, int column, DataOutputStream out) throws IOException {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                out.writeByte(VALUE_INTEGER);
+                out.writeLong(cursor.getLong(column));
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                out.writeByte(VALUE_FLOAT);
+                out.writeDouble(cursor.getDouble(column));
+                break;
+            case Cursor.FIELD_TYPE_STRING:
+                out.writeByte(VALUE_STRING);
+                byte[] text = cursor.getString(column).getBytes("UTF-8");
+                out.writeInt(text.length);
+                out.write(text);
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                out.writeByte(VALUE_BLOB);
+                byte[] blob = cursor.getBlob(column);
+                out.writeInt(blob.length);
+                out.write(blob);
+                break;
+            default:
+                out.writeByte(VALUE_NULL);
+        }
+    }
+
+    private static void replayRange(SQLiteDatabase db, DataInputStream in) throws IOException {
+        ChangeRange range = new ChangeRange(in.readUTF(), in.readLong(), in.readLong(), in.readLong());
+        String[] columns = new String[in.readShort()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = in.readUTF();
+        }
+
+        if (range.isWholeTable()) {
+            db.delete("\"" + range.table + "\"", null, null);
+        } else {
+            db.delete("\"" + range.table + "\"", "DEVICE_ID=? AND TIMESTAMP>=? AND TIMESTAMP<?", new String[] {
+                    String.valueOf(range.deviceId), String.valueOf(range.fromHour * HOUR), String.valueOf((range.toHour + 1) * HOUR)
+            });
+        }
+
+        StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO \"").append(range.table).append("\" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ", \"" : "\"").append(columns[i]).append('"');
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        sql.append(')');
+
+        SQLiteStatement statement = db.compileStatement(sql.toString());
+        try {
+            while (in.readBoolean()) {
+                statement.clearBindings();
+                for (int i = 1; i <= columns.length; i++) {
+                    bindValue(statement, i, in);
+                }
+                statement.executeInsert();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static void bindValue(SQLiteStatement statement, int index, DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case VALUE_NULL:
+                statement.bindNull(index);
+                break;
+            case VALUE_INTEGER:
+                statement.bindLong(index, in.readLong());
+                break;
+            case VALUE_FLOAT:
+                statement.bindDouble(index, in.readDouble());
+                break;
+            case VALUE_STRING:
+                statement.bindString(index, new String(readBytes(in), "UTF-8"));
+                break;
+            case VALUE_BLOB:
+                statement.bindBlob(index, readBytes(in));
+                break;
+            default:
+                throw new IOException("Unknown value type: " + type);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static int getVersion(File dbFile) {
+        try (SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getPath(), null, SQLiteDatabase.OPEN_READONLY)) {
+            return db.getVersion();
+        }
+    }
+
+    /**
+     * @return the chunk files of the given directory, in the order they were written
+     */
+    static File[] getChunkFiles(File dir) {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(CHUNK_PREFIX) && name.endsWith(CHUNK_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        // zero padded numbers, so sorting by name is sufficient
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static int getNextChunkNumber(File dir) {
+        File[] chunkFiles = getChunkFiles(dir);
+        if (chunkFiles.length == 0) {
+            return 1;
+        }
+        String name = chunkFiles[chunkFiles.length - 1].getName();
+        return Integer.parseInt(name.substring(CHUNK_PREFIX.length(), name.length() - CHUNK_SUFFIX.length())) + 1;
+    }
+
+    private static class ChangeRange {
+        private final String table;
+        private final long deviceId;
+        private final long fromHour;
+        private long toHour;
+
+        ChangeRange(String table, long deviceId, long fromHour, long toHour) {
+            this.table = table;
+            this.deviceId = deviceId;
+            this.fromHour = fromHour;
+            this.toHour = toHour;
+        }
+
+        boolean isWholeTable() {
+            return deviceId < 0 || fromHour < 0;
+        }
+    }
+}
@@ -27,10 +27,12 @@ import android.os.SystemClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.OutputStream;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
+import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 import nodomain.freeyourgadget.gadgetbridge.util.GBPrefs;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
@@ -72,8 +74,18 @@ public class PeriodicExporter extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
+        if (GBApplication.getPrefs().getBoolean(GBPrefs.AUTO_EXPORT_INCREMENTAL, false)) {
+            exportIncremental(context);
+            return;
+        }
         LOG.info("Exporting DB");
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
+        try {
+            IncrementalExporter.disable();
+        } catch (Exception ex) {
+            LOG.warn("Unable to disable incremental export", ex);
+        }
+        // the database stays usable during the export, so reading is sufficient
+        try (DBHandler dbHandler = GBApplication.acquireReadDB()) {
             DBHelper helper = new DBHelper(context);
             String dst = GBApplication.getPrefs().getString(GBPrefs.AUTO_EXPORT_LOCATION, null);
             if (dst == null) {
@@ -82,11 +94,35 @@ public class PeriodicExporter extends BroadcastReceiver {
             }
             Uri dstUri = Uri.parse(dst);
             try (OutputStream out = context.getContentResolver().openOutputStream(dstUri)) {
-                helper.exportDB(dbHandler, out);
+                helper.exportDB(dbHandler, out, new FileUtils.CopyProgressListener() {
+                    private long lastPercent = -1;
+
+                    @Override
+                    public void onProgress(long bytesCopied, long bytesTotal) {
+                        long percent = bytesCopied * 100 / bytesTotal;
+                        if (percent / 10 != lastPercent / 10) {
+                            LOG.info("Exported " + percent + "% of " + bytesTotal + " bytes");
+                        }
+                        lastPercent = percent;
+                    }
+                });
             }
         } catch (Exception ex) {
             GB.updateExportFailedNotification(context.getString(R.string.notif_export_failed_title), context);
             LOG.info("Exception while exporting DB: ", ex);
         }
     }
+
+    private void exportIncremental(Context context) {
+        LOG.info("Exporting DB incrementally");
+        try {
+            File written = new IncrementalExporter(context).export(IncrementalExporter.getExportDir());
+            if (written == null) {
+                LOG.info("Nothing changed since the last export");
+            }
+        } catch (Exception ex) {
+            GB.updateExportFailedNotification(context.getString(R.string.notif_export_failed_title), context);
+            LOG.info("Exception while exporting DB incrementally: ", ex);
+        }
+    }
 }
@@ -0,0 +1,358 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.widget.Toast;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.greenrobot.dao.AbstractDao;
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.GBException;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityAmountsCache;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityRollupHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.GB;
+
+/**
+ * Write-behind queue for activity samples that arrive one by one, e.g. in the
+ * notification callbacks of a device support.
+ * <p>
+ * Samples are collected until either #BATCH_SIZE samples are pending or the
+ * oldest pending sample is #MAX_DELAY_MILLIS old, and are then written by a
+ * background thread in a single transaction. When more than #MAX_PENDING samples
+ * are waiting to be written, #add(AbstractActivitySample) blocks until the
+ * writer has caught up. The caller must therefore not hold the database lock,
+ * which the writer needs.
+ * <p>
+ * A batch that cannot be written, e.g. because the database is locked for too
+ * long, is retried #MAX_ATTEMPTS times with increasing delays before it is given up.
+ * <p>
+ * Samples must not be modified anymore after they have been added.
+ */
+public class SampleIngestionPipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(SampleIngestionPipeline.class);
+
+    static final int BATCH_SIZE = 500;
+    static final long MAX_DELAY_MILLIS = 2000;
+    static final int MAX_PENDING = 10 * BATCH_SIZE;
+    static final int MAX_ATTEMPTS = 5;
+    static final long RETRY_DELAY_MILLIS = 1000;
+
+    private static final SampleIngestionPipeline instance = new SampleIngestionPipeline();
+
+    private final Object lock = new Object();
+    private final List<AbstractActivitySample> pending = new ArrayList<>();
+    private final List<FlushCallback> flushCallbacks = new ArrayList<>();
+    private long firstPendingTime;
+    private long addedCount;
+    private long writtenCount;
+    private long droppedCount;
+    private boolean flushRequested;
+    private Thread writerThread;
+
+    public static SampleIngestionPipeline getInstance() {
+        return instance;
+    }
+
+    SampleIngestionPipeline() {
+    }
+
+    /**
+     * Queues the given sample for writing. The sample must be complete, i.e. have its
+     * timestamp, device id and user id set.
+     */
+    public void add(AbstractActivitySample sample) {
+        synchronized (lock) {
+            boolean interrupted = false;
+            while (pending.size() >= MAX_PENDING && Thread.currentThread() != writerThread) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (pending.isEmpty()) {
+                firstPendingTime = SystemClock.elapsedRealtime();
+            }
+            pending.add(sample);
+            addedCount++;
+            if (pending.size() >= BATCH_SIZE) {
+                lock.notifyAll();
+            }
+            ensureWriterThread();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Sets the device and user id of the given sample and queues it for writing, see
+     * #add(AbstractActivitySample). The ids are usually cached, so the database is only
+     * accessed on the first sample of a device, and released again before queueing.
+     */
+    public void add(AbstractActivitySample sample, GBDevice device) throws GBException {
+        Long deviceId = EntityIdCache.getDeviceId(device.getAddress());
+        Long userId = DBHelper.getCachedUserId();
+        if (deviceId == null || userId == null) {
+            try (DBHandler handler = GBApplication.acquireDB()) {
+                DaoSession session = handler.getDaoSession();
+                deviceId = DBHelper.getDeviceId(device, session);
+                userId = DBHelper.getUserId(session);
+            } catch (GBException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new GBException("Unable to look up the device and user", ex);
+            }
+        }
+        sample.setDeviceId(deviceId);
+        sample.setUserId(userId);
+        add(sample);
+    }
+
+    /**
+     * Writes all pending samples as soon as possible, without waiting for it.
+     * Used when a device disconnects.
+     */
+    public void requestFlush() {
+        synchronized (lock) {
+            if (!pending.isEmpty()) {
+                flushRequested = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes all pending samples as soon as possible and runs the given callback
+     * once all samples added so far have been written. The callback runs on the
+     * writer thread, or immediately on the calling thread if nothing is pending.
+     */
+    public void flush(Runnable callback) {
+        synchronized (lock) {
+            if (writtenCount < addedCount) {
+                flushCallbacks.add(new FlushCallback(addedCount, callback));
+                flushRequested = true;
+                lock.notifyAll();
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    /**
+     * Writes all pending samples and waits until they have been written.
+     *
+     * @param timeoutMillis the maximum time to wait
+     * @return true if all samples added so far have been written
+     */
+    public boolean flush(long timeoutMillis) {
+        synchronized (lock) {
+            if (Thread.currentThread() == writerThread) {
+                return writtenCount >= addedCount;
+            }
+            long target = addedCount;
+            flushRequested = true;
+            lock.notifyAll();
+            long deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+            long remaining = timeoutMillis;
+            try {
+                while (writtenCount < target && remaining > 0) {
+                    lock.wait(remaining);
+                    remaining = deadline - SystemClock.elapsedRealtime();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return writtenCount >= target;
+        }
+    }
+
+    /**
+     * @return the number of samples that could not be written, even after retrying
+     */
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    /**
+     * @return the number of samples that have been added but not yet written
+     */
+    public int getPendingCount() {
+        synchronized (lock) {
+            return (int) (addedCount - writtenCount);
+        }
+    }
+
+    private void ensureWriterThread() {
+        if (writerThread == null) {
+            writerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            }, "SampleIngestion");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            List<AbstractActivitySample> batch;
+            synchronized (lock) {
+                try {
+                    while (pending.isEmpty()) {
+                        lock.wait();
+                    }
+                    long remaining = firstPendingTime + MAX_DELAY_MILLIS - SystemClock.elapsedRealtime();
+                    while (pending.size() < BATCH_SIZE && !flushRequested && remaining > 0) {
+                        lock.wait(remaining);
+                        remaining = firstPendingTime + MAX_DELAY_MILLIS - SystemClock.elapsedRealtime();
+                    }
+                } catch (InterruptedException ex) {
+                    LOG.warn("Sample writer interrupted, writing pending samples now");
+                }
+                batch = new ArrayList<>(pending);
+                pending.clear();
+                flushRequested = false;
+                // wake up producers waiting for space
+                lock.notifyAll();
+            }
+
+            if (!batch.isEmpty()) {
+                writeWithRetries(batch);
+            }
+
+            List<Runnable> callbacks = new ArrayList<>();
+            synchronized (lock) {
+                writtenCount += batch.size();
+                for (Iterator<FlushCallback> it = flushCallbacks.iterator(); it.hasNext(); ) {
+                    FlushCallback flushCallback = it.next();
+                    if (flushCallback.target <= writtenCount) {
+                        callbacks.add(flushCallback.callback);
+                        it.remove();
+                    }
+                }
+                lock.notifyAll();
+            }
+            for (Runnable callback : callbacks) {
+                try {
+                    callback.run();
+                } catch (Exception e) {
+                    LOG.error("Error in flush callback", e);
+                }
+            }
+        }
+    }
+
+    private void writeWithRetries(List<AbstractActivitySample> batch) {
+        long delay = RETRY_DELAY_MILLIS;
+        for (int attempt = 1; attempt < MAX_ATTEMPTS; attempt++) {
+            if (write(batch)) {
+                return;
+            }
+            LOG.warn("Retrying to write " + batch.size() + " samples in " + delay + " ms");
+            SystemClock.sleep(delay);
+            delay *= 2;
+        }
+        if (!write(batch)) {
+            synchronized (lock) {
+                droppedCount += batch.size();
+            }
+            GB.toast("Error saving " + batch.size() + " activity samples, giving up after " + MAX_ATTEMPTS + " attempts", Toast.LENGTH_LONG, GB.ERROR);
+        }
+    }
+
+    /**
+     * @return whether the batch has been written
+     */
+    @SuppressWarnings("unchecked")
+    private boolean write(List<AbstractActivitySample> batch) {
+        // keep the order of samples of the same kind, later ones replace earlier ones
+        Map<Class<?>, List<Object>> samplesByClass = new LinkedHashMap<>();
+        Map<Long, int[]> rangeByDevice = new LinkedHashMap<>();
+        for (AbstractActivitySample sample : batch) {
+            List<Object> samples = samplesByClass.get(sample.getClass());
+            if (samples == null) {
+                samples = new ArrayList<>();
+                samplesByClass.put(sample.getClass(), samples);
+            }
+            samples.add(sample);
+            int[] range = rangeByDevice.get(sample.getDeviceId());
+            if (range == null) {
+                rangeByDevice.put(sample.getDeviceId(), new int[]{sample.getTimestamp(), sample.getTimestamp()});
+            } else {
+                range[0] = Math.min(range[0], sample.getTimestamp());
+                range[1] = Math.max(range[1], sample.getTimestamp());
+            }
+        }
+
+        try (DBHandler dbHandler = GBApplication.acquireWriteDB()) {
+            DaoSession session = dbHandler.getDaoSession();
+            SQLiteDatabase db = session.getDatabase();
+            db.beginTransaction();
+            try {
+                for (Map.Entry<Class<?>, List<Object>> entry : samplesByClass.entrySet()) {
+                    AbstractDao<Object, ?> dao = (AbstractDao<Object, ?>) session.getDao(entry.getKey());
+                    dao.insertOrReplaceInTx(entry.getValue());
+                }
+                for (Map.Entry<Long, int[]> entry : rangeByDevice.entrySet()) {
+                    int[] range = entry.getValue();
+                    ActivityRollupHelper.invalidateRollups(session, entry.getKey(), range[0], range[1]);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            // again, amounts may have been calculated from the old data before the commit
+            for (Map.Entry<Long, int[]> entry : rangeByDevice.entrySet()) {
+                int[] range = entry.getValue();
+                ActivityAmountsCache.invalidate(entry.getKey(), range[0], range[1]);
+            }
+            LOG.debug("Wrote " + batch.size() + " samples");
+            return true;
+        } catch (Exception e) {
+            LOG.error("Error writing " + batch.size() + " samples", e);
+            return false;
+        }
+    }
+
+    private static class FlushCallback {
+        private final long target;
+        private final Runnable callback;
+
+        FlushCallback(long target, Runnable callback) {
+            this.target = target;
+            this.callback = callback;
+        }
+    }
+}
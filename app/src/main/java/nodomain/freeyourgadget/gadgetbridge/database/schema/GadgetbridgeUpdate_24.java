@@ -0,0 +1,80 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.database.schema;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import nodomain.freeyourgadget.gadgetbridge.database.DBUpdateScript;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivityHourRollupDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.ID115ActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.JYouActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.MakibesHR3ActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.No1F1ActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleMisfitSampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleMorpheuzSampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.XWatchActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.ZeTimeActivitySampleDao;
+
+/**
+ * Adds (DEVICE_ID, TIMESTAMP) indexes to all sample tables. Their primary key is
+ * (TIMESTAMP, DEVICE_ID), which does not help with the per device range queries
+ * of the sample providers once more than one device is stored.
+ */
+public class GadgetbridgeUpdate_24 implements DBUpdateScript {
+    private static final String[] TABLES = new String[] {
+            ActivityHourRollupDao.TABLENAME,
+            HPlusHealthActivitySampleDao.TABLENAME,
+            ID115ActivitySampleDao.TABLENAME,
+            JYouActivitySampleDao.TABLENAME,
+            MakibesHR3ActivitySampleDao.TABLENAME,
+            MiBandActivitySampleDao.TABLENAME,
+            No1F1ActivitySampleDao.TABLENAME,
+            PebbleHealthActivitySampleDao.TABLENAME,
+            PebbleMisfitSampleDao.TABLENAME,
+            PebbleMorpheuzSampleDao.TABLENAME,
+            XWatchActivitySampleDao.TABLENAME,
+            ZeTimeActivitySampleDao.TABLENAME,
+    };
+
+    @Override
+    public void upgradeSchema(SQLiteDatabase db) {
+        // DaoMaster.createAllTables() creates the same indexes on upgrade already,
+        // this is just in case the update is run on its own
+        for (String table : TABLES) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + getIndexName(table) + " ON \"" + table + "\" (\"DEVICE_ID\",\"TIMESTAMP\");");
+        }
+        // let the query planner know about the new indexes
+        db.execSQL("ANALYZE;");
+    }
+
+    @Override
+    public void downgradeSchema(SQLiteDatabase db) {
+        for (String table : TABLES) {
+            db.execSQL("DROP INDEX IF EXISTS " + getIndexName(table) + ";");
+        }
+    }
+
+    /**
+     * Same name that greenDAO generates for the index defined in GBDaoGenerator.
+     */
+    static String getIndexName(String table) {
+        return "IDX_" + table + "_DEVICE_ID_TIMESTAMP";
+    }
+}
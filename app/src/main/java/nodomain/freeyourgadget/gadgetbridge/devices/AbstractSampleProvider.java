@@ -25,13 +25,16 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
+import de.greenrobot.dao.query.LazyList;
+import de.greenrobot.dao.query.Query;
 import de.greenrobot.dao.query.QueryBuilder;
 import de.greenrobot.dao.query.WhereCondition;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
-import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivityAnalysis;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 
 /**
@@ -83,24 +86,90 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
     @Override
     public void addGBActivitySample(T activitySample) {
         getSampleDao().insertOrReplace(activitySample);
+        if (supportsRollups()) {
+            // single samples typically arrive in realtime, recalculate lazily
+            ActivityRollupHelper.invalidateRollups(getSession(), activitySample.getDeviceId(),
+                    activitySample.getTimestamp(), activitySample.getTimestamp());
+        } else {
+            ActivityAmountsCache.invalidate(activitySample.getDeviceId(),
+                    activitySample.getTimestamp(), activitySample.getTimestamp());
+        }
     }
 
     @Override
     public void addGBActivitySamples(T[] activitySamples) {
         getSampleDao().insertOrReplaceInTx(activitySamples);
+        if (activitySamples.length > 0) {
+            int timestamp_from = Integer.MAX_VALUE;
+            int timestamp_to = Integer.MIN_VALUE;
+            for (T sample : activitySamples) {
+                timestamp_from = Math.min(timestamp_from, sample.getTimestamp());
+                timestamp_to = Math.max(timestamp_to, sample.getTimestamp());
+            }
+            if (supportsRollups()) {
+                ActivityRollupHelper.updateRollups(this, activitySamples[0].getDeviceId(), timestamp_from, timestamp_to);
+            } else {
+                ActivityAmountsCache.invalidate(activitySamples[0].getDeviceId(), timestamp_from, timestamp_to);
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public ActivityAmounts getActivityAmounts(int timestamp_from, int timestamp_to) {
+        boolean cacheable = isAmountsCacheable(timestamp_from, timestamp_to);
+        if (!supportsRollups() && !cacheable) {
+            return new ActivityAnalysis().calculateActivityAmounts(this, timestamp_from, timestamp_to);
+        }
+        Long deviceId = DBHelper.findDeviceId(getDevice(), getSession());
+        if (deviceId == null) {
+            // no device, no samples
+            return new ActivityAmounts();
+        }
+        ActivityAmounts amounts = cacheable ? ActivityAmountsCache.get(deviceId, timestamp_from, timestamp_to) : null;
+        if (amounts == null) {
+            long generation = ActivityAmountsCache.getGeneration();
+            if (supportsRollups()) {
+                amounts = ActivityRollupHelper.calculateActivityAmounts(this, deviceId, timestamp_from, timestamp_to);
+            } else {
+                amounts = new ActivityAnalysis().calculateActivityAmounts(this, timestamp_from, timestamp_to);
+            }
+            if (cacheable) {
+                ActivityAmountsCache.put(deviceId, timestamp_from, timestamp_to, amounts, generation);
+            }
+        }
+        return amounts;
+    }
+
+    /**
+     * Whether the hourly rollups may be used for this provider. Providers that modify
+     * samples based on data not written through this class (e.g. overlays) must return
+     * false, otherwise the rollups would get stale.
+     */
+    protected boolean supportsRollups() {
+        return true;
+    }
+
+    /**
+     * Whether the amounts of the given range may be kept in the ActivityAmountsCache.
+     * Providers without rollups that return true must invalidate the cache themselves
+     * whenever data is written that is not written through this class.
+     */
+    protected boolean isAmountsCacheable(int timestamp_from, int timestamp_to) {
+        return supportsRollups();
     }
 
     @Nullable
     @Override
     public T getLatestActivitySample() {
         QueryBuilder<T> qb = getSampleDao().queryBuilder();
-        Device dbDevice = DBHelper.findDevice(getDevice(), getSession());
-        if (dbDevice == null) {
+        Long deviceId = DBHelper.findDeviceId(getDevice(), getSession());
+        if (deviceId == null) {
             // no device, no sample
             return null;
         }
         Property deviceProperty = getDeviceIdentifierSampleProperty();
-        qb.where(deviceProperty.eq(dbDevice.getId())).orderDesc(getTimestampSampleProperty()).limit(1);
+        qb.where(deviceProperty.eq(deviceId)).orderDesc(getTimestampSampleProperty()).limit(1);
         List<T> samples = qb.build().list();
         if (samples.isEmpty()) {
             return null;
@@ -111,26 +180,67 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
     }
 
     protected List<T> getGBActivitySamples(int timestamp_from, int timestamp_to, int activityType) {
+        Query<T> query = createSampleQuery(timestamp_from, timestamp_to, activityType);
+        if (query == null) {
+            return Collections.emptyList();
+        }
+        List<T> samples = query.list();
+        for (T sample : samples) {
+            sample.setProvider(this);
+        }
+        detachFromSession();
+        return samples;
+    }
+
+    @Override
+    public void visitAllActivitySamples(int timestamp_from, int timestamp_to, SampleVisitor<? super T> visitor) {
+        visitGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ALL, visitor);
+    }
+
+    /**
+     * Streaming counterpart of #getGBActivitySamples(). The samples are read from a cursor
+     * one by one, so no list of all samples in the range is ever created.
+     */
+    protected void visitGBActivitySamples(int timestamp_from, int timestamp_to, int activityType, SampleVisitor<? super T> visitor) {
+        Query<T> query = createSampleQuery(timestamp_from, timestamp_to, activityType);
+        if (query == null) {
+            return;
+        }
+        LazyList<T> samples = query.listLazyUncached();
+        try {
+            for (T sample : samples) {
+                sample.setProvider(this);
+                visitor.visit(sample);
+            }
+        } finally {
+            samples.close();
+            detachFromSession();
+        }
+    }
+
+    @Nullable
+    private Query<T> createSampleQuery(int timestamp_from, int timestamp_to, int activityType) {
         if (getRawKindSampleProperty() == null && activityType != ActivityKind.TYPE_ALL) {
             // if we do not have a raw kind property we cannot query anything else then TYPE_ALL
-            return Collections.emptyList();
+            return null;
         }
         QueryBuilder<T> qb = getSampleDao().queryBuilder();
         Property timestampProperty = getTimestampSampleProperty();
-        Device dbDevice = DBHelper.findDevice(getDevice(), getSession());
-        if (dbDevice == null) {
+        Long deviceId = DBHelper.findDeviceId(getDevice(), getSession());
+        if (deviceId == null) {
             // no device, no samples
-            return Collections.emptyList();
+            return null;
         }
-        Property deviceProperty = getDeviceIdentifierSampleProperty();
-        qb.where(deviceProperty.eq(dbDevice.getId()), timestampProperty.ge(timestamp_from))
-            .where(timestampProperty.le(timestamp_to), getClauseForActivityType(qb, activityType));
-        List<T> samples = qb.build().list();
-        for (T sample : samples) {
-            sample.setProvider(this);
+        WhereCondition[] activityTypeConditions = getClauseForActivityType(activityType);
+        if (activityTypeConditions == null) {
+            // none of the requested kinds exist for this device, no samples
+            return null;
         }
-        detachFromSession();
-        return samples;
+        Property deviceProperty = getDeviceIdentifierSampleProperty();
+        qb.where(deviceProperty.eq(deviceId), timestampProperty.ge(timestamp_from))
+            .where(timestampProperty.le(timestamp_to), activityTypeConditions)
+            .orderAsc(timestampProperty); // free with the index, and overlays rely on it
+        return qb.build();
     }
 
     /**
@@ -143,19 +253,25 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
         getSampleDao().detachAll();
     }
 
-    private WhereCondition[] getClauseForActivityType(QueryBuilder qb, int activityTypes) {
+    /**
+     * Returns the conditions restricting the query to the given activity kinds, or null
+     * if the kinds cannot match any sample of this provider.
+     */
+    @Nullable
+    private WhereCondition[] getClauseForActivityType(int activityTypes) {
         if (activityTypes == ActivityKind.TYPE_ALL) {
             return NO_CONDITIONS;
         }
 
         int[] dbActivityTypes = ActivityKind.mapToDBActivityTypes(activityTypes, this);
-        WhereCondition activityTypeCondition = getActivityTypeConditions(qb, dbActivityTypes);
+        WhereCondition activityTypeCondition = getActivityTypeConditions(dbActivityTypes);
+        if (activityTypeCondition == null) {
+            return null;
+        }
         return new WhereCondition[] { activityTypeCondition };
     }
 
-    private WhereCondition getActivityTypeConditions(QueryBuilder qb, int[] dbActivityTypes) {
-        // What a crappy QueryBuilder API ;-( QueryBuilder.or(WhereCondition[]) with a runtime array length
-        // check would have worked just fine.
+    private WhereCondition getActivityTypeConditions(int[] dbActivityTypes) {
         if (dbActivityTypes.length == 0) {
             return null;
         }
@@ -167,19 +283,13 @@ public abstract class AbstractSampleProvider<T extends AbstractActivitySample> i
         if (dbActivityTypes.length == 1) {
             return rawKindProperty.eq(dbActivityTypes[0]);
         }
-        if (dbActivityTypes.length == 2) {
-            return qb.or(rawKindProperty.eq(dbActivityTypes[0]),
-                    rawKindProperty.eq(dbActivityTypes[1]));
-        }
-        final int offset = 2;
-        int len = dbActivityTypes.length - offset;
-        WhereCondition[] trailingConditions = new WhereCondition[len];
-        for (int i = 0; i < len; i++) {
-            trailingConditions[i] = rawKindProperty.eq(dbActivityTypes[i + offset]);
+        // a single IN (...) instead of a chain of ORs, so that SQLite can still
+        // use the (deviceId, timestamp) index for the range and check the kind on each row
+        Object[] values = new Object[dbActivityTypes.length];
+        for (int i = 0; i < dbActivityTypes.length; i++) {
+            values[i] = dbActivityTypes[i];
         }
-        return qb.or(rawKindProperty.eq(dbActivityTypes[0]),
-                rawKindProperty.eq(dbActivityTypes[1]),
-                trailingConditions);
+        return rawKindProperty.in(values);
     }
 
     private List<T> getActivitySamplesByActivityFilter(int timestamp_from, int timestamp_to, int activityFilter) {
@@ -0,0 +1,121 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+
+/**
+ * Least recently used memo of the ActivityAmounts calculated for a device and a
+ * time range, typically one day (with an hour offset for sleep). Entries are
+ * invalidated together with the hourly rollups, i.e. whenever samples are written
+ * into their range. Devices with overlays invalidate them when storing overlays.
+ * <p>
+ * The cached ActivityAmounts are shared and must not be modified.
+ */
+public class ActivityAmountsCache {
+    static final int MAX_ENTRIES = 256;
+
+    private static final LinkedHashMap<Key, ActivityAmounts> cache = new LinkedHashMap<Key, ActivityAmounts>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, ActivityAmounts> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    /**
+     * Incremented on every invalidation, so that amounts calculated concurrently
+     * with a write are not stored.
+     */
+    private static long generation;
+
+    private ActivityAmountsCache() {
+    }
+
+    public static synchronized ActivityAmounts get(long deviceId, int timestamp_from, int timestamp_to) {
+        return cache.get(new Key(deviceId, timestamp_from, timestamp_to));
+    }
+
+    /**
+     * @return the current generation, to be passed to #put() after calculating the amounts
+     */
+    public static synchronized long getGeneration() {
+        return generation;
+    }
+
+    public static synchronized void put(long deviceId, int timestamp_from, int timestamp_to, ActivityAmounts amounts, long calculatedGeneration) {
+        if (calculatedGeneration == generation) {
+            cache.put(new Key(deviceId, timestamp_from, timestamp_to), amounts);
+        }
+    }
+
+    /**
+     * Removes all entries of the given device that overlap the given range.
+     */
+    public static synchronized void invalidate(long deviceId, int timestamp_from, int timestamp_to) {
+        generation++;
+        for (Iterator<Key> it = cache.keySet().iterator(); it.hasNext(); ) {
+            Key key = it.next();
+            if (key.deviceId == deviceId && key.timestampFrom <= timestamp_to && key.timestampTo >= timestamp_from) {
+                it.remove();
+            }
+        }
+    }
+
+    public static synchronized void invalidate(long deviceId) {
+        invalidate(deviceId, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    public static synchronized void clear() {
+        generation++;
+        cache.clear();
+    }
+
+    private static class Key {
+        private final long deviceId;
+        private final int timestampFrom;
+        private final int timestampTo;
+
+        Key(long deviceId, int timestampFrom, int timestampTo) {
+            this.deviceId = deviceId;
+            this.timestampFrom = timestampFrom;
+            this.timestampTo = timestampTo;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return deviceId == other.deviceId && timestampFrom == other.timestampFrom && timestampTo == other.timestampTo;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (deviceId ^ (deviceId >>> 32));
+            result = 31 * result + timestampFrom;
+            result = 31 * result + timestampTo;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKindOverlay;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * Finds the overlays covering the samples of a range in a single sweep, instead of
+ * checking every overlay for every sample. The samples have to be visited in ascending
+ * timestamp order, as they come from the database; going back in time restarts the sweep.
+ * <p/>
+ * The overlays covering a timestamp are always reported in the order of the given list,
+ * since the providers apply them in that order and the last one wins.
+ */
+public class ActivityOverlaySweep<O extends ActivityKindOverlay> {
+    private static final Comparator<ActivitySample> TIMESTAMP_COMPARATOR = new Comparator<ActivitySample>() {
+        @Override
+        public int compare(ActivitySample one, ActivitySample other) {
+            return one.getTimestamp() - other.getTimestamp();
+        }
+    };
+
+    private final List<O> overlays;
+    // positions in overlays, by ascending start
+    private final Integer[] byStart;
+    private int nextStart;
+
+    // positions in overlays of the overlays covering lastTimestamp, ascending
+    private final int[] active;
+    private int activeCount;
+    private int lastTimestamp = Integer.MIN_VALUE;
+
+    public ActivityOverlaySweep(List<O> overlays) {
+        this.overlays = overlays;
+        byStart = new Integer[overlays.size()];
+        for (int i = 0; i < byStart.length; i++) {
+            byStart[i] = i;
+        }
+        Arrays.sort(byStart, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer one, Integer other) {
+                return Integer.compare(getFrom(one), getFrom(other));
+            }
+        });
+        active = new int[overlays.size()];
+    }
+
+    /**
+     * Moves the sweep to the given timestamp.
+     *
+     * @return the number of overlays covering the timestamp, see #getActive(int)
+     */
+    public int seek(int timestamp) {
+        if (timestamp < lastTimestamp) {
+            nextStart = 0;
+            activeCount = 0;
+        }
+        lastTimestamp = timestamp;
+
+        int kept = 0;
+        for (int i = 0; i < activeCount; i++) {
+            if (getTo(active[i]) > timestamp) {
+                active[kept++] = active[i];
+            }
+        }
+        activeCount = kept;
+
+        while (nextStart < byStart.length && getFrom(byStart[nextStart]) <= timestamp) {
+            int index = byStart[nextStart++];
+            if (getTo(index) > timestamp) {
+                insertActive(index);
+            }
+        }
+        return activeCount;
+    }
+
+    /**
+     * @return the i-th overlay covering the timestamp of the last #seek(int), in list order
+     */
+    public O getActive(int i) {
+        return overlays.get(active[i]);
+    }
+
+    /**
+     * @return the position in the overlay list of the i-th overlay covering the timestamp of
+     * the last #seek(int), e.g. to keep state per overlay
+     */
+    public int getActiveIndex(int i) {
+        return active[i];
+    }
+
+    private void insertActive(int index) {
+        int position = Arrays.binarySearch(active, 0, activeCount, index);
+        position = -(position + 1);
+        System.arraycopy(active, position, active, position + 1, activeCount - position);
+        active[position] = index;
+        activeCount++;
+    }
+
+    private int getFrom(int index) {
+        return overlays.get(index).getTimestampFrom();
+    }
+
+    private int getTo(int index) {
+        return overlays.get(index).getTimestampTo();
+    }
+
+    /**
+     * Merges additional samples into a list of samples, without sorting all of them again.
+     * The result is the same as appending the additional samples and sorting the whole
+     * list by timestamp: samples with equal timestamps keep their order, the given samples
+     * first.
+     */
+    public static <T extends ActivitySample> List<T> merge(List<T> samples, List<T> additional) {
+        if (!isSorted(samples)) {
+            samples = new ArrayList<>(samples);
+            Collections.sort(samples, TIMESTAMP_COMPARATOR);
+        }
+        if (additional.isEmpty()) {
+            return samples;
+        }
+        if (!isSorted(additional)) {
+            additional = new ArrayList<>(additional);
+            Collections.sort(additional, TIMESTAMP_COMPARATOR);
+        }
+
+        List<T> merged = new ArrayList<>(samples.size() + additional.size());
+        int i = 0;
+        int j = 0;
+        while (i < samples.size() && j < additional.size()) {
+            if (additional.get(j).getTimestamp() < samples.get(i).getTimestamp()) {
+                merged.add(additional.get(j++));
+            } else {
+                merged.add(samples.get(i++));
+            }
+        }
+        merged.addAll(samples.subList(i, samples.size()));
+        merged.addAll(additional.subList(j, additional.size()));
+        return merged;
+    }
+
+    private static boolean isSorted(List<? extends ActivitySample> samples) {
+        for (int i = 1; i < samples.size(); i++) {
+            if (samples.get(i).getTimestamp() < samples.get(i - 1).getTimestamp()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
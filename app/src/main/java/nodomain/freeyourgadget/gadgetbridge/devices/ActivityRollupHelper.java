@@ -0,0 +1,444 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivityHourRollup;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivityHourRollupDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * Maintains and reads the hourly activity rollups ({@link ActivityHourRollup}).
+ *
+ * Every rollup contains what ActivityAnalysis would calculate for the samples of one hour,
+ * plus the first and last sample of that hour. Joining consecutive rollups therefore yields
+ * exactly the same ActivityAmounts as analyzing all the samples of the range at once.
+ *
+ * Missing rollups are calculated from the samples lazily and stored, as long as the hour
+ * is already over. Writing samples through the AbstractSampleProvider updates the touched
+ * hours.
+ */
+public class ActivityRollupHelper {
+    private static final Logger LOG = LoggerFactory.getLogger(ActivityRollupHelper.class);
+
+    public static final int HOUR_SECONDS = 60 * 60;
+
+    private static final int BUCKET_ACTIVITY = 0;
+    private static final int BUCKET_LIGHT_SLEEP = 1;
+    private static final int BUCKET_DEEP_SLEEP = 2;
+    private static final int BUCKET_NOT_WORN = 3;
+    private static final int BUCKET_COUNT = 4;
+
+    /**
+     * Per device, incremented whenever rollups of the device are invalidated, so that
+     * rollups calculated concurrently with a write are not stored.
+     */
+    private static final Map<Long, Long> generations = new HashMap<>();
+
+    private ActivityRollupHelper() {
+    }
+
+    /**
+     * Calculates the activity amounts of the given time range. Full hours are read from the
+     * rollup table, only partial hours at the borders of the range are read from the samples.
+     * @param provider the sample provider of the device
+     * @param deviceId the database id of the device
+     * @param timestamp_from the start timestamp (inclusive)
+     * @param timestamp_to the end timestamp (inclusive)
+     * @return the activity amounts, never null
+     */
+    public static ActivityAmounts calculateActivityAmounts(AbstractSampleProvider<?> provider, long deviceId, int timestamp_from, int timestamp_to) {
+        List<ActivityHourRollup> segments = new ArrayList<>();
+        if (timestamp_from <= timestamp_to) {
+            int firstHour = ceilToHour(timestamp_from);
+            int endHour = floorToHour(timestamp_to + 1);
+            if (firstHour >= endHour) {
+                segments.add(createRollup(provider, deviceId, timestamp_from, timestamp_to));
+            } else {
+                if (timestamp_from < firstHour) {
+                    segments.add(createRollup(provider, deviceId, timestamp_from, firstHour - 1));
+                }
+                segments.addAll(getHourRollups(provider, deviceId, firstHour, endHour));
+                if (endHour <= timestamp_to) {
+                    segments.add(createRollup(provider, deviceId, endHour, timestamp_to));
+                }
+            }
+        }
+        return joinRollups(segments);
+    }
+
+    /**
+     * Returns the rollups of all hours in the given range, calculating and storing missing
+     * ones on the way.
+     * @param provider the sample provider of the device
+     * @param deviceId the database id of the device
+     * @param firstHour the start of the first hour
+     * @param endHour the start of the first hour that shall not be returned anymore
+     * @return one rollup per hour, ordered by timestamp
+     */
+    public static List<ActivityHourRollup> getHourRollups(AbstractSampleProvider<?> provider, long deviceId, int firstHour, int endHour) {
+        if (firstHour >= endHour) {
+            return Collections.emptyList();
+        }
+        long generation = captureGeneration(deviceId);
+        ActivityHourRollupDao dao = provider.getSession().getActivityHourRollupDao();
+        List<ActivityHourRollup> stored = dao.queryBuilder()
+                .where(ActivityHourRollupDao.Properties.DeviceId.eq(deviceId),
+                        ActivityHourRollupDao.Properties.Timestamp.ge(firstHour),
+                        ActivityHourRollupDao.Properties.Timestamp.lt(endHour))
+                .orderAsc(ActivityHourRollupDao.Properties.Timestamp)
+                .build().list();
+
+        List<ActivityHourRollup> result = new ArrayList<>((endHour - firstHour) / HOUR_SECONDS);
+        List<ActivityHourRollup> created = new ArrayList<>();
+        int now = (int) (System.currentTimeMillis() / 1000);
+        int storedIndex = 0;
+        int hour = firstHour;
+        while (hour < endHour) {
+            if (storedIndex < stored.size() && stored.get(storedIndex).getTimestamp() == hour) {
+                result.add(stored.get(storedIndex++));
+                hour += HOUR_SECONDS;
+                continue;
+            }
+            // read all consecutive missing hours with a single query
+            int runEnd = storedIndex < stored.size() ? stored.get(storedIndex).getTimestamp() : endHour;
+            HourlyRollupCollector collector = new HourlyRollupCollector(deviceId, hour);
+            provider.visitAllActivitySamples(hour, runEnd - 1, collector);
+            for (ActivityHourRollup rollup : collector.finish(runEnd)) {
+                result.add(rollup);
+                if (rollup.getTimestamp() + HOUR_SECONDS <= now) {
+                    created.add(rollup);
+                }
+            }
+            hour = runEnd;
+        }
+        if (!created.isEmpty() && generation >= 0) {
+            storeRollups(created, deviceId, generation);
+        }
+        dao.detachAll();
+        return result;
+    }
+
+    /**
+     * Returns the current generation of the rollups of the given device. It is taken on the
+     * writer lane, so that no write can be in progress: everything read afterwards is at least
+     * as new as the generation, and any later write changes it.
+     *
+     * @return the generation, or -1 if the writer lane is busy, i.e. rollups must not be stored
+     */
+    private static long captureGeneration(long deviceId) {
+        try (DBHandler writer = GBApplication.tryAcquireWriteDB()) {
+            if (writer == null) {
+                return -1;
+            }
+            return getGeneration(deviceId);
+        } catch (Exception e) {
+            LOG.warn("Error accessing the database", e);
+            return -1;
+        }
+    }
+
+    private static synchronized long getGeneration(long deviceId) {
+        Long generation = generations.get(deviceId);
+        return generation != null ? generation : 0;
+    }
+
+    private static synchronized void nextGeneration(long deviceId) {
+        generations.put(deviceId, getGeneration(deviceId) + 1);
+    }
+
+    /**
+     * Stores the given rollups if the writer lane is free right now and no rollups of the
+     * device have been invalidated since they were calculated. Rollups are mostly
+     * computed by readers, and those must not wait for a running sync. If storing is not
+     * possible, the rollups are simply computed again next time.
+     */
+    private static void storeRollups(List<ActivityHourRollup> rollups, long deviceId, long generation) {
+        try (DBHandler writer = GBApplication.tryAcquireWriteDB()) {
+            if (writer == null) {
+                LOG.debug("Not storing " + rollups.size() + " activity rollups, database is busy");
+                return;
+            }
+            if (getGeneration(deviceId) != generation) {
+                LOG.debug("Not storing " + rollups.size() + " activity rollups, samples have changed meanwhile");
+                return;
+            }
+            writer.getDaoSession().getActivityHourRollupDao().insertOrReplaceInTx(rollups);
+        } catch (Exception e) {
+            LOG.warn("Error storing activity rollups", e);
+        }
+    }
+
+    /**
+     * Recalculates and stores the rollups of all hours touched by the given time range.
+     */
+    public static void updateRollups(AbstractSampleProvider<?> provider, long deviceId, int timestamp_from, int timestamp_to) {
+        invalidateRollups(provider.getSession(), deviceId, timestamp_from, timestamp_to);
+        getHourRollups(provider, deviceId, floorToHour(timestamp_from), floorToHour(timestamp_to) + HOUR_SECONDS);
+    }
+
+    /**
+     * Removes the rollups of all hours touched by the given time range, so that they will
+     * be recalculated from the samples on the next access. Memoized ActivityAmounts of
+     * that range are dropped as well.
+     */
+    public static void invalidateRollups(DaoSession session, long deviceId, int timestamp_from, int timestamp_to) {
+        nextGeneration(deviceId);
+        ActivityAmountsCache.invalidate(deviceId, timestamp_from, timestamp_to);
+        session.getActivityHourRollupDao().queryBuilder()
+                .where(ActivityHourRollupDao.Properties.DeviceId.eq(deviceId),
+                        ActivityHourRollupDao.Properties.Timestamp.ge(floorToHour(timestamp_from)),
+                        ActivityHourRollupDao.Properties.Timestamp.le(timestamp_to))
+                .buildDelete().executeDeleteWithoutDetachingEntities();
+    }
+
+    /**
+     * Removes all rollups of the given device.
+     */
+    public static void deleteRollups(DaoSession session, long deviceId) {
+        nextGeneration(deviceId);
+        ActivityAmountsCache.invalidate(deviceId);
+        session.getActivityHourRollupDao().queryBuilder()
+                .where(ActivityHourRollupDao.Properties.DeviceId.eq(deviceId))
+                .buildDelete().executeDeleteWithoutDetachingEntities();
+    }
+
+    public static int floorToHour(int timestamp) {
+        int remainder = timestamp % HOUR_SECONDS;
+        if (remainder < 0) {
+            remainder += HOUR_SECONDS;
+        }
+        return timestamp - remainder;
+    }
+
+    public static int ceilToHour(int timestamp) {
+        int floor = floorToHour(timestamp);
+        return floor == timestamp ? floor : floor + HOUR_SECONDS;
+    }
+
+    private static ActivityHourRollup createRollup(AbstractSampleProvider<?> provider, long deviceId, int timestamp_from, int timestamp_to) {
+        RollupBuilder builder = new RollupBuilder(deviceId, timestamp_from);
+        provider.visitAllActivitySamples(timestamp_from, timestamp_to, builder);
+        return builder.build();
+    }
+
+    /**
+     * Splits the visited samples into hours and creates one rollup per hour, including
+     * empty ones.
+     */
+    private static class HourlyRollupCollector implements SampleVisitor<ActivitySample> {
+        private final List<ActivityHourRollup> rollups = new ArrayList<>();
+        private RollupBuilder current;
+
+        HourlyRollupCollector(long deviceId, int firstHour) {
+            current = new RollupBuilder(deviceId, firstHour);
+        }
+
+        @Override
+        public void visit(ActivitySample sample) {
+            while (sample.getTimestamp() >= current.timestamp + HOUR_SECONDS) {
+                nextHour();
+            }
+            current.visit(sample);
+        }
+
+        List<ActivityHourRollup> finish(int endHour) {
+            while (current.timestamp < endHour) {
+                nextHour();
+            }
+            return rollups;
+        }
+
+        private void nextHour() {
+            rollups.add(current.build());
+            current = new RollupBuilder(current.deviceId, current.timestamp + HOUR_SECONDS);
+        }
+    }
+
+    /**
+     * Aggregates the visited samples into a single rollup.
+     */
+    private static class RollupBuilder implements SampleVisitor<ActivitySample> {
+        private final long deviceId;
+        private final int timestamp;
+
+        private final long[] seconds = new long[BUCKET_COUNT];
+        private final int[] steps = new int[BUCKET_COUNT];
+        private int heartRateMin = 0;
+        private int heartRateMax = 0;
+        private int heartRateCount = 0;
+        private long heartRateSum = 0;
+
+        private int sampleCount = 0;
+        private int firstTimestamp;
+        private int firstRawKind;
+        private int firstKind;
+        private int lastTimestamp;
+        private int lastRawKind;
+        private int lastKind;
+
+        RollupBuilder(long deviceId, int timestamp) {
+            this.deviceId = deviceId;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public void visit(ActivitySample sample) {
+            int kind = sample.getKind();
+            int bucket = toBucket(kind);
+            int sampleSteps = sample.getSteps();
+            if (sampleSteps > 0) {
+                steps[bucket] += sampleSteps;
+            }
+            if (sampleCount == 0) {
+                firstTimestamp = sample.getTimestamp();
+                firstRawKind = sample.getRawKind();
+                firstKind = kind;
+            } else {
+                addTransition(seconds, lastTimestamp, lastRawKind, toBucket(lastKind),
+                        sample.getTimestamp(), sample.getRawKind(), bucket);
+            }
+            int heartRate = sample.getHeartRate();
+            if (heartRate >= HeartRateUtils.MIN_HEART_RATE_VALUE && heartRate <= HeartRateUtils.MAX_HEART_RATE_VALUE) {
+                if (heartRateCount == 0 || heartRate < heartRateMin) {
+                    heartRateMin = heartRate;
+                }
+                if (heartRate > heartRateMax) {
+                    heartRateMax = heartRate;
+                }
+                heartRateSum += heartRate;
+                heartRateCount++;
+            }
+            lastTimestamp = sample.getTimestamp();
+            lastRawKind = sample.getRawKind();
+            lastKind = kind;
+            sampleCount++;
+        }
+
+        ActivityHourRollup build() {
+            ActivityHourRollup rollup = new ActivityHourRollup();
+            rollup.setTimestamp(timestamp);
+            rollup.setDeviceId(deviceId);
+            rollup.setSampleCount(sampleCount);
+            rollup.setFirstTimestamp(firstTimestamp);
+            rollup.setFirstRawKind(firstRawKind);
+            rollup.setFirstKind(firstKind);
+            rollup.setLastTimestamp(lastTimestamp);
+            rollup.setLastRawKind(lastRawKind);
+            rollup.setLastKind(lastKind);
+            rollup.setActivitySeconds((int) seconds[BUCKET_ACTIVITY]);
+            rollup.setActivitySteps(steps[BUCKET_ACTIVITY]);
+            rollup.setLightSleepSeconds((int) seconds[BUCKET_LIGHT_SLEEP]);
+            rollup.setLightSleepSteps(steps[BUCKET_LIGHT_SLEEP]);
+            rollup.setDeepSleepSeconds((int) seconds[BUCKET_DEEP_SLEEP]);
+            rollup.setDeepSleepSteps(steps[BUCKET_DEEP_SLEEP]);
+            rollup.setNotWornSeconds((int) seconds[BUCKET_NOT_WORN]);
+            rollup.setNotWornSteps(steps[BUCKET_NOT_WORN]);
+            rollup.setHeartRateMin(heartRateMin);
+            rollup.setHeartRateMax(heartRateMax);
+            rollup.setHeartRateAverage(heartRateCount > 0 ? (int) (heartRateSum / heartRateCount) : 0);
+            rollup.setHeartRateCount(heartRateCount);
+            return rollup;
+        }
+    }
+
+    static ActivityAmounts joinRollups(List<ActivityHourRollup> rollups) {
+        long[] seconds = new long[BUCKET_COUNT];
+        long[] steps = new long[BUCKET_COUNT];
+
+        ActivityHourRollup previous = null;
+        for (ActivityHourRollup rollup : rollups) {
+            if (rollup.getSampleCount() == 0) {
+                continue;
+            }
+            seconds[BUCKET_ACTIVITY] += rollup.getActivitySeconds();
+            seconds[BUCKET_LIGHT_SLEEP] += rollup.getLightSleepSeconds();
+            seconds[BUCKET_DEEP_SLEEP] += rollup.getDeepSleepSeconds();
+            seconds[BUCKET_NOT_WORN] += rollup.getNotWornSeconds();
+            steps[BUCKET_ACTIVITY] += rollup.getActivitySteps();
+            steps[BUCKET_LIGHT_SLEEP] += rollup.getLightSleepSteps();
+            steps[BUCKET_DEEP_SLEEP] += rollup.getDeepSleepSteps();
+            steps[BUCKET_NOT_WORN] += rollup.getNotWornSteps();
+            if (previous != null) {
+                addTransition(seconds, previous.getLastTimestamp(), previous.getLastRawKind(), toBucket(previous.getLastKind()),
+                        rollup.getFirstTimestamp(), rollup.getFirstRawKind(), toBucket(rollup.getFirstKind()));
+            }
+            previous = rollup;
+        }
+
+        // same order and filtering as ActivityAnalysis
+        ActivityAmounts result = new ActivityAmounts();
+        addAmount(result, ActivityKind.TYPE_DEEP_SLEEP, seconds[BUCKET_DEEP_SLEEP], steps[BUCKET_DEEP_SLEEP]);
+        addAmount(result, ActivityKind.TYPE_LIGHT_SLEEP, seconds[BUCKET_LIGHT_SLEEP], steps[BUCKET_LIGHT_SLEEP]);
+        addAmount(result, ActivityKind.TYPE_ACTIVITY, seconds[BUCKET_ACTIVITY], steps[BUCKET_ACTIVITY]);
+        result.calculatePercentages();
+        return result;
+    }
+
+    private static void addAmount(ActivityAmounts amounts, int activityKind, long seconds, long steps) {
+        if (seconds > 0) {
+            ActivityAmount amount = new ActivityAmount(activityKind);
+            amount.addSeconds(seconds);
+            amount.addSteps(steps);
+            amounts.addAmount(amount);
+        }
+    }
+
+    /**
+     * Accounts the time between two consecutive samples the same way ActivityAnalysis does.
+     */
+    private static void addTransition(long[] seconds, int previousTimestamp, int previousRawKind, int previousBucket,
+                                      int timestamp, int rawKind, int bucket) {
+        long timeDifference = timestamp - previousTimestamp;
+        if (previousRawKind == rawKind) {
+            seconds[bucket] += timeDifference;
+        } else {
+            long sharedTimeDifference = (long) (timeDifference / 2.0f);
+            seconds[previousBucket] += sharedTimeDifference;
+            seconds[bucket] += sharedTimeDifference;
+        }
+    }
+
+    private static int toBucket(int activityKind) {
+        switch (activityKind) {
+            case ActivityKind.TYPE_DEEP_SLEEP:
+                return BUCKET_DEEP_SLEEP;
+            case ActivityKind.TYPE_LIGHT_SLEEP:
+                return BUCKET_LIGHT_SLEEP;
+            case ActivityKind.TYPE_NOT_WORN:
+                return BUCKET_NOT_WORN;
+            case ActivityKind.TYPE_ACTIVITY:
+            default:
+                return BUCKET_ACTIVITY;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import android.content.Intent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.GBException;
+import nodomain.freeyourgadget.gadgetbridge.database.SampleIngestionPipeline;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
+
+/**
+ * Records the realtime samples of a device, e.g. the heart rate and steps measured
+ * every second while the live activity is shown.
+ * <p>
+ * The most recent samples are kept in memory, in a fixed size ring buffer, and are
+ * handed to the registered listeners directly. The samples themselves are written
+ * in batches by the SampleIngestionPipeline, so recording never waits for the
+ * database.
+ * <p>
+ * All samples are broadcast as DeviceService#ACTION_REALTIME_SAMPLES as well, with the
+ * device as GBDevice#EXTRA_DEVICE, so that listeners can skip the ones they already got.
+ */
+public class RealtimeSampleRecorder {
+    private static final Logger LOG = LoggerFactory.getLogger(RealtimeSampleRecorder.class);
+
+    // one hour of samples at one per second
+    static final int CAPACITY = 60 * 60;
+
+    private static final Map<String, RealtimeSampleRecorder> recorders = new HashMap<>();
+
+    public interface Listener {
+        /**
+         * Called on the thread that recorded the sample.
+         *
+         * @param steps the steps since the previous sample, or ActivitySample.NOT_MEASURED
+         */
+        void onRealtimeSample(int timestamp, int heartRate, int steps);
+    }
+
+    private final String address;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final int[] timestamps;
+    private final int[] heartRates;
+    private final int[] steps;
+    // index of the next sample, and number of samples kept
+    private int next;
+    private int size;
+
+    public static RealtimeSampleRecorder getInstance(GBDevice device) {
+        synchronized (recorders) {
+            RealtimeSampleRecorder recorder = recorders.get(device.getAddress());
+            if (recorder == null) {
+                recorder = new RealtimeSampleRecorder(device.getAddress(), CAPACITY);
+                recorders.put(device.getAddress(), recorder);
+            }
+            return recorder;
+        }
+    }
+
+    RealtimeSampleRecorder(String address, int capacity) {
+        this.address = address;
+        timestamps = new int[capacity];
+        heartRates = new int[capacity];
+        steps = new int[capacity];
+    }
+
+    /**
+     * @return the address of the device whose samples are recorded
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Records a realtime sample.
+     *
+     * @param device          the device that measured the sample
+     * @param sample          the sample to store, without its device and user id. It must
+     *                        not be modified anymore.
+     * @param broadcastSample the same sample for the listeners and receivers, with the
+     *                        steps since the previous sample. The steps are only kept in
+     *                        memory, since the regular activity samples contain them as well.
+     */
+    public void record(GBDevice device, AbstractActivitySample sample, AbstractActivitySample broadcastSample) throws GBException {
+        SampleIngestionPipeline.getInstance().add(sample, device);
+
+        int timestamp = broadcastSample.getTimestamp();
+        int heartRate = broadcastSample.getHeartRate();
+        int steps = broadcastSample.getSteps();
+        synchronized (this) {
+            timestamps[next] = timestamp;
+            heartRates[next] = heartRate;
+            this.steps[next] = steps;
+            next = (next + 1) % timestamps.length;
+            size = Math.min(size + 1, timestamps.length);
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("realtime sample: " + broadcastSample);
+        }
+
+        for (Listener listener : listeners) {
+            listener.onRealtimeSample(timestamp, heartRate, steps);
+        }
+
+        Intent intent = new Intent(DeviceService.ACTION_REALTIME_SAMPLES)
+                .putExtra(GBDevice.EXTRA_DEVICE, device)
+                .putExtra(DeviceService.EXTRA_REALTIME_SAMPLE, broadcastSample);
+        LocalBroadcastManager.getInstance(GBApplication.getContext()).sendBroadcast(intent);
+    }
+
+    /**
+     * Hands the buffered samples not older than the given timestamp to the given
+     * listener, oldest first.
+     */
+    public synchronized void visitSince(int timestamp, Listener listener) {
+        int first = next - size;
+        if (first < 0) {
+            first += timestamps.length;
+        }
+        for (int i = 0; i < size; i++) {
+            int index = (first + i) % timestamps.length;
+            if (timestamps[index] >= timestamp) {
+                listener.onRealtimeSample(timestamps[index], heartRates[index], steps[index]);
+            }
+        }
+    }
+
+    /**
+     * @return the number of buffered samples
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Called when the device stops sending realtime data: writes the pending samples soon.
+     */
+    public void stop() {
+        SampleIngestionPipeline.getInstance().requestFlush();
+    }
+}
@@ -22,6 +22,7 @@ import java.util.List;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
 
 /**
  * Interface to retrieve samples from the database, and also create and add samples to the database.
@@ -73,6 +74,27 @@ public interface SampleProvider<T extends AbstractActivitySample> {
     @NonNull
     List<T> getSleepSamples(int timestamp_from, int timestamp_to);
 
+    /**
+     * Passes all samples, of any type, within the given time span to the given visitor,
+     * in ascending timestamp order. Other than #getAllActivitySamples(), this does not
+     * need to keep all samples in memory at the same time.
+     * @param timestamp_from the start timestamp
+     * @param timestamp_to the end timestamp
+     * @param visitor the visitor to receive the samples
+     */
+    void visitAllActivitySamples(int timestamp_from, int timestamp_to, SampleVisitor<? super T> visitor);
+
+    /**
+     * Returns the amounts of the different activity kinds within the given time span, as
+     * calculated by ActivityAnalysis. Implementations may use pre-aggregated data instead
+     * of reading all the samples.
+     * @param timestamp_from the start timestamp
+     * @param timestamp_to the end timestamp
+     * @return the activity amounts
+     */
+    @NonNull
+    ActivityAmounts getActivityAmounts(int timestamp_from, int timestamp_to);
+
     /**
      * Adds the given sample to the database. An existing sample with the same
      * timestamp will be overwritten.
@@ -0,0 +1,34 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.devices;
+
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+
+/**
+ * Callback for streaming access to samples, see
+ * {@link SampleProvider#visitAllActivitySamples(int, int, SampleVisitor)}.
+ *
+ * @param <T> the sample type
+ */
+public interface SampleVisitor<T extends ActivitySample> {
+    /**
+     * Called once for every sample, in ascending timestamp order. The sample must not
+     * be kept after returning, implementations should only extract the values they need.
+     * @param sample the current sample
+     */
+    void visit(T sample);
+}
@@ -32,6 +32,7 @@ import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDeviceCandidate;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
 
@@ -69,6 +70,15 @@ public class UnknownDeviceCoordinator extends AbstractDeviceCoordinator {
             return null;
         }
 
+        @Override
+        public void visitAllActivitySamples(int timestamp_from, int timestamp_to, SampleVisitor visitor) {
+        }
+
+        @Override
+        public ActivityAmounts getActivityAmounts(int timestamp_from, int timestamp_to) {
+            return new ActivityAmounts();
+        }
+
         @Override
         public void addGBActivitySample(AbstractActivitySample activitySample) {
         }
@@ -18,11 +18,12 @@ package nodomain.freeyourgadget.gadgetbridge.devices.banglejs;
 
 import java.util.UUID;
 
+import nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.uart.NordicUartProfile;
+
 public final class BangleJSConstants {
 
 
-    public static final UUID UUID_SERVICE_NORDIC_UART = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
-    public static final UUID UUID_CHARACTERISTIC_NORDIC_UART_TX = UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
-    public static final UUID UUID_CHARACTERISTIC_NORDIC_UART_RX = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+    // the characteristics are only used by NordicUartProfile
+    public static final UUID UUID_SERVICE_NORDIC_UART = NordicUartProfile.UUID_SERVICE_NORDIC_UART;
 
 }
@@ -21,9 +21,9 @@ package nodomain.freeyourgadget.gadgetbridge.devices.hplus;
 * @author João Paulo Barraca &lt;jpbarraca@gmail.com&gt;
 */
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.GregorianCalendar;
 import java.util.List;
 
@@ -33,8 +33,9 @@ import de.greenrobot.dao.Property;
 import de.greenrobot.dao.query.QueryBuilder;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityOverlaySweep;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
-import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivityOverlay;
 import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivityOverlayDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySample;
@@ -127,87 +128,34 @@ public class HPlusHealthSampleProvider extends AbstractSampleProvider<HPlusHealt
     public List<HPlusHealthActivitySample> getAllActivitySamples(int timestamp_from, int timestamp_to) {
         List<HPlusHealthActivitySample> samples = super.getGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ALL);
 
-        Device dbDevice = DBHelper.findDevice(getDevice(), getSession());
-        if (dbDevice == null) {
+        Long deviceId = DBHelper.findDeviceId(getDevice(), getSession());
+        if (deviceId == null) {
             return Collections.emptyList();
         }
 
         QueryBuilder<HPlusHealthActivityOverlay> qb = getSession().getHPlusHealthActivityOverlayDao().queryBuilder();
 
-        qb.where(HPlusHealthActivityOverlayDao.Properties.DeviceId.eq(dbDevice.getId()),
+        qb.where(HPlusHealthActivityOverlayDao.Properties.DeviceId.eq(deviceId),
                 HPlusHealthActivityOverlayDao.Properties.TimestampFrom.ge(timestamp_from - 3600 * 24),
                 HPlusHealthActivityOverlayDao.Properties.TimestampTo.le(timestamp_to),
                 HPlusHealthActivityOverlayDao.Properties.TimestampTo.ge(timestamp_from));
 
         List<HPlusHealthActivityOverlay> overlayRecords = qb.build().list();
 
-
-
-        //Apply Overlays
-        for (HPlusHealthActivityOverlay overlay : overlayRecords) {
-
-            //Create fake events to improve activity counters if there are no events around the overlay
-            //timestamp boundaries
-            //Insert one before, one at the beginning, one at the end, and one 1s after.
-            insertVirtualItem(samples, Math.max(overlay.getTimestampFrom() - 1, timestamp_from), overlay.getDeviceId(), overlay.getUserId());
-            insertVirtualItem(samples, Math.max(overlay.getTimestampFrom(), timestamp_from), overlay.getDeviceId(), overlay.getUserId());
-            insertVirtualItem(samples, Math.min(overlay.getTimestampTo() - 1, timestamp_to - 1), overlay.getDeviceId(), overlay.getUserId());
-            insertVirtualItem(samples, Math.min(overlay.getTimestampTo(), timestamp_to), overlay.getDeviceId(), overlay.getUserId());
-        }
-
-        Collections.sort(samples, new Comparator<HPlusHealthActivitySample>() {
-            public int compare(HPlusHealthActivitySample one, HPlusHealthActivitySample other) {
-                return one.getTimestamp() - other.getTimestamp();
-            }
-        });
-
-        //Apply Overlays
-        for (HPlusHealthActivityOverlay overlay : overlayRecords) {
-
-            long nonSleepTimeEnd = 0;
-            for (HPlusHealthActivitySample sample : samples) {
-                if (sample.getRawKind() == ActivityKind.TYPE_NOT_WORN)
-                    continue;
-
-                if (sample.getTimestamp() >= overlay.getTimestampFrom() && sample.getTimestamp() < overlay.getTimestampTo()) {
-                    if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN || overlay.getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP || overlay.getRawKind() == ActivityKind.TYPE_DEEP_SLEEP) {
-                        if (sample.getRawKind() == HPlusDataRecord.TYPE_DAY_SLOT && sample.getSteps() > 0){
-                            nonSleepTimeEnd = sample.getTimestamp() + 10 * 60; // 10 minutes
-                            continue;
-                        }else if(sample.getRawKind() == HPlusDataRecord.TYPE_REALTIME && sample.getTimestamp() <= nonSleepTimeEnd){
-                            continue;
-                        }
-
-                        if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN)
-                            sample.setHeartRate(0);
-
-                        if (sample.getRawKind() != ActivityKind.TYPE_NOT_WORN)
-                            sample.setRawKind(overlay.getRawKind());
-
-                        sample.setRawIntensity(10);
-                    }
-                }
-            }
-        }
-
-
+        samples = applyOverlays(samples, overlayRecords, timestamp_from, timestamp_to);
 
         //Fix Step counters
         //Todays sample steps will come from the Day Slots messages
         //Historical steps will be provided by Day Summaries messages
         //This will allow both week and current day results to be consistent
-        Calendar today = GregorianCalendar.getInstance();
-        today.set(Calendar.HOUR_OF_DAY, 0);
-        today.set(Calendar.MINUTE, 0);
-        today.set(Calendar.SECOND, 0);
-        today.set(Calendar.MILLISECOND, 0);
+        int startOfToday = getStartOfToday();
 
         int stepsTodayMax = 0;
         int stepsTodayCount = 0;
         HPlusHealthActivitySample lastSample = null;
 
         for (HPlusHealthActivitySample sample: samples) {
-             if (sample.getTimestamp() >= today.getTimeInMillis() / 1000) {
+             if (sample.getTimestamp() >= startOfToday) {
 
                 /**Strategy is:
                  * Calculate max steps from realtime messages
@@ -237,7 +185,58 @@ public class HPlusHealthSampleProvider extends AbstractSampleProvider<HPlusHealt
         return samples;
     }
 
-    private List<HPlusHealthActivitySample> insertVirtualItem(List<HPlusHealthActivitySample> samples, int timestamp, long deviceId, long userId) {
+    @Override
+    public void visitAllActivitySamples(int timestamp_from, int timestamp_to, SampleVisitor<? super HPlusHealthActivitySample> visitor) {
+        // the overlays and step corrections need all samples of the range at once
+        for (HPlusHealthActivitySample sample : getAllActivitySamples(timestamp_from, timestamp_to)) {
+            visitor.visit(sample);
+        }
+    }
+
+    private List<HPlusHealthActivitySample> applyOverlays(List<HPlusHealthActivitySample> samples, List<HPlusHealthActivityOverlay> overlayRecords, int timestamp_from, int timestamp_to) {
+        //Create fake events to improve activity counters if there are no events around the overlay
+        //timestamp boundaries
+        //Insert one before, one at the beginning, one at the end, and one 1s after.
+        List<HPlusHealthActivitySample> virtualSamples = new ArrayList<>(overlayRecords.size() * 4);
+        for (HPlusHealthActivityOverlay overlay : overlayRecords) {
+            insertVirtualItem(virtualSamples, Math.max(overlay.getTimestampFrom() - 1, timestamp_from), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(virtualSamples, Math.max(overlay.getTimestampFrom(), timestamp_from), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(virtualSamples, Math.min(overlay.getTimestampTo() - 1, timestamp_to - 1), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(virtualSamples, Math.min(overlay.getTimestampTo(), timestamp_to), overlay.getDeviceId(), overlay.getUserId());
+        }
+        samples = ActivityOverlaySweep.merge(samples, virtualSamples);
+
+        //Apply Overlays, all overlays covering a sample in the order they were read
+        ActivityOverlaySweep<HPlusHealthActivityOverlay> overlays = new ActivityOverlaySweep<>(overlayRecords);
+        long[] nonSleepTimeEnd = new long[overlayRecords.size()];
+        for (HPlusHealthActivitySample sample : samples) {
+            int count = overlays.seek(sample.getTimestamp());
+            for (int i = 0; i < count; i++) {
+                HPlusHealthActivityOverlay overlay = overlays.getActive(i);
+                if (sample.getRawKind() == ActivityKind.TYPE_NOT_WORN)
+                    break;
+
+                if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN || overlay.getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP || overlay.getRawKind() == ActivityKind.TYPE_DEEP_SLEEP) {
+                    int index = overlays.getActiveIndex(i);
+                    if (sample.getRawKind() == HPlusDataRecord.TYPE_DAY_SLOT && sample.getSteps() > 0){
+                        nonSleepTimeEnd[index] = sample.getTimestamp() + 10 * 60; // 10 minutes
+                        continue;
+                    }else if(sample.getRawKind() == HPlusDataRecord.TYPE_REALTIME && sample.getTimestamp() <= nonSleepTimeEnd[index]){
+                        continue;
+                    }
+
+                    if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN)
+                        sample.setHeartRate(0);
+
+                    sample.setRawKind(overlay.getRawKind());
+                    sample.setRawIntensity(10);
+                }
+            }
+        }
+        return samples;
+    }
+
+    private void insertVirtualItem(List<HPlusHealthActivitySample> samples, int timestamp, long deviceId, long userId) {
         HPlusHealthActivitySample sample = new HPlusHealthActivitySample(
                 timestamp,            // ts
                 deviceId,
@@ -253,8 +252,28 @@ public class HPlusHealthSampleProvider extends AbstractSampleProvider<HPlusHealt
 
         sample.setProvider(this);
         samples.add(sample);
+    }
 
-        return samples;
+    private static int getStartOfToday() {
+        Calendar today = GregorianCalendar.getInstance();
+        today.set(Calendar.HOUR_OF_DAY, 0);
+        today.set(Calendar.MINUTE, 0);
+        today.set(Calendar.SECOND, 0);
+        today.set(Calendar.MILLISECOND, 0);
+        return (int) (today.getTimeInMillis() / 1000);
+    }
+
+    @Override
+    protected boolean supportsRollups() {
+        // samples are patched with overlays, which are stored separately
+        return false;
+    }
+
+    @Override
+    protected boolean isAmountsCacheable(int timestamp_from, int timestamp_to) {
+        // HPlusHandlerThread invalidates the amounts when writing overlays, but the steps
+        // of the current day are counted differently and change at midnight
+        return timestamp_to < getStartOfToday();
     }
 }
 
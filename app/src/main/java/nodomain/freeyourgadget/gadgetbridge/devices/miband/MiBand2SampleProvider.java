@@ -20,11 +20,13 @@ package nodomain.freeyourgadget.gadgetbridge.devices.miband;
 import java.util.List;
 
 import de.greenrobot.dao.query.QueryBuilder;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
 import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiConst;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 
 import static nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiConst.TYPE_IGNORE;
 import static nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiConst.TYPE_NO_CHANGE;
@@ -43,6 +45,24 @@ public class MiBand2SampleProvider extends AbstractMiBandSampleProvider {
         return samples;
     }
 
+    @Override
+    public void visitAllActivitySamples(int timestamp_from, int timestamp_to, final SampleVisitor<? super MiBandActivitySample> visitor) {
+        visitGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ALL, new SampleVisitor<MiBandActivitySample>() {
+            private boolean first = true;
+            private int lastValidKind;
+
+            @Override
+            public void visit(MiBandActivitySample sample) {
+                if (first) {
+                    lastValidKind = determinePreviousValidActivityType(sample);
+                    first = false;
+                }
+                lastValidKind = postprocess(sample, lastValidKind);
+                visitor.visit(sample);
+            }
+        });
+    }
+
     /**
      * "Temporary" runtime post processing of activity kinds.
      * @param samples
@@ -54,23 +74,26 @@ public class MiBand2SampleProvider extends AbstractMiBandSampleProvider {
 
         int lastValidKind = determinePreviousValidActivityType(samples.get(0));
         for (MiBandActivitySample sample : samples) {
-            int rawKind = sample.getRawKind();
-            if (rawKind != TYPE_UNSET) {
-                rawKind &= 0xf;
-                sample.setRawKind(rawKind);
-            }
+            lastValidKind = postprocess(sample, lastValidKind);
+        }
+    }
 
-            switch (rawKind) {
-                case TYPE_IGNORE:
-                case TYPE_NO_CHANGE:
-                    if (lastValidKind != TYPE_UNSET) {
-                        sample.setRawKind(lastValidKind);
-                    }
-                    break;
-                default:
-                    lastValidKind = rawKind;
-                    break;
-            }
+    private int postprocess(MiBandActivitySample sample, int lastValidKind) {
+        int rawKind = sample.getRawKind();
+        if (rawKind != TYPE_UNSET) {
+            rawKind &= 0xf;
+            sample.setRawKind(rawKind);
+        }
+
+        switch (rawKind) {
+            case TYPE_IGNORE:
+            case TYPE_NO_CHANGE:
+                if (lastValidKind != TYPE_UNSET) {
+                    sample.setRawKind(lastValidKind);
+                }
+                return lastValidKind;
+            default:
+                return rawKind;
         }
     }
 
@@ -20,13 +20,15 @@ package nodomain.freeyourgadget.gadgetbridge.devices.pebble;
 import java.util.Collections;
 import java.util.List;
 
+import androidx.annotation.Nullable;
 import de.greenrobot.dao.AbstractDao;
 import de.greenrobot.dao.Property;
 import de.greenrobot.dao.query.QueryBuilder;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.devices.AbstractSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityOverlaySweep;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
-import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlay;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlayDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySample;
@@ -54,29 +56,58 @@ public class PebbleHealthSampleProvider extends AbstractSampleProvider<PebbleHea
     public List<PebbleHealthActivitySample> getAllActivitySamples(int timestamp_from, int timestamp_to) {
         List<PebbleHealthActivitySample> samples = super.getGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ALL);
 
-        Device dbDevice = DBHelper.findDevice(getDevice(), getSession());
-        if (dbDevice == null) {
+        List<PebbleHealthActivityOverlay> overlayRecords = getOverlays(timestamp_from, timestamp_to);
+        if (overlayRecords == null) {
             // no device, no samples
             return Collections.emptyList();
         }
 
+        ActivityOverlaySweep<PebbleHealthActivityOverlay> overlays = new ActivityOverlaySweep<>(overlayRecords);
+        for (PebbleHealthActivitySample sample : samples) {
+            applyOverlays(sample, overlays);
+        }
+        detachFromSession();
+        return samples;
+    }
+
+    @Override
+    public void visitAllActivitySamples(int timestamp_from, int timestamp_to, final SampleVisitor<? super PebbleHealthActivitySample> visitor) {
+        List<PebbleHealthActivityOverlay> overlayRecords = getOverlays(timestamp_from, timestamp_to);
+        if (overlayRecords == null) {
+            // no device, no samples
+            return;
+        }
+        final ActivityOverlaySweep<PebbleHealthActivityOverlay> overlays = new ActivityOverlaySweep<>(overlayRecords);
+        visitGBActivitySamples(timestamp_from, timestamp_to, ActivityKind.TYPE_ALL, new SampleVisitor<PebbleHealthActivitySample>() {
+            @Override
+            public void visit(PebbleHealthActivitySample sample) {
+                applyOverlays(sample, overlays);
+                visitor.visit(sample);
+            }
+        });
+    }
+
+    @Nullable
+    private List<PebbleHealthActivityOverlay> getOverlays(int timestamp_from, int timestamp_to) {
+        Long deviceId = DBHelper.findDeviceId(getDevice(), getSession());
+        if (deviceId == null) {
+            return null;
+        }
+
         QueryBuilder<PebbleHealthActivityOverlay> qb = getSession().getPebbleHealthActivityOverlayDao().queryBuilder();
 
         // I assume it returns the records by id ascending ... (last overlay is dominant)
-        qb.where(PebbleHealthActivityOverlayDao.Properties.DeviceId.eq(dbDevice.getId()), PebbleHealthActivityOverlayDao.Properties.TimestampTo.ge(timestamp_from))
+        qb.where(PebbleHealthActivityOverlayDao.Properties.DeviceId.eq(deviceId), PebbleHealthActivityOverlayDao.Properties.TimestampTo.ge(timestamp_from))
                 .where(PebbleHealthActivityOverlayDao.Properties.TimestampFrom.le(timestamp_to));
-        List<PebbleHealthActivityOverlay> overlayRecords = qb.build().list();
-
-        for (PebbleHealthActivityOverlay overlay : overlayRecords) {
-            for (PebbleHealthActivitySample sample : samples) {
-                if (overlay.getTimestampFrom() <= sample.getTimestamp() && sample.getTimestamp() < overlay.getTimestampTo()) {
-                    // patch in the raw kind
-                    sample.setRawKind(overlay.getRawKind());
-                }
-            }
+        return qb.build().list();
+    }
+
+    private void applyOverlays(PebbleHealthActivitySample sample, ActivityOverlaySweep<PebbleHealthActivityOverlay> overlays) {
+        int count = overlays.seek(sample.getTimestamp());
+        if (count > 0) {
+            // patch in the raw kind of the last overlay covering the sample
+            sample.setRawKind(overlays.getActive(count - 1).getRawKind());
         }
-        detachFromSession();
-        return samples;
     }
 
     @Override
@@ -142,4 +173,16 @@ public class PebbleHealthSampleProvider extends AbstractSampleProvider<PebbleHea
     public float normalizeIntensity(int rawIntensity) {
         return rawIntensity / movementDivisor;
     }
+
+    @Override
+    protected boolean supportsRollups() {
+        // samples are patched with overlays, which are stored separately
+        return false;
+    }
+
+    @Override
+    protected boolean isAmountsCacheable(int timestamp_from, int timestamp_to) {
+        // the datalog sessions invalidate the amounts when storing samples or overlays
+        return true;
+    }
 }
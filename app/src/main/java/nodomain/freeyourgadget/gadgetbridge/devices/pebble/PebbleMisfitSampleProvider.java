@@ -69,4 +69,10 @@ public class PebbleMisfitSampleProvider extends AbstractSampleProvider<PebbleMis
     protected Property getDeviceIdentifierSampleProperty() {
         return PebbleMisfitSampleDao.Properties.DeviceId;
     }
+
+    @Override
+    protected boolean supportsRollups() {
+        // the provider may be switched in the preferences, the rollups would be mixed up then
+        return false;
+    }
 }
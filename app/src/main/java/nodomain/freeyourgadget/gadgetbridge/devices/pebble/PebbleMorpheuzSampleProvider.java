@@ -72,4 +72,10 @@ public class PebbleMorpheuzSampleProvider extends AbstractSampleProvider<PebbleM
     public int toRawActivityKind(int activityKind) {
         return activityKind;
     }
+
+    @Override
+    protected boolean supportsRollups() {
+        // the provider may be switched in the preferences, the rollups would be mixed up then
+        return false;
+    }
 }
@@ -0,0 +1,282 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.externalevents;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.palette.graphics.Palette;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PebbleColor;
+import nodomain.freeyourgadget.gadgetbridge.model.AppNotificationType;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
+import nodomain.freeyourgadget.gadgetbridge.util.BitmapUtil;
+import nodomain.freeyourgadget.gadgetbridge.util.PebbleUtils;
+
+/**
+ * Keeps what NotificationListener needs to know about an app (label, notification type,
+ * Pebble color and notification filter) by package name, so that the PackageManager is
+ * only asked once per app. An entry is dropped when its package is added, replaced or
+ * removed, and the least recently used ones when there are more than MAX_ENTRIES.
+ */
+class AppMetadataCache {
+    private static final Logger LOG = LoggerFactory.getLogger(AppMetadataCache.class);
+
+    static final int MAX_ENTRIES = 128;
+
+    private final Context context;
+    private final Map<String, AppMetadata> entries = new LinkedHashMap<String, AppMetadata>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AppMetadata> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    // incremented on every invalidation, so that entries loaded before are not stored
+    private long generation;
+    private ExecutorService warmUpExecutor;
+
+    private final BroadcastReceiver packageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri data = intent.getData();
+            if (data != null && data.getSchemeSpecificPart() != null) {
+                LOG.debug("Package changed ({}): {}", intent.getAction(), data.getSchemeSpecificPart());
+                invalidate(data.getSchemeSpecificPart());
+            } else {
+                invalidateAll();
+            }
+        }
+    };
+
+    AppMetadataCache(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Starts listening for package changes.
+     */
+    void register() {
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        context.registerReceiver(packageReceiver, filter);
+    }
+
+    void unregister() {
+        context.unregisterReceiver(packageReceiver);
+        synchronized (entries) {
+            if (warmUpExecutor != null) {
+                warmUpExecutor.shutdownNow();
+                warmUpExecutor = null;
+            }
+        }
+        invalidateAll();
+    }
+
+    /**
+     * @return the metadata of the given package, looked up now if it is not cached
+     */
+    @NonNull
+    AppMetadata get(@NonNull String packageName) {
+        long loadGeneration;
+        synchronized (entries) {
+            AppMetadata metadata = entries.get(packageName);
+            if (metadata != null) {
+                return metadata;
+            }
+            loadGeneration = generation;
+        }
+        // looked up outside of the lock, the icon color may take a while
+        AppMetadata metadata = load(packageName);
+        synchronized (entries) {
+            if (loadGeneration != generation) {
+                // the package changed while it was looked up, the next call looks it up again
+                return metadata;
+            }
+            AppMetadata existing = entries.get(packageName);
+            if (existing != null) {
+                return existing;
+            }
+            entries.put(packageName, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * Looks up the given packages in a background thread, so that the next notification
+     * of one of them does not have to wait for the PackageManager.
+     */
+    void warmUp(Collection<String> packageNames) {
+        final List<String> pending = new ArrayList<>(packageNames);
+        if (pending.isEmpty()) {
+            return;
+        }
+        synchronized (entries) {
+            if (warmUpExecutor == null) {
+                warmUpExecutor = Executors.newSingleThreadExecutor();
+            }
+            warmUpExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.currentTimeMillis();
+                    for (String packageName : pending) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            return;
+                        }
+                        get(packageName);
+                    }
+                    LOG.debug("Loaded metadata of {} apps in {} ms", pending.size(), System.currentTimeMillis() - start);
+                }
+            });
+        }
+    }
+
+    void invalidate(String packageName) {
+        synchronized (entries) {
+            // notifications are looked up with the lower case package name, calls with the original one
+            entries.remove(packageName);
+            entries.remove(packageName.toLowerCase());
+            generation++;
+        }
+    }
+
+    void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            generation++;
+        }
+    }
+
+    private AppMetadata load(String packageName) {
+        PackageManager pm = context.getPackageManager();
+        String label = null;
+        try {
+            label = (String) pm.getApplicationLabel(pm.getApplicationInfo(packageName, 0));
+        } catch (PackageManager.NameNotFoundException e) {
+            LOG.debug("No application label for " + packageName);
+        }
+
+        NotificationType type = AppNotificationType.getInstance().get(packageName);
+        if (type == null) {
+            type = NotificationType.UNKNOWN;
+        }
+        return new AppMetadata(packageName, label, type, getPebbleColor(pm, packageName, type));
+    }
+
+    /**
+     * See Issue #815 on GitHub to see how notification colors are set.
+     */
+    private static byte getPebbleColor(PackageManager pm, String packageName, NotificationType type) {
+        // If the notification type is known, return the associated color.
+        if (type != NotificationType.UNKNOWN) {
+            return type.color;
+        }
+
+        // Otherwise, we go and attempt to find the color from the app icon.
+        Drawable icon;
+        try {
+            icon = pm.getApplicationIcon(packageName);
+        } catch (Exception ex) {
+            // If we can't get the icon, we go with the default defined above.
+            LOG.warn("Could not get icon for AppID " + packageName, ex);
+            return PebbleColor.IslamicGreen;
+        }
+        if (icon == null) {
+            return PebbleColor.IslamicGreen;
+        }
+
+        Bitmap bitmapIcon = BitmapUtil.convertDrawableToBitmap(icon);
+        int iconPrimaryColor = new Palette.Builder(bitmapIcon)
+                .generate()
+                .getVibrantColor(Color.parseColor("#aa0000"));
+
+        return PebbleUtils.getPebbleColor(iconPrimaryColor);
+    }
+
+    static class AppMetadata {
+        private final String packageName;
+        private final String label;
+        private final NotificationType type;
+        private final byte pebbleColor;
+
+        // the filter as of filterGeneration, see NotificationFilterCache#getGeneration()
+        private NotificationFilterCache.CompiledFilter filter;
+        private long filterGeneration = -1;
+
+        AppMetadata(String packageName, String label, NotificationType type, byte pebbleColor) {
+            this.packageName = packageName;
+            this.label = label;
+            this.type = type;
+            this.pebbleColor = pebbleColor;
+        }
+
+        /**
+         * @return the application label, or null if the package is unknown
+         */
+        @Nullable
+        String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return the notification type, NotificationType.UNKNOWN if there is no specific one
+         */
+        @NonNull
+        NotificationType getType() {
+            return type;
+        }
+
+        byte getPebbleColor() {
+            return pebbleColor;
+        }
+
+        /**
+         * @return the notification filter of this app, or null if there is none
+         */
+        @Nullable
+        synchronized NotificationFilterCache.CompiledFilter getFilter() throws Exception {
+            long generation = NotificationFilterCache.getGeneration();
+            if (generation != filterGeneration) {
+                filter = NotificationFilterCache.getFilter(packageName);
+                filterGeneration = generation;
+            }
+            return filter;
+        }
+    }
+}
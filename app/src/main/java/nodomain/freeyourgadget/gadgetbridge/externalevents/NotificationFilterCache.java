@@ -0,0 +1,195 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.externalevents;
+
+import androidx.annotation.NonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
+import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilter;
+import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilterEntry;
+import nodomain.freeyourgadget.gadgetbridge.util.MultiPatternMatcher;
+
+import static nodomain.freeyourgadget.gadgetbridge.activities.NotificationFilterActivity.NOTIFICATION_FILTER_MODE_BLACKLIST;
+import static nodomain.freeyourgadget.gadgetbridge.activities.NotificationFilterActivity.NOTIFICATION_FILTER_MODE_WHITELIST;
+import static nodomain.freeyourgadget.gadgetbridge.activities.NotificationFilterActivity.NOTIFICATION_FILTER_SUBMODE_ALL;
+
+/**
+ * Keeps all notification filters in memory, with the words of each filter compiled
+ * into a MultiPatternMatcher. The filters are loaded from the database on first use
+ * and again after #invalidate(), which must be called whenever NotificationFilter or
+ * NotificationFilterEntry rows are changed.
+ */
+public class NotificationFilterCache {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationFilterCache.class);
+
+    private static final Object lock = new Object();
+    // by app identifier, null when not loaded
+    private static Map<String, CompiledFilter> filters;
+    private static long generation;
+
+    private NotificationFilterCache() {
+    }
+
+    /**
+     * @return the filter of the given app, or null if there is none
+     */
+    static CompiledFilter getFilter(String packageName) throws Exception {
+        Map<String, CompiledFilter> current;
+        long loadGeneration;
+        synchronized (lock) {
+            current = filters;
+            loadGeneration = generation;
+        }
+        if (current == null) {
+            current = load();
+            synchronized (lock) {
+                // do not keep filters that have been changed while they were loaded
+                if (generation == loadGeneration) {
+                    filters = current;
+                }
+            }
+        }
+        return current.get(packageName.toLowerCase());
+    }
+
+    /**
+     * Drops all filters, they are loaded again on the next notification.
+     */
+    public static void invalidate() {
+        synchronized (lock) {
+            filters = null;
+            generation++;
+        }
+    }
+
+    /**
+     * @return a number that changes whenever the filters are invalidated
+     */
+    static long getGeneration() {
+        synchronized (lock) {
+            return generation;
+        }
+    }
+
+    private static Map<String, CompiledFilter> load() throws Exception {
+        long start = System.currentTimeMillis();
+        List<NotificationFilter> notificationFilters;
+        List<NotificationFilterEntry> filterEntries;
+        try (DBHandler db = GBApplication.acquireReadDB()) {
+            DaoSession session = db.getDaoSession();
+            notificationFilters = session.getNotificationFilterDao().loadAll();
+            filterEntries = session.getNotificationFilterEntryDao().loadAll();
+        }
+
+        Map<Long, List<String>> wordsByFilterId = new HashMap<>();
+        for (NotificationFilterEntry entry : filterEntries) {
+            List<String> words = wordsByFilterId.get(entry.getNotificationFilterId());
+            if (words == null) {
+                words = new ArrayList<>();
+                wordsByFilterId.put(entry.getNotificationFilterId(), words);
+            }
+            words.add(entry.getNotificationFilterContent());
+        }
+
+        Map<String, CompiledFilter> result = new HashMap<>();
+        for (NotificationFilter notificationFilter : notificationFilters) {
+            List<String> words = wordsByFilterId.get(notificationFilter.getId());
+            result.put(notificationFilter.getAppIdentifier(), new CompiledFilter(
+                    notificationFilter.getNotificationFilterMode(),
+                    notificationFilter.getNotificationFilterSubMode(),
+                    words != null ? words : Collections.<String>emptyList()));
+        }
+        LOG.info("Loaded {} notification filters with {} words in {} ms", result.size(), filterEntries.size(), System.currentTimeMillis() - start);
+        return result;
+    }
+
+    static class CompiledFilter {
+        private final int mode;
+        private final boolean allMode;
+        private final MultiPatternMatcher matcher;
+
+        CompiledFilter(int mode, int subMode, @NonNull List<String> words) {
+            this.mode = mode;
+            this.allMode = subMode == NOTIFICATION_FILTER_SUBMODE_ALL;
+            this.matcher = new MultiPatternMatcher(words);
+        }
+
+        /**
+         * @return false if the notification with the given body must not be forwarded
+         */
+        boolean shouldContinue(@NonNull String body) {
+            LOG.debug("Mode: '{}' Submode: '{}' Words: '{}'", mode, allMode ? "all" : "any", matcher.getPatternCount());
+
+            switch (mode) {
+                case NOTIFICATION_FILTER_MODE_BLACKLIST:
+                    if (allMode) {
+                        if (!matcher.containsAll(body)) {
+                            LOG.info("Not every word was found, blacklist has no effect, processing continues.");
+                            return true;
+                        }
+                        LOG.info("Every word was found, blacklist has effect, processing stops.");
+                        return false;
+                    } else {
+                        boolean containsAny = containsAny(body);
+                        if (!containsAny) {
+                            LOG.info("No matching word was found, blacklist has no effect, processing continues.");
+                        } else {
+                            LOG.info("At least one matching word was found, blacklist has effect, processing stops.");
+                        }
+                        return !containsAny;
+                    }
+
+                case NOTIFICATION_FILTER_MODE_WHITELIST:
+                    if (allMode) {
+                        if (!matcher.containsAll(body)) {
+                            LOG.info("Not every word was found, whitelist has no effect, processing stops.");
+                            return false;
+                        }
+                        LOG.info("Every word was found, whitelist has effect, processing continues.");
+                        return true;
+                    } else {
+                        boolean containsAny = containsAny(body);
+                        if (containsAny) {
+                            LOG.info("At least one matching word was found, whitelist has effect, processing continues.");
+                        } else {
+                            LOG.info("No matching word was found, whitelist has no effect, processing stops.");
+                        }
+                        return containsAny;
+                    }
+
+                default:
+                    return true;
+            }
+        }
+
+        private boolean containsAny(String body) {
+            // like StringUtils.containsAny(), nothing is found in an empty body
+            return !body.isEmpty() && matcher.containsAny(body);
+        }
+    }
+}
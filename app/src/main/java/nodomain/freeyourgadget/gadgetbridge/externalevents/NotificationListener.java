@@ -27,10 +27,6 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
-import android.graphics.Color;
-import android.graphics.drawable.Drawable;
 import android.media.MediaMetadata;
 import android.os.Build;
 import android.os.Bundle;
@@ -48,43 +44,29 @@ import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.RemoteInput;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-import androidx.palette.graphics.Palette;
 
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.Set;
 
-import de.greenrobot.dao.query.Query;
-import nodomain.freeyourgadget.gadgetbridge.BuildConfig;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PebbleColor;
 import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilter;
-import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilterDao;
-import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilterEntry;
-import nodomain.freeyourgadget.gadgetbridge.entities.NotificationFilterEntryDao;
-import nodomain.freeyourgadget.gadgetbridge.model.AppNotificationType;
 import nodomain.freeyourgadget.gadgetbridge.model.CallSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.MusicSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.MusicStateSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
 import nodomain.freeyourgadget.gadgetbridge.service.DeviceCommunicationService;
-import nodomain.freeyourgadget.gadgetbridge.util.BitmapUtil;
 import nodomain.freeyourgadget.gadgetbridge.util.LimitedQueue;
-import nodomain.freeyourgadget.gadgetbridge.util.PebbleUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 
 import static androidx.media.app.NotificationCompat.MediaStyle.getMediaSession;
-import static nodomain.freeyourgadget.gadgetbridge.activities.NotificationFilterActivity.NOTIFICATION_FILTER_MODE_BLACKLIST;
-import static nodomain.freeyourgadget.gadgetbridge.activities.NotificationFilterActivity.NOTIFICATION_FILTER_MODE_WHITELIST;
-import static nodomain.freeyourgadget.gadgetbridge.activities.NotificationFilterActivity.NOTIFICATION_FILTER_SUBMODE_ALL;
 
 public class NotificationListener extends NotificationListenerService {
 
@@ -101,9 +83,9 @@ public class NotificationListener extends NotificationListenerService {
     public static final String ACTION_REPLY
             = "nodomain.freeyourgadget.gadgetbridge.notificationlistener.action.reply";
 
-    private LimitedQueue mActionLookup = new LimitedQueue(32);
-    private LimitedQueue mPackageLookup = new LimitedQueue(64);
-    private LimitedQueue mNotificationHandleLookup = new LimitedQueue(128);
+    private LimitedQueue<NotificationCompat.Action> mActionLookup = new LimitedQueue<>(32);
+    private LimitedQueue<String> mPackageLookup = new LimitedQueue<>(64);
+    private LimitedQueue<Long> mNotificationHandleLookup = new LimitedQueue<>(128);
 
     private HashMap<String, Long> notificationBurstPrevention = new HashMap<>();
     private HashMap<String, Long> notificationOldRepeatPrevention = new HashMap<>();
@@ -112,6 +94,8 @@ public class NotificationListener extends NotificationListenerService {
 
     private long activeCallPostTime;
 
+    private AppMetadataCache appMetadataCache;
+
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
 
         @Override
@@ -130,7 +114,7 @@ public class NotificationListener extends NotificationListenerService {
 
                 case ACTION_OPEN: {
                     StatusBarNotification[] sbns = NotificationListener.this.getActiveNotifications();
-                    Long ts = (Long) mNotificationHandleLookup.lookup(handle);
+                    Long ts = mNotificationHandleLookup.lookup(handle);
                     if (ts == null) {
                         LOG.info("could not lookup handle for open action");
                         break;
@@ -151,7 +135,7 @@ public class NotificationListener extends NotificationListenerService {
                     break;
                 }
                 case ACTION_MUTE:
-                    String packageName = (String) mPackageLookup.lookup(handle);
+                    String packageName = mPackageLookup.lookup(handle);
                     if (packageName == null) {
                         LOG.info("could not lookup handle for mute action");
                         break;
@@ -162,7 +146,7 @@ public class NotificationListener extends NotificationListenerService {
                     break;
                 case ACTION_DISMISS: {
                     StatusBarNotification[] sbns = NotificationListener.this.getActiveNotifications();
-                    Long ts = (Long) mNotificationHandleLookup.lookup(handle);
+                    Long ts = mNotificationHandleLookup.lookup(handle);
                     if (ts == null) {
                         LOG.info("could not lookup handle for dismiss action");
                         break;
@@ -186,7 +170,7 @@ public class NotificationListener extends NotificationListenerService {
                     NotificationListener.this.cancelAllNotifications();
                     break;
                 case ACTION_REPLY:
-                    NotificationCompat.Action wearableAction = (NotificationCompat.Action) mActionLookup.lookup(handle);
+                    NotificationCompat.Action wearableAction = mActionLookup.lookup(handle);
                     String reply = intent.getStringExtra("reply");
                     if (wearableAction != null) {
                         PendingIntent actionIntent = wearableAction.getActionIntent();
@@ -222,24 +206,41 @@ public class NotificationListener extends NotificationListenerService {
         filterLocal.addAction(ACTION_MUTE);
         filterLocal.addAction(ACTION_REPLY);
         LocalBroadcastManager.getInstance(this).registerReceiver(mReceiver, filterLocal);
+
+        appMetadataCache = new AppMetadataCache(this);
+        appMetadataCache.register();
+    }
+
+    @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+    @Override
+    public void onListenerConnected() {
+        super.onListenerConnected();
+        // the apps with active notifications are likely to post the next ones
+        Set<String> packageNames = new HashSet<>();
+        try {
+            StatusBarNotification[] sbns = getActiveNotifications();
+            if (sbns != null) {
+                for (StatusBarNotification sbn : sbns) {
+                    packageNames.add(sbn.getPackageName().toLowerCase());
+                }
+            }
+        } catch (SecurityException e) {
+            LOG.warn("Could not get active notifications", e);
+        }
+        appMetadataCache.warmUp(packageNames);
     }
 
     @Override
     public void onDestroy() {
         LocalBroadcastManager.getInstance(this).unregisterReceiver(mReceiver);
+        appMetadataCache.unregister();
         notificationStack.clear();
         super.onDestroy();
     }
 
     public String getAppName(String pkg) {
         // determinate Source App Name ("Label")
-        PackageManager pm = getPackageManager();
-        try {
-            return (String)pm.getApplicationLabel(pm.getApplicationInfo(pkg, 0));
-        } catch (PackageManager.NameNotFoundException e) {
-            e.printStackTrace();
-        }
-        return null;
+        return appMetadataCache.get(pkg).getLabel();
     }
 
     @Override
@@ -292,9 +293,10 @@ public class NotificationListener extends NotificationListenerService {
         }
 
         NotificationSpec notificationSpec = new NotificationSpec();
+        AppMetadataCache.AppMetadata appMetadata = appMetadataCache.get(source);
 
         // determinate Source App Name ("Label")
-        String name = getAppName(source);
+        String name = appMetadata.getLabel();
         if (name != null) {
             notificationSpec.sourceName = name;
         }
@@ -304,7 +306,7 @@ public class NotificationListener extends NotificationListenerService {
         // Get the app ID that generated this notification. For now only used by pebble color, but may be more useful later.
         notificationSpec.sourceAppId = source;
 
-        notificationSpec.type = AppNotificationType.getInstance().get(source);
+        notificationSpec.type = appMetadata.getType();
 
         //FIXME: some quirks lookup table would be the minor evil here
         if (source.startsWith("com.fsck.k9")) {
@@ -315,18 +317,14 @@ public class NotificationListener extends NotificationListenerService {
             preferBigText = true;
         }
 
-        if (notificationSpec.type == null) {
-            notificationSpec.type = NotificationType.UNKNOWN;
-        }
-
         // Get color
-        notificationSpec.pebbleColor = getPebbleColorForNotification(notificationSpec);
+        notificationSpec.pebbleColor = appMetadata.getPebbleColor();
 
         LOG.info("Processing notification " + notificationSpec.getId() + " age: " + (System.currentTimeMillis() - notification.when) + " from source " + source + " with flags: " + notification.flags);
 
         dissectNotificationTo(notification, notificationSpec, preferBigText);
 
-        if (!checkNotificationContentForWhiteAndBlackList(sbn.getPackageName().toLowerCase(), notificationSpec.body)) {
+        if (!checkNotificationContentForWhiteAndBlackList(appMetadata, notificationSpec.body)) {
             return;
         }
 
@@ -395,47 +393,20 @@ public class NotificationListener extends NotificationListenerService {
         GBApplication.deviceService().onNotification(notificationSpec);
     }
 
-    private boolean checkNotificationContentForWhiteAndBlackList(String packageName, String body) {
-        long start = System.currentTimeMillis();
-
-        List<String> wordsList = new ArrayList<>();
-        NotificationFilter notificationFilter;
-
-        try (DBHandler db = GBApplication.acquireDB()) {
-
-            NotificationFilterDao notificationFilterDao = db.getDaoSession().getNotificationFilterDao();
-            NotificationFilterEntryDao notificationFilterEntryDao = db.getDaoSession().getNotificationFilterEntryDao();
-
-            Query<NotificationFilter> query = notificationFilterDao.queryBuilder().where(NotificationFilterDao.Properties.AppIdentifier.eq(packageName.toLowerCase())).build();
-            notificationFilter = query.unique();
-
-            if (notificationFilter == null) {
-                LOG.debug("No Notification Filter found");
-                return true;
-            }
-
-            LOG.debug("Loaded notification filter for '{}'", packageName);
-            Query<NotificationFilterEntry> queryEntries = notificationFilterEntryDao.queryBuilder().where(NotificationFilterEntryDao.Properties.NotificationFilterId.eq(notificationFilter.getId())).build();
-
-            List<NotificationFilterEntry> filterEntries = queryEntries.list();
-
-            if (BuildConfig.DEBUG) {
-                LOG.info("Database lookup took '{}' ms", System.currentTimeMillis() - start);
-            }
-
-            if (!filterEntries.isEmpty()) {
-                for (NotificationFilterEntry temp : filterEntries) {
-                    wordsList.add(temp.getNotificationFilterContent());
-                    LOG.debug("Loaded filter word: " + temp.getNotificationFilterContent());
-                }
-            }
-
+    private boolean checkNotificationContentForWhiteAndBlackList(AppMetadataCache.AppMetadata appMetadata, String body) {
+        NotificationFilterCache.CompiledFilter notificationFilter;
+        try {
+            notificationFilter = appMetadata.getFilter();
         } catch (Exception e) {
-            LOG.error("Could not acquire DB.", e);
+            LOG.error("Could not load notification filters.", e);
             return true;
         }
 
-        return shouldContinueAfterFilter(body, wordsList, notificationFilter);
+        if (notificationFilter == null) {
+            LOG.debug("No Notification Filter found");
+            return true;
+        }
+        return notificationFilter.shouldContinue(body);
     }
 
     private void handleCallNotification(StatusBarNotification sbn) {
@@ -477,55 +448,8 @@ public class NotificationListener extends NotificationListenerService {
     }
 
     boolean shouldContinueAfterFilter(@NonNull String body, @NonNull List<String> wordsList, @NonNull NotificationFilter notificationFilter) {
-
-        LOG.debug("Mode: '{}' Submode: '{}' WordsList: '{}'", notificationFilter.getNotificationFilterMode(), notificationFilter.getNotificationFilterSubMode(), wordsList);
-
-        boolean allMode = notificationFilter.getNotificationFilterSubMode() == NOTIFICATION_FILTER_SUBMODE_ALL;
-
-        switch (notificationFilter.getNotificationFilterMode()) {
-            case NOTIFICATION_FILTER_MODE_BLACKLIST:
-                if (allMode) {
-                    for (String word : wordsList) {
-                        if (!body.contains(word)) {
-                            LOG.info("Not every word was found, blacklist has no effect, processing continues.");
-                            return true;
-                        }
-                    }
-                    LOG.info("Every word was found, blacklist has effect, processing stops.");
-                    return false;
-                } else {
-                    boolean containsAny = StringUtils.containsAny(body, wordsList.toArray(new CharSequence[0]));
-                    if (!containsAny) {
-                        LOG.info("No matching word was found, blacklist has no effect, processing continues.");
-                    } else {
-                        LOG.info("At least one matching word was found, blacklist has effect, processing stops.");
-                    }
-                    return !containsAny;
-                }
-
-            case NOTIFICATION_FILTER_MODE_WHITELIST:
-                if (allMode) {
-                    for (String word : wordsList) {
-                        if (!body.contains(word)) {
-                            LOG.info("Not every word was found, whitelist has no effect, processing stops.");
-                            return false;
-                        }
-                    }
-                    LOG.info("Every word was found, whitelist has effect, processing continues.");
-                    return true;
-                } else {
-                    boolean containsAny = StringUtils.containsAny(body, wordsList.toArray(new CharSequence[0]));
-                    if (containsAny) {
-                        LOG.info("At least one matching word was found, whitelist has effect, processing continues.");
-                    } else {
-                        LOG.info("No matching word was found, whitelist has no effect, processing stops.");
-                    }
-                    return containsAny;
-                }
-
-            default:
-                return true;
-        }
+        return new NotificationFilterCache.CompiledFilter(notificationFilter.getNotificationFilterMode(),
+                notificationFilter.getNotificationFilterSubMode(), wordsList).shouldContinue(body);
     }
 
     // Strip Unicode control sequences: some apps like Telegram add a lot of them for unknown reasons
@@ -729,7 +653,7 @@ public class NotificationListener extends NotificationListenerService {
         if (mediaSession != null && handleMediaSessionNotification(mediaSession))
             return true;
 
-        NotificationType type = AppNotificationType.getInstance().get(source);
+        NotificationType type = appMetadataCache.get(source).getType();
         //ignore notifications marked as LocalOnly https://developer.android.com/reference/android/app/Notification.html#FLAG_LOCAL_ONLY
         //some Apps always mark their notifcations as read-only
         if (NotificationCompat.getLocalOnly(notification) &&
@@ -752,43 +676,4 @@ public class NotificationListener extends NotificationListenerService {
         return (notification.flags & Notification.FLAG_ONGOING_EVENT) == Notification.FLAG_ONGOING_EVENT;
 
     }
-
-
-    /**
-     * Get the notification color that should be used for this Pebble notification.
-     *
-     * Note that this method will *not* edit the NotificationSpec passed in. It will only evaluate the PebbleColor.
-     *
-     * See Issue #815 on GitHub to see how notification colors are set.
-     *
-     * @param notificationSpec The NotificationSpec to read from.
-     * @return Returns a PebbleColor that best represents this notification.
-     */
-    private byte getPebbleColorForNotification(NotificationSpec notificationSpec) {
-        String appId = notificationSpec.sourceAppId;
-        NotificationType existingType = notificationSpec.type;
-
-        // If the notification type is known, return the associated color.
-        if (existingType != NotificationType.UNKNOWN) {
-            return existingType.color;
-        }
-
-        // Otherwise, we go and attempt to find the color from the app icon.
-        Drawable icon;
-        try {
-            icon = getApplicationContext().getPackageManager().getApplicationIcon(appId);
-            Objects.requireNonNull(icon);
-        } catch (Exception ex) {
-            // If we can't get the icon, we go with the default defined above.
-            LOG.warn("Could not get icon for AppID " + appId, ex);
-            return PebbleColor.IslamicGreen;
-        }
-
-        Bitmap bitmapIcon = BitmapUtil.convertDrawableToBitmap(icon);
-        int iconPrimaryColor = new Palette.Builder(bitmapIcon)
-                .generate()
-                .getVibrantColor(Color.parseColor("#aa0000"));
-
-        return PebbleUtils.getPebbleColor(iconPrimaryColor);
-    }
 }
@@ -78,19 +78,21 @@ public class GBDeviceService implements DeviceService {
     }
 
     protected void invokeService(Intent intent) {
-        if (LanguageUtils.transliterate()) {
+        boolean transliterate = LanguageUtils.transliterate();
+        boolean rtlSupport = RtlUtils.rtlSupport();
+        if (transliterate || rtlSupport) {
             for (String extra : transliterationExtras) {
-                if (intent.hasExtra(extra)) {
-                    intent.putExtra(extra, LanguageUtils.transliterate(intent.getStringExtra(extra)));
+                String text = intent.getStringExtra(extra);
+                if (text == null) {
+                    continue;
                 }
-            }
-        }
-
-        if (RtlUtils.rtlSupport()) {
-            for (String extra : transliterationExtras) {
-                if (intent.hasExtra(extra)) {
-                    intent.putExtra(extra, RtlUtils.fixRtl(intent.getStringExtra(extra)));
+                if (transliterate) {
+                    text = LanguageUtils.transliterate(text);
+                }
+                if (rtlSupport) {
+                    text = RtlUtils.fixRtl(text);
                 }
+                intent.putExtra(extra, text);
             }
         }
 
@@ -127,7 +129,13 @@ public class GBDeviceService implements DeviceService {
 
     @Override
     public void disconnect() {
-        Intent intent = createIntent().setAction(ACTION_DISCONNECT);
+        disconnect(null);
+    }
+
+    @Override
+    public void disconnect(@Nullable GBDevice device) {
+        Intent intent = createIntent().setAction(ACTION_DISCONNECT)
+                .putExtra(GBDevice.EXTRA_DEVICE, device);
         invokeService(intent);
     }
 
@@ -139,7 +147,13 @@ public class GBDeviceService implements DeviceService {
 
     @Override
     public void requestDeviceInfo() {
-        Intent intent = createIntent().setAction(ACTION_REQUEST_DEVICEINFO);
+        requestDeviceInfo(null);
+    }
+
+    @Override
+    public void requestDeviceInfo(@Nullable GBDevice device) {
+        Intent intent = createIntent().setAction(ACTION_REQUEST_DEVICEINFO)
+                .putExtra(GBDevice.EXTRA_DEVICE, device);
         invokeService(intent);
     }
 
@@ -177,7 +191,13 @@ public class GBDeviceService implements DeviceService {
 
     @Override
     public void onSetAlarms(ArrayList<? extends Alarm> alarms) {
+        onSetAlarms(null, alarms);
+    }
+
+    @Override
+    public void onSetAlarms(@Nullable GBDevice device, ArrayList<? extends Alarm> alarms) {
         Intent intent = createIntent().setAction(ACTION_SET_ALARMS)
+                .putExtra(GBDevice.EXTRA_DEVICE, device)
                 .putExtra(EXTRA_ALARMS, alarms);
         invokeService(intent);
     }
@@ -240,20 +260,38 @@ public class GBDeviceService implements DeviceService {
 
     @Override
     public void onInstallApp(Uri uri) {
+        onInstallApp(null, uri);
+    }
+
+    @Override
+    public void onInstallApp(@Nullable GBDevice device, Uri uri) {
         Intent intent = createIntent().setAction(ACTION_INSTALL)
+                .putExtra(GBDevice.EXTRA_DEVICE, device)
                 .putExtra(EXTRA_URI, uri);
         invokeService(intent);
     }
 
     @Override
     public void onAppInfoReq() {
-        Intent intent = createIntent().setAction(ACTION_REQUEST_APPINFO);
+        onAppInfoReq(null);
+    }
+
+    @Override
+    public void onAppInfoReq(@Nullable GBDevice device) {
+        Intent intent = createIntent().setAction(ACTION_REQUEST_APPINFO)
+                .putExtra(GBDevice.EXTRA_DEVICE, device);
         invokeService(intent);
     }
 
     @Override
     public void onAppStart(UUID uuid, boolean start) {
+        onAppStart(null, uuid, start);
+    }
+
+    @Override
+    public void onAppStart(@Nullable GBDevice device, UUID uuid, boolean start) {
         Intent intent = createIntent().setAction(ACTION_STARTAPP)
+                .putExtra(GBDevice.EXTRA_DEVICE, device)
                 .putExtra(EXTRA_APP_UUID, uuid)
                 .putExtra(EXTRA_APP_START, start);
         invokeService(intent);
@@ -261,7 +299,13 @@ public class GBDeviceService implements DeviceService {
 
     @Override
     public void onAppDelete(UUID uuid) {
+        onAppDelete(null, uuid);
+    }
+
+    @Override
+    public void onAppDelete(@Nullable GBDevice device, UUID uuid) {
         Intent intent = createIntent().setAction(ACTION_DELETEAPP)
+                .putExtra(GBDevice.EXTRA_DEVICE, device)
                 .putExtra(EXTRA_APP_UUID, uuid);
         invokeService(intent);
     }
@@ -280,54 +324,102 @@ public class GBDeviceService implements DeviceService {
 
     @Override
     public void onAppReorder(UUID[] uuids) {
+        onAppReorder(null, uuids);
+    }
+
+    @Override
+    public void onAppReorder(@Nullable GBDevice device, UUID[] uuids) {
         Intent intent = createIntent().setAction(ACTION_APP_REORDER)
+                .putExtra(GBDevice.EXTRA_DEVICE, device)
                 .putExtra(EXTRA_APP_UUID, uuids);
         invokeService(intent);
     }
 
     @Override
     public void onFetchRecordedData(int dataTypes) {
+        onFetchRecordedData(null, dataTypes);
+    }
+
+    @Override
+    public void onFetchRecordedData(@Nullable GBDevice device, int dataTypes) {
         Intent intent = createIntent().setAction(ACTION_FETCH_RECORDED_DATA)
+                .putExtra(GBDevice.EXTRA_DEVICE, device)
                 .putExtra(EXTRA_RECORDED_DATA_TYPES, dataTypes);
         invokeService(intent);
     }
 
     @Override
     public void onReset(int flags) {
+        onReset(null, flags);
+    }
+
+    @Override
+    public void onReset(@Nullable GBDevice device, int flags) {
         Intent intent = createIntent().setAction(ACTION_RESET)
+                .putExtra(GBDevice.EXTRA_DEVICE, device)
                 .putExtra(EXTRA_RESET_FLAGS, flags);
         invokeService(intent);
     }
 
     @Override
     public void onHeartRateTest() {
-        Intent intent = createIntent().setAction(ACTION_HEARTRATE_TEST);
+        onHeartRateTest(null);
+    }
+
+    @Override
+    public void onHeartRateTest(@Nullable GBDevice device) {
+        Intent intent = createIntent().setAction(ACTION_HEARTRATE_TEST)
+                .putExtra(GBDevice.EXTRA_DEVICE, device);
         invokeService(intent);
     }
 
     @Override
     public void onFindDevice(boolean start) {
+        onFindDevice(null, start);
+    }
+
+    @Override
+    public void onFindDevice(@Nullable GBDevice device, boolean start) {
         Intent intent = createIntent().setAction(ACTION_FIND_DEVICE)
+                .putExtra(GBDevice.EXTRA_DEVICE, device)
                 .putExtra(EXTRA_FIND_START, start);
         invokeService(intent);
     }
 
     @Override
     public void onSetConstantVibration(int intensity) {
+        onSetConstantVibration(null, intensity);
+    }
+
+    @Override
+    public void onSetConstantVibration(@Nullable GBDevice device, int intensity) {
         Intent intent = createIntent().setAction(ACTION_SET_CONSTANT_VIBRATION)
+                .putExtra(GBDevice.EXTRA_DEVICE, device)
                 .putExtra(EXTRA_VIBRATION_INTENSITY, intensity);
         invokeService(intent);
     }
 
     @Override
     public void onScreenshotReq() {
-        Intent intent = createIntent().setAction(ACTION_REQUEST_SCREENSHOT);
+        onScreenshotReq(null);
+    }
+
+    @Override
+    public void onScreenshotReq(@Nullable GBDevice device) {
+        Intent intent = createIntent().setAction(ACTION_REQUEST_SCREENSHOT)
+                .putExtra(GBDevice.EXTRA_DEVICE, device);
         invokeService(intent);
     }
 
     @Override
     public void onEnableRealtimeSteps(boolean enable) {
+        onEnableRealtimeSteps(null, enable);
+    }
+
+    @Override
+    public void onEnableRealtimeSteps(@Nullable GBDevice device, boolean enable) {
         Intent intent = createIntent().setAction(ACTION_ENABLE_REALTIME_STEPS)
+                .putExtra(GBDevice.EXTRA_DEVICE, device)
                 .putExtra(EXTRA_BOOLEAN_ENABLE, enable);
         invokeService(intent);
     }
@@ -348,7 +440,13 @@ public class GBDeviceService implements DeviceService {
 
     @Override
     public void onEnableRealtimeHeartRateMeasurement(boolean enable) {
+        onEnableRealtimeHeartRateMeasurement(null, enable);
+    }
+
+    @Override
+    public void onEnableRealtimeHeartRateMeasurement(@Nullable GBDevice device, boolean enable) {
         Intent intent = createIntent().setAction(ACTION_ENABLE_REALTIME_HEARTRATE_MEASUREMENT)
+                .putExtra(GBDevice.EXTRA_DEVICE, device)
                 .putExtra(EXTRA_BOOLEAN_ENABLE, enable);
         invokeService(intent);
     }
@@ -376,7 +474,13 @@ public class GBDeviceService implements DeviceService {
 
     @Override
     public void onSendConfiguration(String config) {
+        onSendConfiguration(null, config);
+    }
+
+    @Override
+    public void onSendConfiguration(@Nullable GBDevice device, String config) {
         Intent intent = createIntent().setAction(ACTION_SEND_CONFIGURATION)
+                .putExtra(GBDevice.EXTRA_DEVICE, device)
                 .putExtra(EXTRA_CONFIG, config);
         invokeService(intent);
     }
@@ -434,14 +538,26 @@ public class GBDeviceService implements DeviceService {
 
     @Override
     public void onSetFmFrequency(float frequency) {
+        onSetFmFrequency(null, frequency);
+    }
+
+    @Override
+    public void onSetFmFrequency(@Nullable GBDevice device, float frequency) {
         Intent intent = createIntent().setAction(ACTION_SET_FM_FREQUENCY)
+                .putExtra(GBDevice.EXTRA_DEVICE, device)
                 .putExtra(EXTRA_FM_FREQUENCY, frequency);
         invokeService(intent);
     }
 
     @Override
     public void onSetLedColor(int color) {
+        onSetLedColor(null, color);
+    }
+
+    @Override
+    public void onSetLedColor(@Nullable GBDevice device, int color) {
         Intent intent = createIntent().setAction(ACTION_SET_LED_COLOR)
+                .putExtra(GBDevice.EXTRA_DEVICE, device)
                 .putExtra(EXTRA_LED_COLOR, color);
         invokeService(intent);
     }
@@ -27,8 +27,10 @@ public class ActivityAmount {
     private short percent;
     private long totalSeconds;
     private long totalSteps;
-    private Date startDate = null;
-    private Date endDate = null;
+    private int startTimestamp = NO_TIMESTAMP;
+    private int endTimestamp = NO_TIMESTAMP;
+
+    private static final int NO_TIMESTAMP = Integer.MIN_VALUE;
 
     public ActivityAmount(int activityKind) {
         this.activityKind = activityKind;
@@ -73,19 +75,27 @@ public class ActivityAmount {
     }
 
     public Date getStartDate() {
-        return startDate;
+        return toDate(startTimestamp);
     }
 
     public void setStartDate(int seconds) {
-        if(startDate == null)
-            this.startDate = new Date((long)seconds * 1000);
+        if (startTimestamp == NO_TIMESTAMP)
+            this.startTimestamp = seconds;
     }
 
     public Date getEndDate() {
-        return endDate;
+        return toDate(endTimestamp);
     }
 
     public void setEndDate(int seconds) {
-        this.endDate = new Date((long)seconds * 1000);
+        this.endTimestamp = seconds;
+    }
+
+    private static Date toDate(int seconds) {
+        // called once per sample by ActivityAnalysis, so only convert on access
+        if (seconds == NO_TIMESTAMP) {
+            return null;
+        }
+        return new Date((long) seconds * 1000);
     }
 }
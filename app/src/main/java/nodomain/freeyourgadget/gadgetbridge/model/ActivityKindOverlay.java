@@ -0,0 +1,35 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+/**
+ * A time range that overrides the raw activity kind of the samples in it, e.g. a sleep
+ * session reported separately from the samples.
+ */
+public interface ActivityKindOverlay {
+    /**
+     * @return the start of the range in seconds, inclusive
+     */
+    int getTimestampFrom();
+
+    /**
+     * @return the end of the range in seconds, exclusive
+     */
+    int getTimestampTo();
+
+    int getRawKind();
+}
@@ -18,6 +18,11 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.model;
 
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
 import androidx.annotation.Nullable;
 import nodomain.freeyourgadget.gadgetbridge.devices.EventHandler;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
@@ -143,6 +148,11 @@ public interface DeviceService extends EventHandler {
 
     void disconnect();
 
+    /**
+     * Disconnects the given device, or all devices if null.
+     */
+    void disconnect(@Nullable GBDevice device);
+
     void quit();
 
     /**
@@ -153,4 +163,45 @@ public interface DeviceService extends EventHandler {
      * from the service will be reported.
      */
     void requestDeviceInfo();
+
+    /**
+     * Like #requestDeviceInfo(), but for the given device instead of the primary one, see
+     * DeviceCommunicationService#getGBDevice(). The same applies to the other methods
+     * taking a device below.
+     */
+    void requestDeviceInfo(@Nullable GBDevice device);
+
+    void onInstallApp(@Nullable GBDevice device, Uri uri);
+
+    void onFetchRecordedData(@Nullable GBDevice device, int dataTypes);
+
+    void onFindDevice(@Nullable GBDevice device, boolean start);
+
+    void onScreenshotReq(@Nullable GBDevice device);
+
+    void onSetConstantVibration(@Nullable GBDevice device, int intensity);
+
+    void onSetFmFrequency(@Nullable GBDevice device, float frequency);
+
+    void onSetLedColor(@Nullable GBDevice device, int color);
+
+    void onSendConfiguration(@Nullable GBDevice device, String config);
+
+    void onAppInfoReq(@Nullable GBDevice device);
+
+    void onAppStart(@Nullable GBDevice device, UUID uuid, boolean start);
+
+    void onAppDelete(@Nullable GBDevice device, UUID uuid);
+
+    void onAppReorder(@Nullable GBDevice device, UUID[] uuids);
+
+    void onSetAlarms(@Nullable GBDevice device, ArrayList<? extends Alarm> alarms);
+
+    void onEnableRealtimeSteps(@Nullable GBDevice device, boolean enable);
+
+    void onEnableRealtimeHeartRateMeasurement(@Nullable GBDevice device, boolean enable);
+
+    void onReset(@Nullable GBDevice device, int flags);
+
+    void onHeartRateTest(@Nullable GBDevice device);
 }
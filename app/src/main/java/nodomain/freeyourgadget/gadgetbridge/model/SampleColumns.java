@@ -0,0 +1,164 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
+import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
+
+/**
+ * Column oriented copy of a range of activity samples. The normalized values are kept
+ * in parallel primitive arrays, so that iterating over them needs neither interface
+ * calls nor any allocation. Changes are not written back to the database.
+ *
+ * Instances are filled by passing them as the visitor to
+ * {@link SampleProvider#visitAllActivitySamples(int, int, SampleVisitor)}, via
+ * {@link #fromProvider(SampleProvider, int, int)}, or directly with #add() and #insert().
+ */
+public class SampleColumns implements SampleVisitor<ActivitySample> {
+    private static final int DEFAULT_CAPACITY = 24 * 60;
+
+    private int size;
+    private int[] timestamps;
+    private int[] kinds;
+    private int[] rawKinds;
+    private int[] steps;
+    private float[] intensities;
+    private int[] heartRates;
+
+    public SampleColumns() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SampleColumns(int initialCapacity) {
+        initialCapacity = Math.max(initialCapacity, 1);
+        timestamps = new int[initialCapacity];
+        kinds = new int[initialCapacity];
+        rawKinds = new int[initialCapacity];
+        steps = new int[initialCapacity];
+        intensities = new float[initialCapacity];
+        heartRates = new int[initialCapacity];
+    }
+
+    public static SampleColumns fromProvider(SampleProvider<? extends AbstractActivitySample> provider, int timestamp_from, int timestamp_to) {
+        SampleColumns columns = new SampleColumns();
+        provider.visitAllActivitySamples(timestamp_from, timestamp_to, columns);
+        return columns;
+    }
+
+    public static SampleColumns fromSamples(List<? extends ActivitySample> samples) {
+        SampleColumns columns = new SampleColumns(samples.size());
+        for (ActivitySample sample : samples) {
+            columns.visit(sample);
+        }
+        return columns;
+    }
+
+    @Override
+    public void visit(ActivitySample sample) {
+        add(sample.getTimestamp(), sample.getKind(), sample.getRawKind(), sample.getSteps(), sample.getIntensity(), sample.getHeartRate());
+    }
+
+    public void add(int timestamp, int kind, int rawKind, int steps, float intensity, int heartRate) {
+        insert(size, timestamp, kind, rawKind, steps, intensity, heartRate);
+    }
+
+    public void insert(int index, int timestamp, int kind, int rawKind, int steps, float intensity, int heartRate) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        ensureCapacity(size + 1);
+        if (index < size) {
+            int count = size - index;
+            System.arraycopy(timestamps, index, timestamps, index + 1, count);
+            System.arraycopy(kinds, index, kinds, index + 1, count);
+            System.arraycopy(rawKinds, index, rawKinds, index + 1, count);
+            System.arraycopy(this.steps, index, this.steps, index + 1, count);
+            System.arraycopy(intensities, index, intensities, index + 1, count);
+            System.arraycopy(heartRates, index, heartRates, index + 1, count);
+        }
+        timestamps[index] = timestamp;
+        kinds[index] = kind;
+        rawKinds[index] = rawKind;
+        this.steps[index] = steps;
+        intensities[index] = intensity;
+        heartRates[index] = heartRate;
+        size++;
+    }
+
+    /**
+     * Removes all samples but keeps the allocated arrays for reuse.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getTimestamp(int index) {
+        return timestamps[checkIndex(index)];
+    }
+
+    public int getKind(int index) {
+        return kinds[checkIndex(index)];
+    }
+
+    public int getRawKind(int index) {
+        return rawKinds[checkIndex(index)];
+    }
+
+    public int getSteps(int index) {
+        return steps[checkIndex(index)];
+    }
+
+    public float getIntensity(int index) {
+        return intensities[checkIndex(index)];
+    }
+
+    public int getHeartRate(int index) {
+        return heartRates[checkIndex(index)];
+    }
+
+    private int checkIndex(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        return index;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= timestamps.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, timestamps.length * 2);
+        timestamps = Arrays.copyOf(timestamps, newCapacity);
+        kinds = Arrays.copyOf(kinds, newCapacity);
+        rawKinds = Arrays.copyOf(rawKinds, newCapacity);
+        steps = Arrays.copyOf(steps, newCapacity);
+        intensities = Arrays.copyOf(intensities, newCapacity);
+        heartRates = Arrays.copyOf(heartRates, newCapacity);
+    }
+}
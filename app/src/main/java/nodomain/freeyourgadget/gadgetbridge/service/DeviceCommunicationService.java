@@ -44,11 +44,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.HeartRateUtils;
+import nodomain.freeyourgadget.gadgetbridge.database.SampleIngestionPipeline;
 import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.externalevents.AlarmClockReceiver;
 import nodomain.freeyourgadget.gadgetbridge.externalevents.AlarmReceiver;
@@ -73,6 +76,7 @@ import nodomain.freeyourgadget.gadgetbridge.model.MusicStateSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
 import nodomain.freeyourgadget.gadgetbridge.model.WeatherSpec;
+import nodomain.freeyourgadget.gadgetbridge.service.DeviceSupportRegistry.RegisteredDevice;
 import nodomain.freeyourgadget.gadgetbridge.service.receivers.AutoConnectIntervalReceiver;
 import nodomain.freeyourgadget.gadgetbridge.service.receivers.GBAutoFetchReceiver;
 import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
@@ -170,6 +174,18 @@ import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_URI
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_VIBRATION_INTENSITY;
 import static nodomain.freeyourgadget.gadgetbridge.model.DeviceService.EXTRA_WEATHER;
 
+/**
+ * Keeps the connections to all devices and passes the commands it receives as intents
+ * to their DeviceSupport.
+ * <p/>
+ * Threading: onStartCommand(), #connect(GBDevice, boolean, boolean) (including
+ * DeviceSupport#connect()) and all receivers run on the main thread, which is the only
+ * one that touches the DeviceSupportRegistry. All other calls into a DeviceSupport,
+ * including DeviceSupport#dispose(), run on the command thread of its device, in the
+ * order the commands were received. So a DeviceSupport that is replaced by a reconnect
+ * may still send updates while the new one is already registered for the same address.
+ * These are ignored, see #mReceiver.
+ */
 public class DeviceCommunicationService extends Service implements SharedPreferences.OnSharedPreferenceChangeListener {
     private static final Logger LOG = LoggerFactory.getLogger(DeviceCommunicationService.class);
     @SuppressLint("StaticFieldLeak") // only used for test cases
@@ -178,9 +194,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     private boolean mStarted = false;
 
     private DeviceSupportFactory mFactory;
-    private GBDevice mGBDevice = null;
-    private DeviceSupport mDeviceSupport;
-    private DeviceCoordinator mCoordinator = null;
+    private final DeviceSupportRegistry mDevices = new DeviceSupportRegistry();
 
     private PhoneCallReceiver mPhoneCallReceiver = null;
     private SMSReceiver mSMSReceiver = null;
@@ -231,11 +245,19 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
             String action = intent.getAction();
             if (GBDevice.ACTION_DEVICE_CHANGED.equals(action)) {
                 GBDevice device = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
-                if (mGBDevice != null && mGBDevice.equals(device)) {
-                    mGBDevice = device;
-                    mCoordinator = DeviceHelper.getInstance().getCoordinator(device);
-                    boolean enableReceivers = mDeviceSupport != null && (mDeviceSupport.useAutoConnect() || mGBDevice.isInitialized());
-                    setReceiversEnableState(enableReceivers, mGBDevice.isInitialized(), mCoordinator);
+                RegisteredDevice registered = device != null ? mDevices.get(device.getAddress()) : null;
+                if (registered != null && device != registered.getDeviceSupport().getDevice()) {
+                    // Local broadcasts pass the GBDevice instance of the sender, so this comes from a
+                    // DeviceSupport that has been replaced by a reconnect and is still being disposed.
+                    // Its last state (usually NOT_CONNECTED) must not override the new connection.
+                    LOG.info("Ignoring state " + device.getState() + " of replaced DeviceSupport for " + device.getAddress());
+                    registered.getDevice().sendDeviceUpdateIntent(DeviceCommunicationService.this);
+                } else if (registered != null) {
+                    registered.setDevice(device);
+                    if (!device.isConnected()) {
+                        SampleIngestionPipeline.getInstance().requestFlush();
+                    }
+                    updateReceiversEnableState();
                 } else {
                     LOG.error("Got ACTION_DEVICE_CHANGED from unexpected device: " + device);
                 }
@@ -280,25 +302,12 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
 
         LOG.debug("Service startcommand: " + action);
 
-        if (!action.equals(ACTION_START) && !action.equals(ACTION_CONNECT)) {
-            if (!mStarted) {
-                // using the service before issuing ACTION_START
-                LOG.info("Must start service with " + ACTION_START + " or " + ACTION_CONNECT + " before using it: " + action);
-                return START_NOT_STICKY;
-            }
-
-            if (mDeviceSupport == null || (!isInitialized() && !action.equals(ACTION_DISCONNECT) && (!mDeviceSupport.useAutoConnect() || isConnected()))) {
-                // trying to send notification without valid Bluetooth connection
-                if (mGBDevice != null) {
-                    // at least send back the current device state
-                    mGBDevice.sendDeviceUpdateIntent(this);
-                }
-                return START_STICKY;
-            }
+        if (!action.equals(ACTION_START) && !action.equals(ACTION_CONNECT) && !mStarted) {
+            // using the service before issuing ACTION_START
+            LOG.info("Must start service with " + ACTION_START + " or " + ACTION_CONNECT + " before using it: " + action);
+            return START_NOT_STICKY;
         }
 
-        // when we get past this, we should have valid mDeviceSupport and mGBDevice instances
-
         Prefs prefs = getPrefs();
         switch (action) {
             case ACTION_START:
@@ -325,71 +334,192 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                     autoReconnect = getGBPrefs().getAutoReconnect();
                 }
 
-                if (gbDevice != null && !isConnecting() && !isConnected()) {
-                    setDeviceSupport(null);
-                    try {
-                        DeviceSupport deviceSupport = mFactory.createDeviceSupport(gbDevice);
-                        if (deviceSupport != null) {
-                            setDeviceSupport(deviceSupport);
-                            if (firstTime) {
-                                deviceSupport.connectFirstTime();
-                            } else {
-                                deviceSupport.setAutoReconnect(autoReconnect);
-                                deviceSupport.connect();
-                            }
-                        } else {
-                            GB.toast(this, getString(R.string.cannot_connect, "Can't create device support"), Toast.LENGTH_SHORT, GB.ERROR);
-                        }
-                    } catch (Exception e) {
-                        GB.toast(this, getString(R.string.cannot_connect, e.getMessage()), Toast.LENGTH_SHORT, GB.ERROR, e);
-                        setDeviceSupport(null);
-                    }
-                } else if (mGBDevice != null) {
+                RegisteredDevice existing = gbDevice != null ? mDevices.get(gbDevice.getAddress()) : null;
+                if (existing != null && (existing.getDevice().isConnecting() || existing.getDevice().isConnected())) {
                     // send an update at least
-                    mGBDevice.sendDeviceUpdateIntent(this);
+                    existing.getDevice().sendDeviceUpdateIntent(this);
+                } else if (gbDevice != null) {
+                    if (existing != null) {
+                        disposeDevice(existing, false);
+                    }
+                    connect(gbDevice, firstTime, autoReconnect);
+                } else if (mDevices.getPrimary() != null) {
+                    mDevices.getPrimary().getDevice().sendDeviceUpdateIntent(this);
+                }
+                break;
+            case ACTION_DISCONNECT:
+                for (RegisteredDevice target : getTargets(intent, action)) {
+                    disposeDevice(target, true);
                 }
+                updateReceiversEnableState();
                 break;
             default:
-                if (mDeviceSupport == null || mGBDevice == null) {
-                    LOG.warn("device support:" + mDeviceSupport + ", device: " + mGBDevice + ", aborting");
-                } else {
-                    handleAction(intent, action, prefs);
+                List<RegisteredDevice> targets = getTargets(intent, action);
+                if (targets.isEmpty()) {
+                    LOG.debug("no device for " + action + ", aborting");
+                    break;
+                }
+                boolean handled = false;
+                for (RegisteredDevice target : targets) {
+                    if (!isAcceptingCommands(target)) {
+                        // trying to send notification without valid Bluetooth connection,
+                        // at least send back the current device state
+                        target.getDevice().sendDeviceUpdateIntent(this);
+                        continue;
+                    }
+                    if (!handled) {
+                        handled = true;
+                        onActionAccepted(intent, action);
+                    }
+                    executeAction(target, intent, action, prefs);
                 }
                 break;
         }
         return START_STICKY;
     }
 
+    private void connect(GBDevice gbDevice, boolean firstTime, boolean autoReconnect) {
+        RegisteredDevice registered = null;
+        try {
+            DeviceSupport deviceSupport = mFactory.createDeviceSupport(gbDevice);
+            if (deviceSupport != null) {
+                registered = mDevices.register(deviceSupport);
+                if (firstTime) {
+                    deviceSupport.connectFirstTime();
+                } else {
+                    deviceSupport.setAutoReconnect(autoReconnect);
+                    deviceSupport.connect();
+                }
+            } else {
+                GB.toast(this, getString(R.string.cannot_connect, "Can't create device support"), Toast.LENGTH_SHORT, GB.ERROR);
+            }
+        } catch (Exception e) {
+            GB.toast(this, getString(R.string.cannot_connect, e.getMessage()), Toast.LENGTH_SHORT, GB.ERROR, e);
+            if (registered != null) {
+                disposeDevice(registered, false);
+            }
+        }
+    }
+
+    /**
+     * Removes the given device from the registry and disposes its DeviceSupport once all
+     * commands queued for it have been executed.
+     *
+     * @param notifyDisconnected whether to send the NOT_CONNECTED state of the device afterwards
+     */
+    private void disposeDevice(final RegisteredDevice target, final boolean notifyDisconnected) {
+        mDevices.unregister(target.getAddress());
+        target.executeLast(new Runnable() {
+            @Override
+            public void run() {
+                target.getDeviceSupport().dispose();
+                SampleIngestionPipeline.getInstance().requestFlush();
+                if (notifyDisconnected) {
+                    GBDevice device = target.getDevice();
+                    device.setState(GBDevice.State.NOT_CONNECTED);
+                    device.sendDeviceUpdateIntent(DeviceCommunicationService.this);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the devices the given action is meant for: the one given in the intent, all
+     * capable devices for notifications, calls, time and weather, the primary device otherwise
+     */
+    private List<RegisteredDevice> getTargets(Intent intent, String action) {
+        // this also unparcels the extras before they are read by the command threads
+        GBDevice device = intent.getParcelableExtra(GBDevice.EXTRA_DEVICE);
+        if (device != null) {
+            RegisteredDevice target = mDevices.get(device.getAddress());
+            if (target == null) {
+                device.sendDeviceUpdateIntent(this);
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(target);
+        }
+
+        switch (action) {
+            case ACTION_DISCONNECT:
+            case ACTION_NOTIFICATION:
+            case ACTION_DELETE_NOTIFICATION:
+            case ACTION_CALLSTATE:
+            case ACTION_SETTIME:
+                return mDevices.getAll();
+            case ACTION_SEND_WEATHER:
+                List<RegisteredDevice> targets = new ArrayList<>();
+                for (RegisteredDevice target : mDevices.getAll()) {
+                    if (target.getCoordinator() != null && target.getCoordinator().supportsWeather()) {
+                        targets.add(target);
+                    }
+                }
+                return targets;
+            default:
+                RegisteredDevice primary = mDevices.getPrimary();
+                if (primary == null) {
+                    return Collections.emptyList();
+                }
+                return Collections.singletonList(primary);
+        }
+    }
+
+    private boolean isAcceptingCommands(RegisteredDevice target) {
+        GBDevice device = target.getDevice();
+        return device.isInitialized() || (target.getDeviceSupport().useAutoConnect() && !device.isConnected());
+    }
+
+    /**
+     * Called once for every action that is passed to at least one device.
+     */
+    private void onActionAccepted(Intent intent, String action) {
+        if (ACTION_NOTIFICATION.equals(action)) {
+            String phoneNumber = intent.getStringExtra(EXTRA_NOTIFICATION_PHONENUMBER);
+            if (intent.getSerializableExtra(EXTRA_NOTIFICATION_TYPE) == NotificationType.GENERIC_SMS && phoneNumber != null) {
+                GBApplication.getIDSenderLookup().add(intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1), phoneNumber);
+            }
+        }
+    }
+
+    private void executeAction(final RegisteredDevice target, final Intent intent, final String action, final Prefs prefs) {
+        target.execute(new Runnable() {
+            @Override
+            public void run() {
+                handleAction(target, intent, action, prefs);
+            }
+        });
+    }
+
     /**
      * @param text original text
      * @return 'text' or a new String without non supported chars like emoticons, etc.
      */
-    private String sanitizeNotifText(String text) {
+    private String sanitizeNotifText(RegisteredDevice target, String text) {
         if (text == null || text.length() == 0)
             return text;
 
-        text = mDeviceSupport.customStringFilter(text);
+        text = target.getDeviceSupport().customStringFilter(text);
 
-        if (!mCoordinator.supportsUnicodeEmojis()) {
+        if (!target.getCoordinator().supportsUnicodeEmojis()) {
             return EmojiConverter.convertUnicodeEmojiToAscii(text, getApplicationContext());
         }
 
         return text;
     }
 
-    private void handleAction(Intent intent, String action, Prefs prefs) {
+    private void handleAction(RegisteredDevice target, Intent intent, String action, Prefs prefs) {
+        DeviceSupport deviceSupport = target.getDeviceSupport();
         switch (action) {
             case ACTION_REQUEST_DEVICEINFO:
-                mGBDevice.sendDeviceUpdateIntent(this);
+                target.getDevice().sendDeviceUpdateIntent(this);
                 break;
             case ACTION_NOTIFICATION: {
                 int desiredId = intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1);
                 NotificationSpec notificationSpec = new NotificationSpec(desiredId);
                 notificationSpec.phoneNumber = intent.getStringExtra(EXTRA_NOTIFICATION_PHONENUMBER);
-                notificationSpec.sender = sanitizeNotifText(intent.getStringExtra(EXTRA_NOTIFICATION_SENDER));
-                notificationSpec.subject = sanitizeNotifText(intent.getStringExtra(EXTRA_NOTIFICATION_SUBJECT));
-                notificationSpec.title = sanitizeNotifText(intent.getStringExtra(EXTRA_NOTIFICATION_TITLE));
-                notificationSpec.body = sanitizeNotifText(intent.getStringExtra(EXTRA_NOTIFICATION_BODY));
+                notificationSpec.sender = sanitizeNotifText(target, intent.getStringExtra(EXTRA_NOTIFICATION_SENDER));
+                notificationSpec.subject = sanitizeNotifText(target, intent.getStringExtra(EXTRA_NOTIFICATION_SUBJECT));
+                notificationSpec.title = sanitizeNotifText(target, intent.getStringExtra(EXTRA_NOTIFICATION_TITLE));
+                notificationSpec.body = sanitizeNotifText(target, intent.getStringExtra(EXTRA_NOTIFICATION_BODY));
                 notificationSpec.sourceName = intent.getStringExtra(EXTRA_NOTIFICATION_SOURCENAME);
                 notificationSpec.type = (NotificationType) intent.getSerializableExtra(EXTRA_NOTIFICATION_TYPE);
                 notificationSpec.attachedActions = (ArrayList<NotificationSpec.Action>) intent.getSerializableExtra(EXTRA_NOTIFICATION_ACTIONS);
@@ -397,10 +527,6 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 notificationSpec.flags = intent.getIntExtra(EXTRA_NOTIFICATION_FLAGS, 0);
                 notificationSpec.sourceAppId = intent.getStringExtra(EXTRA_NOTIFICATION_SOURCEAPPID);
 
-                if (notificationSpec.type == NotificationType.GENERIC_SMS && notificationSpec.phoneNumber != null) {
-                    GBApplication.getIDSenderLookup().add(notificationSpec.getId(), notificationSpec.phoneNumber);
-                }
-
                 //TODO: check if at least one of the attached actions is a reply action instead?
                 if ((notificationSpec.attachedActions != null && notificationSpec.attachedActions.size() > 0)
                         || (notificationSpec.type == NotificationType.GENERIC_SMS && notificationSpec.phoneNumber != null)) {
@@ -417,11 +543,11 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                     notificationSpec.cannedReplies = replies.toArray(new String[replies.size()]);
                 }
 
-                mDeviceSupport.onNotification(notificationSpec);
+                deviceSupport.onNotification(notificationSpec);
                 break;
             }
             case ACTION_DELETE_NOTIFICATION: {
-                mDeviceSupport.onDeleteNotification(intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1));
+                deviceSupport.onDeleteNotification(intent.getIntExtra(EXTRA_NOTIFICATION_ID, -1));
                 break;
             }
             case ACTION_ADD_CALENDAREVENT: {
@@ -430,60 +556,48 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 calendarEventSpec.type = intent.getByteExtra(EXTRA_CALENDAREVENT_TYPE, (byte) -1);
                 calendarEventSpec.timestamp = intent.getIntExtra(EXTRA_CALENDAREVENT_TIMESTAMP, -1);
                 calendarEventSpec.durationInSeconds = intent.getIntExtra(EXTRA_CALENDAREVENT_DURATION, -1);
-                calendarEventSpec.title = sanitizeNotifText(intent.getStringExtra(EXTRA_CALENDAREVENT_TITLE));
-                calendarEventSpec.description = sanitizeNotifText(intent.getStringExtra(EXTRA_CALENDAREVENT_DESCRIPTION));
-                calendarEventSpec.location = sanitizeNotifText(intent.getStringExtra(EXTRA_CALENDAREVENT_LOCATION));
-                mDeviceSupport.onAddCalendarEvent(calendarEventSpec);
+                calendarEventSpec.title = sanitizeNotifText(target, intent.getStringExtra(EXTRA_CALENDAREVENT_TITLE));
+                calendarEventSpec.description = sanitizeNotifText(target, intent.getStringExtra(EXTRA_CALENDAREVENT_DESCRIPTION));
+                calendarEventSpec.location = sanitizeNotifText(target, intent.getStringExtra(EXTRA_CALENDAREVENT_LOCATION));
+                deviceSupport.onAddCalendarEvent(calendarEventSpec);
                 break;
             }
             case ACTION_DELETE_CALENDAREVENT: {
                 long id = intent.getLongExtra(EXTRA_CALENDAREVENT_ID, -1);
                 byte type = intent.getByteExtra(EXTRA_CALENDAREVENT_TYPE, (byte) -1);
-                mDeviceSupport.onDeleteCalendarEvent(type, id);
+                deviceSupport.onDeleteCalendarEvent(type, id);
                 break;
             }
             case ACTION_RESET: {
                 int flags = intent.getIntExtra(EXTRA_RESET_FLAGS, 0);
-                mDeviceSupport.onReset(flags);
+                deviceSupport.onReset(flags);
                 break;
             }
             case ACTION_HEARTRATE_TEST: {
-                mDeviceSupport.onHeartRateTest();
+                deviceSupport.onHeartRateTest();
                 break;
             }
             case ACTION_FETCH_RECORDED_DATA: {
                 int dataTypes = intent.getIntExtra(EXTRA_RECORDED_DATA_TYPES, 0);
-                mDeviceSupport.onFetchRecordedData(dataTypes);
-                break;
-            }
-            case ACTION_DISCONNECT: {
-                mDeviceSupport.dispose();
-                if (mGBDevice != null) {
-                    mGBDevice.setState(GBDevice.State.NOT_CONNECTED);
-                    mGBDevice.sendDeviceUpdateIntent(this);
-                }
-                setReceiversEnableState(false, false, null);
-                mGBDevice = null;
-                mDeviceSupport = null;
-                mCoordinator = null;
+                deviceSupport.onFetchRecordedData(dataTypes);
                 break;
             }
             case ACTION_FIND_DEVICE: {
                 boolean start = intent.getBooleanExtra(EXTRA_FIND_START, false);
-                mDeviceSupport.onFindDevice(start);
+                deviceSupport.onFindDevice(start);
                 break;
             }
             case ACTION_SET_CONSTANT_VIBRATION: {
                 int intensity = intent.getIntExtra(EXTRA_VIBRATION_INTENSITY, 0);
-                mDeviceSupport.onSetConstantVibration(intensity);
+                deviceSupport.onSetConstantVibration(intensity);
                 break;
             }
             case ACTION_CALLSTATE:
                 CallSpec callSpec = new CallSpec();
                 callSpec.command = intent.getIntExtra(EXTRA_CALL_COMMAND, CallSpec.CALL_UNDEFINED);
                 callSpec.number = intent.getStringExtra(EXTRA_CALL_PHONENUMBER);
-                callSpec.name = sanitizeNotifText(intent.getStringExtra(EXTRA_CALL_DISPLAYNAME));
-                mDeviceSupport.onSetCallState(callSpec);
+                callSpec.name = sanitizeNotifText(target, intent.getStringExtra(EXTRA_CALL_DISPLAYNAME));
+                deviceSupport.onSetCallState(callSpec);
                 break;
             case ACTION_SETCANNEDMESSAGES:
                 int type = intent.getIntExtra(EXTRA_CANNEDMESSAGES_TYPE, -1);
@@ -492,20 +606,20 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 CannedMessagesSpec cannedMessagesSpec = new CannedMessagesSpec();
                 cannedMessagesSpec.type = type;
                 cannedMessagesSpec.cannedMessages = cannedMessages;
-                mDeviceSupport.onSetCannedMessages(cannedMessagesSpec);
+                deviceSupport.onSetCannedMessages(cannedMessagesSpec);
                 break;
             case ACTION_SETTIME:
-                mDeviceSupport.onSetTime();
+                deviceSupport.onSetTime();
                 break;
             case ACTION_SETMUSICINFO:
                 MusicSpec musicSpec = new MusicSpec();
-                musicSpec.artist = sanitizeNotifText(intent.getStringExtra(EXTRA_MUSIC_ARTIST));
-                musicSpec.album = sanitizeNotifText(intent.getStringExtra(EXTRA_MUSIC_ALBUM));
-                musicSpec.track = sanitizeNotifText(intent.getStringExtra(EXTRA_MUSIC_TRACK));
+                musicSpec.artist = sanitizeNotifText(target, intent.getStringExtra(EXTRA_MUSIC_ARTIST));
+                musicSpec.album = sanitizeNotifText(target, intent.getStringExtra(EXTRA_MUSIC_ALBUM));
+                musicSpec.track = sanitizeNotifText(target, intent.getStringExtra(EXTRA_MUSIC_TRACK));
                 musicSpec.duration = intent.getIntExtra(EXTRA_MUSIC_DURATION, 0);
                 musicSpec.trackCount = intent.getIntExtra(EXTRA_MUSIC_TRACKCOUNT, 0);
                 musicSpec.trackNr = intent.getIntExtra(EXTRA_MUSIC_TRACKNR, 0);
-                mDeviceSupport.onSetMusicInfo(musicSpec);
+                deviceSupport.onSetMusicInfo(musicSpec);
                 break;
             case ACTION_SETMUSICSTATE:
                 MusicStateSpec stateSpec = new MusicStateSpec();
@@ -514,23 +628,23 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 stateSpec.position = intent.getIntExtra(EXTRA_MUSIC_POSITION, 0);
                 stateSpec.playRate = intent.getIntExtra(EXTRA_MUSIC_RATE, 0);
                 stateSpec.state = intent.getByteExtra(EXTRA_MUSIC_STATE, (byte) 0);
-                mDeviceSupport.onSetMusicState(stateSpec);
+                deviceSupport.onSetMusicState(stateSpec);
                 break;
             case ACTION_REQUEST_APPINFO:
-                mDeviceSupport.onAppInfoReq();
+                deviceSupport.onAppInfoReq();
                 break;
             case ACTION_REQUEST_SCREENSHOT:
-                mDeviceSupport.onScreenshotReq();
+                deviceSupport.onScreenshotReq();
                 break;
             case ACTION_STARTAPP: {
                 UUID uuid = (UUID) intent.getSerializableExtra(EXTRA_APP_UUID);
                 boolean start = intent.getBooleanExtra(EXTRA_APP_START, true);
-                mDeviceSupport.onAppStart(uuid, start);
+                deviceSupport.onAppStart(uuid, start);
                 break;
             }
             case ACTION_DELETEAPP: {
                 UUID uuid = (UUID) intent.getSerializableExtra(EXTRA_APP_UUID);
-                mDeviceSupport.onAppDelete(uuid);
+                deviceSupport.onAppDelete(uuid);
                 break;
             }
             case ACTION_APP_CONFIGURE: {
@@ -540,99 +654,81 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 if (intent.hasExtra(EXTRA_APP_CONFIG_ID)) {
                     id = intent.getIntExtra(EXTRA_APP_CONFIG_ID, 0);
                 }
-                mDeviceSupport.onAppConfiguration(uuid, config, id);
+                deviceSupport.onAppConfiguration(uuid, config, id);
                 break;
             }
             case ACTION_APP_REORDER: {
                 UUID[] uuids = (UUID[]) intent.getSerializableExtra(EXTRA_APP_UUID);
-                mDeviceSupport.onAppReorder(uuids);
+                deviceSupport.onAppReorder(uuids);
                 break;
             }
             case ACTION_INSTALL:
                 Uri uri = intent.getParcelableExtra(EXTRA_URI);
                 if (uri != null) {
                     LOG.info("will try to install app/fw");
-                    mDeviceSupport.onInstallApp(uri);
+                    deviceSupport.onInstallApp(uri);
                 }
                 break;
             case ACTION_SET_ALARMS:
                 ArrayList<? extends Alarm> alarms = (ArrayList<? extends Alarm>) intent.getSerializableExtra(EXTRA_ALARMS);
-                mDeviceSupport.onSetAlarms(alarms);
+                deviceSupport.onSetAlarms(alarms);
                 break;
             case ACTION_ENABLE_REALTIME_STEPS: {
                 boolean enable = intent.getBooleanExtra(EXTRA_BOOLEAN_ENABLE, false);
-                mDeviceSupport.onEnableRealtimeSteps(enable);
+                deviceSupport.onEnableRealtimeSteps(enable);
                 break;
             }
             case ACTION_ENABLE_HEARTRATE_SLEEP_SUPPORT: {
                 boolean enable = intent.getBooleanExtra(EXTRA_BOOLEAN_ENABLE, false);
-                mDeviceSupport.onEnableHeartRateSleepSupport(enable);
+                deviceSupport.onEnableHeartRateSleepSupport(enable);
                 break;
             }
             case ACTION_SET_HEARTRATE_MEASUREMENT_INTERVAL: {
                 int seconds = intent.getIntExtra(EXTRA_INTERVAL_SECONDS, 0);
-                mDeviceSupport.onSetHeartRateMeasurementInterval(seconds);
+                deviceSupport.onSetHeartRateMeasurementInterval(seconds);
                 break;
             }
             case ACTION_ENABLE_REALTIME_HEARTRATE_MEASUREMENT: {
                 boolean enable = intent.getBooleanExtra(EXTRA_BOOLEAN_ENABLE, false);
-                mDeviceSupport.onEnableRealtimeHeartRateMeasurement(enable);
+                deviceSupport.onEnableRealtimeHeartRateMeasurement(enable);
                 break;
             }
             case ACTION_SEND_CONFIGURATION: {
                 String config = intent.getStringExtra(EXTRA_CONFIG);
-                mDeviceSupport.onSendConfiguration(config);
+                deviceSupport.onSendConfiguration(config);
                 break;
             }
             case ACTION_READ_CONFIGURATION: {
                 String config = intent.getStringExtra(EXTRA_CONFIG);
-                mDeviceSupport.onReadConfiguration(config);
+                deviceSupport.onReadConfiguration(config);
                 break;
             }
             case ACTION_TEST_NEW_FUNCTION: {
-                mDeviceSupport.onTestNewFunction();
+                deviceSupport.onTestNewFunction();
                 break;
             }
             case ACTION_SEND_WEATHER: {
                 WeatherSpec weatherSpec = intent.getParcelableExtra(EXTRA_WEATHER);
                 if (weatherSpec != null) {
-                    mDeviceSupport.onSendWeather(weatherSpec);
+                    deviceSupport.onSendWeather(weatherSpec);
                 }
                 break;
             }
             case ACTION_SET_LED_COLOR:
                 int color = intent.getIntExtra(EXTRA_LED_COLOR, 0);
                 if (color != 0) {
-                    mDeviceSupport.onSetLedColor(color);
+                    deviceSupport.onSetLedColor(color);
                 }
                 break;
             case ACTION_SET_FM_FREQUENCY:
                 float frequency = intent.getFloatExtra(EXTRA_FM_FREQUENCY, -1);
                 if (frequency != -1) {
-                    mDeviceSupport.onSetFmFrequency(frequency);
+                    deviceSupport.onSetFmFrequency(frequency);
                 }
                 break;
         }
     }
 
-    /**
-     * Disposes the current DeviceSupport instance (if any) and sets a new device support instance
-     * (if not null).
-     *
-     * @param deviceSupport
-     */
-    private void setDeviceSupport(@Nullable DeviceSupport deviceSupport) {
-        if (deviceSupport != mDeviceSupport && mDeviceSupport != null) {
-            mDeviceSupport.dispose();
-            mDeviceSupport = null;
-            mGBDevice = null;
-            mCoordinator = null;
-        }
-        mDeviceSupport = deviceSupport;
-        mGBDevice = mDeviceSupport != null ? mDeviceSupport.getDevice() : null;
-        mCoordinator = mGBDevice != null ? DeviceHelper.getInstance().getCoordinator(mGBDevice) : null;
-    }
-
     private void start() {
         if (!mStarted) {
             startForeground(GB.NOTIFICATION_ID, GB.createNotification(getString(R.string.gadgetbridge_running), this));
@@ -644,20 +740,26 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         return mStarted;
     }
 
-    private boolean isConnected() {
-        return mGBDevice != null && mGBDevice.isConnected();
-    }
-
-    private boolean isConnecting() {
-        return mGBDevice != null && mGBDevice.isConnecting();
-    }
-
-    private boolean isInitialized() {
-        return mGBDevice != null && mGBDevice.isInitialized();
+    private void updateReceiversEnableState() {
+        boolean enable = false;
+        boolean anySupportsWeather = false;
+        for (RegisteredDevice registered : mDevices.getAll()) {
+            if (registered.getDeviceSupport().useAutoConnect() || registered.getDevice().isInitialized()) {
+                enable = true;
+                DeviceCoordinator coordinator = registered.getCoordinator();
+                anySupportsWeather |= coordinator != null && coordinator.supportsWeather();
+            }
+        }
+        // calendar events and music are only sent to the primary device
+        RegisteredDevice primary = mDevices.getPrimary();
+        if (primary != null) {
+            setReceiversEnableState(enable, primary.getDevice().isInitialized(), primary.getDevice(), primary.getCoordinator(), anySupportsWeather);
+        } else {
+            setReceiversEnableState(false, false, null, null, false);
+        }
     }
 
-
-    private void setReceiversEnableState(boolean enable, boolean initialized, DeviceCoordinator coordinator) {
+    private void setReceiversEnableState(boolean enable, boolean initialized, GBDevice device, DeviceCoordinator coordinator, boolean anySupportsWeather) {
         LOG.info("Setting broadcast receivers to: " + enable);
 
         if (enable && initialized && coordinator != null && coordinator.supportsCalendarEvents()) {
@@ -667,7 +769,7 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                     calendarIntentFilter.addAction("android.intent.action.PROVIDER_CHANGED");
                     calendarIntentFilter.addDataScheme("content");
                     calendarIntentFilter.addDataAuthority("com.android.calendar", null);
-                    mCalendarReceiver = new CalendarReceiver(mGBDevice);
+                    mCalendarReceiver = new CalendarReceiver(device);
                     registerReceiver(mCalendarReceiver, calendarIntentFilter);
                 }
             }
@@ -735,18 +837,18 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
                 filter.addAction(AlarmClockReceiver.GOOGLE_CLOCK_ALARM_DONE_ACTION);
                 registerReceiver(mAlarmClockReceiver, filter);
             }
-            if (mCMWeatherReceiver == null && coordinator != null && coordinator.supportsWeather()) {
+            if (mCMWeatherReceiver == null && anySupportsWeather) {
                 mCMWeatherReceiver = new CMWeatherReceiver();
                 registerReceiver(mCMWeatherReceiver, new IntentFilter("GB_UPDATE_WEATHER"));
             }
             if (GBApplication.isRunningOreoOrLater()) {
-                if (mLineageOsWeatherReceiver == null && coordinator != null && coordinator.supportsWeather()) {
+                if (mLineageOsWeatherReceiver == null && anySupportsWeather) {
 
                     mLineageOsWeatherReceiver = new LineageOsWeatherReceiver();
                     registerReceiver(mLineageOsWeatherReceiver, new IntentFilter("GB_UPDATE_WEATHER"));
                 }
             }
-            if (mOmniJawsObserver == null && coordinator != null && coordinator.supportsWeather()) {
+            if (mOmniJawsObserver == null && anySupportsWeather) {
                 try {
                     mOmniJawsObserver = new OmniJawsObserver(new Handler());
                     getContentResolver().registerContentObserver(OmniJawsObserver.WEATHER_URI, true, mOmniJawsObserver);
@@ -830,9 +932,11 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         super.onDestroy();
 
         LocalBroadcastManager.getInstance(this).unregisterReceiver(mReceiver);
-        setReceiversEnableState(false, false, null); // disable BroadcastReceivers
+        setReceiversEnableState(false, false, null, null, false); // disable BroadcastReceivers
 
-        setDeviceSupport(null);
+        for (RegisteredDevice registered : mDevices.getAll()) {
+            disposeDevice(registered, false);
+        }
         NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         if (nm != null) {
             nm.cancel(GB.NOTIFICATION_ID); // need to do this because the updated notification won't be cancelled when service stops
@@ -848,8 +952,8 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         if (GBPrefs.AUTO_RECONNECT.equals(key)) {
             boolean autoReconnect = getGBPrefs().getAutoReconnect();
-            if (mDeviceSupport != null) {
-                mDeviceSupport.setAutoReconnect(autoReconnect);
+            for (RegisteredDevice registered : mDevices.getAll()) {
+                registered.getDeviceSupport().setAutoReconnect(autoReconnect);
             }
         }
         if (GBPrefs.CHART_MAX_HEART_RATE.equals(key) || GBPrefs.CHART_MIN_HEART_RATE.equals(key)) {
@@ -869,7 +973,29 @@ public class DeviceCommunicationService extends Service implements SharedPrefere
         return GBApplication.getGBPrefs();
     }
 
+    /**
+     * @return the device receiving the commands not addressed to a specific device,
+     * see DeviceSupportRegistry#getPrimary(), or null if there is none
+     */
     public GBDevice getGBDevice() {
-        return mGBDevice;
+        RegisteredDevice primary = mDevices.getPrimary();
+        return primary != null ? primary.getDevice() : null;
+    }
+
+    @Nullable
+    public GBDevice getGBDevice(String address) {
+        RegisteredDevice registered = mDevices.get(address);
+        return registered != null ? registered.getDevice() : null;
+    }
+
+    /**
+     * @return all connected or connecting devices, the most recently connected one last
+     */
+    public List<GBDevice> getGBDevices() {
+        List<GBDevice> devices = new ArrayList<>();
+        for (RegisteredDevice registered : mDevices.getAll()) {
+            devices.add(registered.getDevice());
+        }
+        return devices;
     }
 }
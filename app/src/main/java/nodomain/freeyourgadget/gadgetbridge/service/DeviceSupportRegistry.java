@@ -0,0 +1,196 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.GBEnvironment;
+import nodomain.freeyourgadget.gadgetbridge.devices.DeviceCoordinator;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.util.DeviceHelper;
+
+/**
+ * The devices the DeviceCommunicationService is connected (or connecting) to, by address.
+ * Every device has its own command thread, so that a slow device does not hold up the
+ * others, while the commands for one device are still passed to its DeviceSupport one
+ * after the other, in the order they were received.
+ * <p/>
+ * Not thread safe, only to be used from the main thread.
+ */
+class DeviceSupportRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceSupportRegistry.class);
+
+    // in the order the devices were connected, the most recent one last
+    private final LinkedHashMap<String, RegisteredDevice> devices = new LinkedHashMap<>();
+    // counts the devices becoming initialized, to find the most recent one
+    private static long initializations;
+
+    /**
+     * Adds the given DeviceSupport, which must not be registered already.
+     */
+    @NonNull
+    RegisteredDevice register(@NonNull DeviceSupport deviceSupport) {
+        RegisteredDevice registered = new RegisteredDevice(deviceSupport);
+        RegisteredDevice previous = devices.put(registered.getAddress(), registered);
+        if (previous != null) {
+            LOG.warn("Replaced registered device without disposing it: " + previous.getAddress());
+        }
+        return registered;
+    }
+
+    /**
+     * Removes the device with the given address. Its DeviceSupport is not disposed.
+     */
+    @Nullable
+    RegisteredDevice unregister(String address) {
+        return devices.remove(address);
+    }
+
+    @Nullable
+    RegisteredDevice get(@Nullable String address) {
+        return devices.get(address);
+    }
+
+    /**
+     * @return the device that receives the commands that are not addressed to a specific
+     * device: the most recently initialized one, or the most recently connected one if
+     * none is initialized. Null if there is no device at all.
+     */
+    @Nullable
+    RegisteredDevice getPrimary() {
+        RegisteredDevice primary = null;
+        RegisteredDevice last = null;
+        for (RegisteredDevice device : devices.values()) {
+            if (device.getDevice().isInitialized()
+                    && (primary == null || device.initialization > primary.initialization)) {
+                primary = device;
+            }
+            last = device;
+        }
+        return primary != null ? primary : last;
+    }
+
+    /**
+     * @return a copy of all registered devices, the most recently connected one last
+     */
+    @NonNull
+    List<RegisteredDevice> getAll() {
+        return new ArrayList<>(devices.values());
+    }
+
+    boolean isEmpty() {
+        return devices.isEmpty();
+    }
+
+    static class RegisteredDevice {
+        private final DeviceSupport deviceSupport;
+        // updated on the main thread, read by the command thread
+        private volatile GBDevice device;
+        private volatile DeviceCoordinator coordinator;
+        // when the device became initialized, see #initializations, or 0 while it is not
+        private long initialization;
+
+        // null in local tests, where all commands are executed directly
+        private final HandlerThread thread;
+        private final Handler handler;
+
+        private RegisteredDevice(DeviceSupport deviceSupport) {
+            this.deviceSupport = deviceSupport;
+            setDevice(deviceSupport.getDevice());
+            if (GBEnvironment.env() != null && GBEnvironment.env().isLocalTest()) {
+                thread = null;
+                handler = null;
+            } else {
+                thread = new HandlerThread("Gadgetbridge Commands " + device.getAddress());
+                thread.start();
+                handler = new Handler(thread.getLooper());
+            }
+        }
+
+        String getAddress() {
+            return device.getAddress();
+        }
+
+        DeviceSupport getDeviceSupport() {
+            return deviceSupport;
+        }
+
+        /**
+         * @return the last known state of the device
+         */
+        GBDevice getDevice() {
+            return device;
+        }
+
+        void setDevice(GBDevice device) {
+            // the updates usually carry the same GBDevice instance, so compare with our own state
+            if (!device.isInitialized()) {
+                initialization = 0;
+            } else if (initialization == 0) {
+                initialization = ++initializations;
+            }
+            this.device = device;
+            coordinator = DeviceHelper.getInstance().getCoordinator(device);
+        }
+
+        DeviceCoordinator getCoordinator() {
+            return coordinator;
+        }
+
+        /**
+         * Queues the given command on the command thread of this device.
+         */
+        void execute(final Runnable command) {
+            if (handler == null) {
+                command.run();
+                return;
+            }
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } catch (Exception e) {
+                        LOG.error("Error executing command for " + getAddress(), e);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Executes the given command after all pending ones, and ends the command thread
+         * afterwards. Commands queued later are dropped.
+         */
+        void executeLast(Runnable command) {
+            execute(command);
+            if (thread != null) {
+                thread.quitSafely();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.uart;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractBTLEDeviceSupport;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.AbstractBleProfile;
+
+/**
+ * The Nordic UART Service, a serial line over GATT used by many devices, e.g. Bangle.js.
+ * <p/>
+ * Received data is split into lines, see UartRxBuffer, and handed to the LineListener.
+ * Data to send is coalesced into packets of the negotiated MTU, see UartTxBuffer, and
+ * written when the transaction is flushed.
+ */
+public class NordicUartProfile<T extends AbstractBTLEDeviceSupport> extends AbstractBleProfile<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(NordicUartProfile.class);
+
+    public static final UUID UUID_SERVICE_NORDIC_UART = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+    public static final UUID UUID_CHARACTERISTIC_NORDIC_UART_TX = UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
+    public static final UUID UUID_CHARACTERISTIC_NORDIC_UART_RX = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+
+    public interface LineListener {
+        /**
+         * Called on the binder thread that received the data.
+         */
+        void onUartLine(String line);
+    }
+
+    private final UartRxBuffer rxBuffer = new UartRxBuffer();
+    private final UartTxBuffer txBuffer = new UartTxBuffer();
+    private final LineListener listener;
+
+    public NordicUartProfile(T support, LineListener listener) {
+        super(support);
+        this.listener = listener;
+    }
+
+    /**
+     * Enables the notifications of received data, and forgets any incomplete line of a
+     * previous connection.
+     */
+    public void enableNotify(TransactionBuilder builder) {
+        synchronized (rxBuffer) {
+            rxBuffer.clear();
+        }
+        synchronized (txBuffer) {
+            txBuffer.setMtu(UartTxBuffer.DEFAULT_MTU);
+        }
+        builder.notify(getCharacteristic(UUID_CHARACTERISTIC_NORDIC_UART_RX), true);
+    }
+
+    /**
+     * Asks for a larger MTU, so that fewer packets are needed. Writes flushed before the
+     * device agreed still use the smaller one.
+     */
+    public void requestMtu(TransactionBuilder builder, int mtu) {
+        if (GBApplication.isRunningLollipopOrLater()) {
+            builder.requestMtu(mtu);
+        }
+    }
+
+    /**
+     * Appends the given string to the data to send, see #flush(TransactionBuilder).
+     */
+    public void write(String str) {
+        write(str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void write(byte[] data) {
+        synchronized (txBuffer) {
+            txBuffer.add(data);
+        }
+    }
+
+    /**
+     * Adds the writes of all data appended so far to the given transaction.
+     */
+    public void flush(TransactionBuilder builder) {
+        BluetoothGattCharacteristic characteristic = getCharacteristic(UUID_CHARACTERISTIC_NORDIC_UART_TX);
+        synchronized (txBuffer) {
+            byte[] packet;
+            while ((packet = txBuffer.nextPacket()) != null) {
+                builder.write(characteristic, packet);
+            }
+        }
+    }
+
+    @Override
+    public boolean onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+        if (!UUID_CHARACTERISTIC_NORDIC_UART_RX.equals(characteristic.getUuid())) {
+            return false;
+        }
+        synchronized (rxBuffer) {
+            rxBuffer.add(characteristic.getValue());
+            String line;
+            while ((line = rxBuffer.nextLine()) != null) {
+                listener.onUartLine(line);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            LOG.info("MTU changed to " + mtu);
+            synchronized (txBuffer) {
+                txBuffer.setMtu(mtu);
+            }
+        }
+    }
+}
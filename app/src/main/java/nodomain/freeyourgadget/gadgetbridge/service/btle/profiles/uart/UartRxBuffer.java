@@ -0,0 +1,120 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.uart;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Collects the bytes received over a UART-like characteristic and splits them into
+ * lines (or frames with another delimiter byte).
+ * <p/>
+ * The bytes are kept in a ring buffer and only decoded as UTF-8 once a whole line
+ * is available, so characters split across packets are decoded correctly. Every byte is
+ * scanned only once, no matter in how many packets a line arrives.
+ */
+public class UartRxBuffer {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final byte delimiter;
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int start;
+    private int size;
+    // bytes after start already known not to be the delimiter
+    private int scanned;
+    private byte[] line = new byte[INITIAL_CAPACITY];
+
+    public UartRxBuffer() {
+        this((byte) '\n');
+    }
+
+    public UartRxBuffer(byte delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    public void add(byte[] data) {
+        add(data, 0, data.length);
+    }
+
+    public void add(byte[] data, int offset, int length) {
+        ensureCapacity(size + length);
+        int end = (start + size) % buffer.length;
+        int first = Math.min(length, buffer.length - end);
+        System.arraycopy(data, offset, buffer, end, first);
+        System.arraycopy(data, offset + first, buffer, 0, length - first);
+        size += length;
+    }
+
+    /**
+     * @return the next complete line without its delimiter and a trailing '\r', or null
+     * if none has been received completely yet
+     */
+    public String nextLine() {
+        int length = -1;
+        for (int i = scanned; i < size; i++) {
+            if (buffer[(start + i) % buffer.length] == delimiter) {
+                length = i;
+                break;
+            }
+        }
+        if (length < 0) {
+            scanned = size;
+            return null;
+        }
+
+        if (line.length < length) {
+            line = new byte[Math.max(length, 2 * line.length)];
+        }
+        copy(line, length);
+        start = (start + length + 1) % buffer.length;
+        size -= length + 1;
+        scanned = 0;
+
+        if (length > 0 && line[length - 1] == '\r' && delimiter == '\n') {
+            length--;
+        }
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of buffered bytes, not part of a line returned yet
+     */
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        start = 0;
+        size = 0;
+        scanned = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= buffer.length) {
+            return;
+        }
+        byte[] grown = new byte[Math.max(capacity, 2 * buffer.length)];
+        copy(grown, size);
+        buffer = grown;
+        start = 0;
+    }
+
+    private void copy(byte[] target, int length) {
+        int first = Math.min(length, buffer.length - start);
+        System.arraycopy(buffer, start, target, 0, first);
+        System.arraycopy(buffer, 0, target, first, length - first);
+    }
+}
@@ -0,0 +1,88 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.uart;
+
+/**
+ * Collects the bytes to send over a UART-like characteristic and cuts them into packets
+ * as large as the negotiated MTU allows. Data added in several calls is coalesced, so
+ * only the last packet of a transaction may be shorter than the maximum.
+ */
+public class UartTxBuffer {
+    /**
+     * The default ATT MTU, before a larger one has been negotiated.
+     */
+    public static final int DEFAULT_MTU = 23;
+    // opcode and attribute handle of a write request
+    private static final int ATT_HEADER_LENGTH = 3;
+
+    private byte[] buffer = new byte[256];
+    private int start;
+    private int end;
+    private int packetLength = DEFAULT_MTU - ATT_HEADER_LENGTH;
+
+    public void setMtu(int mtu) {
+        packetLength = Math.max(DEFAULT_MTU, mtu) - ATT_HEADER_LENGTH;
+    }
+
+    /**
+     * @return the maximum number of bytes per packet
+     */
+    public int getPacketLength() {
+        return packetLength;
+    }
+
+    public void add(byte[] data) {
+        if (end + data.length > buffer.length) {
+            int pending = end - start;
+            byte[] target = buffer;
+            if (pending + data.length > buffer.length) {
+                target = new byte[Math.max(pending + data.length, 2 * buffer.length)];
+            }
+            System.arraycopy(buffer, start, target, 0, pending);
+            buffer = target;
+            start = 0;
+            end = pending;
+        }
+        System.arraycopy(data, 0, buffer, end, data.length);
+        end += data.length;
+    }
+
+    /**
+     * @return the next packet to write, or null if everything has been taken already
+     */
+    public byte[] nextPacket() {
+        int length = Math.min(packetLength, end - start);
+        if (length == 0) {
+            return null;
+        }
+        byte[] packet = new byte[length];
+        System.arraycopy(buffer, start, packet, 0, length);
+        start += length;
+        if (start == end) {
+            start = 0;
+            end = 0;
+        }
+        return packet;
+    }
+
+    /**
+     * @return the number of bytes not taken yet
+     */
+    public int size() {
+        return end - start;
+    }
+}
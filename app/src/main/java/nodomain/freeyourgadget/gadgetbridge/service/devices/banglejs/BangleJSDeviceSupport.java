@@ -16,8 +16,6 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.service.devices.banglejs;
 
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCharacteristic;
 import android.content.Context;
 import android.net.Uri;
 import android.widget.Toast;
@@ -29,7 +27,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.TimeZone;
@@ -53,19 +50,27 @@ import nodomain.freeyourgadget.gadgetbridge.model.NotificationSpec;
 import nodomain.freeyourgadget.gadgetbridge.model.WeatherSpec;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.AbstractBTLEDeviceSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.uart.NordicUartProfile;
 import nodomain.freeyourgadget.gadgetbridge.util.AlarmUtils;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
 
 public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
     private static final Logger LOG = LoggerFactory.getLogger(BangleJSDeviceSupport.class);
-    private BluetoothGattCharacteristic rxCharacteristic = null;
-    private BluetoothGattCharacteristic txCharacteristic = null;
+    // the largest MTU supported by the Bangle.js firmware
+    private static final int MTU = 131;
 
-    private String receivedLine = "";
+    private final NordicUartProfile<BangleJSDeviceSupport> uartProfile;
 
     public BangleJSDeviceSupport() {
         super(LOG);
         addSupportedService(BangleJSConstants.UUID_SERVICE_NORDIC_UART);
+        uartProfile = new NordicUartProfile<>(this, new NordicUartProfile.LineListener() {
+            @Override
+            public void onUartLine(String line) {
+                handleUartRxLine(line);
+            }
+        });
+        addSupportedProfile(uartProfile);
     }
 
     @Override
@@ -75,14 +80,14 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
         gbDevice.setState(GBDevice.State.INITIALIZING);
         gbDevice.sendDeviceUpdateIntent(getContext());
 
-        rxCharacteristic = getCharacteristic(BangleJSConstants.UUID_CHARACTERISTIC_NORDIC_UART_RX);
-        txCharacteristic = getCharacteristic(BangleJSConstants.UUID_CHARACTERISTIC_NORDIC_UART_TX);
         builder.setGattCallback(this);
-        builder.notify(rxCharacteristic, true);
+        uartProfile.enableNotify(builder);
 
         uartTx(builder, " \u0003"); // clear active line
         setTime(builder);
         //sendSettings(builder);
+        uartProfile.flush(builder);
+        uartProfile.requestMtu(builder, MTU);
 
         // get version
 
@@ -94,18 +99,10 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
         return builder;
     }
 
-    /// Write a string of data, and chunk it up
+    /// Append a string of data, it is sent in MTU sized chunks by uartProfile.flush
     private void uartTx(TransactionBuilder builder, String str) {
         LOG.info("UART TX: " + str);
-        byte[] bytes;
-        bytes = str.getBytes(StandardCharsets.UTF_8);
-        for (int i=0;i<bytes.length;i+=20) {
-            int l = bytes.length-i;
-            if (l>20) l=20;
-            byte[] packet = new byte[l];
-            System.arraycopy(bytes, i, packet, 0, l);
-            builder.write(txCharacteristic, packet);
-        }
+        uartProfile.write(str);
     }
 
     /// Write a string of data, and chunk it up
@@ -113,6 +110,7 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
         try {
             TransactionBuilder builder = performInitialized(taskName);
             uartTx(builder, "\u0010GB("+json.toString()+")\n");
+            uartProfile.flush(builder);
             builder.queue(getQueue());
         } catch (IOException e) {
             GB.toast(getContext(), "Error in "+taskName+": " + e.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
@@ -211,28 +209,6 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
         }
     }
 
-    @Override
-    public boolean onCharacteristicChanged(BluetoothGatt gatt,
-                                           BluetoothGattCharacteristic characteristic) {
-        if (super.onCharacteristicChanged(gatt, characteristic)) {
-            return true;
-        }
-        if (BangleJSConstants.UUID_CHARACTERISTIC_NORDIC_UART_RX.equals(characteristic.getUuid())) {
-            byte[] chars = characteristic.getValue();
-            String packetStr = new String(chars);
-            LOG.info("RX: " + packetStr);
-            receivedLine += packetStr;
-            while (receivedLine.contains("\n")) {
-                int p = receivedLine.indexOf("\n");
-                String line =  receivedLine.substring(0,p-1);
-                receivedLine = receivedLine.substring(p+1);
-                handleUartRxLine(line);
-            }
-        }
-        return false;
-    }
-
-
     void setTime(TransactionBuilder builder) {
         uartTx(builder, "\u0010setTime("+(System.currentTimeMillis()/1000)+");E.setTimeZone("+(TimeZone.getDefault().getRawOffset()/3600000)+");\n");
     }
@@ -277,6 +253,7 @@ public class BangleJSDeviceSupport extends AbstractBTLEDeviceSupport {
         try {
             TransactionBuilder builder = performInitialized("setTime");
             setTime(builder);
+            uartProfile.flush(builder);
             builder.queue(getQueue());
         } catch (Exception e) {
             GB.toast(getContext(), "Error setting time: " + e.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
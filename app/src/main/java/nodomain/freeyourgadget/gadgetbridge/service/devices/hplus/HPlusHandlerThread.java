@@ -39,6 +39,8 @@ import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.GBException;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
 import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.SampleIngestionPipeline;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityAmountsCache;
 import nodomain.freeyourgadget.gadgetbridge.devices.hplus.HPlusConstants;
 import nodomain.freeyourgadget.gadgetbridge.devices.hplus.HPlusCoordinator;
 import nodomain.freeyourgadget.gadgetbridge.devices.hplus.HPlusHealthSampleProvider;
@@ -350,6 +352,8 @@ class HPlusHandlerThread extends GBDeviceIoThread {
                     overlayDao.insertOrReplaceInTx(overlayList);
                 }
 
+                // neither the samples nor the overlays were written through the provider
+                ActivityAmountsCache.invalidate(DBHelper.getDeviceId(getDevice(), dbHandler.getDaoSession()));
             } catch (GBException ex) {
                 LOG.info((ex.getMessage()));
             } catch (Exception ex) {
@@ -387,7 +391,6 @@ class HPlusHandlerThread extends GBDeviceIoThread {
             Long deviceId = DBHelper.getDevice(getDevice(), session).getId();
 
             HPlusHealthActivityOverlayDao overlayDao = session.getHPlusHealthActivityOverlayDao();
-            HPlusHealthSampleProvider provider = new HPlusHealthSampleProvider(getDevice(), dbHandler.getDaoSession());
 
             //Get the individual Sleep overlays and insert them
             List<HPlusHealthActivityOverlay> overlayList = new ArrayList<>();
@@ -398,15 +401,19 @@ class HPlusHandlerThread extends GBDeviceIoThread {
             }
 
             overlayDao.insertOrReplaceInTx(overlayList);
+            // overlays reach back up to a day, see HPlusHealthSampleProvider
+            ActivityAmountsCache.invalidate(deviceId);
+        } catch (Exception ex) {
+            LOG.info(ex.getMessage());
+        }
 
-            //Store the data
-            HPlusHealthActivitySample sample = createSample(dbHandler, record.timestamp);
+        //Store the data, without holding the database lock
+        try {
+            HPlusHealthActivitySample sample = createSample(record.timestamp);
             sample.setRawHPlusHealthData(record.getRawData());
             sample.setRawKind(record.activityKind);
 
-            sample.setProvider(provider);
-
-            provider.addGBActivitySample(sample);
+            SampleIngestionPipeline.getInstance().add(sample, getDevice());
         } catch (Exception ex) {
             LOG.info(ex.getMessage());
         }
@@ -442,10 +449,8 @@ class HPlusHandlerThread extends GBDeviceIoThread {
 
         getDevice().setBatteryLevel(record.battery);
 
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            HPlusHealthSampleProvider provider = new HPlusHealthSampleProvider(getDevice(), dbHandler.getDaoSession());
-
-            HPlusHealthActivitySample sample = createSample(dbHandler, record.timestamp);
+        try {
+            HPlusHealthActivitySample sample = createSample(record.timestamp);
             sample.setRawKind(record.type);
             sample.setRawIntensity(record.intensity);
             sample.setHeartRate(record.heartRate);
@@ -454,14 +459,20 @@ class HPlusHandlerThread extends GBDeviceIoThread {
             sample.setSteps(record.steps);
 
             sample.setRawHPlusHealthData(record.getRawData());
-            sample.setProvider(provider);
 
-            provider.addGBActivitySample(sample);
+            SampleIngestionPipeline.getInstance().add(sample, getDevice());
 
-            sample.setSteps(sample.getSteps() - prevRealTimeRecord.steps);
+            // the queued sample must not be modified anymore
+            HPlusHealthActivitySample realtimeSample = new HPlusHealthActivitySample(
+                    sample.getTimestamp(), sample.getDeviceId(), sample.getUserId(),
+                    sample.getRawHPlusHealthData(), sample.getRawKind(), sample.getRawIntensity(),
+                    sample.getSteps() - prevRealTimeRecord.steps, sample.getHeartRate(),
+                    sample.getDistance(), sample.getCalories());
+            // the provider only normalizes kind and intensity, which needs no session
+            realtimeSample.setProvider(new HPlusHealthSampleProvider(getDevice(), null));
 
             Intent intent = new Intent(DeviceService.ACTION_REALTIME_SAMPLES)
-                    .putExtra(DeviceService.EXTRA_REALTIME_SAMPLE, sample)
+                    .putExtra(DeviceService.EXTRA_REALTIME_SAMPLE, realtimeSample)
                     .putExtra(DeviceService.EXTRA_TIMESTAMP, System.currentTimeMillis());
             LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
 
@@ -492,10 +503,8 @@ class HPlusHandlerThread extends GBDeviceIoThread {
             return false;
         }
 
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            HPlusHealthSampleProvider provider = new HPlusHealthSampleProvider(getDevice(), dbHandler.getDaoSession());
-
-            HPlusHealthActivitySample sample = createSample(dbHandler, record.timestamp);
+        try {
+            HPlusHealthActivitySample sample = createSample(record.timestamp);
 
             sample.setRawKind(record.type);
             sample.setSteps(record.steps);
@@ -505,8 +514,7 @@ class HPlusHandlerThread extends GBDeviceIoThread {
             sample.setHeartRate((record.maxHeartRate - record.minHeartRate) / 2); //TODO: Find an alternative approach for Day Summary Heart Rate
             sample.setRawHPlusHealthData(record.getRawData());
 
-            sample.setProvider(provider);
-            provider.addGBActivitySample(sample);
+            SampleIngestionPipeline.getInstance().add(sample, getDevice());
         } catch (GBException ex) {
             LOG.info((ex.getMessage()));
         } catch (Exception ex) {
@@ -636,8 +644,22 @@ class HPlusHandlerThread extends GBDeviceIoThread {
      * @return The sample just created
      */
     private HPlusHealthActivitySample createSample(DBHandler dbHandler, int timestamp) {
-        Long userId = DBHelper.getUser(dbHandler.getDaoSession()).getId();
-        Long deviceId = DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId();
+        long userId = DBHelper.getUserId(dbHandler.getDaoSession());
+        long deviceId = DBHelper.getDeviceId(getDevice(), dbHandler.getDaoSession());
+        return createSample(timestamp, deviceId, userId);
+    }
+
+    /**
+     * Like #createSample(DBHandler, int), but without device and user id, which
+     * SampleIngestionPipeline#add(AbstractActivitySample, GBDevice) sets
+     * @param timestamp The sample timestamp
+     * @return The sample just created
+     */
+    private HPlusHealthActivitySample createSample(int timestamp) {
+        return createSample(timestamp, 0, 0);
+    }
+
+    private HPlusHealthActivitySample createSample(int timestamp, long deviceId, long userId) {
         HPlusHealthActivitySample sample = new HPlusHealthActivitySample(
                 timestamp,                      // ts
                 deviceId, userId,               // User id
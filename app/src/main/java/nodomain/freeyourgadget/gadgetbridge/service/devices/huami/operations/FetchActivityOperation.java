@@ -109,7 +109,7 @@ public class FetchActivityOperation extends AbstractFetchOperation {
     private GregorianCalendar saveSamples() {
         if (samples.size() > 0) {
             // save all the samples that we got
-            try (DBHandler handler = GBApplication.acquireDB()) {
+            try (DBHandler handler = GBApplication.acquireWriteDB()) {
                 DaoSession session = handler.getDaoSession();
                 SampleProvider<MiBandActivitySample> sampleProvider = new MiBandSampleProvider(getDevice(), session);
                 Device device = DBHelper.getDevice(getDevice(), session);
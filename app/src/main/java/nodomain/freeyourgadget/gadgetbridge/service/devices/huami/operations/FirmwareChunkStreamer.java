@@ -0,0 +1,96 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.huami.operations;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cuts a firmware image into the chunks to write, batch by batch, instead of all at once.
+ * <p/>
+ * Chunks are only copied out of the given buffer when their batch is requested, so the
+ * memory needed for the transfer stays the same no matter how large the image is. A batch
+ * ends with a sync command, like the whole transfer: after every syncInterval full chunks
+ * (the first batch has one more), and after the last chunk.
+ */
+public class FirmwareChunkStreamer {
+    public interface Sink {
+        void onChunk(byte[] chunk);
+
+        void onSync();
+    }
+
+    private final ByteBuffer firmware;
+    private final int chunkLength;
+    private final int syncInterval;
+    private final int start;
+    private int chunkIndex;
+    private boolean done;
+
+    /**
+     * @param firmware the image to send, from its position to its limit. The buffer
+     *                 itself is not modified.
+     */
+    public FirmwareChunkStreamer(ByteBuffer firmware, int chunkLength, int syncInterval) {
+        this.firmware = firmware.duplicate();
+        start = firmware.position();
+        this.chunkLength = chunkLength;
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * Hands the chunks of the next batch and its sync command to the given sink.
+     *
+     * @return false if everything has been handed out already
+     */
+    public boolean nextBatch(Sink sink) {
+        if (done) {
+            return false;
+        }
+        while (firmware.remaining() >= chunkLength) {
+            byte[] chunk = new byte[chunkLength];
+            firmware.get(chunk);
+            sink.onChunk(chunk);
+            if (chunkIndex++ > 0 && (chunkIndex - 1) % syncInterval == 0) {
+                sink.onSync();
+                return true;
+            }
+        }
+        if (firmware.hasRemaining()) {
+            byte[] lastChunk = new byte[firmware.remaining()];
+            firmware.get(lastChunk);
+            sink.onChunk(lastChunk);
+        }
+        sink.onSync();
+        done = true;
+        return true;
+    }
+
+    /**
+     * @return the number of bytes handed out so far
+     */
+    public int getPosition() {
+        return firmware.position() - start;
+    }
+
+    public int getSize() {
+        return firmware.limit() - start;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+}
@@ -27,7 +27,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
@@ -37,8 +37,9 @@ import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiFWHelper;
 import nodomain.freeyourgadget.gadgetbridge.devices.huami.HuamiService;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.BLETypeConversions;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.AbortTransactionAction;
+import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.PlainAction;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.SetDeviceBusyAction;
-import nodomain.freeyourgadget.gadgetbridge.service.btle.actions.SetProgressAction;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.AbstractHuamiOperation;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiFirmwareInfo;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.huami.HuamiFirmwareType;
@@ -49,12 +50,22 @@ import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 public class UpdateFirmwareOperation extends AbstractHuamiOperation {
     private static final Logger LOG = LoggerFactory.getLogger(UpdateFirmwareOperation.class);
 
+    // the band expects a sync command after this many chunks
+    private static final int SYNC_INTERVAL = 100;
+    // batches of chunks queued, but not completely written yet
+    private static final int MAX_BATCHES_IN_FLIGHT = 2;
+
     protected final Uri uri;
     final BluetoothGattCharacteristic fwCControlChar;
     private final BluetoothGattCharacteristic fwCDataChar;
     protected final Prefs prefs = GBApplication.getPrefs();
     protected HuamiFirmwareInfo firmwareInfo;
 
+    private FirmwareChunkStreamer streamer;
+    private int batchesInFlight;
+    private long transferStart;
+    private volatile boolean writeFailed;
+
     public UpdateFirmwareOperation(Uri uri, HuamiSupport support) {
         super(support);
         this.uri = uri;
@@ -95,6 +106,7 @@ public class UpdateFirmwareOperation extends AbstractHuamiOperation {
     @Override
     public boolean onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         if (status != BluetoothGatt.GATT_SUCCESS) {
+            writeFailed = true;
             operationFailed();
         }
         return super.onCharacteristicWrite(gatt, characteristic, status);
@@ -221,7 +233,10 @@ public class UpdateFirmwareOperation extends AbstractHuamiOperation {
 
     /**
      * Method that uploads a firmware (fwbytes) to the Mi Band.
-     * The firmware has to be split into chunks of 20 bytes each, and periodically a COMMAND_SYNC command has to be issued to the Mi Band.
+     * The firmware has to be split into chunks of MTU size each, and periodically a COMMAND_SYNC command has to be issued to the Mi Band.
+     * <p/>
+     * The chunks are queued in batches up to each sync command, and only MAX_BATCHES_IN_FLIGHT batches at a time,
+     * so that the memory needed does not depend on the size of the firmware.
      * <p/>
      * The Mi Band will send a notification after receiving this data to confirm if the firmware looks good to it.
      *
@@ -230,45 +245,91 @@ public class UpdateFirmwareOperation extends AbstractHuamiOperation {
      * @see #handleNotificationNotif
      */
     private boolean sendFirmwareData(HuamiFirmwareInfo info) {
-        byte[] fwbytes = info.getBytes();
-        int len = fwbytes.length;
         final int packetLength = getSupport().getMTU() - 3;
-        int packets = len / packetLength;
 
         try {
-            // going from 0 to len
-            int firmwareProgress = 0;
+            synchronized (this) {
+                streamer = new FirmwareChunkStreamer(ByteBuffer.wrap(info.getBytes()), packetLength, SYNC_INTERVAL);
+                batchesInFlight = 0;
+                writeFailed = false;
+                transferStart = System.currentTimeMillis();
+            }
 
-            TransactionBuilder builder = performInitialized("send firmware packet");
+            TransactionBuilder builder = performInitialized("send firmware start");
             builder.write(fwCControlChar, getFirmwareStartCommand());
+            builder.queue(getQueue());
 
-            for (int i = 0; i < packets; i++) {
-                byte[] fwChunk = Arrays.copyOfRange(fwbytes, i * packetLength, i * packetLength + packetLength);
+            queueFirmwareBatches();
+        } catch (IOException ex) {
+            LOG.error("Unable to send fw to device", ex);
+            GB.updateInstallNotification(getContext().getString(R.string.updatefirmwareoperation_firmware_not_sent), false, 0, getContext());
+            return false;
+        }
+        return true;
+    }
 
-                builder.write(fwCDataChar, fwChunk);
-                firmwareProgress += packetLength;
+    private synchronized void queueFirmwareBatches() throws IOException {
+        while (batchesInFlight < MAX_BATCHES_IN_FLIGHT && !streamer.isDone() && !writeFailed) {
+            final TransactionBuilder builder = performInitialized("send firmware packets");
+            // a failed write only aborts its own transaction, don't continue with the next one
+            builder.add(new AbortTransactionAction() {
+                @Override
+                protected boolean shouldAbort() {
+                    return writeFailed;
+                }
+            });
+            streamer.nextBatch(new FirmwareChunkStreamer.Sink() {
+                @Override
+                public void onChunk(byte[] chunk) {
+                    builder.write(fwCDataChar, chunk);
+                }
 
-                int progressPercent = (int) ((((float) firmwareProgress) / len) * 100);
-                if ((i > 0) && (i % 100 == 0)) {
+                @Override
+                public void onSync() {
                     builder.write(fwCControlChar, new byte[]{HuamiService.COMMAND_FIRMWARE_UPDATE_SYNC});
-                    builder.add(new SetProgressAction(getContext().getString(R.string.updatefirmwareoperation_update_in_progress), true, progressPercent, getContext()));
                 }
-            }
-
-            if (firmwareProgress < len) {
-                byte[] lastChunk = Arrays.copyOfRange(fwbytes, packets * packetLength, len);
-                builder.write(fwCDataChar, lastChunk);
-            }
-
-            builder.write(fwCControlChar, new byte[]{HuamiService.COMMAND_FIRMWARE_UPDATE_SYNC});
+            });
+            builder.add(new FirmwareBatchWrittenAction(streamer.getPosition(), streamer.getSize()));
             builder.queue(getQueue());
+            batchesInFlight++;
+        }
+    }
+
+    private void onFirmwareBatchWritten(int position, int size) {
+        synchronized (this) {
+            batchesInFlight--;
+        }
+        long duration = Math.max(1, System.currentTimeMillis() - transferStart);
+        LOG.info("Sent " + position + " of " + size + " firmware bytes, " + (position * 1000L / duration) + " bytes/s");
 
+        int progressPercent = (int) ((((float) position) / size) * 100);
+        GB.updateInstallNotification(getContext().getString(R.string.updatefirmwareoperation_update_in_progress), true, progressPercent, getContext());
+        try {
+            queueFirmwareBatches();
         } catch (IOException ex) {
             LOG.error("Unable to send fw to device", ex);
             GB.updateInstallNotification(getContext().getString(R.string.updatefirmwareoperation_firmware_not_sent), false, 0, getContext());
-            return false;
         }
-        return true;
+    }
+
+    /**
+     * Run by the queue once all writes of a batch have succeeded, so it reports the bytes
+     * actually sent, and queues the next batch.
+     */
+    private class FirmwareBatchWrittenAction extends PlainAction {
+        private final int position;
+        private final int size;
+
+        FirmwareBatchWrittenAction(int position, int size) {
+            this.position = position;
+            this.size = size;
+        }
+
+        @Override
+        public boolean run(BluetoothGatt gatt) {
+            onFirmwareBatchWritten(position, size);
+            return true;
+        }
     }
 
 
@@ -18,8 +18,6 @@ package nodomain.freeyourgadget.gadgetbridge.service.devices.jyou.y5;
 
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
-import android.content.Intent;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,18 +25,14 @@ import org.slf4j.LoggerFactory;
 import java.nio.ByteBuffer;
 import java.util.UUID;
 
-import nodomain.freeyourgadget.gadgetbridge.GBApplication;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.devices.RealtimeSampleRecorder;
 import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.devices.jyou.JYouConstants;
 import nodomain.freeyourgadget.gadgetbridge.devices.jyou.JYouSampleProvider;
-import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.JYouActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.User;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
-import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
 import nodomain.freeyourgadget.gadgetbridge.service.btle.TransactionBuilder;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.jyou.JYouSupport;
 import nodomain.freeyourgadget.gadgetbridge.service.devices.jyou.RealtimeSamplesSupport;
@@ -143,6 +137,7 @@ public class Y5Support extends JYouSupport {
         } else {
             if (realtimeSamplesSupport != null) {
                 realtimeSamplesSupport.stop();
+                RealtimeSampleRecorder.getInstance(gbDevice).stop();
             }
         }
     }
@@ -152,37 +147,21 @@ public class Y5Support extends JYouSupport {
             realtimeSamplesSupport = new RealtimeSamplesSupport(1000, 1000) {
                 @Override
                 public void doCurrentSample() {
-
-                    try (DBHandler handler = GBApplication.acquireDB()) {
-                        DaoSession session = handler.getDaoSession();
-                        int ts = (int) (System.currentTimeMillis() / 1000);
-                        JYouSampleProvider provider = new JYouSampleProvider(gbDevice, session);
-                        JYouActivitySample sample = createActivitySample(DBHelper.getDevice(getDevice(), session), DBHelper.getUser(session), ts, provider);
-                        sample.setHeartRate(getHeartrateBpm());
-                        sample.setRawIntensity(ActivitySample.NOT_MEASURED);
-                        sample.setRawKind(JYouSampleProvider.TYPE_ACTIVITY); // to make it visible in the charts TODO: add a MANUAL kind for that?
-
-                        provider.addGBActivitySample(sample);
-
-                        // set the steps only afterwards, since realtime steps are also recorded
-                        // in the regular samples and we must not count them twice
-                        // Note: we know that the DAO sample is never committed again, so we simply
-                        // change the value here in memory.
-                        sample.setSteps(getSteps());
+                    try {
+                        int timestamp = (int) (System.currentTimeMillis() / 1000);
+                        int heartRate = getHeartrateBpm();
                         if(steps > 1){
                             LOG.debug("Have steps: " + getSteps());
                         }
 
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("realtime sample: " + sample);
-                        }
-
-                        Intent intent = new Intent(DeviceService.ACTION_REALTIME_SAMPLES)
-                                .putExtra(DeviceService.EXTRA_REALTIME_SAMPLE, sample);
-                        LocalBroadcastManager.getInstance(getContext()).sendBroadcast(intent);
-
+                        // the steps are only broadcast, not stored, since realtime steps are
+                        // also recorded in the regular samples and we must not count them twice
+                        JYouActivitySample broadcastSample = createRealtimeSample(timestamp, heartRate);
+                        broadcastSample.setSteps(getSteps());
+                        RealtimeSampleRecorder.getInstance(gbDevice).record(gbDevice,
+                                createRealtimeSample(timestamp, heartRate), broadcastSample);
                     } catch (Exception e) {
-                        LOG.warn("Unable to acquire db for saving realtime samples", e);
+                        LOG.warn("Unable to record realtime sample", e);
                     }
                 }
             };
@@ -190,6 +169,15 @@ public class Y5Support extends JYouSupport {
         return realtimeSamplesSupport;
     }
 
+    private JYouActivitySample createRealtimeSample(int timestamp, int heartRate) {
+        JYouActivitySample sample = new JYouActivitySample();
+        sample.setTimestamp(timestamp);
+        sample.setHeartRate(heartRate);
+        sample.setRawIntensity(ActivitySample.NOT_MEASURED);
+        sample.setRawKind(JYouSampleProvider.TYPE_ACTIVITY); // to make it visible in the charts TODO: add a MANUAL kind for that?
+        return sample;
+    }
+
     @Override
     protected void syncSettings(TransactionBuilder builder) {
         syncDateAndTime(builder);
@@ -0,0 +1,235 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import android.util.Base64;
+
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * The dictionary of a received AppMessage. The entries are not copied, they are read
+ * from the buffer of the message when accessed, so an instance is only valid until the
+ * next message is parsed into it.
+ */
+class AppMessageDictionary {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 8;
+
+    private byte[] mData;
+    private int mSize;
+    private int[] mKeys = new int[INITIAL_CAPACITY];
+    private byte[] mTypes = new byte[INITIAL_CAPACITY];
+    private int[] mOffsets = new int[INITIAL_CAPACITY];
+    private int[] mLengths = new int[INITIAL_CAPACITY];
+
+    /**
+     * Reads the dictionary at the current position of the buffer and advances the
+     * position behind it. The buffer must be backed by an array.
+     *
+     * @return false if the dictionary is truncated or contains an unknown type
+     */
+    boolean parse(ByteBuffer buf) {
+        mData = buf.array();
+        mSize = 0;
+        if (!buf.hasRemaining()) {
+            return false;
+        }
+        int count = buf.get() & 0xff;
+        ensureCapacity(count);
+        int position = buf.arrayOffset() + buf.position();
+        int limit = buf.arrayOffset() + buf.limit();
+        for (int i = 0; i < count; i++) {
+            if (limit - position < 7) {
+                return false;
+            }
+            int key = readInt(position);
+            byte type = mData[position + 4];
+            int length = readShort(position + 5) & 0xffff;
+            position += 7;
+            if (limit - position < length) {
+                return false;
+            }
+            switch (type) {
+                case PebbleProtocol.TYPE_INT:
+                case PebbleProtocol.TYPE_UINT:
+                    if (length != 1 && length != 2 && length != 4) {
+                        return false;
+                    }
+                    break;
+                case PebbleProtocol.TYPE_BYTEARRAY:
+                case PebbleProtocol.TYPE_CSTRING:
+                    break;
+                default:
+                    return false;
+            }
+            mKeys[i] = key;
+            mTypes[i] = type;
+            mOffsets[i] = position;
+            mLengths[i] = length;
+            mSize++;
+            position += length;
+        }
+        buf.position(position - buf.arrayOffset());
+        return true;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    int getKey(int index) {
+        return mKeys[index];
+    }
+
+    byte getType(int index) {
+        return mTypes[index];
+    }
+
+    /**
+     * @return the length of the value in bytes, for strings including the terminating 0
+     */
+    int getLength(int index) {
+        return mLengths[index];
+    }
+
+    /**
+     * @return the index of the entry with the given key, or -1
+     */
+    int indexOf(int key) {
+        for (int i = 0; i < mSize; i++) {
+            if (mKeys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the sign extended value of an integer entry
+     */
+    int getInt(int index) {
+        int offset = mOffsets[index];
+        switch (mLengths[index]) {
+            case 1:
+                return mData[offset];
+            case 2:
+                return readShort(offset);
+            default:
+                return readInt(offset);
+        }
+    }
+
+    /**
+     * @return the zero extended value of an integer entry
+     */
+    long getUInt(int index) {
+        int offset = mOffsets[index];
+        switch (mLengths[index]) {
+            case 1:
+                return mData[offset] & 0xff;
+            case 2:
+                return readShort(offset) & 0xffff;
+            default:
+                return readInt(offset) & 0xffffffffL;
+        }
+    }
+
+    /**
+     * @return the value of the entry as a view on the message, in little endian order
+     */
+    ByteBuffer getBuffer(int index) {
+        return ByteBuffer.wrap(mData, mOffsets[index], mLengths[index]).slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return a copy of the value of the entry
+     */
+    byte[] getBytes(int index) {
+        byte[] bytes = new byte[mLengths[index]];
+        System.arraycopy(mData, mOffsets[index], bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * @return the value of a string entry, without the terminating 0
+     */
+    String getString(int index) {
+        return new String(mData, mOffsets[index], getStringLength(index), UTF_8);
+    }
+
+    /**
+     * Creates the JSON representation used for PebbleKit and the JavaScript bridge, e.g.
+     * <code>[{"key":1,"length":4,"type":"uint","value":42}]</code>. Strings are
+     * given without the terminating 0, byte arrays are Base64 encoded.
+     */
+    String toJSON() {
+        StringBuilder json = new StringBuilder(32 * mSize + 2);
+        json.append('[');
+        for (int i = 0; i < mSize; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            byte type = mTypes[i];
+            json.append("{\"key\":").append(mKeys[i]);
+            json.append(",\"length\":").append(type == PebbleProtocol.TYPE_CSTRING ? getStringLength(i) : mLengths[i]);
+            switch (type) {
+                case PebbleProtocol.TYPE_UINT:
+                    json.append(",\"type\":\"uint\",\"value\":").append(getUInt(i));
+                    break;
+                case PebbleProtocol.TYPE_INT:
+                    json.append(",\"type\":\"int\",\"value\":").append(getInt(i));
+                    break;
+                case PebbleProtocol.TYPE_BYTEARRAY:
+                    json.append(",\"type\":\"bytes\",\"value\":\"");
+                    json.append(Base64.encodeToString(mData, mOffsets[i], mLengths[i], Base64.NO_WRAP));
+                    json.append('"');
+                    break;
+                case PebbleProtocol.TYPE_CSTRING:
+                    json.append(",\"type\":\"string\",\"value\":").append(JSONObject.quote(getString(i)));
+                    break;
+            }
+            json.append('}');
+        }
+        return json.append(']').toString();
+    }
+
+    private int getStringLength(int index) {
+        return Math.max(mLengths[index] - 1, 0);
+    }
+
+    private void ensureCapacity(int count) {
+        if (mKeys.length < count) {
+            mKeys = new int[count];
+            mTypes = new byte[count];
+            mOffsets = new int[count];
+            mLengths = new int[count];
+        }
+    }
+
+    private short readShort(int offset) {
+        return (short) ((mData[offset] & 0xff) | (mData[offset + 1] & 0xff) << 8);
+    }
+
+    private int readInt(int offset) {
+        return (mData[offset] & 0xff) | (mData[offset + 1] & 0xff) << 8
+                | (mData[offset + 2] & 0xff) << 16 | (mData[offset + 3] & 0xff) << 24;
+    }
+}
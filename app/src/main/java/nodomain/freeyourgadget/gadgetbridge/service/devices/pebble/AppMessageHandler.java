@@ -17,15 +17,11 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
 
-
-import android.util.Pair;
-
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Map;
 import java.util.UUID;
 
@@ -54,7 +50,10 @@ class AppMessageHandler {
         return mUUID;
     }
 
-    public GBDeviceEvent[] handleMessage(ArrayList<Pair<Integer, Object>> pairs) {
+    /**
+     * @param dict the received dictionary, only valid during this call
+     */
+    public GBDeviceEvent[] handleMessage(AppMessageDictionary dict) {
         // Just ACK
         GBDeviceEventSendBytes sendBytesAck = new GBDeviceEventSendBytes();
         sendBytesAck.encodedBytes = mPebbleProtocol.encodeApplicationMessageAck(mUUID, mPebbleProtocol.last_id);
@@ -17,12 +17,9 @@
 
 package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
 
-import android.util.Pair;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
@@ -42,11 +39,11 @@ public class AppMessageHandlerGBPebble extends AppMessageHandler {
     }
 
     @Override
-    public GBDeviceEvent[] handleMessage(ArrayList<Pair<Integer, Object>> pairs) {
+    public GBDeviceEvent[] handleMessage(AppMessageDictionary dict) {
         GBDeviceEventFindPhone gbDeviceEventFindPhone = null;
 
-        for (Pair<Integer, Object> pair : pairs) {
-            switch (pair.first) {
+        for (int i = 0; i < dict.size(); i++) {
+            switch (dict.getKey(i)) {
                 case KEY_FIND_PHONE_START:
                     LOG.info("find phone start");
                     gbDeviceEventFindPhone = new GBDeviceEventFindPhone();
@@ -58,7 +55,7 @@ public class AppMessageHandlerGBPebble extends AppMessageHandler {
                     gbDeviceEventFindPhone.event = GBDeviceEventFindPhone.Event.STOP;
                     break;
                 default:
-                    LOG.info("unhandled key: " + pair.first);
+                    LOG.info("unhandled key: " + dict.getKey(i));
                     break;
             }
         }
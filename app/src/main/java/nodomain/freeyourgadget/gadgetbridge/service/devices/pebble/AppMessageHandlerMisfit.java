@@ -16,14 +16,10 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
 
-import android.util.Pair;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.SimpleTimeZone;
 import java.util.UUID;
@@ -64,10 +60,10 @@ class AppMessageHandlerMisfit extends AppMessageHandler {
     }
 
     @Override
-    public GBDeviceEvent[] handleMessage(ArrayList<Pair<Integer, Object>> pairs) {
+    public GBDeviceEvent[] handleMessage(AppMessageDictionary dict) {
         GBDevice device = getDevice();
-        for (Pair<Integer, Object> pair : pairs) {
-            switch (pair.first) {
+        for (int d = 0; d < dict.size(); d++) {
+            switch (dict.getKey(d)) {
                 case KEY_INCOMING_DATA_BEGIN:
                     LOG.info("incoming data start");
                     break;
@@ -76,12 +72,10 @@ class AppMessageHandlerMisfit extends AppMessageHandler {
                     LOG.info("incoming data end");
                     break;
                 case KEY_INCOMING_DATA:
-                    byte[] data = (byte[]) pair.second;
-                    ByteBuffer buf = ByteBuffer.wrap(data);
-                    buf.order(ByteOrder.LITTLE_ENDIAN);
+                    ByteBuffer buf = dict.getBuffer(d);
                     int timestamp = buf.getInt();
                     int key = buf.getInt();
-                    int samples = (data.length - 8) / 2;
+                    int samples = (dict.getLength(d) - 8) / 2;
                     if (samples <= 0) {
                         break;
                     }
@@ -117,7 +111,7 @@ class AppMessageHandlerMisfit extends AppMessageHandler {
                     }
                     break;
                 default:
-                    LOG.info("unhandled key: " + pair.first);
+                    LOG.info("unhandled key: " + dict.getKey(d));
                     break;
             }
         }
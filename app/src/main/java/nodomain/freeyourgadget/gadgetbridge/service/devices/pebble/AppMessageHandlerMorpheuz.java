@@ -26,7 +26,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Objects;
 import java.util.SimpleTimeZone;
 import java.util.UUID;
 
@@ -105,24 +104,26 @@ class AppMessageHandlerMorpheuz extends AppMessageHandler {
     }
 
     @Override
-    public GBDeviceEvent[] handleMessage(ArrayList<Pair<Integer, Object>> pairs) {
+    public GBDeviceEvent[] handleMessage(AppMessageDictionary dict) {
         int ctrl_message = 0;
 
-        for (Pair<Integer, Object> pair : pairs) {
-            if (Objects.equals(pair.first, keyTransmit)) {
+        for (int i = 0; i < dict.size(); i++) {
+            int key = dict.getKey(i);
+            if (isKey(key, keyTransmit)) {
                 ctrl_message |= CTRL_TRANSMIT_DONE;
                 GB.signalActivityDataFinish();
-            } else if (pair.first.equals(keyGoneoff)) {
-                alarm_gone_off = (int) pair.second;
+            } else if (isKey(key, keyGoneoff)) {
+                alarm_gone_off = dict.getInt(i);
                 LOG.info("got gone off: " + alarm_gone_off / 60 + ":" + alarm_gone_off % 60);
                 ctrl_message |= CTRL_DO_NEXT | CTRL_GONEOFF_DONE;
-            } else if (pair.first.equals(keyPoint)) {
+            } else if (isKey(key, keyPoint)) {
                 if (recording_base_timestamp == -1) {
                     // we have no base timestamp but received points, stop this
                     ctrl_message = CTRL_VERSION_DONE | CTRL_GONEOFF_DONE | CTRL_TRANSMIT_DONE | CTRL_SET_LAST_SENT;
                 } else {
-                    int index = ((int) pair.second >> 16);
-                    int intensity = ((int) pair.second & 0xffff);
+                    int point = dict.getInt(i);
+                    int index = (point >> 16);
+                    int intensity = (point & 0xffff);
                     LOG.info("got point:" + index + " " + intensity);
                     if (index >= 0) {
                         try (DBHandler db = GBApplication.acquireDB()) {
@@ -139,34 +140,34 @@ class AppMessageHandlerMorpheuz extends AppMessageHandler {
 
                     ctrl_message |= CTRL_SET_LAST_SENT | CTRL_DO_NEXT;
                 }
-            } else if (pair.first.equals(keyFrom)) {
-                smartalarm_from = (int) pair.second;
+            } else if (isKey(key, keyFrom)) {
+                smartalarm_from = dict.getInt(i);
                 LOG.info("got from: " + smartalarm_from / 60 + ":" + smartalarm_from % 60);
                 ctrl_message |= CTRL_SET_LAST_SENT | CTRL_DO_NEXT;
-            } else if (pair.first.equals(keyTo)) {
-                smartalarm_to = (int) pair.second;
+            } else if (isKey(key, keyTo)) {
+                smartalarm_to = dict.getInt(i);
                 LOG.info("got to: " + smartalarm_to / 60 + ":" + smartalarm_to % 60);
                 ctrl_message |= CTRL_SET_LAST_SENT | CTRL_DO_NEXT;
-            } else if (pair.first.equals(keyVersion)) {
-                int version = (int) pair.second;
+            } else if (isKey(key, keyVersion)) {
+                int version = dict.getInt(i);
                 LOG.info("got version: " + ((float) version / 10.0f));
                 ctrl_message |= CTRL_VERSION_DONE;
-            } else if (pair.first.equals(keyBase)) {
-                recording_base_timestamp = (int) pair.second;
+            } else if (isKey(key, keyBase)) {
+                recording_base_timestamp = dict.getInt(i);
                 if (mPebbleProtocol.mFwMajor < 3) {
                     recording_base_timestamp -= SimpleTimeZone.getDefault().getOffset(recording_base_timestamp * 1000L) / 1000;
                 }
                 LOG.info("got base: " + recording_base_timestamp);
                 ctrl_message |= CTRL_SET_LAST_SENT | CTRL_DO_NEXT;
-            } else if (pair.first.equals(keyAutoReset)) {
+            } else if (isKey(key, keyAutoReset)) {
                 ctrl_message |= CTRL_SET_LAST_SENT | CTRL_DO_NEXT;
-            } else if (pair.first.equals(keySnoozes)) {
+            } else if (isKey(key, keySnoozes)) {
                 ctrl_message |= CTRL_SNOOZES_DONE | CTRL_DO_NEXT;
-            } else if (pair.first.equals(keyFault)) {
-                LOG.info("fault code: " + (int) pair.second);
+            } else if (isKey(key, keyFault)) {
+                LOG.info("fault code: " + dict.getInt(i));
                 ctrl_message |= CTRL_DO_NEXT;
             } else {
-                LOG.info("unhandled key: " + pair.first);
+                LOG.info("unhandled key: " + key);
             }
         }
 
@@ -184,4 +185,8 @@ class AppMessageHandlerMorpheuz extends AppMessageHandler {
         // ctrl might be null, thats okay
         return new GBDeviceEvent[]{sendBytesAck, sendBytesCtrl};
     }
+
+    private static boolean isKey(int key, Integer appKey) {
+        return appKey != null && appKey == key;
+    }
 }
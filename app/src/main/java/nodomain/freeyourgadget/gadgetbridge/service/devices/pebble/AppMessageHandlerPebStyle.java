@@ -113,7 +113,7 @@ class AppMessageHandlerPebStyle extends AppMessageHandler {
 
 
     @Override
-    public GBDeviceEvent[] handleMessage(ArrayList<Pair<Integer, Object>> pairs) {
+    public GBDeviceEvent[] handleMessage(AppMessageDictionary dict) {
         return null;
         /*
         GBDeviceEventSendBytes sendBytes = new GBDeviceEventSendBytes();
@@ -23,13 +23,12 @@ import org.slf4j.LoggerFactory;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 
-import nodomain.freeyourgadget.gadgetbridge.GBApplication;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityAmountsCache;
 import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlay;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlayDao;
@@ -40,6 +39,8 @@ class DatalogSessionHealthSleep extends DatalogSessionPebbleHealth {
 
     private static final Logger LOG = LoggerFactory.getLogger(DatalogSessionHealthSleep.class);
 
+    private final List<SleepRecord> bufferedRecords = new ArrayList<>();
+
     DatalogSessionHealthSleep(byte id, UUID uuid, int timestamp, int tag, byte item_type, short item_size, GBDevice device) {
         super(id, uuid, timestamp, tag, item_type, item_size, device);
         taginfo = "(Health - sleep " + tag + " )";
@@ -62,37 +63,63 @@ class DatalogSessionHealthSleep extends DatalogSessionPebbleHealth {
 
         int recordCount = length / itemSize;
         SleepRecord[] sleepRecords = new SleepRecord[recordCount];
-        byte[] tempRecord = new byte[itemSize];
 
         for (int recordIdx = 0; recordIdx < recordCount; recordIdx++) {
             beginOfRecordPosition = initialPosition + recordIdx * itemSize;
             datalogMessage.position(beginOfRecordPosition);//we may not consume all the bytes of a record
+            byte[] tempRecord = new byte[itemSize]; // kept as raw data until stored
             datalogMessage.get(tempRecord);
 
             sleepRecords[recordIdx] = new SleepRecord(tempRecord);
         }
 
-        store(sleepRecords);
-        return new GBDeviceEvent[]{null};
+        bufferedRecords.addAll(Arrays.asList(sleepRecords));
+        return new GBDeviceEvent[]{null}; // ACK once stored
     }
 
-    private void store(SleepRecord[] sleepRecords) {
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            DaoSession session = dbHandler.getDaoSession();
-            Long userId = DBHelper.getUser(session).getId();
-            Long deviceId = DBHelper.getDevice(getDevice(), session).getId();
+    @Override
+    boolean defersAck() {
+        return true;
+    }
 
-            PebbleHealthActivityOverlayDao overlayDao = session.getPebbleHealthActivityOverlayDao();
+    @Override
+    int getBufferedCount() {
+        return bufferedRecords.size();
+    }
 
-            List<PebbleHealthActivityOverlay> overlayList = new ArrayList<>();
-            for (SleepRecord sleepRecord : sleepRecords) {
-                //TODO: check the firmware version and don't use the sleep record if overlay is available?
-                overlayList.add(new PebbleHealthActivityOverlay(sleepRecord.bedTimeStart, sleepRecord.bedTimeEnd, sleepRecord.type, deviceId, userId, sleepRecord.getRawData()));
-            }
-            overlayDao.insertOrReplaceInTx(overlayList);
-        } catch (Exception ex) {
-            LOG.debug(ex.getMessage());
+    @Override
+    void storeBuffered(DaoSession session, long userId, long deviceId) {
+        if (bufferedRecords.isEmpty()) {
+            return;
+        }
+        PebbleHealthActivityOverlayDao overlayDao = session.getPebbleHealthActivityOverlayDao();
+
+        List<PebbleHealthActivityOverlay> overlayList = new ArrayList<>();
+        for (SleepRecord sleepRecord : bufferedRecords) {
+            //TODO: check the firmware version and don't use the sleep record if overlay is available?
+            overlayList.add(new PebbleHealthActivityOverlay(sleepRecord.bedTimeStart, sleepRecord.bedTimeEnd, sleepRecord.type, deviceId, userId, sleepRecord.getRawData()));
         }
+        overlayDao.insertOrReplaceInTx(overlayList);
+    }
+
+    @Override
+    void onBufferedStored(long deviceId) {
+        if (bufferedRecords.isEmpty()) {
+            return;
+        }
+        // the overlays change the kind of the samples in their range
+        int timestamp_from = Integer.MAX_VALUE;
+        int timestamp_to = Integer.MIN_VALUE;
+        for (SleepRecord sleepRecord : bufferedRecords) {
+            timestamp_from = Math.min(timestamp_from, sleepRecord.bedTimeStart);
+            timestamp_to = Math.max(timestamp_to, sleepRecord.bedTimeEnd);
+        }
+        ActivityAmountsCache.invalidate(deviceId, timestamp_from, timestamp_to);
+    }
+
+    @Override
+    void clearBuffered() {
+        bufferedRecords.clear();
     }
 
     private class SleepRecord {
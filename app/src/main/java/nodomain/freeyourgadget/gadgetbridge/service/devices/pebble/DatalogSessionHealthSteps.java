@@ -23,13 +23,14 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
-import nodomain.freeyourgadget.gadgetbridge.GBApplication;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityAmountsCache;
 import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PebbleHealthSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.util.GB;
@@ -38,6 +39,8 @@ class DatalogSessionHealthSteps extends DatalogSessionPebbleHealth {
 
     private static final Logger LOG = LoggerFactory.getLogger(DatalogSessionHealthSteps.class);
 
+    private final List<StepsRecord> bufferedRecords = new ArrayList<>();
+
     DatalogSessionHealthSteps(byte id, UUID uuid, int timestamp, int tag, byte item_type, short item_size, GBDevice device) {
         super(id, uuid, timestamp, tag, item_type, item_size, device);
         taginfo = "(Health - steps)";
@@ -61,6 +64,7 @@ class DatalogSessionHealthSteps extends DatalogSessionPebbleHealth {
             return null;//malformed message?
 
         int packetCount = length / itemSize;
+        List<StepsRecord> messageRecords = new ArrayList<>();
 
         for (int packetIdx = 0; packetIdx < packetCount; packetIdx++) {
             beginOfPacketPosition = initialPosition + packetIdx * itemSize;
@@ -77,46 +81,70 @@ class DatalogSessionHealthSteps extends DatalogSessionPebbleHealth {
             recordNum = datalogMessage.get();
 
             beginOfRecordPosition = datalogMessage.position();
-            StepsRecord[] stepsRecords = new StepsRecord[recordNum];
-            byte[] tempRecord = new byte[recordLength];
 
             for (int recordIdx = 0; recordIdx < recordNum; recordIdx++) {
+                byte[] tempRecord = new byte[recordLength]; // kept as raw data until stored
                 datalogMessage.position(beginOfRecordPosition + recordIdx * recordLength); //we may not consume all the bytes of a record
                 datalogMessage.get(tempRecord);
-                stepsRecords[recordIdx] = new StepsRecord(timestamp, recordVersion, tempRecord);
+                messageRecords.add(new StepsRecord(timestamp, recordVersion, tempRecord));
                 timestamp += 60;
             }
-
-            store(stepsRecords);
         }
-        return new GBDeviceEvent[]{null};//ACK by default
+        // only keep the records of complete messages, a NACKed message will be sent again
+        bufferedRecords.addAll(messageRecords);
+        return new GBDeviceEvent[]{null};//ACK by default, once stored
     }
 
-    private void store(StepsRecord[] stepsRecords) {
-
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            PebbleHealthSampleProvider sampleProvider = new PebbleHealthSampleProvider(getDevice(), dbHandler.getDaoSession());
-            PebbleHealthActivitySample[] samples = new PebbleHealthActivitySample[stepsRecords.length];
-            // TODO: user and device
-            Long userId = DBHelper.getUser(dbHandler.getDaoSession()).getId();
-            Long deviceId = DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId();
-            for (int j = 0; j < stepsRecords.length; j++) {
-                StepsRecord stepsRecord = stepsRecords[j];
-                samples[j] = new PebbleHealthActivitySample(
-                        stepsRecord.timestamp,
-                        deviceId, userId,
-                        stepsRecord.getRawData(),
-                        stepsRecord.intensity,
-                        stepsRecord.steps,
-                        stepsRecord.heart_rate
-                );
-                samples[j].setProvider(sampleProvider);
-            }
+    @Override
+    boolean defersAck() {
+        return true;
+    }
+
+    @Override
+    int getBufferedCount() {
+        return bufferedRecords.size();
+    }
+
+    @Override
+    void storeBuffered(DaoSession session, long userId, long deviceId) {
+        if (bufferedRecords.isEmpty()) {
+            return;
+        }
+        PebbleHealthSampleProvider sampleProvider = new PebbleHealthSampleProvider(getDevice(), session);
+        PebbleHealthActivitySample[] samples = new PebbleHealthActivitySample[bufferedRecords.size()];
+        for (int j = 0; j < samples.length; j++) {
+            StepsRecord stepsRecord = bufferedRecords.get(j);
+            samples[j] = new PebbleHealthActivitySample(
+                    stepsRecord.timestamp,
+                    deviceId, userId,
+                    stepsRecord.getRawData(),
+                    stepsRecord.intensity,
+                    stepsRecord.steps,
+                    stepsRecord.heart_rate
+            );
+            samples[j].setProvider(sampleProvider);
+        }
+        sampleProvider.addGBActivitySamples(samples);
+    }
 
-            sampleProvider.addGBActivitySamples(samples);
-        } catch (Exception ex) {
-            LOG.debug(ex.getMessage());
+    @Override
+    void onBufferedStored(long deviceId) {
+        if (bufferedRecords.isEmpty()) {
+            return;
         }
+        // amounts may have been calculated from the old data before the commit
+        int timestamp_from = Integer.MAX_VALUE;
+        int timestamp_to = Integer.MIN_VALUE;
+        for (StepsRecord stepsRecord : bufferedRecords) {
+            timestamp_from = Math.min(timestamp_from, stepsRecord.timestamp);
+            timestamp_to = Math.max(timestamp_to, stepsRecord.timestamp);
+        }
+        ActivityAmountsCache.invalidate(deviceId, timestamp_from, timestamp_to);
+    }
+
+    @Override
+    void clearBuffered() {
+        bufferedRecords.clear();
     }
 
     private class StepsRecord {
@@ -17,13 +17,23 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
 
+import android.database.sqlite.SQLiteDatabase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
 import java.util.UUID;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
+import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoSession;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.util.Prefs;
 
 abstract class DatalogSessionPebbleHealth extends DatalogSession {
+    private static final Logger LOG = LoggerFactory.getLogger(DatalogSessionPebbleHealth.class);
 
     private final GBDevice mDevice;
 
@@ -45,4 +55,64 @@ abstract class DatalogSessionPebbleHealth extends DatalogSession {
         Prefs prefs = GBApplication.getPrefs();
         return prefs.getBoolean("pebble_health_store_raw", true);
     }
-}
\ No newline at end of file
+
+    /**
+     * Sessions that return true here only buffer the records of a message in
+     * #handleMessage(java.nio.ByteBuffer, int). The message is acknowledged after the buffered
+     * records have been written by #storeBuffered(GBDevice, Collection).
+     */
+    boolean defersAck() {
+        return false;
+    }
+
+    int getBufferedCount() {
+        return 0;
+    }
+
+    void storeBuffered(DaoSession session, long userId, long deviceId) {
+    }
+
+    /**
+     * Called after the transaction containing the buffered records has been committed.
+     */
+    void onBufferedStored(long deviceId) {
+    }
+
+    void clearBuffered() {
+    }
+
+    /**
+     * Writes the buffered records of all given sessions in a single transaction and
+     * clears the buffers.
+     *
+     * @return true if the records have been written, false if they have been discarded
+     */
+    static boolean storeBuffered(GBDevice device, Collection<DatalogSessionPebbleHealth> sessions) {
+        try (DBHandler dbHandler = GBApplication.acquireWriteDB()) {
+            DaoSession session = dbHandler.getDaoSession();
+            long userId = DBHelper.getUserId(session);
+            long deviceId = DBHelper.getDeviceId(device, session);
+            SQLiteDatabase db = session.getDatabase();
+            db.beginTransaction();
+            try {
+                for (DatalogSessionPebbleHealth datalogSession : sessions) {
+                    datalogSession.storeBuffered(session, userId, deviceId);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            for (DatalogSessionPebbleHealth datalogSession : sessions) {
+                datalogSession.onBufferedStored(deviceId);
+            }
+            return true;
+        } catch (Exception ex) {
+            LOG.error("Error storing datalog records", ex);
+            return false;
+        } finally {
+            for (DatalogSessionPebbleHealth datalogSession : sessions) {
+                datalogSession.clearBuffered();
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads complete Pebble protocol messages (4 byte header with length and endpoint,
+ * followed by the payload) from a stream. For the emulator, the additional envelope
+ * of the QEMU protocol is skipped.
+ */
+class PebbleFrameReader {
+    private static final Logger LOG = LoggerFactory.getLogger(PebbleFrameReader.class);
+
+    static final int HEADER_LENGTH = 4;
+    static final int MAX_PAYLOAD_LENGTH = 8192;
+
+    private static final int TCP_HEADER_LENGTH = 6;
+    private static final int TCP_FOOTER_LENGTH = 2;
+
+    private final InputStream mInStream;
+    private final boolean mIsTCP;
+    private final byte[] mHeader = new byte[HEADER_LENGTH];
+
+    PebbleFrameReader(InputStream inStream, boolean isTCP) {
+        mInStream = inStream;
+        mIsTCP = isTCP;
+    }
+
+    /**
+     * Blocks until a complete message has been read.
+     *
+     * @return the message including its header, or null if the message was invalid
+     * and has been skipped
+     * @throws IOException when the stream has been closed
+     */
+    byte[] readFrame() throws IOException {
+        if (mIsTCP) {
+            skipFully(TCP_HEADER_LENGTH);
+        }
+        readFully(mHeader, 0, HEADER_LENGTH);
+        int length = ((mHeader[0] & 0xff) << 8) | (mHeader[1] & 0xff);
+        if (length > MAX_PAYLOAD_LENGTH) {
+            LOG.info("invalid length " + length);
+            byte[] discard = new byte[MAX_PAYLOAD_LENGTH];
+            while (mInStream.available() > 0) {
+                readWithException(discard, 0, discard.length); // read all
+            }
+            return null;
+        }
+
+        byte[] frame = new byte[HEADER_LENGTH + length];
+        System.arraycopy(mHeader, 0, frame, 0, HEADER_LENGTH);
+        readFully(frame, HEADER_LENGTH, length);
+
+        if (mIsTCP) {
+            skipFully(TCP_FOOTER_LENGTH);
+        }
+        return frame;
+    }
+
+    private void readFully(byte[] buffer, int offset, int count) throws IOException {
+        int bytes = 0;
+        while (bytes < count) {
+            bytes += readWithException(buffer, offset + bytes, count - bytes);
+        }
+    }
+
+    private void skipFully(int count) throws IOException {
+        readFully(new byte[count], 0, count);
+    }
+
+    private int readWithException(byte[] buffer, int byteOffset, int byteCount) throws IOException {
+        int ret = mInStream.read(buffer, byteOffset, byteCount);
+        if (ret == -1) {
+            throw new IOException("broken pipe");
+        }
+        return ret;
+    }
+}
@@ -45,6 +45,8 @@ import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
@@ -88,9 +90,22 @@ class PebbleIoThread extends GBDeviceIoThread {
     private OutputStream mOutStream = null;
     private PebbleLESupport mPebbleLESupport;
 
-    private boolean mQuit = false;
-    private boolean mIsConnected = false;
-    private boolean mIsInstalling = false;
+    private volatile boolean mQuit = false;
+    private volatile boolean mIsConnected = false;
+    private volatile boolean mIsInstalling = false;
+
+    private static final int DISPATCH_QUEUE_CAPACITY = 256;
+    private static final long DISPATCHER_STOP_TIMEOUT_MILLIS = 5000;
+    /**
+     * Queued by #stopDispatcher() behind the remaining frames.
+     */
+    private static final Runnable STOP_DISPATCHER = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+    private final BlockingQueue<Runnable> mDispatchQueue = new LinkedBlockingQueue<>(DISPATCH_QUEUE_CAPACITY);
+    private Thread mDispatchThread;
 
     private PBWReader mPBWReader = null;
     private GBDeviceApp mCurrentlyInstallingApp = null;
@@ -102,7 +117,8 @@ class PebbleIoThread extends GBDeviceIoThread {
     private int mInstallSlot = -2;
     private int mCRC = -1;
     private int mBinarySize = -1;
-    private int mBytesWritten = -1;
+    private final int mUploadWindow;
+    private PebbleUploader mUploader = null;
 
     private void sendAppMessageJS(GBDeviceEventAppMessage appMessage) {
         sendAppMessage(appMessage);
@@ -150,20 +166,13 @@ class PebbleIoThread extends GBDeviceIoThread {
         mBtAdapter = btAdapter;
         mPebbleSupport = pebbleSupport;
         mEnablePebblekit = prefs.getBoolean("pebble_enable_pebblekit", false);
+        mUploadWindow = prefs.getInt("pebble_upload_window", PebbleUploader.DEFAULT_WINDOW);
         mPebbleProtocol.setAlwaysACKPebbleKit(prefs.getBoolean("pebble_always_ack_pebblekit", false));
         mPebbleProtocol.setEnablePebbleKit(mEnablePebblekit);
 
         mPebbleActiveAppTracker = new PebbleActiveAppTracker();
     }
 
-    private int readWithException(InputStream inputStream, byte[] buffer, int byteOffset, int byteCount) throws IOException {
-        int ret = inputStream.read(buffer, byteOffset, byteCount);
-        if (ret == -1) {
-            throw new IOException("broken pipe");
-        }
-        return ret;
-    }
-
     @Override
     protected boolean connect() {
         String deviceAddress = gbDevice.getAddress();
@@ -248,141 +257,25 @@ class PebbleIoThread extends GBDeviceIoThread {
             return;
         }
 
-        byte[] buffer = new byte[8192];
         enablePebbleKitSupport(true);
         mQuit = false;
+        startDispatcher();
+        PebbleFrameReader frameReader = new PebbleFrameReader(mInStream, mIsTCP);
         while (!mQuit) {
             try {
-                if (mIsInstalling) {
-                    switch (mInstallState) {
-                        case WAIT_SLOT:
-                            if (mInstallSlot == -1) {
-                                finishInstall(true); // no slots available
-                            } else if (mInstallSlot >= 0) {
-                                mInstallState = PebbleAppInstallState.START_INSTALL;
-                                continue;
-                            }
-                            break;
-                        case START_INSTALL:
-                            LOG.info("start installing app binary");
-                            PebbleInstallable pi = mPebbleInstallables[mCurrentInstallableIndex];
-                            mFis = mPBWReader.getInputStreamFile(pi.getFileName());
-                            mCRC = pi.getCRC();
-                            mBinarySize = pi.getFileSize();
-                            mBytesWritten = 0;
-                            writeInstallApp(mPebbleProtocol.encodeUploadStart(pi.getType(), mInstallSlot, mBinarySize, mPBWReader.isLanguage() ? "lang" : null));
-                            mAppInstallToken = -1;
-                            mInstallState = PebbleAppInstallState.WAIT_TOKEN;
-                            break;
-                        case WAIT_TOKEN:
-                            if (mAppInstallToken != -1) {
-                                LOG.info("got token " + mAppInstallToken);
-                                mInstallState = PebbleAppInstallState.UPLOAD_CHUNK;
-                                continue;
-                            }
-                            break;
-                        case UPLOAD_CHUNK:
-                            int bytes = 0;
-                            do {
-                                int read = mFis.read(buffer, bytes, 2000 - bytes);
-                                if (read <= 0) break;
-                                bytes += read;
-                            } while (bytes < 2000);
-
-                            if (bytes > 0) {
-                                GB.updateInstallNotification(getContext().getString(
-                                        R.string.installing_binary_d_d, (mCurrentInstallableIndex + 1), mPebbleInstallables.length), true, (int) (((float) mBytesWritten / mBinarySize) * 100), getContext());
-                                writeInstallApp(mPebbleProtocol.encodeUploadChunk(mAppInstallToken, buffer, bytes));
-                                mBytesWritten += bytes;
-                                mAppInstallToken = -1;
-                                mInstallState = PebbleAppInstallState.WAIT_TOKEN;
-                            } else {
-                                mInstallState = PebbleAppInstallState.UPLOAD_COMMIT;
-                                continue;
-                            }
-                            break;
-                        case UPLOAD_COMMIT:
-                            writeInstallApp(mPebbleProtocol.encodeUploadCommit(mAppInstallToken, mCRC));
-                            mAppInstallToken = -1;
-                            mInstallState = PebbleAppInstallState.WAIT_COMMIT;
-                            break;
-                        case WAIT_COMMIT:
-                            if (mAppInstallToken != -1) {
-                                LOG.info("got token " + mAppInstallToken);
-                                mInstallState = PebbleAppInstallState.UPLOAD_COMPLETE;
-                                continue;
-                            }
-                            break;
-                        case UPLOAD_COMPLETE:
-                            writeInstallApp(mPebbleProtocol.encodeUploadComplete(mAppInstallToken));
-                            if (++mCurrentInstallableIndex < mPebbleInstallables.length) {
-                                mInstallState = PebbleAppInstallState.START_INSTALL;
-                            } else {
-                                mInstallState = PebbleAppInstallState.APP_REFRESH;
-                            }
-                            break;
-                        case APP_REFRESH:
-                            if (mPBWReader.isFirmware()) {
-                                writeInstallApp(mPebbleProtocol.encodeInstallFirmwareComplete());
-                                finishInstall(false);
-                            } else if (mPBWReader.isLanguage() || mPebbleProtocol.mFwMajor >= 3) {
-                                finishInstall(false); // FIXME: don't know yet how to detect success
-                            } else {
-                                writeInstallApp(mPebbleProtocol.encodeAppRefresh(mInstallSlot));
-                            }
-                            break;
-                        default:
-                            break;
-                    }
-                }
-                if (mIsTCP) {
-                    mInStream.skip(6);
-                }
-                int bytes = readWithException(mInStream, buffer, 0, 4);
-
-                while (bytes < 4) {
-                    bytes += readWithException(mInStream, buffer, bytes, 4 - bytes);
-                }
-
-                ByteBuffer buf = ByteBuffer.wrap(buffer);
-                buf.order(ByteOrder.BIG_ENDIAN);
-                short length = buf.getShort();
-                short endpoint = buf.getShort();
-                if (length < 0 || length > 8192) {
-                    LOG.info("invalid length " + length);
-                    while (mInStream.available() > 0) {
-                        readWithException(mInStream, buffer, 0, buffer.length); // read all
-                    }
+                final byte[] frame = frameReader.readFrame();
+                if (frame == null) {
                     continue;
                 }
-
-                bytes = readWithException(mInStream, buffer, 4, length);
-                while (bytes < length) {
-                    bytes += readWithException(mInStream, buffer, bytes + 4, length - bytes);
-                }
-
-                if (mIsTCP) {
-                    mInStream.skip(2);
-                }
-
-                GBDeviceEvent[] deviceEvents = mPebbleProtocol.decodeResponse(buffer);
-                if (deviceEvents == null) {
-                    LOG.info("unhandled message to endpoint " + endpoint + " (" + length + " bytes)");
-                } else {
-                    for (GBDeviceEvent deviceEvent : deviceEvents) {
-                        if (deviceEvent == null) {
-                            continue;
-                        }
-                        if (!evaluateGBDeviceEventPebble(deviceEvent)) {
-                            mPebbleSupport.evaluateGBDeviceEvent(deviceEvent);
-                        }
+                // blocks when the dispatcher is behind, which in turn throttles the sender
+                mDispatchQueue.put(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatchFrame(frame);
                     }
-                }
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+                });
+            } catch (InterruptedException e) {
+                LOG.info("Interrupted while dispatching");
             } catch (IOException e) {
                 if (e.getMessage() != null && (e.getMessage().equals("broken pipe") || e.getMessage().contains("socket closed"))) { //FIXME: this does not feel right
                     LOG.info(e.getMessage());
@@ -393,6 +286,7 @@ class PebbleIoThread extends GBDeviceIoThread {
                 }
             }
         }
+        stopDispatcher();
         mIsConnected = false;
         if (mBtSocket != null) {
             try {
@@ -418,6 +312,201 @@ class PebbleIoThread extends GBDeviceIoThread {
         gbDevice.sendDeviceUpdateIntent(getContext());
     }
 
+    private void startDispatcher() {
+        mDispatchQueue.clear();
+        mDispatchThread = new Thread("Pebble Dispatcher") {
+            @Override
+            public void run() {
+                while (true) {
+                    Runnable runnable;
+                    try {
+                        runnable = mDispatchQueue.take();
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    if (runnable == STOP_DISPATCHER) {
+                        // all frames are processed, store what they left buffered
+                        try {
+                            flushDatalog();
+                        } catch (Exception e) {
+                            LOG.error("Error storing datalog records", e);
+                        }
+                        break;
+                    }
+                    try {
+                        runnable.run();
+                    } catch (Exception e) {
+                        LOG.error("Error dispatching", e);
+                    }
+                }
+                mPebbleProtocol.discardDatalog();
+                LOG.info("Pebble dispatcher stopped");
+            }
+        };
+        mDispatchThread.start();
+    }
+
+    /**
+     * Lets the dispatcher process all frames received so far, so that e.g. their datalog
+     * records are stored, and waits for it to stop.
+     */
+    private void stopDispatcher() {
+        if (mDispatchThread != null) {
+            try {
+                mDispatchQueue.put(STOP_DISPATCHER);
+                mDispatchThread.join(DISPATCHER_STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                LOG.info("Interrupted while stopping the dispatcher");
+            }
+            if (mDispatchThread.isAlive()) {
+                LOG.warn("Pebble dispatcher did not finish in time, interrupting it");
+                mDispatchThread.interrupt();
+            }
+            mDispatchThread = null;
+        }
+    }
+
+    /**
+     * Runs the given runnable on the dispatcher thread, after all messages received so far.
+     * Everything that changes the install state runs there. Blocks while the dispatcher
+     * is behind, like the frame reader.
+     */
+    private void dispatch(Runnable runnable) throws InterruptedException {
+        mDispatchQueue.put(runnable);
+    }
+
+    private void dispatchFrame(byte[] frame) {
+        GBDeviceEvent[] deviceEvents = mPebbleProtocol.decodeResponse(frame);
+        if (deviceEvents == null) {
+            int endpoint = ((frame[2] & 0xff) << 8) | (frame[3] & 0xff);
+            LOG.info("unhandled message to endpoint " + endpoint + " (" + (frame.length - PebbleFrameReader.HEADER_LENGTH) + " bytes)");
+        } else {
+            evaluateDeviceEvents(deviceEvents);
+        }
+        if (mDispatchQueue.isEmpty()) {
+            // write the datalog records of all messages received in the meantime at once
+            flushDatalog();
+        }
+        advanceInstall();
+    }
+
+    private void flushDatalog() {
+        GBDeviceEvent[] datalogAcks = mPebbleProtocol.flushDatalog();
+        if (datalogAcks != null) {
+            evaluateDeviceEvents(datalogAcks);
+        }
+    }
+
+    private void evaluateDeviceEvents(GBDeviceEvent[] deviceEvents) {
+        for (GBDeviceEvent deviceEvent : deviceEvents) {
+            if (deviceEvent == null) {
+                continue;
+            }
+            if (!evaluateGBDeviceEventPebble(deviceEvent)) {
+                mPebbleSupport.evaluateGBDeviceEvent(deviceEvent);
+            }
+        }
+    }
+
+    /**
+     * Drives the installation as far as possible. Called after every received message,
+     * because the states waiting for a slot, token or commit only advance when the
+     * watch has answered.
+     */
+    private void advanceInstall() {
+        boolean advanced = true;
+        while (mIsInstalling && advanced) {
+            advanced = false;
+            switch (mInstallState) {
+                case WAIT_SLOT:
+                    if (mInstallSlot == -1) {
+                        finishInstall(true); // no slots available
+                    } else if (mInstallSlot >= 0) {
+                        mInstallState = PebbleAppInstallState.START_INSTALL;
+                        advanced = true;
+                    }
+                    break;
+                case START_INSTALL:
+                    LOG.info("start installing app binary");
+                    PebbleInstallable pi = mPebbleInstallables[mCurrentInstallableIndex];
+                    mFis = mPBWReader.getInputStreamFile(pi.getFileName());
+                    mCRC = pi.getCRC();
+                    mBinarySize = pi.getFileSize();
+                    mAppInstallToken = -1;
+                    mInstallState = PebbleAppInstallState.WAIT_TOKEN;
+                    writeInstallApp(mPebbleProtocol.encodeUploadStart(pi.getType(), mInstallSlot, mBinarySize, mPBWReader.isLanguage() ? "lang" : null));
+                    break;
+                case WAIT_TOKEN:
+                    if (mAppInstallToken != -1) {
+                        LOG.info("got token " + mAppInstallToken);
+                        mUploader = null;
+                        mInstallState = PebbleAppInstallState.UPLOAD_CHUNK;
+                        advanced = true;
+                    }
+                    break;
+                case UPLOAD_CHUNK:
+                    if (mUploader == null) {
+                        mUploader = new PebbleUploader(mPebbleProtocol, mFis, mAppInstallToken, mBinarySize, mUploadWindow);
+                    }
+                    try {
+                        byte[] chunk;
+                        while ((chunk = mUploader.nextChunk()) != null) {
+                            writeInstallChunk(chunk);
+                        }
+                    } catch (IOException e) {
+                        LOG.error("Error reading app binary", e);
+                        finishInstall(true);
+                        break;
+                    }
+                    GB.updateInstallNotification(getContext().getString(
+                            R.string.installing_binary_d_d, (mCurrentInstallableIndex + 1), mPebbleInstallables.length), true, mUploader.getProgressPercent(), getContext());
+                    if (mUploader.isComplete()) {
+                        LOG.info("uploaded " + mUploader.getBytesAcked() + " bytes with " + mUploadWindow + " chunks in flight, "
+                                + mUploader.getBytesPerSecond() + " bytes/s");
+                        mAppInstallToken = mUploader.getToken();
+                        mUploader = null;
+                        mInstallState = PebbleAppInstallState.UPLOAD_COMMIT;
+                        advanced = true;
+                    }
+                    break;
+                case UPLOAD_COMMIT:
+                    int token = mAppInstallToken;
+                    mAppInstallToken = -1;
+                    mInstallState = PebbleAppInstallState.WAIT_COMMIT;
+                    writeInstallApp(mPebbleProtocol.encodeUploadCommit(token, mCRC));
+                    break;
+                case WAIT_COMMIT:
+                    if (mAppInstallToken != -1) {
+                        LOG.info("got token " + mAppInstallToken);
+                        mInstallState = PebbleAppInstallState.UPLOAD_COMPLETE;
+                        advanced = true;
+                    }
+                    break;
+                case UPLOAD_COMPLETE:
+                    // continues with the answer to this
+                    if (++mCurrentInstallableIndex < mPebbleInstallables.length) {
+                        mInstallState = PebbleAppInstallState.START_INSTALL;
+                    } else {
+                        mInstallState = PebbleAppInstallState.APP_REFRESH;
+                    }
+                    writeInstallApp(mPebbleProtocol.encodeUploadComplete(mAppInstallToken));
+                    break;
+                case APP_REFRESH:
+                    if (mPBWReader.isFirmware()) {
+                        writeInstallApp(mPebbleProtocol.encodeInstallFirmwareComplete());
+                        finishInstall(false);
+                    } else if (mPBWReader.isLanguage() || mPebbleProtocol.mFwMajor >= 3) {
+                        finishInstall(false); // FIXME: don't know yet how to detect success
+                    } else {
+                        writeInstallApp(mPebbleProtocol.encodeAppRefresh(mInstallSlot));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
     private void enablePebbleKitSupport(boolean enable) {
         if (enable && mEnablePebblekit) {
             mPebbleKitSupport = new PebbleKitSupport(getContext(), PebbleIoThread.this, mPebbleProtocol);
@@ -431,6 +520,10 @@ class PebbleIoThread extends GBDeviceIoThread {
 
 
     private void write_real(byte[] bytes) {
+        write_real(bytes, true);
+    }
+
+    private void write_real(byte[] bytes, boolean pause) {
         try {
             if (mIsTCP) {
                 ByteBuffer buf = ByteBuffer.allocate(bytes.length + 8);
@@ -449,6 +542,9 @@ class PebbleIoThread extends GBDeviceIoThread {
         } catch (IOException e) {
             LOG.error("Error writing.", e);
         }
+        if (!pause) {
+            return;
+        }
         try {
             Thread.sleep(100);
         } catch (InterruptedException ignored) {
@@ -584,7 +680,12 @@ class PebbleIoThread extends GBDeviceIoThread {
     }
 
     private void setToken(int token) {
-        mAppInstallToken = token;
+        if (mInstallState == PebbleAppInstallState.UPLOAD_CHUNK && mUploader != null) {
+            // acknowledges the oldest chunk in flight
+            mUploader.onAck();
+        } else {
+            mAppInstallToken = token;
+        }
     }
 
     private void setInstallSlot(int slot) {
@@ -593,6 +694,17 @@ class PebbleIoThread extends GBDeviceIoThread {
         }
     }
 
+    /**
+     * Writes an upload chunk without pausing afterwards, the window of chunks in flight
+     * limits how far ahead of the watch we get.
+     */
+    synchronized private void writeInstallChunk(byte[] bytes) {
+        if (!mIsInstalling) {
+            return;
+        }
+        write_real(bytes, false);
+    }
+
     synchronized private void writeInstallApp(byte[] bytes) {
         if (!mIsInstalling) {
             return;
@@ -601,7 +713,21 @@ class PebbleIoThread extends GBDeviceIoThread {
         write_real(bytes);
     }
 
-    void installApp(Uri uri, int appId) {
+    void installApp(final Uri uri, final int appId) {
+        try {
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    startInstall(uri, appId);
+                }
+            });
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while queueing the installation of " + uri);
+            GB.updateInstallNotification(getContext().getString(R.string.installation_failed_), false, 0, getContext());
+        }
+    }
+
+    private void startInstall(Uri uri, int appId) {
         if (mIsInstalling) {
             return;
         }
@@ -629,13 +755,8 @@ class PebbleIoThread extends GBDeviceIoThread {
             mInstallState = PebbleAppInstallState.START_INSTALL;
 
             /*
-             * This is a hack for recovery mode, in which the blocking read has no timeout and the
-             * firmware installation command does not return any ack.
-             * In normal mode we would got at least out of the blocking read call after a while.
-             *
-             *
-             * ... we should really not handle installation from thread that does the blocking read
-             *
+             * In recovery mode, the firmware installation command does not return any ack, so
+             * ask for something that is answered to continue the installation.
              */
             writeInstallApp(mPebbleProtocol.encodeGetTime());
         } else {
@@ -659,7 +780,7 @@ class PebbleIoThread extends GBDeviceIoThread {
                     mInstallSlot = 0;
                     mInstallState = PebbleAppInstallState.START_INSTALL;
 
-                    // unblock HACK
+                    // continue the installation with the answer
                     writeInstallApp(mPebbleProtocol.encodeGetTime());
                 } else {
                     mInstallState = PebbleAppInstallState.WAIT_SLOT;
@@ -720,6 +841,7 @@ class PebbleIoThread extends GBDeviceIoThread {
             }
         }
         mFis = null;
+        mUploader = null;
         mAppInstallToken = -1;
         mInstallSlot = -2;
     }
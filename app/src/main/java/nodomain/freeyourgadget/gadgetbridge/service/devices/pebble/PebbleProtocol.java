@@ -27,10 +27,14 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -250,7 +254,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
     private static final byte PHONEVERSION_REMOTE_OS_WINDOWS = 5;
 
     static final byte TYPE_BYTEARRAY = 0;
-    private static final byte TYPE_CSTRING = 1;
+    static final byte TYPE_CSTRING = 1;
     static final byte TYPE_UINT = 2;
     static final byte TYPE_INT = 3;
 
@@ -434,6 +438,17 @@ public class PebbleProtocol extends GBDeviceProtocol {
 
     private final HashMap<Byte, DatalogSession> mDatalogSessions = new HashMap<>();
 
+    // reused for all received AppMessages, they are decoded on a single thread
+    private final AppMessageDictionary mAppMessageDictionary = new AppMessageDictionary();
+
+    static final int DATALOG_MAX_BUFFERED_RECORDS = 500;
+    static final long DATALOG_MAX_DELAY_MILLIS = 5000;
+
+    // ids of datalog messages whose records are buffered and that have not been acknowledged yet
+    private final List<Byte> mDatalogUnacked = new ArrayList<>();
+    private final LinkedHashSet<DatalogSessionPebbleHealth> mDatalogBufferedSessions = new LinkedHashSet<>();
+    private long mDatalogFirstUnackedTime;
+
     private Integer[] idLookup = new Integer[256];
 
     private byte[] encodeSimpleMessage(short endpoint, byte command) {
@@ -1585,17 +1600,38 @@ public class PebbleProtocol extends GBDeviceProtocol {
         return buf.array();
     }
 
-    byte[] encodeUploadChunk(int token, byte[] buffer, int size) {
+    /**
+     * Reads up to maxSize bytes from the given stream directly into an upload chunk message.
+     *
+     * @return the message, or null if the stream has no more data
+     */
+    byte[] encodeUploadChunk(int token, InputStream inputStream, int maxSize) throws IOException {
         final short LENGTH_UPLOADCHUNK = 9;
-        ByteBuffer buf = ByteBuffer.allocate(LENGTH_PREFIX + LENGTH_UPLOADCHUNK + size);
+        final int headerLength = LENGTH_PREFIX + LENGTH_UPLOADCHUNK;
+        byte[] message = new byte[headerLength + maxSize];
+        int size = 0;
+        while (size < maxSize) {
+            int read = inputStream.read(message, headerLength + size, maxSize - size);
+            if (read <= 0) {
+                break;
+            }
+            size += read;
+        }
+        if (size == 0) {
+            return null;
+        }
+        if (size < maxSize) {
+            // only for the last chunk
+            message = Arrays.copyOf(message, headerLength + size);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(message);
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort((short) (LENGTH_UPLOADCHUNK + size));
         buf.putShort(ENDPOINT_PUTBYTES);
         buf.put(PUTBYTES_SEND);
         buf.putInt(token);
         buf.putInt(size);
-        buf.put(buffer, 0, size);
-        return buf.array();
+        return message;
     }
 
     byte[] encodeUploadCommit(int token, int crc) {
@@ -1681,6 +1717,14 @@ public class PebbleProtocol extends GBDeviceProtocol {
     }
 
     byte[] encodeApplicationMessageAck(UUID uuid, byte id) {
+        return encodeApplicationMessageReply(APPLICATIONMESSAGE_ACK, uuid, id);
+    }
+
+    private byte[] encodeApplicationMessageNack(UUID uuid, byte id) {
+        return encodeApplicationMessageReply(APPLICATIONMESSAGE_NACK, uuid, id);
+    }
+
+    private byte[] encodeApplicationMessageReply(byte command, UUID uuid, byte id) {
         if (uuid == null) {
             uuid = currentRunningApp;
         }
@@ -1689,7 +1733,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
         buf.order(ByteOrder.BIG_ENDIAN);
         buf.putShort((short) 18);
         buf.putShort(ENDPOINT_APPLICATIONMESSAGE);
-        buf.put(APPLICATIONMESSAGE_ACK);
+        buf.put(command);
         buf.put(id);
         buf.putLong(uuid.getMostSignificantBits());
         buf.putLong(uuid.getLeastSignificantBits());
@@ -1720,99 +1764,14 @@ public class PebbleProtocol extends GBDeviceProtocol {
         return buf.array();
     }
 
-    private ArrayList<Pair<Integer, Object>> decodeDict(ByteBuffer buf) {
-        ArrayList<Pair<Integer, Object>> dict = new ArrayList<>();
-        buf.order(ByteOrder.LITTLE_ENDIAN);
-        byte dictSize = buf.get();
-        while (dictSize-- > 0) {
-            Integer key = buf.getInt();
-            byte type = buf.get();
-            short length = buf.getShort();
-            switch (type) {
-                case TYPE_INT:
-                case TYPE_UINT:
-                    if (length == 1) {
-                        dict.add(new Pair<Integer, Object>(key, buf.get()));
-                    } else if (length == 2) {
-                        dict.add(new Pair<Integer, Object>(key, buf.getShort()));
-                    } else {
-                        dict.add(new Pair<Integer, Object>(key, buf.getInt()));
-                    }
-                    break;
-                case TYPE_CSTRING:
-                case TYPE_BYTEARRAY:
-                    byte[] bytes = new byte[length];
-                    buf.get(bytes);
-                    if (type == TYPE_BYTEARRAY) {
-                        dict.add(new Pair<Integer, Object>(key, bytes));
-                    } else {
-                        dict.add(new Pair<Integer, Object>(key, new String(bytes)));
-                    }
-                    break;
-                default:
-            }
+    private GBDeviceEvent[] decodeAppMessage(UUID uuid, ByteBuffer buf) {
+        if (!mAppMessageDictionary.parse(buf)) {
+            return new GBDeviceEvent[]{createMalformedAppMessageNack(uuid)};
         }
-        return dict;
-    }
-
-    private GBDeviceEvent[] decodeDictToJSONAppMessage(UUID uuid, ByteBuffer buf) throws JSONException {
-        buf.order(ByteOrder.LITTLE_ENDIAN);
-        byte dictSize = buf.get();
-        if (dictSize == 0) {
+        if (mAppMessageDictionary.size() == 0) {
             LOG.info("dict size is 0, ignoring");
             return null;
         }
-        JSONArray jsonArray = new JSONArray();
-        while (dictSize-- > 0) {
-            JSONObject jsonObject = new JSONObject();
-            Integer key = buf.getInt();
-            byte type = buf.get();
-            short length = buf.getShort();
-            jsonObject.put("key", key);
-            if (type == TYPE_CSTRING) {
-                length--;
-            }
-            jsonObject.put("length", length);
-            switch (type) {
-                case TYPE_UINT:
-                    jsonObject.put("type", "uint");
-                    if (length == 1) {
-                        jsonObject.put("value", buf.get() & 0xff);
-                    } else if (length == 2) {
-                        jsonObject.put("value", buf.getShort() & 0xffff);
-                    } else {
-                        jsonObject.put("value", buf.getInt() & 0xffffffffL);
-                    }
-                    break;
-                case TYPE_INT:
-                    jsonObject.put("type", "int");
-                    if (length == 1) {
-                        jsonObject.put("value", buf.get());
-                    } else if (length == 2) {
-                        jsonObject.put("value", buf.getShort());
-                    } else {
-                        jsonObject.put("value", buf.getInt());
-                    }
-                    break;
-                case TYPE_BYTEARRAY:
-                case TYPE_CSTRING:
-                    byte[] bytes = new byte[length];
-                    buf.get(bytes);
-                    if (type == TYPE_BYTEARRAY) {
-                        jsonObject.put("type", "bytes");
-                        jsonObject.put("value", new String(Base64.encode(bytes, Base64.NO_WRAP)));
-                    } else {
-                        jsonObject.put("type", "string");
-                        jsonObject.put("value", new String(bytes));
-                        buf.get(); // skip null-termination;
-                    }
-                    break;
-                default:
-                    LOG.info("unknown type in appmessage, ignoring");
-                    return null;
-            }
-            jsonArray.put(jsonObject);
-        }
 
         GBDeviceEventSendBytes sendBytesAck = null;
         if (mAlwaysACKPebbleKit) {
@@ -1823,10 +1782,24 @@ public class PebbleProtocol extends GBDeviceProtocol {
         GBDeviceEventAppMessage appMessage = new GBDeviceEventAppMessage();
         appMessage.appUUID = uuid;
         appMessage.id = last_id & 0xff;
-        appMessage.message = jsonArray.toString();
+        // only PebbleKit and the JavaScript bridge need the JSON representation
+        if (mEnablePebbleKit || GBApplication.getGBPrefs().isBackgroundJsEnabled()) {
+            appMessage.message = mAppMessageDictionary.toJSON();
+        }
         return new GBDeviceEvent[]{appMessage, sendBytesAck};
     }
 
+    /**
+     * Nobody will ever reply to a message that could not be decoded, so NACK it
+     * instead of letting the watch app wait for a timeout.
+     */
+    private GBDeviceEventSendBytes createMalformedAppMessageNack(UUID uuid) {
+        LOG.info("malformed dict or unknown type in appmessage, sending NACK");
+        GBDeviceEventSendBytes sendBytesNack = new GBDeviceEventSendBytes();
+        sendBytesNack.encodedBytes = encodeApplicationMessageNack(uuid, last_id);
+        return sendBytesNack;
+    }
+
     byte[] encodeApplicationMessagePush(short endpoint, UUID uuid, ArrayList<Pair<Integer, Object>> pairs, Integer ext_id) {
         int length = LENGTH_UUID + 3; // UUID + (PUSH + id + length of dict)
         for (Pair<Integer, Object> pair : pairs) {
@@ -2215,6 +2188,8 @@ public class PebbleProtocol extends GBDeviceProtocol {
         byte command = buf.get();
         byte id = buf.get();
         GBDeviceEvent[] devEvtsDataLogging = null;
+        // acknowledgements of buffered messages, sent before the reply to this message
+        GBDeviceEvent[] flushed = null;
         switch (command) {
             case DATALOG_TIMEOUT:
                 LOG.info("DATALOG TIMEOUT. id=" + (id & 0xff) + " - ignoring");
@@ -2231,6 +2206,10 @@ public class PebbleProtocol extends GBDeviceProtocol {
                         devEvtsDataLogging = datalogSession.handleMessageForPebbleKit(buf, length - 10);
                     } else {
                         devEvtsDataLogging = datalogSession.handleMessage(buf, length - 10);
+                        if (devEvtsDataLogging != null && datalogSession instanceof DatalogSessionPebbleHealth
+                                && ((DatalogSessionPebbleHealth) datalogSession).defersAck()) {
+                            return bufferDatalog(id, (DatalogSessionPebbleHealth) datalogSession);
+                        }
                     }
                 }
                 break;
@@ -2261,6 +2240,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
                 break;
             case DATALOG_CLOSE:
                 LOG.info("DATALOG_CLOSE. id=" + (id & 0xff));
+                flushed = flushDatalog();
                 datalogSession = mDatalogSessions.get(id);
                 if (datalogSession != null) {
                     if (!datalogSession.uuid.equals(UUID_ZERO) && datalogSession.getClass().equals(DatalogSession.class) && mEnablePebbleKit) {
@@ -2288,13 +2268,84 @@ public class PebbleProtocol extends GBDeviceProtocol {
             sendBytes.encodedBytes = encodeDatalog(id, DATALOG_ACK);
             devEvtsDataLogging[devEvtsDataLogging.length - 1] = sendBytes;
         } else {
+            if (flushed == null) {
+                flushed = flushDatalog();
+            }
             LOG.info("sending NACK (0x86)");
             sendBytes.encodedBytes = encodeDatalog(id, DATALOG_NACK);
             devEvtsDataLogging = new GBDeviceEvent[]{sendBytes};
         }
+        if (flushed != null) {
+            GBDeviceEvent[] devEvts = new GBDeviceEvent[flushed.length + devEvtsDataLogging.length];
+            System.arraycopy(flushed, 0, devEvts, 0, flushed.length);
+            System.arraycopy(devEvtsDataLogging, 0, devEvts, flushed.length, devEvtsDataLogging.length);
+            devEvtsDataLogging = devEvts;
+        }
         return devEvtsDataLogging;
     }
 
+    /**
+     * Keeps the records of a datalog message buffered instead of writing them right away.
+     * The message is acknowledged when the buffered records are written, which happens
+     * when too many records or too old messages are buffered, or by #flushDatalog()
+     * when no further messages are waiting to be decoded.
+     */
+    private GBDeviceEvent[] bufferDatalog(byte id, DatalogSessionPebbleHealth datalogSession) {
+        if (mDatalogUnacked.isEmpty()) {
+            mDatalogFirstUnackedTime = System.currentTimeMillis();
+        }
+        mDatalogUnacked.add(id);
+        mDatalogBufferedSessions.add(datalogSession);
+
+        int bufferedCount = 0;
+        for (DatalogSessionPebbleHealth bufferedSession : mDatalogBufferedSessions) {
+            bufferedCount += bufferedSession.getBufferedCount();
+        }
+        if (bufferedCount >= DATALOG_MAX_BUFFERED_RECORDS
+                || System.currentTimeMillis() - mDatalogFirstUnackedTime >= DATALOG_MAX_DELAY_MILLIS) {
+            return flushDatalog();
+        }
+        return new GBDeviceEvent[]{null};
+    }
+
+    /**
+     * Writes all buffered datalog records in one transaction.
+     *
+     * @return the ACKs for all buffered messages, or NACKs if writing failed, so that
+     * the watch sends them again. Null if nothing was buffered.
+     */
+    GBDeviceEvent[] flushDatalog() {
+        if (mDatalogUnacked.isEmpty()) {
+            return null;
+        }
+        boolean stored = DatalogSessionPebbleHealth.storeBuffered(getDevice(), mDatalogBufferedSessions);
+        LOG.info("stored records of " + mDatalogUnacked.size() + " datalog messages, sending " + (stored ? "ACKs" : "NACKs"));
+        GBDeviceEvent[] devEvts = new GBDeviceEvent[mDatalogUnacked.size()];
+        for (int i = 0; i < devEvts.length; i++) {
+            GBDeviceEventSendBytes sendBytes = new GBDeviceEventSendBytes();
+            sendBytes.encodedBytes = encodeDatalog(mDatalogUnacked.get(i), stored ? DATALOG_ACK : DATALOG_NACK);
+            devEvts[i] = sendBytes;
+        }
+        mDatalogUnacked.clear();
+        mDatalogBufferedSessions.clear();
+        return devEvts;
+    }
+
+    /**
+     * Drops all buffered datalog records without acknowledging them, e.g. when the
+     * connection is lost. The watch will send them again.
+     */
+    void discardDatalog() {
+        if (!mDatalogUnacked.isEmpty()) {
+            LOG.info("discarding records of " + mDatalogUnacked.size() + " unacknowledged datalog messages");
+        }
+        for (DatalogSessionPebbleHealth datalogSession : mDatalogBufferedSessions) {
+            datalogSession.clearBuffered();
+        }
+        mDatalogUnacked.clear();
+        mDatalogBufferedSessions.clear();
+    }
+
     private GBDeviceEvent decodeAppReorder(ByteBuffer buf) {
         byte status = buf.get();
         if (status == 1) {
@@ -2519,8 +2570,11 @@ public class PebbleProtocol extends GBDeviceProtocol {
                             currentRunningApp = uuid;
                             if (handler.isEnabled()) {
                                 if (endpoint == ENDPOINT_APPLICATIONMESSAGE) {
-                                    ArrayList<Pair<Integer, Object>> dict = decodeDict(buf);
-                                    devEvts = handler.handleMessage(dict);
+                                    if (mAppMessageDictionary.parse(buf)) {
+                                        devEvts = handler.handleMessage(mAppMessageDictionary);
+                                    } else {
+                                        devEvts = new GBDeviceEvent[]{createMalformedAppMessageNack(uuid)};
+                                    }
                                 }
                                 else {
                                     devEvts = handler.onAppStart();
@@ -2529,11 +2583,7 @@ public class PebbleProtocol extends GBDeviceProtocol {
                                 devEvts = new GBDeviceEvent[]{null};
                             }
                         } else {
-                            try {
-                                devEvts = decodeDictToJSONAppMessage(uuid, buf);
-                            } catch (JSONException e) {
-                                LOG.error(e.getMessage());
-                            }
+                            devEvts = decodeAppMessage(uuid, buf);
                             if (!uuid.equals(currentRunningApp)) {
                                 GBDeviceEventAppManagement gbDeviceEventAppManagement = new GBDeviceEventAppManagement();
                                 gbDeviceEventAppManagement.uuid = uuid;
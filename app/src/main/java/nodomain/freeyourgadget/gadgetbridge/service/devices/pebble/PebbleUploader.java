@@ -0,0 +1,125 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Sends the data of one PutBytes transfer in chunks, keeping up to a number of chunks
+ * in flight instead of waiting for the acknowledgement of each chunk before sending
+ * the next one. The watch acknowledges the chunks in order.
+ */
+class PebbleUploader {
+    static final int CHUNK_SIZE = 2000;
+    // one chunk at a time, as before; larger windows are opt-in
+    static final int DEFAULT_WINDOW = 1;
+
+    private final PebbleProtocol mPebbleProtocol;
+    private final InputStream mInputStream;
+    private final int mToken;
+    private final int mWindow;
+    private final int mTotalSize;
+    private final Deque<Integer> mInFlightSizes = new ArrayDeque<>();
+    private final long mStartTime;
+    private long mBytesSent;
+    private long mBytesAcked;
+    private boolean mEndOfStream;
+
+    /**
+     * @param token     the token of the transfer, as returned for the upload start
+     * @param totalSize the expected number of bytes, for the progress
+     * @param window    the maximum number of unacknowledged chunks
+     */
+    PebbleUploader(PebbleProtocol pebbleProtocol, InputStream inputStream, int token, int totalSize, int window) {
+        mPebbleProtocol = pebbleProtocol;
+        mInputStream = inputStream;
+        mToken = token;
+        mTotalSize = totalSize;
+        mWindow = Math.max(window, 1);
+        mStartTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the next chunk message to send, or null if the window is full or all data
+     * has been sent
+     */
+    byte[] nextChunk() throws IOException {
+        if (mEndOfStream || mInFlightSizes.size() >= mWindow) {
+            return null;
+        }
+        byte[] message = mPebbleProtocol.encodeUploadChunk(mToken, mInputStream, CHUNK_SIZE);
+        if (message == null) {
+            mEndOfStream = true;
+            return null;
+        }
+        int size = message.length - PebbleFrameReader.HEADER_LENGTH - 9;
+        mInFlightSizes.add(size);
+        mBytesSent += size;
+        return message;
+    }
+
+    /**
+     * Must be called for every acknowledgement received during the transfer.
+     */
+    void onAck() {
+        Integer size = mInFlightSizes.poll();
+        if (size != null) {
+            mBytesAcked += size;
+        }
+    }
+
+    /**
+     * @return true when all data has been sent and acknowledged
+     */
+    boolean isComplete() {
+        return mEndOfStream && mInFlightSizes.isEmpty();
+    }
+
+    int getToken() {
+        return mToken;
+    }
+
+    int getInFlight() {
+        return mInFlightSizes.size();
+    }
+
+    long getBytesSent() {
+        return mBytesSent;
+    }
+
+    long getBytesAcked() {
+        return mBytesAcked;
+    }
+
+    int getProgressPercent() {
+        if (mTotalSize <= 0) {
+            return 0;
+        }
+        return (int) Math.min(100, mBytesAcked * 100 / mTotalSize);
+    }
+
+    /**
+     * @return the acknowledged bytes per second since the start of the transfer
+     */
+    long getBytesPerSecond() {
+        long millis = Math.max(System.currentTimeMillis() - mStartTime, 1);
+        return mBytesAcked * 1000 / millis;
+    }
+}
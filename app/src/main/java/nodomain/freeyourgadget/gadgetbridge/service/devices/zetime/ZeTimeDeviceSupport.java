@@ -40,13 +40,11 @@ import java.util.UUID;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.devicesettings.DeviceSettingsPreferenceConst;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHandler;
-import nodomain.freeyourgadget.gadgetbridge.database.DBHelper;
+import nodomain.freeyourgadget.gadgetbridge.database.SampleIngestionPipeline;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventBatteryInfo;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventMusicControl;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventVersionInfo;
 import nodomain.freeyourgadget.gadgetbridge.devices.zetime.ZeTimeConstants;
-import nodomain.freeyourgadget.gadgetbridge.devices.zetime.ZeTimeSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.ZeTimeActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
@@ -1159,11 +1157,8 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
         sample.setRawKind(ActivityKind.TYPE_ACTIVITY);
         sample.setRawIntensity(sample.getSteps());
 
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            sample.setUserId(DBHelper.getUser(dbHandler.getDaoSession()).getId());
-            sample.setDeviceId(DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId());
-            ZeTimeSampleProvider provider = new ZeTimeSampleProvider(getDevice(), dbHandler.getDaoSession());
-            provider.addGBActivitySample(sample);
+        try {
+            SampleIngestionPipeline.getInstance().add(sample, getDevice());
         } catch (Exception ex) {
             GB.toast(getContext(), "Error saving steps data: " + ex.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
             GB.updateTransferNotification(null, "Data transfer failed", false, 0, getContext());
@@ -1206,11 +1201,8 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
             sample.setRawKind(ActivityKind.TYPE_UNKNOWN);
         }
 
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            sample.setUserId(DBHelper.getUser(dbHandler.getDaoSession()).getId());
-            sample.setDeviceId(DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId());
-            ZeTimeSampleProvider provider = new ZeTimeSampleProvider(getDevice(), dbHandler.getDaoSession());
-            provider.addGBActivitySample(sample);
+        try {
+            SampleIngestionPipeline.getInstance().add(sample, getDevice());
         } catch (Exception ex) {
             GB.toast(getContext(), "Error saving steps data: " + ex.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
             GB.updateTransferNotification(null, "Data transfer failed", false, 0, getContext());
@@ -1242,11 +1234,8 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
         sample.setHeartRate(msg[11]);
         sample.setTimestamp(timestamp);
 
-        try (DBHandler dbHandler = GBApplication.acquireDB()) {
-            sample.setUserId(DBHelper.getUser(dbHandler.getDaoSession()).getId());
-            sample.setDeviceId(DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId());
-            ZeTimeSampleProvider provider = new ZeTimeSampleProvider(getDevice(), dbHandler.getDaoSession());
-            provider.addGBActivitySample(sample);
+        try {
+            SampleIngestionPipeline.getInstance().add(sample, getDevice());
         } catch (Exception ex) {
             GB.toast(getContext(), "Error saving steps data: " + ex.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
             GB.updateTransferNotification(null, "Data transfer failed", false, 0, getContext());
@@ -1257,17 +1246,16 @@ public class ZeTimeDeviceSupport extends AbstractBTLEDeviceSupport {
 
         if (((msg[4] << 8) & 0xff00 | (msg[3] & 0xff)) == 0xe) // if the message is longer than 0x7, than it has two measurements (payload = 0xe)
         {
+            // the first sample is queued for writing and must not be modified anymore
+            sample = new ZeTimeActivitySample();
             timestamp = (msg[17] << 24) & 0xff000000 | (msg[16] << 16) & 0xff0000 | (msg[15] << 8) & 0xff00 | (msg[14] & 0xff);
             timestamp += eightHourOffset; // the timestamp from the watch has an offset of eight hours, do not know why...
             timestamp -= ((now.get(Calendar.ZONE_OFFSET) / 1000) + (now.get(Calendar.DST_OFFSET) / 1000));  // TimeZone hour + daylight saving
             sample.setHeartRate(msg[18]);
             sample.setTimestamp(timestamp);
 
-            try (DBHandler dbHandler = GBApplication.acquireDB()) {
-                sample.setUserId(DBHelper.getUser(dbHandler.getDaoSession()).getId());
-                sample.setDeviceId(DBHelper.getDevice(getDevice(), dbHandler.getDaoSession()).getId());
-                ZeTimeSampleProvider provider = new ZeTimeSampleProvider(getDevice(), dbHandler.getDaoSession());
-                provider.addGBActivitySample(sample);
+            try {
+                SampleIngestionPipeline.getInstance().add(sample, getDevice());
             } catch (Exception ex) {
                 GB.toast(getContext(), "Error saving steps data: " + ex.getLocalizedMessage(), Toast.LENGTH_LONG, GB.ERROR);
                 GB.updateTransferNotification(null, "Data transfer failed", false, 0, getContext());
@@ -30,6 +30,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Calendar;
+import java.util.List;
 
 import nodomain.freeyourgadget.gadgetbridge.BuildConfig;
 import nodomain.freeyourgadget.gadgetbridge.GBApplication;
@@ -58,24 +59,33 @@ public class AutoConnectIntervalReceiver extends BroadcastReceiver {
             return;
         }
 
-        GBDevice gbDevice = service.getGBDevice();
-        if (gbDevice == null) {
+        List<GBDevice> gbDevices = service.getGBDevices();
+        if (gbDevices.isEmpty()) {
             return;
         }
 
         if (action.equals(DeviceManager.ACTION_DEVICES_CHANGED)) {
-            if (gbDevice.isInitialized()) {
-                LOG.info("will reset connection delay, device is initialized!");
-                mDelay = 4;
+            boolean anyInitialized = false;
+            boolean anyWaiting = false;
+            for (GBDevice gbDevice : gbDevices) {
+                anyInitialized |= gbDevice.isInitialized();
+                anyWaiting |= gbDevice.getState() == GBDevice.State.WAITING_FOR_RECONNECT;
             }
-            else if (gbDevice.getState() == GBDevice.State.WAITING_FOR_RECONNECT) {
+            // a device that stays connected must not keep another one from reconnecting
+            if (anyWaiting) {
                 scheduleReconnect();
             }
+            else if (anyInitialized) {
+                LOG.info("will reset connection delay, device is initialized!");
+                mDelay = 4;
+            }
         }
         else if (action.equals("GB_RECONNECT")) {
-            if (gbDevice.getState() == GBDevice.State.WAITING_FOR_RECONNECT) {
-                LOG.info("Will re-connect to " + gbDevice.getAddress() + "(" + gbDevice.getName() + ")");
-                GBApplication.deviceService().connect();
+            for (GBDevice gbDevice : gbDevices) {
+                if (gbDevice.getState() == GBDevice.State.WAITING_FOR_RECONNECT) {
+                    LOG.info("Will re-connect to " + gbDevice.getAddress() + "(" + gbDevice.getName() + ")");
+                    GBApplication.deviceService().connect(gbDevice);
+                }
             }
         }
     }
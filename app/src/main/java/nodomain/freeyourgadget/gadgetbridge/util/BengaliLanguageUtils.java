@@ -173,6 +173,14 @@ public class BengaliLanguageUtils extends LanguageUtils {
 
     private final static Pattern bengaliRegex = Pattern.compile(pattern);
 
+    /**
+     * @return true if the char can be matched by {@code bengaliRegex}, other than whitespace,
+     * which is kept as is. Text without such chars is not changed by #transliterate(String).
+     */
+    static boolean isBengali(char c) {
+        return (c >= '\u0980' && c <= '\u09ff') || c == '\u0964';
+    }
+
     private static String getVal(String key) {
         if (key != null) {
             String comp = composites.get(key);
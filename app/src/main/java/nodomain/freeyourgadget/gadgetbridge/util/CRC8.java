@@ -0,0 +1,85 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import java.util.zip.Checksum;
+
+/**
+ * The CRC8 used by Mi Band 1 (CRC-8/MAXIM: reflected polynomial 0x8C, initial value 0).
+ * Processes four bytes per step with four lookup tables.
+ */
+public class CRC8 implements Checksum {
+    private static final int POLYNOMIAL = 0x8c;
+
+    // T[k * 256 + x] is the CRC (from 0) of the byte x followed by k zero bytes
+    private static final int[] T = createTable();
+
+    private int crc;
+
+    public CRC8() {
+        reset();
+    }
+
+    @Override
+    public long getValue() {
+        return crc;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0;
+    }
+
+    @Override
+    public void update(int b) {
+        crc = T[(crc ^ b) & 0xff];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int localCrc = crc;
+        while (len > 3) {
+            localCrc = T[3 * 256 + ((localCrc ^ b[off]) & 0xff)]
+                    ^ T[2 * 256 + (b[off + 1] & 0xff)]
+                    ^ T[256 + (b[off + 2] & 0xff)]
+                    ^ T[b[off + 3] & 0xff];
+            off += 4;
+            len -= 4;
+        }
+        while (len-- > 0) {
+            localCrc = T[(localCrc ^ b[off++]) & 0xff];
+        }
+        crc = localCrc;
+    }
+
+    private static int[] createTable() {
+        int[] table = new int[4 * 256];
+        for (int i = 0; i < 256; i++) {
+            int c = i;
+            for (int bit = 0; bit < 8; bit++) {
+                c = (c & 1) != 0 ? (c >>> 1) ^ POLYNOMIAL : c >>> 1;
+            }
+            table[i] = c;
+        }
+        for (int k = 1; k < 4; k++) {
+            for (int i = 0; i < 256; i++) {
+                table[k * 256 + i] = table[table[(k - 1) * 256 + i]];
+            }
+        }
+        return table;
+    }
+}
@@ -16,79 +16,96 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.util;
 
-import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 
 public class CheckSums {
+    private static final int BUFFER_SIZE = 8192;
+
     public static int getCRC8(byte[] seq) {
-        int len = seq.length;
-        int i = 0;
-        byte crc = 0x00;
-
-        while (len-- > 0) {
-            byte extract = seq[i++];
-            for (byte tempI = 8; tempI != 0; tempI--) {
-                byte sum = (byte) ((crc & 0xff) ^ (extract & 0xff));
-                sum = (byte) ((sum & 0xff) & 0x01);
-                crc = (byte) ((crc & 0xff) >>> 1);
-                if (sum != 0) {
-                    crc = (byte) ((crc & 0xff) ^ 0x8c);
-                }
-                extract = (byte) ((extract & 0xff) >>> 1);
-            }
-        }
-        return (crc & 0xff);
+        return getCRC8(seq, 0, seq.length);
+    }
+
+    public static int getCRC8(byte[] seq, int offset, int length) {
+        CRC8 crc = new CRC8();
+        crc.update(seq, offset, length);
+        return (int) crc.getValue();
     }
 
-    //thanks http://stackoverflow.com/questions/13209364/convert-c-crc16-to-java-crc16
     public static int getCRC16(byte[] seq) {
-        int crc = 0xFFFF;
-
-        for (byte b : seq) {
-            crc = ((crc >>> 8) | (crc << 8)) & 0xffff;
-            crc ^= (b & 0xff);//byte to int, trunc sign
-            crc ^= ((crc & 0xff) >> 4);
-            crc ^= (crc << 12) & 0xffff;
-            crc ^= ((crc & 0xFF) << 5) & 0xffff;
-        }
-        crc &= 0xffff;
-        return crc;
+        return getCRC16(seq, 0, seq.length);
+    }
+
+    public static int getCRC16(byte[] seq, int offset, int length) {
+        CRC16 crc = new CRC16();
+        crc.update(seq, offset, length);
+        return (int) crc.getValue();
     }
 
     public static int getCRC32(byte[] seq) {
+        return getCRC32(seq, 0, seq.length);
+    }
+
+    public static int getCRC32(byte[] seq, int offset, int length) {
         CRC32 crc = new CRC32();
-        crc.update(seq);
+        crc.update(seq, offset, length);
+        return (int) (crc.getValue());
+    }
+
+    public static int getCRC32C(byte[] seq, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(seq, offset, length);
         return (int) (crc.getValue());
     }
 
+    /**
+     * Updates the checksum with the remaining bytes of the buffer, and moves its position
+     * to the limit.
+     *
+     * @return the new value of the checksum
+     */
+    public static long update(Checksum checksum, ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            byte[] chunk = new byte[Math.min(BUFFER_SIZE, buffer.remaining())];
+            while (buffer.hasRemaining()) {
+                int length = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, length);
+                checksum.update(chunk, 0, length);
+            }
+        }
+        return checksum.getValue();
+    }
+
+    /**
+     * Updates the checksum with all bytes of the stream, without keeping them in memory.
+     * The stream is not closed.
+     *
+     * @return the new value of the checksum
+     */
+    public static long update(Checksum checksum, InputStream in) throws IOException {
+        byte[] chunk = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(chunk)) > 0) {
+            checksum.update(chunk, 0, read);
+        }
+        return checksum.getValue();
+    }
+
     public static void main(String[] args) throws IOException {
         if (args == null || args.length == 0) {
             throw new IllegalArgumentException("Pass the files to be checksummed as arguments");
         }
         for (String name : args) {
             try (FileInputStream in = new FileInputStream(name)) {
-                byte[] bytes = readAll(in, 1000 * 1000);
-                System.out.println(name + " : " + getCRC16(bytes));
-            }
-        }
-    }
-
-    // copy&paste of FileUtils.readAll() to have it free from Android dependencies
-    private static byte[] readAll(InputStream in, long maxLen) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(8192, in.available()));
-        byte[] buf = new byte[8192];
-        int read;
-        long totalRead = 0;
-        while ((read = in.read(buf)) > 0) {
-            out.write(buf, 0, read);
-            totalRead += read;
-            if (totalRead > maxLen) {
-                throw new IOException("Too much data to read into memory. Got already " + totalRead);
+                System.out.println(name + " : " + update(new CRC16(), in));
             }
         }
-        return out.toByteArray();
     }
 }
@@ -66,13 +66,34 @@ public class EmojiConverter {
             {"\u2764", "<3"},         // heart
     };
 
+    private static final TextTransformer simpleEmojiTransformer = createSimpleEmojiTransformer();
+
     private static boolean isEmojiDataInitialised = false;
 
-    private static String convertSimpleEmojiToAscii(String text) {
+    private static TextTransformer createSimpleEmojiTransformer() {
+        TextTransformer.Builder builder = new TextTransformer.Builder();
         for (String[] emojiMap : simpleEmojiMapping) {
-            text = text.replace(emojiMap[0], emojiMap[1]);
+            builder.put(emojiMap[0], emojiMap[1]);
         }
-        return text;
+        return builder.build();
+    }
+
+    private static String convertSimpleEmojiToAscii(String text) {
+        return simpleEmojiTransformer.transform(text);
+    }
+
+    /**
+     * @return false if EmojiUtils#shortCodify(String) would not change the text: it only
+     * converts emoji, aliases like :smile: and HTML entities
+     */
+    private static boolean mayContainAdvancedEmoji(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80 || c == ':' || c == '&') {
+                return true;
+            }
+        }
+        return false;
     }
 
     private static synchronized void initEmojiData(Context context) {
@@ -96,7 +117,9 @@ public class EmojiConverter {
     public static String convertUnicodeEmojiToAscii(String text, Context context) {
         text = convertSimpleEmojiToAscii(text);
 
-        text = convertAdvancedEmojiToAscii(text, context);
+        if (mayContainAdvancedEmoji(text)) {
+            text = convertAdvancedEmojiToAscii(text, context);
+        }
 
         return text;
     }
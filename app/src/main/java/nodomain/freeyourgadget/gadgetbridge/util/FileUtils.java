@@ -34,7 +34,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
@@ -46,6 +48,15 @@ import nodomain.freeyourgadget.gadgetbridge.GBEnvironment;
 public class FileUtils {
     // Don't use slf4j here -- would be a bootstrapping problem
     private static final String TAG = "FileUtils";
+    private static final int COPY_CHUNK_SIZE = 1024 * 1024;
+
+    public interface CopyProgressListener {
+        /**
+         * @param bytesCopied the number of bytes copied so far
+         * @param bytesTotal the total number of bytes to copy
+         */
+        void onProgress(long bytesCopied, long bytesTotal);
+    }
 
     /**
      * Copies the the given sourceFile to destFile, overwriting it, in case it exists.
@@ -101,6 +112,40 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Copies the contents of the given file to the destination output stream, in chunks
+     * via FileChannel#transferTo(), so that the data does not need to be copied through
+     * a Java buffer when the destination is a file.
+     * @param src the file from which to read.
+     * @param dst the output stream that is written to. Note: the caller has to close the output stream!
+     * @param listener notified after each chunk, may be null
+     * @throws IOException
+     */
+    public static void copyFileToStream(File src, OutputStream dst, CopyProgressListener listener) throws IOException {
+        try (FileInputStream in = new FileInputStream(src); FileChannel fromChannel = in.getChannel()) {
+            WritableByteChannel toChannel;
+            if (dst instanceof FileOutputStream) {
+                toChannel = ((FileOutputStream) dst).getChannel();
+            } else {
+                // not closed, that would close dst
+                toChannel = Channels.newChannel(dst);
+            }
+            long total = fromChannel.size();
+            long position = 0;
+            while (position < total) {
+                long transferred = fromChannel.transferTo(position, Math.min(COPY_CHUNK_SIZE, total - position), toChannel);
+                if (transferred <= 0) {
+                    throw new IOException("Unable to copy " + src.getAbsolutePath() + " at " + position + " of " + total + " bytes");
+                }
+                position += transferred;
+                if (listener != null) {
+                    listener.onProgress(position, total);
+                }
+            }
+            dst.flush();
+        }
+    }
+
     public static void copyURItoFile(Context ctx, Uri uri, File destFile) throws IOException {
         if (uri.getPath().equals(destFile.getPath())) {
             return;
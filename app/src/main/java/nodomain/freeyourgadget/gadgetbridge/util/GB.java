@@ -49,6 +49,7 @@ import nodomain.freeyourgadget.gadgetbridge.GBEnvironment;
 import nodomain.freeyourgadget.gadgetbridge.R;
 import nodomain.freeyourgadget.gadgetbridge.activities.ControlCenterv2;
 import nodomain.freeyourgadget.gadgetbridge.activities.SettingsActivity;
+import nodomain.freeyourgadget.gadgetbridge.database.SampleIngestionPipeline;
 import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventScreenshot;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
 import nodomain.freeyourgadget.gadgetbridge.model.DeviceService;
@@ -496,7 +497,13 @@ public class GB {
     }
 
     public static void signalActivityDataFinish() {
-        Intent intent = new Intent(GBApplication.ACTION_NEW_DATA);
-        LocalBroadcastManager.getInstance(GBApplication.getContext()).sendBroadcast(intent);
+        // announce the new data only once queued samples have actually been written
+        SampleIngestionPipeline.getInstance().flush(new Runnable() {
+            @Override
+            public void run() {
+                Intent intent = new Intent(GBApplication.ACTION_NEW_DATA);
+                LocalBroadcastManager.getInstance(GBApplication.getContext()).sendBroadcast(intent);
+            }
+        });
     }
 }
@@ -114,44 +114,57 @@ public class LanguageUtils {
             return txt;
         }
 
-        StringBuilder message = new StringBuilder();
-
-        char[] chars = txt.toCharArray();
-
-        for (char c : chars)
-        {
-            message.append(transliterate(c));
+        String message = Transliterator.INSTANCE.transform(txt);
+
+        // the rule based stages only run if they can change anything
+        boolean hasBengali = false;
+        boolean hasDiacritics = false;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c >= 0xc0) {
+                hasDiacritics = true;
+                if (BengaliLanguageUtils.isBengali(c)) {
+                    hasBengali = true;
+                    break;
+                }
+            }
         }
 
-        String messageString = BengaliLanguageUtils.transliterate(message.toString());
-
-        return flattenToAscii(messageString);
+        if (hasBengali) {
+            message = BengaliLanguageUtils.transliterate(message);
+        }
+        if (hasDiacritics) {
+            message = flattenToAscii(message);
+        }
+        return message;
     }
 
     /**
-     * Replaces unsupported symbol to english by {@code transliterateMap}
-     * @param c input char
-     * @return replacement text
+     * The transliteration of every char whose lower case is in {@code transliterateMap},
+     * capitalized for upper case chars, compiled on first use.
      */
-    private static String transliterate(char c){
-        char lowerChar = Character.toLowerCase(c);
-
-        if (transliterateMap.containsKey(lowerChar)) {
-            String replace = transliterateMap.get(lowerChar);
-
-            if (lowerChar != c)
-            {
-                return WordUtils.capitalize(replace);
+    private static class Transliterator {
+        static final TextTransformer INSTANCE = create();
+
+        private static TextTransformer create() {
+            TextTransformer.Builder builder = new TextTransformer.Builder();
+            for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+                if (Character.isSurrogate((char) c)) {
+                    continue;
+                }
+                char lowerChar = Character.toLowerCase((char) c);
+                String replace = transliterateMap.get(lowerChar);
+                if (replace != null) {
+                    builder.put(c, lowerChar != c ? WordUtils.capitalize(replace) : replace);
+                }
             }
-
-            return replace;
+            return builder.build();
         }
-
-        return String.valueOf(c);
     }
 
     /**
-     * Converts the diacritics
+     * Converts the diacritics. Chars below U+00C0 have no canonical decomposition,
+     * so text without them is returned unchanged.
      * @param string input text
      * @return converted text
      */
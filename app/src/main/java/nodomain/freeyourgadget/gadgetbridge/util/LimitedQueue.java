@@ -17,50 +17,291 @@
     along with this program.  If not, see <http://www.gnu.org/licenses/>. */
 package nodomain.freeyourgadget.gadgetbridge.util;
 
-import android.util.Pair;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+/**
+ * Keeps the last <code>limit</code> values added with an int id, evicting the oldest one
+ * when full. Ids may be added more than once, lookups then find the oldest entry.
+ * <p>
+ * All operations take constant time: the entries are kept in preallocated slots that are
+ * linked in insertion order, and are found through an open addressing table of the ids.
+ * With a reverse index, #lookupByValue(Object) is constant time as well, otherwise it
+ * scans all entries. Lookups only take a shared lock, so they can run concurrently.
+ */
+public class LimitedQueue<V> {
+    private static final int NONE = -1;
 
-public class LimitedQueue {
     private final int limit;
-    private LinkedList<Pair> list = new LinkedList<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // the entries, by slot
+    private final int[] keys;
+    private final Object[] values;
+    private final int[] older;
+    private final int[] newer; // also links the free slots
+    private final int[] newerSameKey;
+    private int oldest = NONE;
+    private int newest = NONE;
+    private int free;
+    private int size;
+
+    // id -> oldest and newest slot with that id, linear probing
+    private final int hashShift;
+    private final int[] indexKeys;
+    private final int[] indexOldest; // NONE for empty buckets
+    private final int[] indexNewest;
+
+    // value -> {oldest slot, newest slot} with that value, null without reverse index
+    private final Map<Object, int[]> valueIndex;
+    private final int[] olderSameValue;
+    private final int[] newerSameValue;
 
     public LimitedQueue(int limit) {
+        this(limit, false);
+    }
+
+    /**
+     * @param reverseIndex whether to index the values for #lookupByValue(Object)
+     */
+    public LimitedQueue(int limit, boolean reverseIndex) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
         this.limit = limit;
+        keys = new int[limit];
+        values = new Object[limit];
+        older = new int[limit];
+        newer = new int[limit];
+        newerSameKey = new int[limit];
+        for (int slot = 0; slot < limit; slot++) {
+            newer[slot] = slot + 1 < limit ? slot + 1 : NONE;
+        }
+        free = 0;
+
+        // at most half full
+        int bits = 1;
+        while ((1 << bits) < 2 * limit) {
+            bits++;
+        }
+        hashShift = 32 - bits;
+        indexKeys = new int[1 << bits];
+        indexOldest = new int[1 << bits];
+        indexNewest = new int[1 << bits];
+        Arrays.fill(indexOldest, NONE);
+
+        if (reverseIndex) {
+            valueIndex = new HashMap<>();
+            olderSameValue = new int[limit];
+            newerSameValue = new int[limit];
+        } else {
+            valueIndex = null;
+            olderSameValue = null;
+            newerSameValue = null;
+        }
+    }
+
+    public void add(int id, V obj) {
+        lock.writeLock().lock();
+        try {
+            if (size == limit) {
+                removeOldest();
+            }
+            int slot = free;
+            free = newer[slot];
+            size++;
+
+            keys[slot] = id;
+            values[slot] = obj;
+            older[slot] = newest;
+            newer[slot] = NONE;
+            if (newest != NONE) {
+                newer[newest] = slot;
+            } else {
+                oldest = slot;
+            }
+            newest = slot;
+
+            newerSameKey[slot] = NONE;
+            int bucket = findBucket(id);
+            if (indexOldest[bucket] == NONE) {
+                indexKeys[bucket] = id;
+                indexOldest[bucket] = slot;
+            } else {
+                newerSameKey[indexNewest[bucket]] = slot;
+            }
+            indexNewest[bucket] = slot;
+
+            if (valueIndex != null) {
+                int[] ends = valueIndex.get(obj);
+                newerSameValue[slot] = NONE;
+                if (ends == null) {
+                    olderSameValue[slot] = NONE;
+                    valueIndex.put(obj, new int[]{slot, slot});
+                } else {
+                    olderSameValue[slot] = ends[1];
+                    newerSameValue[ends[1]] = slot;
+                    ends[1] = slot;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all entries with the given id.
+     */
+    public void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            int bucket = findBucket(id);
+            if (indexOldest[bucket] == NONE) {
+                return;
+            }
+            for (int slot = indexOldest[bucket]; slot != NONE; slot = newerSameKey[slot]) {
+                release(slot);
+            }
+            removeBucket(bucket);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
-    synchronized public void add(int id, Object obj) {
-        if (list.size() > limit - 1) {
-            list.removeFirst();
+    /**
+     * @return the value of the oldest entry with the given id, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V lookup(int id) {
+        lock.readLock().lock();
+        try {
+            int slot = indexOldest[findBucket(id)];
+            return slot != NONE ? (V) values[slot] : null;
+        } finally {
+            lock.readLock().unlock();
         }
-        list.add(new Pair<>(id, obj));
     }
 
-    synchronized public void remove(int id) {
-        for (Iterator<Pair> iter = list.iterator(); iter.hasNext(); ) {
-            Pair pair = iter.next();
-            if ((Integer) pair.first == id) {
-                iter.remove();
+    /**
+     * @return the id of the oldest entry with the given value, or null
+     */
+    public Integer lookupByValue(Object value) {
+        lock.readLock().lock();
+        try {
+            if (valueIndex != null) {
+                int[] ends = valueIndex.get(value);
+                return ends != null ? keys[ends[0]] : null;
+            }
+            for (int slot = oldest; slot != NONE; slot = newer[slot]) {
+                if (value.equals(values[slot])) {
+                    return keys[slot];
+                }
             }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeOldest() {
+        int slot = oldest;
+        // the oldest entry is also the oldest one with its id
+        int bucket = findBucket(keys[slot]);
+        if (newerSameKey[slot] == NONE) {
+            removeBucket(bucket);
+        } else {
+            indexOldest[bucket] = newerSameKey[slot];
         }
+        release(slot);
     }
 
-    synchronized public Object lookup(int id) {
-        for (Pair entry : list) {
-            if (id == (Integer) entry.first) {
-                return entry.second;
+    /**
+     * Unlinks the slot from the insertion order and the reverse index, but not from the
+     * id index, and returns it to the free slots.
+     */
+    private void release(int slot) {
+        if (older[slot] != NONE) {
+            newer[older[slot]] = newer[slot];
+        } else {
+            oldest = newer[slot];
+        }
+        if (newer[slot] != NONE) {
+            older[newer[slot]] = older[slot];
+        } else {
+            newest = older[slot];
+        }
+
+        if (valueIndex != null) {
+            int[] ends = valueIndex.get(values[slot]);
+            int olderSlot = olderSameValue[slot];
+            int newerSlot = newerSameValue[slot];
+            if (olderSlot != NONE) {
+                newerSameValue[olderSlot] = newerSlot;
+            } else {
+                ends[0] = newerSlot;
+            }
+            if (newerSlot != NONE) {
+                olderSameValue[newerSlot] = olderSlot;
+            } else {
+                ends[1] = olderSlot;
+            }
+            if (ends[0] == NONE) {
+                valueIndex.remove(values[slot]);
             }
         }
-        return null;
+
+        values[slot] = null;
+        newer[slot] = free;
+        free = slot;
+        size--;
+    }
+
+    /**
+     * @return the bucket of the given id, or the empty bucket where it would be inserted
+     */
+    private int findBucket(int id) {
+        int mask = indexOldest.length - 1;
+        int bucket = home(id);
+        while (indexOldest[bucket] != NONE && indexKeys[bucket] != id) {
+            bucket = (bucket + 1) & mask;
+        }
+        return bucket;
+    }
+
+    private int home(int id) {
+        return (id * 0x9E3779B9) >>> hashShift;
     }
 
-    synchronized public Object lookupByValue(Object value){
-        for (Pair entry : list) {
-            if (value.equals(entry.second)) {
-                return entry.first;
+    /**
+     * Empties the bucket and moves later buckets of the same probe sequence back, so
+     * that no lookup stops early at the new gap.
+     */
+    private void removeBucket(int bucket) {
+        int mask = indexOldest.length - 1;
+        int gap = bucket;
+        indexOldest[gap] = NONE;
+        for (int next = (gap + 1) & mask; indexOldest[next] != NONE; next = (next + 1) & mask) {
+            int home = home(indexKeys[next]);
+            // the entry may only move if its home is not between the gap and its bucket
+            boolean homeAfterGap = gap <= next ? gap < home && home <= next : gap < home || home <= next;
+            if (!homeAfterGap) {
+                indexKeys[gap] = indexKeys[next];
+                indexOldest[gap] = indexOldest[next];
+                indexNewest[gap] = indexNewest[next];
+                indexOldest[next] = NONE;
+                gap = next;
             }
         }
-        return null;
     }
 }
@@ -0,0 +1,178 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds any number of words in a text in a single pass over the text (Aho-Corasick).
+ * A word is found exactly when String#contains(CharSequence) would find it, i.e.
+ * case sensitive, and the empty word is contained in every text.
+ * <p>
+ * Instances are immutable and can be used from multiple threads.
+ */
+public class MultiPatternMatcher {
+    private static final int ROOT = 0;
+    private static final int[] NO_PATTERNS = new int[0];
+
+    private final int patternCount;
+    // the outgoing edges of each node, sorted by character
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    private final int[] fail;
+    // the ids of all patterns ending at each node, including those of its suffixes
+    private final int[][] outputs;
+
+    public MultiPatternMatcher(Collection<String> patterns) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(patterns));
+        patternCount = distinct.size();
+
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> nodeOutputs = new ArrayList<>();
+        trie.add(new TreeMap<Character, Integer>());
+        nodeOutputs.add(new ArrayList<Integer>());
+        for (int id = 0; id < distinct.size(); id++) {
+            String pattern = distinct.get(id);
+            int node = ROOT;
+            for (int i = 0; i < pattern.length(); i++) {
+                Integer next = trie.get(node).get(pattern.charAt(i));
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<Character, Integer>());
+                    nodeOutputs.add(new ArrayList<Integer>());
+                    trie.get(node).put(pattern.charAt(i), next);
+                }
+                node = next;
+            }
+            nodeOutputs.get(node).add(id);
+        }
+
+        int nodeCount = trie.size();
+        edgeChars = new char[nodeCount][];
+        edgeTargets = new int[nodeCount][];
+        for (int node = 0; node < nodeCount; node++) {
+            TreeMap<Character, Integer> edges = trie.get(node);
+            edgeChars[node] = new char[edges.size()];
+            edgeTargets[node] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                edgeChars[node][i] = edge.getKey();
+                edgeTargets[node][i] = edge.getValue();
+                i++;
+            }
+        }
+
+        // breadth first, so that the failure link of a node is final before its children need it
+        fail = new int[nodeCount];
+        outputs = new int[nodeCount][];
+        outputs[ROOT] = toArray(nodeOutputs.get(ROOT), NO_PATTERNS);
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : edgeTargets[ROOT]) {
+            fail[child] = ROOT;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            outputs[node] = toArray(nodeOutputs.get(node), outputs[fail[node]]);
+            for (int i = 0; i < edgeChars[node].length; i++) {
+                int child = edgeTargets[node][i];
+                if (node != ROOT) {
+                    fail[child] = next(fail[node], edgeChars[node][i]);
+                }
+                queue.add(child);
+            }
+        }
+    }
+
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    /**
+     * @return true if at least one of the words is contained in the text
+     */
+    public boolean containsAny(CharSequence text) {
+        if (outputs[ROOT].length > 0) {
+            return true;
+        }
+        int node = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            node = next(node, text.charAt(i));
+            if (outputs[node].length > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if all of the words are contained in the text
+     */
+    public boolean containsAll(CharSequence text) {
+        boolean[] found = new boolean[patternCount];
+        int remaining = mark(outputs[ROOT], found, patternCount);
+        int node = ROOT;
+        for (int i = 0; i < text.length() && remaining > 0; i++) {
+            node = next(node, text.charAt(i));
+            remaining = mark(outputs[node], found, remaining);
+        }
+        return remaining == 0;
+    }
+
+    private int next(int node, char c) {
+        while (true) {
+            int i = Arrays.binarySearch(edgeChars[node], c);
+            if (i >= 0) {
+                return edgeTargets[node][i];
+            }
+            if (node == ROOT) {
+                return ROOT;
+            }
+            node = fail[node];
+        }
+    }
+
+    private static int mark(int[] patterns, boolean[] found, int remaining) {
+        for (int id : patterns) {
+            if (!found[id]) {
+                found[id] = true;
+                remaining--;
+            }
+        }
+        return remaining;
+    }
+
+    private static int[] toArray(List<Integer> own, int[] inherited) {
+        if (own.isEmpty()) {
+            return inherited;
+        }
+        int[] result = new int[own.size() + inherited.length];
+        for (int i = 0; i < own.size(); i++) {
+            result[i] = own.get(i);
+        }
+        System.arraycopy(inherited, 0, result, own.size(), inherited.length);
+        return result;
+    }
+}
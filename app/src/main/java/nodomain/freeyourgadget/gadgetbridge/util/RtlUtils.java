@@ -45,7 +45,7 @@ public class RtlUtils {
         space,
     }
 
-    public static characterType getCharacterType(Character c){
+    public static characterType getCharacterType(char c){
         characterType type;
         switch (Character.getDirectionality(c)) {
             case Character.DIRECTIONALITY_RIGHT_TO_LEFT:
@@ -83,19 +83,25 @@ public class RtlUtils {
         return GBApplication.getPrefs().getBoolean(GBPrefs.RTL_CONTEXTUAL_ARABIC, false);
     }
 
-    //map with brackets chars to change there direction
-    private static Map<Character, Character> directionSignsMap = new HashMap<Character, Character>(){
-        {
-            put('(', ')'); put(')', '('); put('[', ']'); put(']', '['); put('{','}'); put('}','{');
-
-
+    /**
+     * @return the bracket of the other direction, or the char itself if it has no direction
+     */
+    private static char mirrorDirectionSign(char c) {
+        switch (c) {
+            case '(': return ')';
+            case ')': return '(';
+            case '[': return ']';
+            case ']': return '[';
+            case '{': return '}';
+            case '}': return '{';
+            default: return c;
         }
-    };
+    }
 
     /**
      * @return true if the char is in the rtl range, otherwise false
      */
-    public static boolean isHebrew(Character c){
+    public static boolean isHebrew(char c){
 
         return getCharacterType(c) == characterType.rtl;
     }
@@ -103,7 +109,7 @@ public class RtlUtils {
     /**
      * @return true if the char is in the rtl range, otherwise false
      */
-    public static boolean isArabic(Character c){
+    public static boolean isArabic(char c){
 
         return getCharacterType(c) == characterType.rtl_arabic;
     }
@@ -111,7 +117,7 @@ public class RtlUtils {
     /**
      * @return true if the char is in the rtl range, otherwise false
      */
-    public static boolean isLtr(Character c){
+    public static boolean isLtr(char c){
 
         return getCharacterType(c) == characterType.ltr;
     }
@@ -119,15 +125,15 @@ public class RtlUtils {
     /**
      * @return true if the char is in the rtl range, otherwise false
      */
-    public static boolean isRtl(Character c){
-
-        return (getCharacterType(c) == characterType.rtl) || (getCharacterType(c) == characterType.rtl_arabic);
+    public static boolean isRtl(char c){
+        characterType type = getCharacterType(c);
+        return (type == characterType.rtl) || (type == characterType.rtl_arabic);
     }
 
     /**
      * @return true if the char is in the punctuations range, otherwise false
      */
-    public static boolean isPunctuations(Character c){
+    public static boolean isPunctuations(char c){
 
         return getCharacterType(c) == characterType.punctuation;
     }
@@ -136,7 +142,7 @@ public class RtlUtils {
     /**
      * @return true if the char is in the end of word list, otherwise false
      */
-    public static boolean isSpaceSign(Character c){
+    public static boolean isSpaceSign(char c){
 
         return getCharacterType(c) == characterType.space;
     }
@@ -144,7 +150,7 @@ public class RtlUtils {
     /**
      * @return true if the char is in the end of word list, otherwise false
      */
-    public static boolean isEndLineSign(Character c){
+    public static boolean isEndLineSign(char c){
 
         return getCharacterType(c) == characterType.lineEnd;
     }
@@ -467,11 +473,7 @@ public class RtlUtils {
         }
 
         for (int i = 0; i < s.length() - isEndLine; i++) {
-            if (directionSignsMap.containsKey(s.charAt(i))) {
-                newWord[--j] = directionSignsMap.get(s.charAt(i));
-            } else {
-                newWord[--j] = s.charAt(i);
-            }
+            newWord[--j] = mirrorDirectionSign(s.charAt(i));
         }
 
         return new String(newWord);
@@ -498,20 +500,20 @@ public class RtlUtils {
         if (oldString == null || oldString.isEmpty()){
             return oldString;
         }
-        debug("before: |" + org.apache.commons.lang3.StringEscapeUtils.escapeJava(oldString) + "|");
 
         int length = oldString.length();
         String newString = "";
         List<String> lines = new ArrayList<>();
         char[] newWord = new char[length];
         int line_max_size = GBApplication.getPrefs().getInt("rtl_max_line_length", 18);
+        boolean contextualSupport = contextualSupport();
 
         int startPos = 0;
         int endPos = 0;
         characterType CurRtlType = isRtl(oldString.charAt(0))? characterType.rtl : characterType.ltr;
         characterType PhraseRtlType = CurRtlType;
 
-        Character c;
+        char c;
 //        String word = "", phrase = "", line = "";
         StringBuilder word = new StringBuilder();
         StringBuilder phrase = new StringBuilder();
@@ -521,8 +523,6 @@ public class RtlUtils {
         for (int i = 0; i < length; i++) {
             c = oldString.charAt(i);
             addCharToWord = false;
-            debug("char: " + c + " :" + Character.getDirectionality(c));
-//            debug( "hex : " + (int)c);
 
             if (isLtr(c)){
                 CurRtlType = characterType.ltr;
@@ -531,7 +531,6 @@ public class RtlUtils {
             }
 
             if ((CurRtlType == PhraseRtlType) && !(isSpaceSign(c) || isEndLineSign(c))){
-                debug("add: " + c + " to: " + word);
                 word.append(c);
                 addCharToWord = true;
                 if (i < length - 1) {
@@ -559,16 +558,14 @@ public class RtlUtils {
 
 
                 phraseString = phrase.toString();
-                debug("phrase:   |" + phraseString + "|");
                 if (PhraseRtlType == characterType.rtl) {
-                    if (contextualSupport()) {
+                    if (contextualSupport) {
                         phraseString = convertToContextual(phraseString);
                     }
                     phraseString = reverse(phraseString);
                 }
 
                 line.insert(0, fixWhitespace(phraseString));
-                debug("line now: |" + line + "|");
                 phrase.setLength(0);
 
                 if (word.length() > 0){
@@ -586,7 +583,6 @@ public class RtlUtils {
                 }
 
                 lines.add(line.toString());
-                debug("line: |" + line + "|");
                 line.setLength(0);
 
                 if (word.length() == 0){
@@ -601,12 +597,6 @@ public class RtlUtils {
 
         newString = TextUtils.join("", lines);
 
-        debug("after : |" + org.apache.commons.lang3.StringEscapeUtils.escapeJava(newString) + "|");
-
         return newString;
     }
-
-    private static void debug(String s) {
-//        Log.d("ROIGR", s);
-    }
 }
@@ -0,0 +1,127 @@
+/*  Copyright (C) 2020 Gadgetbridge contributors
+
+    This file is part of Gadgetbridge.
+
+    Gadgetbridge is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Gadgetbridge is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+package nodomain.freeyourgadget.gadgetbridge.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Replaces single code points by strings, in one pass over the text. The replacements
+ * are kept in a two level table indexed by code point, so that no lookup needs boxing
+ * or hashing. Instances are immutable and can be used from multiple threads.
+ */
+public class TextTransformer {
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    // by code point >>> PAGE_BITS, null for pages without replacements
+    private final String[][] pages;
+    private final int minCodePoint;
+    private final int size;
+
+    private TextTransformer(TreeMap<Integer, String> replacements) {
+        size = replacements.size();
+        if (replacements.isEmpty()) {
+            pages = new String[0][];
+            minCodePoint = Integer.MAX_VALUE;
+            return;
+        }
+        int maxCodePoint = replacements.lastKey();
+        minCodePoint = replacements.firstKey();
+        pages = new String[(maxCodePoint >>> PAGE_BITS) + 1][];
+        for (Map.Entry<Integer, String> replacement : replacements.entrySet()) {
+            int page = replacement.getKey() >>> PAGE_BITS;
+            if (pages[page] == null) {
+                pages[page] = new String[PAGE_SIZE];
+            }
+            pages[page][replacement.getKey() & (PAGE_SIZE - 1)] = replacement.getValue();
+        }
+    }
+
+    /**
+     * @return the number of code points that are replaced
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the replacement of the given code point, or null if it is kept
+     */
+    public String get(int codePoint) {
+        int page = codePoint >>> PAGE_BITS;
+        if (page >= pages.length || pages[page] == null) {
+            return null;
+        }
+        return pages[page][codePoint & (PAGE_SIZE - 1)];
+    }
+
+    /**
+     * @return the transformed text, or the given instance if nothing was replaced
+     */
+    public String transform(String text) {
+        if (text == null) {
+            return null;
+        }
+        int length = text.length();
+        StringBuilder result = null;
+        int copied = 0;
+        int i = 0;
+        while (i < length) {
+            int codePoint = text.codePointAt(i);
+            int next = i + Character.charCount(codePoint);
+            if (codePoint >= minCodePoint) {
+                String replacement = get(codePoint);
+                if (replacement != null) {
+                    if (result == null) {
+                        result = new StringBuilder(length + 16);
+                    }
+                    result.append(text, copied, i).append(replacement);
+                    copied = next;
+                }
+            }
+            i = next;
+        }
+        if (result == null) {
+            return text;
+        }
+        return result.append(text, copied, length).toString();
+    }
+
+    public static class Builder {
+        private final TreeMap<Integer, String> replacements = new TreeMap<>();
+
+        public Builder put(int codePoint, String replacement) {
+            replacements.put(codePoint, replacement);
+            return this;
+        }
+
+        /**
+         * @param codePoint a string of exactly one code point, e.g. a surrogate pair
+         */
+        public Builder put(String codePoint, String replacement) {
+            if (codePoint.codePointCount(0, codePoint.length()) != 1) {
+                throw new IllegalArgumentException("Not a single code point: " + codePoint);
+            }
+            return put(codePoint.codePointAt(0), replacement);
+        }
+
+        public TextTransformer build() {
+            return new TextTransformer(replacements);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.ActivityOverlaySweep;
+import nodomain.freeyourgadget.gadgetbridge.devices.hplus.HPlusHealthSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PebbleHealthSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivityOverlay;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivityOverlayDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.HPlusHealthActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlay;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlayDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.service.devices.hplus.HPlusDataRecord;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the sweep based overlay application of the HPlus and Pebble sample providers
+ * with the former brute force one, on four weeks of samples with dense sleep overlays:
+ * every night is split into light and deep sleep phases of a few minutes, with some
+ * overlapping not worn overlays.
+ */
+public class ActivityOverlayTest extends TestBase {
+    private static final int START = 1500000000;
+    private static final int DAY = 24 * 60 * 60;
+    private static final int WEEKS = 4;
+    private static final int END = START + WEEKS * 7 * DAY;
+
+    @Test
+    public void testSweepSameAsBruteForce() {
+        Random random = new Random(42);
+        for (int round = 0; round < 100; round++) {
+            List<PebbleHealthActivityOverlay> overlays = new ArrayList<>();
+            for (int i = random.nextInt(20); i > 0; i--) {
+                int from = random.nextInt(100);
+                overlays.add(new PebbleHealthActivityOverlay(from, from + random.nextInt(30), i, 1L, 1L, null));
+            }
+            ActivityOverlaySweep<PebbleHealthActivityOverlay> sweep = new ActivityOverlaySweep<>(overlays);
+            int timestamp = 0;
+            for (int step = 0; step < 200; step++) {
+                // mostly ascending, sometimes going back
+                timestamp = random.nextInt(10) == 0 ? random.nextInt(130) : timestamp + random.nextInt(3);
+                List<Integer> expected = new ArrayList<>();
+                for (int i = 0; i < overlays.size(); i++) {
+                    if (overlays.get(i).getTimestampFrom() <= timestamp && timestamp < overlays.get(i).getTimestampTo()) {
+                        expected.add(i);
+                    }
+                }
+                List<Integer> actual = new ArrayList<>();
+                for (int i = sweep.seek(timestamp) - 1; i >= 0; i--) {
+                    assertEquals(overlays.get(sweep.getActiveIndex(i)), sweep.getActive(i));
+                    actual.add(0, sweep.getActiveIndex(i));
+                }
+                assertEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testHPlusSameAsBefore() {
+        GBDevice gbDevice = createDummyGDevice("00:00:00:00:01");
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(gbDevice, daoSession);
+        insertHPlusData(user, device);
+        HPlusHealthSampleProvider provider = new HPlusHealthSampleProvider(gbDevice, daoSession);
+
+        List<HPlusHealthActivitySample> actual = provider.getAllActivitySamples(START, END);
+        List<HPlusHealthActivitySample> expected = getHPlusSamplesBruteForce(provider, device.getId(), START, END);
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            HPlusHealthActivitySample one = expected.get(i);
+            HPlusHealthActivitySample other = actual.get(i);
+            String message = "sample " + i + " at " + one.getTimestamp();
+            assertEquals(message, one.getTimestamp(), other.getTimestamp());
+            assertEquals(message, one.getRawKind(), other.getRawKind());
+            assertEquals(message, one.getRawIntensity(), other.getRawIntensity());
+            assertEquals(message, one.getHeartRate(), other.getHeartRate());
+            assertEquals(message, one.getSteps(), other.getSteps());
+        }
+    }
+
+    @Test
+    public void testPebbleSameAsBefore() {
+        GBDevice gbDevice = createDummyGDevice("00:00:00:00:02");
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(gbDevice, daoSession);
+        insertPebbleData(user, device);
+        PebbleHealthSampleProvider provider = new PebbleHealthSampleProvider(gbDevice, daoSession);
+
+        List<PebbleHealthActivitySample> actual = provider.getAllActivitySamples(START, END);
+
+        daoSession.clear();
+        List<PebbleHealthActivityOverlay> overlays = daoSession.getPebbleHealthActivityOverlayDao().queryBuilder()
+                .where(PebbleHealthActivityOverlayDao.Properties.DeviceId.eq(device.getId()), PebbleHealthActivityOverlayDao.Properties.TimestampTo.ge(START))
+                .where(PebbleHealthActivityOverlayDao.Properties.TimestampFrom.le(END)).build().list();
+        List<PebbleHealthActivitySample> expected = daoSession.getPebbleHealthActivitySampleDao().queryBuilder()
+                .where(PebbleHealthActivitySampleDao.Properties.DeviceId.eq(device.getId()), PebbleHealthActivitySampleDao.Properties.Timestamp.ge(START))
+                .where(PebbleHealthActivitySampleDao.Properties.Timestamp.le(END))
+                .orderAsc(PebbleHealthActivitySampleDao.Properties.Timestamp).build().list();
+        for (PebbleHealthActivitySample sample : expected) {
+            for (PebbleHealthActivityOverlay overlay : overlays) {
+                if (overlay.getTimestampFrom() <= sample.getTimestamp() && sample.getTimestamp() < overlay.getTimestampTo()) {
+                    sample.setRawKind(overlay.getRawKind());
+                }
+            }
+        }
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+            assertEquals(expected.get(i).getRawKind(), actual.get(i).getRawKind());
+        }
+    }
+
+    private void insertHPlusData(User user, Device device) {
+        Random random = new Random(42);
+        List<HPlusHealthActivitySample> samples = new ArrayList<>();
+        for (int ts = START; ts < END; ts += 60) {
+            int heartRate = 50 + random.nextInt(50);
+            samples.add(new HPlusHealthActivitySample(ts, device.getId(), user.getId(), null, HPlusDataRecord.TYPE_REALTIME,
+                    random.nextInt(100), random.nextInt(3) == 0 ? random.nextInt(50) : 0, heartRate, 0, 0));
+            if ((ts - START) % 600 == 0) {
+                samples.add(new HPlusHealthActivitySample(ts, device.getId(), user.getId(), null, HPlusDataRecord.TYPE_DAY_SLOT,
+                        random.nextInt(100), random.nextInt(4) == 0 ? random.nextInt(500) : 0, heartRate, 0, 0));
+            }
+            if ((ts - START) % DAY == 0) {
+                samples.add(new HPlusHealthActivitySample(ts, device.getId(), user.getId(), null, HPlusDataRecord.TYPE_DAY_SUMMARY,
+                        0, 5000 + random.nextInt(5000), ActivitySample.NOT_MEASURED, 0, 0));
+            }
+        }
+        daoSession.getHPlusHealthActivitySampleDao().insertInTx(samples);
+
+        List<HPlusHealthActivityOverlay> overlays = new ArrayList<>();
+        for (int night = START + 22 * 3600; night < END; night += DAY) {
+            int ts = night;
+            while (ts < night + 9 * 3600) {
+                int length = 60 * (3 + random.nextInt(30));
+                int kind = random.nextBoolean() ? ActivityKind.TYPE_LIGHT_SLEEP : ActivityKind.TYPE_DEEP_SLEEP;
+                overlays.add(new HPlusHealthActivityOverlay(ts, ts + length, kind, device.getId(), user.getId(), null));
+                if (random.nextInt(20) == 0) {
+                    overlays.add(new HPlusHealthActivityOverlay(ts + length / 2, ts + length * 2, ActivityKind.TYPE_NOT_WORN, device.getId(), user.getId(), null));
+                }
+                ts += length;
+            }
+        }
+        Collections.shuffle(overlays, random);
+        daoSession.getHPlusHealthActivityOverlayDao().insertInTx(overlays);
+        daoSession.clear();
+    }
+
+    private void insertPebbleData(User user, Device device) {
+        Random random = new Random(42);
+        List<PebbleHealthActivitySample> samples = new ArrayList<>();
+        for (int ts = START; ts < END; ts += 60) {
+            samples.add(new PebbleHealthActivitySample(ts, device.getId(), user.getId(), null, random.nextInt(100), random.nextInt(50), 60));
+        }
+        daoSession.getPebbleHealthActivitySampleDao().insertInTx(samples);
+
+        List<PebbleHealthActivityOverlay> overlays = new ArrayList<>();
+        for (int night = START + 22 * 3600; night < END; night += DAY) {
+            overlays.add(new PebbleHealthActivityOverlay(night, night + 9 * 3600, PebbleHealthSampleProvider.TYPE_LIGHT_SLEEP, device.getId(), user.getId(), null));
+            int ts = night;
+            while (ts < night + 9 * 3600) {
+                int length = 60 * (3 + random.nextInt(30));
+                if (random.nextBoolean()) {
+                    overlays.add(new PebbleHealthActivityOverlay(ts, ts + length, PebbleHealthSampleProvider.TYPE_DEEP_SLEEP, device.getId(), user.getId(), null));
+                }
+                ts += length;
+            }
+        }
+        Collections.shuffle(overlays, random);
+        daoSession.getPebbleHealthActivityOverlayDao().insertInTx(overlays);
+        daoSession.clear();
+    }
+
+    /**
+     * HPlusHealthSampleProvider#getAllActivitySamples() as it was before the sweep.
+     */
+    private List<HPlusHealthActivitySample> getHPlusSamplesBruteForce(HPlusHealthSampleProvider provider, long deviceId, int timestamp_from, int timestamp_to) {
+        daoSession.clear();
+        List<HPlusHealthActivitySample> samples = daoSession.getHPlusHealthActivitySampleDao().queryBuilder()
+                .where(HPlusHealthActivitySampleDao.Properties.DeviceId.eq(deviceId), HPlusHealthActivitySampleDao.Properties.Timestamp.ge(timestamp_from))
+                .where(HPlusHealthActivitySampleDao.Properties.Timestamp.le(timestamp_to))
+                .orderAsc(HPlusHealthActivitySampleDao.Properties.Timestamp).build().list();
+        List<HPlusHealthActivityOverlay> overlayRecords = daoSession.getHPlusHealthActivityOverlayDao().queryBuilder()
+                .where(HPlusHealthActivityOverlayDao.Properties.DeviceId.eq(deviceId),
+                        HPlusHealthActivityOverlayDao.Properties.TimestampFrom.ge(timestamp_from - 3600 * 24),
+                        HPlusHealthActivityOverlayDao.Properties.TimestampTo.le(timestamp_to),
+                        HPlusHealthActivityOverlayDao.Properties.TimestampTo.ge(timestamp_from)).build().list();
+
+        for (HPlusHealthActivityOverlay overlay : overlayRecords) {
+            insertVirtualItem(provider, samples, Math.max(overlay.getTimestampFrom() - 1, timestamp_from), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(provider, samples, Math.max(overlay.getTimestampFrom(), timestamp_from), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(provider, samples, Math.min(overlay.getTimestampTo() - 1, timestamp_to - 1), overlay.getDeviceId(), overlay.getUserId());
+            insertVirtualItem(provider, samples, Math.min(overlay.getTimestampTo(), timestamp_to), overlay.getDeviceId(), overlay.getUserId());
+        }
+
+        Collections.sort(samples, new Comparator<HPlusHealthActivitySample>() {
+            public int compare(HPlusHealthActivitySample one, HPlusHealthActivitySample other) {
+                return one.getTimestamp() - other.getTimestamp();
+            }
+        });
+
+        for (HPlusHealthActivityOverlay overlay : overlayRecords) {
+            long nonSleepTimeEnd = 0;
+            for (HPlusHealthActivitySample sample : samples) {
+                if (sample.getRawKind() == ActivityKind.TYPE_NOT_WORN)
+                    continue;
+
+                if (sample.getTimestamp() >= overlay.getTimestampFrom() && sample.getTimestamp() < overlay.getTimestampTo()) {
+                    if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN || overlay.getRawKind() == ActivityKind.TYPE_LIGHT_SLEEP || overlay.getRawKind() == ActivityKind.TYPE_DEEP_SLEEP) {
+                        if (sample.getRawKind() == HPlusDataRecord.TYPE_DAY_SLOT && sample.getSteps() > 0){
+                            nonSleepTimeEnd = sample.getTimestamp() + 10 * 60; // 10 minutes
+                            continue;
+                        }else if(sample.getRawKind() == HPlusDataRecord.TYPE_REALTIME && sample.getTimestamp() <= nonSleepTimeEnd){
+                            continue;
+                        }
+
+                        if (overlay.getRawKind() == ActivityKind.TYPE_NOT_WORN)
+                            sample.setHeartRate(0);
+
+                        if (sample.getRawKind() != ActivityKind.TYPE_NOT_WORN)
+                            sample.setRawKind(overlay.getRawKind());
+
+                        sample.setRawIntensity(10);
+                    }
+                }
+            }
+        }
+
+        Calendar today = GregorianCalendar.getInstance();
+        today.set(Calendar.HOUR_OF_DAY, 0);
+        today.set(Calendar.MINUTE, 0);
+        today.set(Calendar.SECOND, 0);
+        today.set(Calendar.MILLISECOND, 0);
+
+        int stepsTodayMax = 0;
+        int stepsTodayCount = 0;
+        HPlusHealthActivitySample lastSample = null;
+
+        for (HPlusHealthActivitySample sample: samples) {
+            if (sample.getTimestamp() >= today.getTimeInMillis() / 1000) {
+                if(sample.getRawKind() == HPlusDataRecord.TYPE_REALTIME) {
+                    stepsTodayMax = Math.max(stepsTodayMax, sample.getSteps());
+                }else if(sample.getRawKind() == HPlusDataRecord.TYPE_DAY_SLOT) {
+                    stepsTodayCount += sample.getSteps();
+                }
+
+                sample.setSteps(ActivitySample.NOT_MEASURED);
+                lastSample = sample;
+            } else {
+                if (sample.getRawKind() != HPlusDataRecord.TYPE_DAY_SUMMARY) {
+                    sample.setSteps(ActivitySample.NOT_MEASURED);
+                }
+            }
+        }
+
+        if(lastSample != null)
+            lastSample.setSteps(Math.max(stepsTodayCount, stepsTodayMax));
+
+        daoSession.clear();
+        return samples;
+    }
+
+    private void insertVirtualItem(HPlusHealthSampleProvider provider, List<HPlusHealthActivitySample> samples, int timestamp, long deviceId, long userId) {
+        HPlusHealthActivitySample sample = new HPlusHealthActivitySample(timestamp, deviceId, userId, null, ActivityKind.TYPE_UNKNOWN, 1,
+                ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED, ActivitySample.NOT_MEASURED);
+        sample.setProvider(provider);
+        samples.add(sample);
+    }
+}
@@ -1,11 +1,14 @@
 package nodomain.freeyourgadget.gadgetbridge.database;
 
+import android.database.sqlite.SQLiteDatabase;
+
 import org.junit.Test;
 
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.List;
 
+import nodomain.freeyourgadget.gadgetbridge.GBApplication;
 import nodomain.freeyourgadget.gadgetbridge.entities.ActivityDescription;
 import nodomain.freeyourgadget.gadgetbridge.entities.ActivityDescriptionDao;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
@@ -21,6 +24,7 @@ import nodomain.freeyourgadget.gadgetbridge.model.DeviceType;
 import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -202,4 +206,70 @@ public class EntitiesTest extends TestBase {
 
         assertEquals("2.0", DBHelper.getDeviceAttributes(deviceNew).getFirmwareVersion1());
     }
+
+    @Test
+    public void testReadWhileWriting() throws Exception {
+        User user = new User();
+        user.setName("Reader");
+        user.setGender(ActivityUser.GENDER_MALE);
+        userDao.insert(user);
+
+        // this thread holds the writer lane (see TestBase), readers must not wait for it
+        final long[] readCount = new long[] { -1 };
+        final boolean[] writerBusy = new boolean[1];
+        final Exception[] readError = new Exception[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (DBHandler readHandler = GBApplication.acquireReadDB()) {
+                    readCount[0] = readHandler.getDaoSession().getUserDao().count();
+                    writerBusy[0] = GBApplication.tryAcquireWriteDB() == null;
+                } catch (Exception e) {
+                    readError[0] = e;
+                }
+            }
+        });
+        reader.start();
+        reader.join(5000);
+
+        assertNull(readError[0]);
+        assertEquals(userDao.count(), readCount[0]);
+        assertTrue(writerBusy[0]);
+    }
+
+    @Test
+    public void testReaderClosesDb() throws Exception {
+        DBHandler readHandler = GBApplication.acquireReadDB();
+        SQLiteDatabase db = readHandler.getDatabase();
+        readHandler.closeDb();
+        assertFalse(db.isOpen());
+
+        readHandler.openDb();
+        assertTrue(readHandler.getDatabase().isOpen());
+        assertEquals(0, readHandler.getDaoSession().getUserDao().queryBuilder()
+                .where(UserDao.Properties.Name.eq("nobody")).count());
+        readHandler.close();
+    }
+
+    @Test
+    public void testCachedIds() {
+        GBDevice dummyGBDevice = createDummyGDevice("00:00:00:00:03");
+        assertNull(DBHelper.findDeviceId(dummyGBDevice, daoSession));
+
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+        long hits = EntityIdCache.getDeviceHits();
+        assertEquals(device.getId(), DBHelper.findDeviceId(dummyGBDevice, daoSession));
+        assertEquals(device.getId().longValue(), DBHelper.getDeviceId(dummyGBDevice, daoSession));
+        assertEquals(hits + 2, EntityIdCache.getDeviceHits());
+
+        User user = DBHelper.getUser(daoSession);
+        hits = EntityIdCache.getUserHits();
+        assertEquals(user.getId().longValue(), DBHelper.getUserId(daoSession));
+        assertEquals(hits + 1, EntityIdCache.getUserHits());
+
+        EntityIdCache.invalidateDevice(dummyGBDevice.getAddress());
+        long misses = EntityIdCache.getDeviceMisses();
+        assertEquals(device.getId(), DBHelper.findDeviceId(dummyGBDevice, daoSession));
+        assertEquals(misses + 1, EntityIdCache.getDeviceMisses());
+    }
 }
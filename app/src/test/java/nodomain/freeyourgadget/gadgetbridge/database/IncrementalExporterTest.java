@@ -0,0 +1,99 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.DaoMaster;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalExporterTest extends TestBase {
+    private static final int START = 1500000000;
+
+    @Test
+    public void testChunksReplay() throws Exception {
+        GBDevice gbDevice = createDummyGDevice("00:00:00:00:20");
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(gbDevice, daoSession);
+        MiBandActivitySampleDao dao = daoSession.getMiBandActivitySampleDao();
+        for (int i = 0; i < 100; i++) {
+            dao.insert(new MiBandActivitySample(START + i * 60, device.getId(), user.getId(), 20, i, MiBandSampleProvider.TYPE_ACTIVITY, 60));
+        }
+
+        SQLiteDatabase db = daoSession.getDatabase();
+        // the restored database, as if created from a base written now
+        SQLiteDatabase restored = SQLiteDatabase.create(null);
+        DaoMaster.createAllTables(restored, false);
+        restored.setVersion(db.getVersion());
+        copyTable(db, restored, "USER");
+        copyTable(db, restored, "DEVICE");
+        copyTable(db, restored, MiBandActivitySampleDao.TABLENAME);
+
+        File dir = new File(System.getProperty("java.io.tmpdir"), "gb-incremental-test-" + System.nanoTime());
+        assertTrue(dir.mkdirs());
+        try {
+            IncrementalExporter.startTracking(db);
+            assertTrue(IncrementalExporter.isTracking(db));
+            assertNull(IncrementalExporter.writeChunk(db, dir));
+
+            // change two hours, delete within a third one
+            dao.insertOrReplace(new MiBandActivitySample(START, device.getId(), user.getId(), 20, 1000, MiBandSampleProvider.TYPE_DEEP_SLEEP, 60));
+            dao.insert(new MiBandActivitySample(START + 3 * 3600, device.getId(), user.getId(), 20, 5, MiBandSampleProvider.TYPE_ACTIVITY, 60));
+            db.delete(MiBandActivitySampleDao.TABLENAME, "TIMESTAMP=?", new String[] { String.valueOf(START + 90 * 60) });
+            File chunk = IncrementalExporter.writeChunk(db, dir);
+            assertNotNull(chunk);
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, IncrementalExporter.CHANGE_TABLE));
+
+            dao.insert(new MiBandActivitySample(START + 4 * 3600, device.getId(), user.getId(), 20, 7, MiBandSampleProvider.TYPE_ACTIVITY, 60));
+            assertNotNull(IncrementalExporter.writeChunk(db, dir));
+            assertEquals(2, IncrementalExporter.getChunkFiles(dir).length);
+
+            IncrementalExporter.replayChunks(restored, dir);
+            assertEquals(DatabaseUtils.queryNumEntries(db, MiBandActivitySampleDao.TABLENAME),
+                    DatabaseUtils.queryNumEntries(restored, MiBandActivitySampleDao.TABLENAME));
+            assertEquals(1000, DatabaseUtils.longForQuery(restored, "SELECT STEPS FROM " + MiBandActivitySampleDao.TABLENAME
+                    + " WHERE TIMESTAMP=?", new String[] { String.valueOf(START) }));
+            assertEquals(0, DatabaseUtils.queryNumEntries(restored, MiBandActivitySampleDao.TABLENAME,
+                    "TIMESTAMP=?", new String[] { String.valueOf(START + 90 * 60) }));
+
+            IncrementalExporter.stopTracking(db);
+            assertFalse(IncrementalExporter.isTracking(db));
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+            restored.close();
+        }
+    }
+
+    private void copyTable(SQLiteDatabase from, SQLiteDatabase to, String table) {
+        Cursor cursor = from.rawQuery("SELECT * FROM " + table, null);
+        try {
+            while (cursor.moveToNext()) {
+                ContentValues values = new ContentValues();
+                DatabaseUtils.cursorRowToContentValues(cursor, values);
+                to.insert(table, null, values);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -2,20 +2,27 @@ package nodomain.freeyourgadget.gadgetbridge.database;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.ActivityAnalysis;
 import nodomain.freeyourgadget.gadgetbridge.devices.SampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.devices.SampleVisitor;
 import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
 import nodomain.freeyourgadget.gadgetbridge.entities.AbstractActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.Device;
 import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
 import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.entities.ActivityHourRollupDao;
 import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmount;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityAmounts;
 import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
 import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
@@ -169,5 +176,74 @@ public class SampleProviderTest extends TestBase {
         assertEquals(1, activitySamples.size());
         sleepSamples = sampleProvider.getSleepSamples(1500, 2500);
         assertEquals(1, sleepSamples.size());
+
+        // streaming access must deliver the same samples in the same order
+        final List<MiBandActivitySample> visitedSamples = new ArrayList<>();
+        sampleProvider.visitAllActivitySamples(0, 1300, new SampleVisitor<MiBandActivitySample>() {
+            @Override
+            public void visit(MiBandActivitySample sample) {
+                visitedSamples.add(sample);
+            }
+        });
+        allSamples = sampleProvider.getAllActivitySamples(0, 1300);
+        assertEquals(allSamples.size(), visitedSamples.size());
+        for (int i = 0; i < allSamples.size(); i++) {
+            assertEquals(allSamples.get(i).getTimestamp(), visitedSamples.get(i).getTimestamp());
+            assertEquals(allSamples.get(i).getKind(), visitedSamples.get(i).getKind());
+        }
+    }
+
+    @Test
+    public void testActivityAmountsFromRollups() {
+        MiBandSampleProvider sampleProvider = new MiBandSampleProvider(dummyGBDevice, daoSession);
+        User user = DBHelper.getUser(daoSession);
+        Device device = DBHelper.getDevice(dummyGBDevice, daoSession);
+
+        int start = 1500000000;
+        int[] rawKinds = new int[] { MiBandSampleProvider.TYPE_ACTIVITY, MiBandSampleProvider.TYPE_LIGHT_SLEEP,
+                MiBandSampleProvider.TYPE_DEEP_SLEEP, MiBandSampleProvider.TYPE_NONWEAR };
+        MiBandActivitySample[] samples = new MiBandActivitySample[600];
+        for (int i = 0; i < samples.length; i++) {
+            int rawKind = rawKinds[(i / 37) % rawKinds.length];
+            samples[i] = createSample(sampleProvider, rawKind, start + i * 60 + (i % 3) * 7, 10, 60 + i % 40, i % 11, user, device);
+        }
+        sampleProvider.addGBActivitySamples(samples);
+
+        ActivityHourRollupDao rollupDao = daoSession.getActivityHourRollupDao();
+        assertTrue(rollupDao.count() > 0);
+
+        int[][] ranges = new int[][] {
+                { start, start + 36000 },
+                { start - 3600, start + 7199 },
+                { start + 1234, start + 20000 },
+                { start + 100, start + 200 },
+        };
+        for (int[] range : ranges) {
+            ActivityAmounts expected = new ActivityAnalysis().calculateActivityAmounts(sampleProvider.getAllActivitySamples(range[0], range[1]));
+            assertAmountsEqual(expected, sampleProvider.getActivityAmounts(range[0], range[1]));
+        }
+        // memoized until samples of the range change
+        ActivityAmounts memoized = sampleProvider.getActivityAmounts(start, start + 36000);
+        assertSame(memoized, sampleProvider.getActivityAmounts(start, start + 36000));
+
+        // overwrite a sample in the middle, the rollups must follow
+        MiBandActivitySample changed = createSample(sampleProvider, MiBandSampleProvider.TYPE_DEEP_SLEEP, samples[300].getTimestamp(), 10, 70, 500, user, device);
+        sampleProvider.addGBActivitySample(changed);
+        ActivityAmounts expected = new ActivityAnalysis().calculateActivityAmounts(sampleProvider.getAllActivitySamples(start, start + 36000));
+        assertAmountsEqual(expected, sampleProvider.getActivityAmounts(start, start + 36000));
+        assertNotSame(memoized, sampleProvider.getActivityAmounts(start, start + 36000));
+    }
+
+    private void assertAmountsEqual(ActivityAmounts expected, ActivityAmounts actual) {
+        assertEquals(expected.getAmounts().size(), actual.getAmounts().size());
+        assertEquals(expected.getTotalSeconds(), actual.getTotalSeconds());
+        for (int i = 0; i < expected.getAmounts().size(); i++) {
+            ActivityAmount expectedAmount = expected.getAmounts().get(i);
+            ActivityAmount actualAmount = actual.getAmounts().get(i);
+            assertEquals(expectedAmount.getActivityKind(), actualAmount.getActivityKind());
+            assertEquals(expectedAmount.getTotalSeconds(), actualAmount.getTotalSeconds());
+            assertEquals(expectedAmount.getTotalSteps(), actualAmount.getTotalSteps());
+            assertEquals(expectedAmount.getPercent(), actualAmount.getPercent());
+        }
     }
 }
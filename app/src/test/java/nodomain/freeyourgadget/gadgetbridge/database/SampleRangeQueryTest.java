@@ -0,0 +1,103 @@
+package nodomain.freeyourgadget.gadgetbridge.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nodomain.freeyourgadget.gadgetbridge.database.schema.GadgetbridgeUpdate_24;
+import nodomain.freeyourgadget.gadgetbridge.devices.miband.MiBandSampleProvider;
+import nodomain.freeyourgadget.gadgetbridge.entities.Device;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySample;
+import nodomain.freeyourgadget.gadgetbridge.entities.MiBandActivitySampleDao;
+import nodomain.freeyourgadget.gadgetbridge.entities.User;
+import nodomain.freeyourgadget.gadgetbridge.impl.GBDevice;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks per device range queries against two years of samples of two devices,
+ * with and without the (DEVICE_ID, TIMESTAMP) index.
+ * The data is generated with one sample every 15 minutes instead of every minute
+ * to keep the test reasonably fast.
+ */
+public class SampleRangeQueryTest extends TestBase {
+    private static final int SAMPLE_INTERVAL = 15 * 60;
+    private static final int YEARS = 2;
+    private static final int START = 1500000000;
+    private static final int END = START + YEARS * 365 * 24 * 60 * 60;
+    private static final int WEEK = 7 * 24 * 60 * 60;
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void testRangeQueries() {
+        GBDevice gbDevice1 = createDummyGDevice("00:00:00:00:01");
+        GBDevice gbDevice2 = createDummyGDevice("00:00:00:00:02");
+        User user = DBHelper.getUser(daoSession);
+        Device device1 = DBHelper.getDevice(gbDevice1, daoSession);
+        Device device2 = DBHelper.getDevice(gbDevice2, daoSession);
+        insertSamples(user, device1);
+        insertSamples(user, device2);
+
+        SQLiteDatabase db = daoSession.getDatabase();
+        GadgetbridgeUpdate_24 update = new GadgetbridgeUpdate_24();
+        update.upgradeSchema(db);
+
+        String plan = getQueryPlan(db, device2.getId());
+        assertTrue(plan, plan.contains("DEVICE_ID=? AND TIMESTAMP>"));
+
+        MiBandSampleProvider provider = new MiBandSampleProvider(gbDevice2, daoSession);
+        runQueries(provider);
+
+        update.downgradeSchema(db);
+        runQueries(provider);
+        update.upgradeSchema(db);
+    }
+
+    private void insertSamples(User user, Device device) {
+        MiBandActivitySampleDao dao = daoSession.getMiBandActivitySampleDao();
+        List<MiBandActivitySample> samples = new ArrayList<>();
+        int i = 0;
+        for (int ts = START; ts < END; ts += SAMPLE_INTERVAL) {
+            int rawKind = (i++ % 96) < 32 ? MiBandSampleProvider.TYPE_LIGHT_SLEEP : MiBandSampleProvider.TYPE_ACTIVITY;
+            samples.add(new MiBandActivitySample(ts, device.getId(), user.getId(), 20, 10, rawKind, 60));
+            if (samples.size() == 10000) {
+                dao.insertInTx(samples);
+                samples.clear();
+            }
+        }
+        dao.insertInTx(samples);
+        dao.detachAll();
+    }
+
+    private void runQueries(MiBandSampleProvider provider) {
+        int expected = WEEK / SAMPLE_INTERVAL;
+        for (int round = 0; round < ROUNDS; round++) {
+            int from = START + round * WEEK;
+            assertEquals(expected, provider.getAllActivitySamples(from, from + WEEK - 1).size());
+            assertEquals(expected / 3, provider.getSleepSamples(from, from + WEEK - 1).size());
+            provider.getSampleDao().detachAll();
+        }
+    }
+
+    private String getQueryPlan(SQLiteDatabase db, long deviceId) {
+        String sql = "EXPLAIN QUERY PLAN SELECT * FROM " + MiBandActivitySampleDao.TABLENAME
+                + " WHERE DEVICE_ID=? AND TIMESTAMP>=? AND TIMESTAMP<=? AND RAW_KIND IN (?,?)";
+        String[] args = new String[] {
+                String.valueOf(deviceId), String.valueOf(START), String.valueOf(START + WEEK),
+                String.valueOf(MiBandSampleProvider.TYPE_LIGHT_SLEEP), String.valueOf(MiBandSampleProvider.TYPE_DEEP_SLEEP)
+        };
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = db.rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+}
@@ -0,0 +1,94 @@
+package nodomain.freeyourgadget.gadgetbridge.externalevents;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import nodomain.freeyourgadget.gadgetbridge.devices.pebble.PebbleColor;
+import nodomain.freeyourgadget.gadgetbridge.model.NotificationType;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AppMetadataCacheTest extends TestBase {
+    private static final String GMAIL = "com.google.android.gm";
+    private static final String UNKNOWN = "com.example.unknown";
+
+    private PackageManager pm;
+    private AppMetadataCache cache;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        pm = Mockito.mock(PackageManager.class);
+        Mockito.when(pm.getApplicationInfo(GMAIL, 0)).thenReturn(new ApplicationInfo());
+        Mockito.when(pm.getApplicationLabel(Mockito.any(ApplicationInfo.class))).thenReturn("Gmail");
+        Mockito.when(pm.getApplicationInfo(UNKNOWN, 0)).thenThrow(new PackageManager.NameNotFoundException());
+        Mockito.when(pm.getApplicationIcon(UNKNOWN)).thenThrow(new PackageManager.NameNotFoundException());
+        Context context = Mockito.mock(Context.class);
+        Mockito.when(context.getPackageManager()).thenReturn(pm);
+        cache = new AppMetadataCache(context);
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        AppMetadataCache.AppMetadata metadata = cache.get(GMAIL);
+        assertEquals("Gmail", metadata.getLabel());
+        assertEquals(NotificationType.GMAIL, metadata.getType());
+        assertEquals(NotificationType.GMAIL.color, metadata.getPebbleColor());
+
+        AppMetadataCache.AppMetadata unknown = cache.get(UNKNOWN);
+        assertNull(unknown.getLabel());
+        assertEquals(NotificationType.UNKNOWN, unknown.getType());
+        assertEquals(PebbleColor.IslamicGreen, unknown.getPebbleColor());
+
+        assertSame(metadata, cache.get(GMAIL));
+        Mockito.verify(pm, Mockito.times(1)).getApplicationInfo(GMAIL, 0);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        AppMetadataCache.AppMetadata metadata = cache.get(GMAIL);
+        cache.invalidate(GMAIL);
+        assertNotSame(metadata, cache.get(GMAIL));
+        Mockito.verify(pm, Mockito.times(2)).getApplicationInfo(GMAIL, 0);
+
+        metadata = cache.get(GMAIL);
+        cache.invalidateAll();
+        assertNotSame(metadata, cache.get(GMAIL));
+        Mockito.verify(pm, Mockito.times(3)).getApplicationInfo(GMAIL, 0);
+    }
+
+    @Test
+    public void testInvalidateWhileLoading() throws Exception {
+        // the package is replaced while it is being looked up
+        Mockito.when(pm.getApplicationLabel(Mockito.any(ApplicationInfo.class))).thenAnswer(new Answer<CharSequence>() {
+            @Override
+            public CharSequence answer(InvocationOnMock invocation) {
+                cache.invalidate(GMAIL);
+                return "Gmail";
+            }
+        });
+        cache.get(GMAIL);
+        cache.get(GMAIL);
+        Mockito.verify(pm, Mockito.times(2)).getApplicationInfo(GMAIL, 0);
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        cache.get(GMAIL);
+        for (int i = 0; i < AppMetadataCache.MAX_ENTRIES; i++) {
+            cache.get(UNKNOWN + i);
+        }
+        cache.get(GMAIL);
+        Mockito.verify(pm, Mockito.times(2)).getApplicationInfo(GMAIL, 0);
+    }
+}
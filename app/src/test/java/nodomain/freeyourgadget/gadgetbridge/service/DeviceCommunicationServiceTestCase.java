@@ -22,9 +22,11 @@ import static org.junit.Assert.assertTrue;
 
 public class DeviceCommunicationServiceTestCase extends TestBase {
     private static final java.lang.String TEST_DEVICE_ADDRESS = TestDeviceSupport.class.getName();
+    private static final java.lang.String SECOND_TEST_DEVICE_ADDRESS = TEST_DEVICE_ADDRESS + ".second";
 
     /**
-     * Factory that always returns the mockSupport instance
+     * Factory that returns the secondMockSupport instance for the second device and the
+     * mockSupport instance otherwise
      */
     private class TestDeviceSupportFactory extends DeviceSupportFactory {
         TestDeviceSupportFactory(Context context) {
@@ -33,6 +35,9 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
 
         @Override
         public synchronized DeviceSupport createDeviceSupport(GBDevice device) throws GBException {
+            if (SECOND_TEST_DEVICE_ADDRESS.equals(device.getAddress())) {
+                return secondMockSupport;
+            }
             return mockSupport;
         }
     }
@@ -41,6 +46,7 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
     @Mock
     private TestDeviceSupport realSupport;
     private TestDeviceSupport mockSupport;
+    private TestDeviceSupport secondMockSupport;
 
     public DeviceCommunicationServiceTestCase() {
         super();
@@ -53,6 +59,9 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
         realSupport = new TestDeviceSupport();
         realSupport.setContext(new GBDevice(TEST_DEVICE_ADDRESS, "Test Device", DeviceType.TEST), null, getContext());
         mockSupport = Mockito.spy(realSupport);
+        TestDeviceSupport secondRealSupport = new TestDeviceSupport();
+        secondRealSupport.setContext(new GBDevice(SECOND_TEST_DEVICE_ADDRESS, "Second Test Device", DeviceType.TEST), null, getContext());
+        secondMockSupport = Mockito.spy(secondRealSupport);
         DeviceCommunicationService.setDeviceSupportFactory(new TestDeviceSupportFactory(getContext()));
 
         mDeviceService = new TestDeviceService(getContext());
@@ -102,6 +111,61 @@ public class DeviceCommunicationServiceTestCase extends TestBase {
         inOrder.verifyNoMoreInteractions();
     }
 
+    @Test
+    public void testMultipleDevices() {
+        ensureConnected();
+        GBDevice secondDevice = secondMockSupport.getDevice();
+        mDeviceService.connect(secondDevice);
+        Mockito.verify(secondMockSupport, Mockito.times(1)).connect();
+        assertTrue(getDevice().isInitialized());
+        assertTrue(secondDevice.isInitialized());
+
+        // the time is set on all devices, other commands go to the most recently connected one
+        mDeviceService.onSetTime();
+        mDeviceService.onFindDevice(true);
+        Mockito.verify(mockSupport, Mockito.times(1)).onSetTime();
+        Mockito.verify(secondMockSupport, Mockito.times(1)).onSetTime();
+        Mockito.verify(mockSupport, Mockito.never()).onFindDevice(true);
+        Mockito.verify(secondMockSupport, Mockito.times(1)).onFindDevice(true);
+
+        mDeviceService.disconnect(secondDevice);
+        Mockito.verify(secondMockSupport, Mockito.times(1)).dispose();
+        Mockito.verify(mockSupport, Mockito.never()).dispose();
+
+        mDeviceService.onFindDevice(false);
+        Mockito.verify(mockSupport, Mockito.times(1)).onFindDevice(false);
+        Mockito.verify(secondMockSupport, Mockito.never()).onFindDevice(false);
+    }
+
+    @Test
+    public void testCommandsToInitializedDevice() {
+        ensureConnected();
+        GBDevice secondDevice = secondMockSupport.getDevice();
+        mDeviceService.connect(secondDevice);
+        assertTrue(secondDevice.isInitialized());
+
+        // the most recently connected device lost its connection, the other one takes over
+        secondDevice.setState(GBDevice.State.WAITING_FOR_RECONNECT);
+        secondDevice.sendDeviceUpdateIntent(getContext());
+        mDeviceService.onFindDevice(true);
+        Mockito.verify(mockSupport, Mockito.times(1)).onFindDevice(true);
+        Mockito.verify(secondMockSupport, Mockito.never()).onFindDevice(true);
+    }
+
+    @Test
+    public void testUpdateOfReplacedSupportIgnored() {
+        ensureConnected();
+
+        // what a DeviceSupport that is still being disposed after a reconnect would send
+        GBDevice replaced = new GBDevice(TEST_DEVICE_ADDRESS, "Test Device", DeviceType.TEST);
+        replaced.setState(GBDevice.State.NOT_CONNECTED);
+        replaced.sendDeviceUpdateIntent(getContext());
+
+        assertTrue(getDevice().isInitialized());
+        mDeviceService.onFindDevice(true);
+        Mockito.verify(mockSupport, Mockito.times(1)).onFindDevice(true);
+    }
+
     @Test
     public void testTransliterationSupport() {
         SharedPreferences settings = GBApplication.getPrefs().getPreferences();
@@ -0,0 +1,121 @@
+package nodomain.freeyourgadget.gadgetbridge.service.btle.profiles.uart;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UartLoopbackTest extends TestBase {
+    private static final int LINES = 20000;
+
+    @Test
+    public void testSplitCharacters() {
+        byte[] bytes = "{\"t\":\"notify\",\"body\":\"Grüße 😀\"}\r\n".getBytes(StandardCharsets.UTF_8);
+        UartRxBuffer rx = new UartRxBuffer();
+        for (byte b : bytes) {
+            assertNull(rx.nextLine());
+            rx.add(new byte[] {b});
+        }
+        assertEquals("{\"t\":\"notify\",\"body\":\"Grüße 😀\"}", rx.nextLine());
+        assertNull(rx.nextLine());
+        assertEquals(0, rx.size());
+    }
+
+    @Test
+    public void testCoalescing() {
+        UartTxBuffer tx = new UartTxBuffer();
+        tx.add(new byte[] {' ', 3});
+        tx.add(new byte[30]);
+        assertEquals(20, tx.nextPacket().length);
+        assertEquals(12, tx.nextPacket().length);
+        assertNull(tx.nextPacket());
+
+        tx.setMtu(131);
+        tx.add(new byte[300]);
+        assertEquals(128, tx.nextPacket().length);
+        assertEquals(128, tx.nextPacket().length);
+        assertEquals(44, tx.nextPacket().length);
+        assertNull(tx.nextPacket());
+    }
+
+    @Test
+    public void testLoopback() {
+        List<String> lines = createLines();
+        for (int mtu : new int[] {UartTxBuffer.DEFAULT_MTU, 131, 517}) {
+            loopback(lines, mtu);
+        }
+    }
+
+    private void loopback(List<String> lines, int mtu) {
+        UartTxBuffer tx = new UartTxBuffer();
+        tx.setMtu(mtu);
+        UartRxBuffer rx = new UartRxBuffer();
+        long sent = 0;
+        long bytes = 0;
+        int received = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            byte[] encoded = (lines.get(i) + "\n").getBytes(StandardCharsets.UTF_8);
+            sent += encoded.length;
+            tx.add(encoded);
+            // flush once in a while, like a transaction
+            if (i % 10 == 9 || i == lines.size() - 1) {
+                byte[] packet;
+                while ((packet = tx.nextPacket()) != null) {
+                    assertTrue(packet.length <= mtu - 3);
+                    bytes += packet.length;
+                    rx.add(packet);
+                    String line;
+                    while ((line = rx.nextLine()) != null) {
+                        assertEquals(lines.get(received++), line);
+                    }
+                }
+            }
+        }
+        assertEquals(lines.size(), received);
+        assertEquals(0, rx.size());
+        assertEquals(0, tx.size());
+        assertEquals(sent, bytes);
+    }
+
+    @Test
+    public void testLongLine() {
+        byte[] bytes = new byte[100000];
+        new Random(42).nextBytes(bytes);
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ('a' + (bytes[i] & 0xf));
+        }
+        UartTxBuffer tx = new UartTxBuffer();
+        tx.add(bytes);
+        tx.add(new byte[] {'\n'});
+        UartRxBuffer rx = new UartRxBuffer();
+        byte[] packet;
+        while ((packet = tx.nextPacket()) != null) {
+            rx.add(packet);
+        }
+        assertArrayEquals(bytes, rx.nextLine().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> createLines() {
+        Random random = new Random(42);
+        String[] words = {"GB", "notify", "Grüße", "€", "😀", "{\"t\":\"act\",\"hrm\":72}", "ÿ"};
+        List<String> lines = new ArrayList<>(LINES);
+        for (int i = 0; i < LINES; i++) {
+            StringBuilder line = new StringBuilder();
+            int count = random.nextInt(30);
+            for (int j = 0; j < count; j++) {
+                line.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,116 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.huami.operations;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FirmwareChunkStreamerTest extends TestBase {
+    private static final int SYNC_INTERVAL = 100;
+    private static final byte[] SYNC = new byte[0];
+
+    @Test
+    public void testSameWritesAsBefore() {
+        Random random = new Random(42);
+        for (int size : new int[] {1, 20, 2000, 2020, 2040, 100 * 20 + 1, 3 * 1024 * 1024 + 7}) {
+            for (int packetLength : new int[] {20, 244}) {
+                byte[] firmware = new byte[size];
+                random.nextBytes(firmware);
+                assertWrites(firmware, packetLength);
+            }
+        }
+    }
+
+    @Test
+    public void testBoundedBatches() {
+        byte[] firmware = new byte[3 * 1024 * 1024];
+        FirmwareChunkStreamer streamer = new FirmwareChunkStreamer(ByteBuffer.wrap(firmware), 244, SYNC_INTERVAL);
+        final int[] batchBytes = new int[1];
+        FirmwareChunkStreamer.Sink sink = new FirmwareChunkStreamer.Sink() {
+            @Override
+            public void onChunk(byte[] chunk) {
+                batchBytes[0] += chunk.length;
+            }
+
+            @Override
+            public void onSync() {
+            }
+        };
+        int lastPosition = 0;
+        while (streamer.nextBatch(sink)) {
+            assertTrue(batchBytes[0] <= (SYNC_INTERVAL + 1) * 244);
+            assertEquals(lastPosition + batchBytes[0], streamer.getPosition());
+            lastPosition = streamer.getPosition();
+            batchBytes[0] = 0;
+        }
+        assertTrue(streamer.isDone());
+        assertEquals(firmware.length, streamer.getPosition());
+        assertFalse(streamer.nextBatch(sink));
+    }
+
+    private static void assertWrites(byte[] firmware, int packetLength) {
+        FirmwareChunkStreamer streamer = new FirmwareChunkStreamer(ByteBuffer.wrap(firmware), packetLength, SYNC_INTERVAL);
+        final List<byte[]> writes = new ArrayList<>();
+        FirmwareChunkStreamer.Sink sink = new FirmwareChunkStreamer.Sink() {
+            @Override
+            public void onChunk(byte[] chunk) {
+                writes.add(chunk);
+            }
+
+            @Override
+            public void onSync() {
+                writes.add(SYNC);
+            }
+        };
+        while (streamer.nextBatch(sink)) {
+            // every batch ends with a sync
+            assertTrue(writes.get(writes.size() - 1) == SYNC);
+        }
+
+        List<byte[]> expected = expectedWrites(firmware, packetLength);
+        assertEquals(expected.size(), writes.size());
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int i = 0; i < writes.size(); i++) {
+            if (expected.get(i) == SYNC) {
+                assertTrue(writes.get(i) == SYNC);
+            } else {
+                assertArrayEquals(expected.get(i), writes.get(i));
+                data.write(writes.get(i), 0, writes.get(i).length);
+            }
+        }
+        assertArrayEquals(firmware, data.toByteArray());
+    }
+
+    /**
+     * The writes UpdateFirmwareOperation used to queue in a single transaction.
+     */
+    private static List<byte[]> expectedWrites(byte[] fwbytes, int packetLength) {
+        List<byte[]> writes = new ArrayList<>();
+        int len = fwbytes.length;
+        int packets = len / packetLength;
+        int firmwareProgress = 0;
+        for (int i = 0; i < packets; i++) {
+            writes.add(Arrays.copyOfRange(fwbytes, i * packetLength, i * packetLength + packetLength));
+            firmwareProgress += packetLength;
+            if ((i > 0) && (i % SYNC_INTERVAL == 0)) {
+                writes.add(SYNC);
+            }
+        }
+        if (firmwareProgress < len) {
+            writes.add(Arrays.copyOfRange(fwbytes, packets * packetLength, len));
+        }
+        writes.add(SYNC);
+        return writes;
+    }
+}
@@ -0,0 +1,148 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import android.util.Base64;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AppMessageDictionaryTest extends TestBase {
+    @Test
+    public void testParse() throws Exception {
+        byte[] message = createMessage();
+        AppMessageDictionary dict = new AppMessageDictionary();
+        ByteBuffer buf = ByteBuffer.wrap(message);
+        assertTrue(dict.parse(buf));
+        assertFalse(buf.hasRemaining());
+
+        assertEquals(5, dict.size());
+        assertEquals(200, dict.getUInt(dict.indexOf(1)));
+        assertEquals(-56, dict.getInt(dict.indexOf(1)));
+        assertEquals(-2, dict.getInt(dict.indexOf(2)));
+        assertEquals(0xfffffffeL, dict.getUInt(dict.indexOf(3)));
+        assertEquals("Gadgetbridge", dict.getString(dict.indexOf(4)));
+        assertArrayEquals(new byte[]{1, 2, 3}, dict.getBytes(dict.indexOf(5)));
+        assertEquals(0x0201, dict.getBuffer(dict.indexOf(5)).getShort());
+        assertEquals(-1, dict.indexOf(6));
+
+        assertEquals(decodeToJSONLegacy(ByteBuffer.wrap(message)), dict.toJSON());
+    }
+
+    @Test
+    public void testMalformed() {
+        byte[] message = createMessage();
+        AppMessageDictionary dict = new AppMessageDictionary();
+        assertFalse(dict.parse(ByteBuffer.wrap(message, 0, message.length - 1)));
+
+        message[1 + 4] = 9; // unknown type of the first entry
+        assertFalse(dict.parse(ByteBuffer.wrap(message)));
+    }
+
+    /**
+     * The dictionary is reused for every incoming message, so a second parse must
+     * not keep anything of the first one.
+     */
+    @Test
+    public void testReuse() throws Exception {
+        byte[] message = createMessage();
+        AppMessageDictionary dict = new AppMessageDictionary();
+        for (int i = 0; i < 2; i++) {
+            assertTrue(dict.parse(ByteBuffer.wrap(message)));
+            assertEquals(5, dict.size());
+            assertEquals(-56 - 2 - 2, dict.getInt(0) + dict.getInt(1) + dict.getInt(2));
+            assertEquals(decodeToJSONLegacy(ByteBuffer.wrap(message)), dict.toJSON());
+        }
+    }
+
+    private static byte[] createMessage() {
+        byte[] string = "Gadgetbridge".getBytes();
+        ByteBuffer buf = ByteBuffer.allocate(1 + 5 * 7 + 1 + 2 + 4 + string.length + 1 + 3);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        buf.put((byte) 5);
+        putHeader(buf, 1, PebbleProtocol.TYPE_UINT, 1);
+        buf.put((byte) 200);
+        putHeader(buf, 2, PebbleProtocol.TYPE_INT, 2);
+        buf.putShort((short) -2);
+        putHeader(buf, 3, PebbleProtocol.TYPE_UINT, 4);
+        buf.putInt(-2);
+        putHeader(buf, 4, PebbleProtocol.TYPE_CSTRING, string.length + 1);
+        buf.put(string);
+        buf.put((byte) 0);
+        putHeader(buf, 5, PebbleProtocol.TYPE_BYTEARRAY, 3);
+        buf.put(new byte[]{1, 2, 3});
+        return buf.array();
+    }
+
+    private static void putHeader(ByteBuffer buf, int key, byte type, int length) {
+        buf.putInt(key);
+        buf.put(type);
+        buf.putShort((short) length);
+    }
+
+    /**
+     * The decoding as it was done before the typed dictionary existed.
+     */
+    private static String decodeToJSONLegacy(ByteBuffer buf) throws Exception {
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        byte dictSize = buf.get();
+        JSONArray jsonArray = new JSONArray();
+        while (dictSize-- > 0) {
+            JSONObject jsonObject = new JSONObject();
+            Integer key = buf.getInt();
+            byte type = buf.get();
+            short length = buf.getShort();
+            jsonObject.put("key", key);
+            if (type == PebbleProtocol.TYPE_CSTRING) {
+                length--;
+            }
+            jsonObject.put("length", length);
+            switch (type) {
+                case PebbleProtocol.TYPE_UINT:
+                    jsonObject.put("type", "uint");
+                    if (length == 1) {
+                        jsonObject.put("value", buf.get() & 0xff);
+                    } else if (length == 2) {
+                        jsonObject.put("value", buf.getShort() & 0xffff);
+                    } else {
+                        jsonObject.put("value", buf.getInt() & 0xffffffffL);
+                    }
+                    break;
+                case PebbleProtocol.TYPE_INT:
+                    jsonObject.put("type", "int");
+                    if (length == 1) {
+                        jsonObject.put("value", buf.get());
+                    } else if (length == 2) {
+                        jsonObject.put("value", buf.getShort());
+                    } else {
+                        jsonObject.put("value", buf.getInt());
+                    }
+                    break;
+                case PebbleProtocol.TYPE_BYTEARRAY:
+                case PebbleProtocol.TYPE_CSTRING:
+                    byte[] bytes = new byte[length];
+                    buf.get(bytes);
+                    if (type == PebbleProtocol.TYPE_BYTEARRAY) {
+                        jsonObject.put("type", "bytes");
+                        jsonObject.put("value", new String(Base64.encode(bytes, Base64.NO_WRAP)));
+                    } else {
+                        jsonObject.put("type", "string");
+                        jsonObject.put("value", new String(bytes));
+                        buf.get();
+                    }
+                    break;
+            }
+            jsonArray.put(jsonObject);
+        }
+        return jsonArray.toString();
+    }
+}
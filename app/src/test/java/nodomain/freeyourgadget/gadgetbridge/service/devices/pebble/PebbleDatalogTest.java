@@ -0,0 +1,97 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEvent;
+import nodomain.freeyourgadget.gadgetbridge.deviceevents.GBDeviceEventSendBytes;
+import nodomain.freeyourgadget.gadgetbridge.entities.PebbleHealthActivityOverlayDao;
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PebbleDatalogTest extends TestBase {
+    private static final short ENDPOINT_DATALOG = 6778;
+    private static final byte DATALOG_OPENSESSION = 0x01;
+    private static final byte DATALOG_SENDDATA = 0x02;
+    private static final byte DATALOG_ACK = (byte) 0x85;
+    private static final byte SESSION_ID = 3;
+    private static final int TAG_OVERLAY = 84;
+    private static final short ITEM_SIZE = 20;
+    private static final int START = 1500000000;
+
+    @Test
+    public void testAckAfterStore() {
+        PebbleProtocol protocol = new PebbleProtocol(createDummyGDevice("00:00:00:00:40"));
+        PebbleHealthActivityOverlayDao overlayDao = daoSession.getPebbleHealthActivityOverlayDao();
+
+        assertReplies(protocol.decodeResponse(createOpenSession()), DATALOG_ACK, 1);
+
+        // records are buffered, no reply yet
+        assertReplies(protocol.decodeResponse(createSendData(START, START + 600)), DATALOG_ACK, 0);
+        assertReplies(protocol.decodeResponse(createSendData(START + 1200)), DATALOG_ACK, 0);
+        assertEquals(0, overlayDao.count());
+
+        // both messages are acknowledged after a single write
+        assertReplies(protocol.flushDatalog(), DATALOG_ACK, 2);
+        assertEquals(3, overlayDao.count());
+        assertNull(protocol.flushDatalog());
+    }
+
+    private static void assertReplies(GBDeviceEvent[] events, byte reply, int count) {
+        assertNotNull(events);
+        int replies = 0;
+        for (GBDeviceEvent event : events) {
+            if (event instanceof GBDeviceEventSendBytes) {
+                byte[] bytes = ((GBDeviceEventSendBytes) event).encodedBytes;
+                assertEquals(reply, bytes[PebbleFrameReader.HEADER_LENGTH]);
+                assertEquals(SESSION_ID, bytes[PebbleFrameReader.HEADER_LENGTH + 1]);
+                replies++;
+            }
+        }
+        assertEquals(count, replies);
+    }
+
+    private static byte[] createOpenSession() {
+        ByteBuffer buf = createMessage(2 + 16 + 4 + 4 + 1 + 2);
+        buf.put(DATALOG_OPENSESSION);
+        buf.put(SESSION_ID);
+        buf.putLong(0).putLong(0); // UUID_ZERO
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(START);
+        buf.putInt(TAG_OVERLAY);
+        buf.put((byte) 0);
+        buf.putShort(ITEM_SIZE);
+        return buf.array();
+    }
+
+    private static byte[] createSendData(int... starts) {
+        ByteBuffer buf = createMessage(2 + 4 + 4 + starts.length * ITEM_SIZE);
+        buf.put(DATALOG_SENDDATA);
+        buf.put(SESSION_ID);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(0); // items left
+        buf.putInt(0); // crc
+        for (int start : starts) {
+            buf.putShort((short) 1); // version
+            buf.putShort((short) 0);
+            buf.putShort((short) 1); // type: sleep
+            buf.putInt(0); // UTC offset
+            buf.putInt(start);
+            buf.putInt(600);
+            buf.putShort((short) 0); // padding up to the item size
+        }
+        return buf.array();
+    }
+
+    private static ByteBuffer createMessage(int length) {
+        ByteBuffer buf = ByteBuffer.allocate(PebbleFrameReader.HEADER_LENGTH + length);
+        buf.putShort((short) length);
+        buf.putShort(ENDPOINT_DATALOG);
+        return buf;
+    }
+}
@@ -0,0 +1,111 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PebbleFrameReaderTest {
+    private static final int MESSAGES = 5000;
+    private static final int PAYLOAD_LENGTH = 200;
+
+    @Test
+    public void testReadFrames() throws Exception {
+        byte[] first = createMessage(1, new byte[] { 1, 2, 3 });
+        byte[] invalid = new byte[] { (byte) 0xff, (byte) 0xff, 0, 1 };
+        PebbleFrameReader reader = new PebbleFrameReader(new ByteArrayInputStream(concat(first, invalid)), false);
+        assertArrayEquals(first, reader.readFrame());
+        assertNull(reader.readFrame());
+    }
+
+    /**
+     * Sends messages through a local TCP stand-in for the emulator and checks that all
+     * of them are read and handed over to a dispatcher thread in order.
+     */
+    @Test
+    public void testReadFramesOverTCP() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread sender = new Thread() {
+            @Override
+            public void run() {
+                try (Socket socket = serverSocket.accept(); OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+                    byte[] payload = new byte[PAYLOAD_LENGTH];
+                    for (int i = 0; i < MESSAGES; i++) {
+                        payload[0] = (byte) i;
+                        out.write(createEmulatorMessage(createMessage(i, payload)));
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        sender.start();
+
+        final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>(256);
+        final int[] dispatched = new int[1];
+        Thread dispatcher = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < MESSAGES; i++) {
+                        byte[] frame = queue.take();
+                        assertEquals((byte) i, frame[PebbleFrameReader.HEADER_LENGTH]);
+                        dispatched[0]++;
+                    }
+                } catch (InterruptedException e) {
+                    // done
+                }
+            }
+        };
+        dispatcher.start();
+
+        try (Socket socket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort())) {
+            PebbleFrameReader reader = new PebbleFrameReader(socket.getInputStream(), true);
+            for (int i = 0; i < MESSAGES; i++) {
+                byte[] frame = reader.readFrame();
+                assertEquals(PebbleFrameReader.HEADER_LENGTH + PAYLOAD_LENGTH, frame.length);
+                queue.put(frame);
+            }
+        }
+        dispatcher.join(10000);
+        serverSocket.close();
+
+        assertEquals(MESSAGES, dispatched[0]);
+    }
+
+    private static byte[] createMessage(int endpoint, byte[] payload) {
+        ByteBuffer buf = ByteBuffer.allocate(PebbleFrameReader.HEADER_LENGTH + payload.length);
+        buf.putShort((short) payload.length);
+        buf.putShort((short) endpoint);
+        buf.put(payload);
+        return buf.array();
+    }
+
+    private static byte[] createEmulatorMessage(byte[] message) {
+        ByteBuffer buf = ByteBuffer.allocate(message.length + 8);
+        buf.putShort((short) 0xfeed);
+        buf.putShort((short) 1);
+        buf.putShort((short) message.length);
+        buf.put(message);
+        buf.putShort((short) 0xbeef);
+        return buf.array();
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+package nodomain.freeyourgadget.gadgetbridge.service.devices.pebble;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.test.TestBase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PebbleUploaderTest extends TestBase {
+    private static final int TOKEN = 0x12345678;
+
+    @Test
+    public void testWindow() throws Exception {
+        byte[] data = new byte[5 * PebbleUploader.CHUNK_SIZE + 123];
+        new Random(7).nextBytes(data);
+        PebbleProtocol protocol = new PebbleProtocol(createDummyGDevice("00:00:00:00:30"));
+        PebbleUploader uploader = new PebbleUploader(protocol, new ByteArrayInputStream(data), TOKEN, data.length, 3);
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        int messages = 0;
+        while (!uploader.isComplete()) {
+            byte[] chunk;
+            int sent = 0;
+            while ((chunk = uploader.nextChunk()) != null) {
+                received.write(getPayload(chunk));
+                sent++;
+                messages++;
+            }
+            assertTrue(uploader.getInFlight() <= 3);
+            assertFalse(sent == 0 && uploader.getInFlight() == 0 && !uploader.isComplete());
+            uploader.onAck();
+        }
+
+        assertEquals(6, messages);
+        assertArrayEquals(data, received.toByteArray());
+        assertEquals(data.length, uploader.getBytesAcked());
+        assertEquals(100, uploader.getProgressPercent());
+        assertNull(uploader.nextChunk());
+    }
+
+    private static byte[] getPayload(byte[] message) {
+        ByteBuffer buf = ByteBuffer.wrap(message);
+        int length = buf.getShort() & 0xffff;
+        buf.getShort(); // endpoint
+        buf.get(); // command
+        assertEquals(TOKEN, buf.getInt());
+        int size = buf.getInt();
+        assertEquals(length - 9, size);
+        assertEquals(message.length, PebbleFrameReader.HEADER_LENGTH + length);
+        byte[] payload = new byte[size];
+        buf.get(payload);
+        return payload;
+    }
+}
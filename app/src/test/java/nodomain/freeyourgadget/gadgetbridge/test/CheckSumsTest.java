@@ -0,0 +1,132 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.util.CRC16;
+import nodomain.freeyourgadget.gadgetbridge.util.CRC8;
+import nodomain.freeyourgadget.gadgetbridge.util.CheckSums;
+
+import static org.junit.Assert.assertEquals;
+
+public class CheckSumsTest extends TestBase {
+    @Test
+    public void testCheckValues() {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0xa1, CheckSums.getCRC8(check));
+        assertEquals(0x29b1, CheckSums.getCRC16(check));
+        assertEquals(0xcbf43926, CheckSums.getCRC32(check));
+        assertEquals(0xe3069283, CheckSums.getCRC32C(check, 0, check.length));
+
+        assertEquals(0, CheckSums.getCRC8(new byte[0]));
+        assertEquals(0xffff, CheckSums.getCRC16(new byte[0]));
+        assertEquals(0, CheckSums.getCRC32(new byte[0]));
+    }
+
+    @Test
+    public void testSameAsBitwise() {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            byte[] data = new byte[random.nextInt(100)];
+            random.nextBytes(data);
+            int offset = data.length == 0 ? 0 : random.nextInt(data.length);
+            int length = random.nextInt(data.length - offset + 1);
+            byte[] slice = new byte[length];
+            System.arraycopy(data, offset, slice, 0, length);
+
+            assertEquals(bitwiseCRC8(slice), CheckSums.getCRC8(slice));
+            assertEquals(bitwiseCRC8(slice), CheckSums.getCRC8(data, offset, length));
+            assertEquals(bitwiseCRC16(slice), CheckSums.getCRC16(slice));
+            assertEquals(bitwiseCRC16(slice), CheckSums.getCRC16(data, offset, length));
+            assertEquals(CheckSums.getCRC32(slice), CheckSums.getCRC32(data, offset, length));
+        }
+    }
+
+    @Test
+    public void testIncremental() throws Exception {
+        Random random = new Random(42);
+        byte[] data = new byte[20000];
+        random.nextBytes(data);
+        int expected = bitwiseCRC16(data);
+
+        CRC16 crc = new CRC16();
+        int offset = 0;
+        while (offset < data.length) {
+            int length = Math.min(random.nextInt(10), data.length - offset);
+            if (length == 1) {
+                crc.update(data[offset]);
+            } else {
+                crc.update(data, offset, length);
+            }
+            offset += length;
+        }
+        assertEquals(expected, crc.getValue());
+
+        assertEquals(expected, CheckSums.update(new CRC16(), ByteBuffer.wrap(data)));
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        assertEquals(expected, CheckSums.update(new CRC16(), direct));
+        assertEquals(0, direct.remaining());
+        assertEquals(expected, CheckSums.update(new CRC16(), new ByteArrayInputStream(data)));
+
+        ByteBuffer sliced = ByteBuffer.wrap(data, 100, 1000).slice();
+        assertEquals(CheckSums.getCRC8(data, 100, 1000), CheckSums.update(new CRC8(), sliced));
+    }
+
+    /**
+     * Compares the former bit-at-a-time CRC8 and CRC16 with the table driven ones, on a
+     * firmware sized buffer.
+     */
+    @Test
+    public void testFirmwareSized() {
+        byte[] data = new byte[1024 * 1024];
+        new Random(42).nextBytes(data);
+
+        assertEquals(bitwiseCRC8(data), CheckSums.getCRC8(data));
+        assertEquals(bitwiseCRC16(data), CheckSums.getCRC16(data));
+    }
+
+    /**
+     * CheckSums.getCRC8() as it was before it was table driven.
+     */
+    private static int bitwiseCRC8(byte[] seq) {
+        int len = seq.length;
+        int i = 0;
+        byte crc = 0x00;
+
+        while (len-- > 0) {
+            byte extract = seq[i++];
+            for (byte tempI = 8; tempI != 0; tempI--) {
+                byte sum = (byte) ((crc & 0xff) ^ (extract & 0xff));
+                sum = (byte) ((sum & 0xff) & 0x01);
+                crc = (byte) ((crc & 0xff) >>> 1);
+                if (sum != 0) {
+                    crc = (byte) ((crc & 0xff) ^ 0x8c);
+                }
+                extract = (byte) ((extract & 0xff) >>> 1);
+            }
+        }
+        return (crc & 0xff);
+    }
+
+    /**
+     * CheckSums.getCRC16() as it was before it was table driven.
+     */
+    private static int bitwiseCRC16(byte[] seq) {
+        int crc = 0xFFFF;
+
+        for (byte b : seq) {
+            crc = ((crc >>> 8) | (crc << 8)) & 0xffff;
+            crc ^= (b & 0xff);//byte to int, trunc sign
+            crc ^= ((crc & 0xff) >> 4);
+            crc ^= (crc << 12) & 0xffff;
+            crc ^= ((crc & 0xFF) << 5) & 0xffff;
+        }
+        crc &= 0xffff;
+        return crc;
+    }
+}
@@ -2,8 +2,14 @@ package nodomain.freeyourgadget.gadgetbridge.test;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
 import nodomain.freeyourgadget.gadgetbridge.util.FileUtils;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class FileUtilsTest extends TestBase {
@@ -16,4 +22,31 @@ public class FileUtilsTest extends TestBase {
         tempName = "fo\no::bar";
         assertEquals("fo_o__bar", FileUtils.makeValidFileName(tempName));
     }
+
+    @Test
+    public void testCopyFileToStreamWithProgress() throws Exception {
+        final byte[] data = new byte[3 * 1024 * 1024 + 17];
+        new Random(42).nextBytes(data);
+        File src = File.createTempFile("copy", ".bin");
+        try {
+            try (FileOutputStream out = new FileOutputStream(src)) {
+                out.write(data);
+            }
+            ByteArrayOutputStream dst = new ByteArrayOutputStream();
+            final long[] progress = new long[2];
+            FileUtils.copyFileToStream(src, dst, new FileUtils.CopyProgressListener() {
+                @Override
+                public void onProgress(long bytesCopied, long bytesTotal) {
+                    progress[0]++;
+                    progress[1] = bytesCopied;
+                    assertEquals(data.length, bytesTotal);
+                }
+            });
+            assertArrayEquals(data, dst.toByteArray());
+            assertEquals(4, progress[0]);
+            assertEquals(data.length, progress[1]);
+        } finally {
+            src.delete();
+        }
+    }
 }
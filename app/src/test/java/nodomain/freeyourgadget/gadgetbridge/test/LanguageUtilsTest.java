@@ -9,6 +9,7 @@ import nodomain.freeyourgadget.gadgetbridge.util.LanguageUtils;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -87,6 +88,17 @@ public class LanguageUtilsTest extends TestBase {
         assertEquals("lithuanian translation failed", expected, output);
     }
 
+    @Test
+    public void testStringTransliterateUpperCase() {
+        String input = "ЖУК Äpfel Ωmega ẞ";
+        String output = LanguageUtils.transliterate(input);
+        String expected = "ZhUK Aepfel Omega Ss";
+        assertEquals("upper case transliteration failed", expected, output);
+
+        input = "Plain ASCII text, nothing to do";
+        assertSame("unchanged text was copied", input, LanguageUtils.transliterate(input));
+    }
+
     @Test
     public void testTransliterateOption() throws Exception {
         setDefaultTransliteration();
@@ -0,0 +1,145 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.util.LimitedQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LimitedQueueTest extends TestBase {
+    @Test
+    public void testEviction() {
+        LimitedQueue<String> queue = new LimitedQueue<>(3);
+        queue.add(1, "a");
+        queue.add(2, "b");
+        queue.add(3, "c");
+        queue.add(4, "d");
+        assertEquals(3, queue.size());
+        assertNull(queue.lookup(1));
+        assertEquals("b", queue.lookup(2));
+        assertEquals("d", queue.lookup(4));
+    }
+
+    @Test
+    public void testDuplicateIds() {
+        LimitedQueue<String> queue = new LimitedQueue<>(4, true);
+        queue.add(1, "a");
+        queue.add(2, "b");
+        queue.add(1, "c");
+        assertEquals("a", queue.lookup(1));
+        assertEquals(Integer.valueOf(1), queue.lookupByValue("c"));
+
+        queue.add(3, "b");
+        queue.add(4, "d");
+        // the first "a" is evicted, the second entry with id 1 is found now
+        assertEquals("c", queue.lookup(1));
+        assertEquals(Integer.valueOf(2), queue.lookupByValue("b"));
+
+        queue.remove(1);
+        assertNull(queue.lookup(1));
+        assertNull(queue.lookupByValue("c"));
+        assertEquals(3, queue.size());
+    }
+
+    @Test
+    public void testSameAsLinkedList() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            int limit = 1 + random.nextInt(20);
+            boolean reverseIndex = random.nextBoolean();
+            LimitedQueue<Integer> queue = new LimitedQueue<>(limit, reverseIndex);
+            LinkedListQueue reference = new LinkedListQueue(limit);
+            for (int op = 0; op < 2000; op++) {
+                // few distinct ids and values, so that there are many duplicates and collisions
+                int id = random.nextInt(3 * limit) - limit;
+                Integer value = random.nextInt(2 * limit);
+                switch (random.nextInt(4)) {
+                    case 0:
+                    case 1:
+                        queue.add(id, value);
+                        reference.add(id, value);
+                        break;
+                    case 2:
+                        queue.remove(id);
+                        reference.remove(id);
+                        break;
+                    default:
+                        assertEquals(reference.lookupByValue(value), queue.lookupByValue(value));
+                }
+                assertEquals(reference.lookup(id), queue.lookup(id));
+                assertEquals(reference.size(), queue.size());
+            }
+        }
+    }
+
+    /**
+     * The pattern of NotificationListener: one add and a few lookups per notification,
+     * for much longer than the queue holds.
+     */
+    @Test
+    public void testAddLookup() {
+        LimitedQueue<Long> queue = new LimitedQueue<>(128);
+        for (int i = 0; i < 10000; i++) {
+            queue.add(i, (long) i);
+            assertEquals(Long.valueOf(i), queue.lookup(i));
+            assertEquals(i >= 64 ? Long.valueOf(i - 64) : null, queue.lookup(i - 64));
+            assertEquals(i >= 127 ? Long.valueOf(i - 127) : null, queue.lookup(i - 127));
+            assertNull(queue.lookup(i - 128));
+        }
+        assertEquals(128, queue.size());
+    }
+
+    /**
+     * LimitedQueue as it was before it was indexed.
+     */
+    private static class LinkedListQueue {
+        private final int limit;
+        private final LinkedList<Object[]> list = new LinkedList<>();
+
+        LinkedListQueue(int limit) {
+            this.limit = limit;
+        }
+
+        void add(int id, Object obj) {
+            if (list.size() > limit - 1) {
+                list.removeFirst();
+            }
+            list.add(new Object[]{id, obj});
+        }
+
+        void remove(int id) {
+            for (Iterator<Object[]> iter = list.iterator(); iter.hasNext(); ) {
+                if ((Integer) iter.next()[0] == id) {
+                    iter.remove();
+                }
+            }
+        }
+
+        Object lookup(int id) {
+            for (Object[] entry : list) {
+                if (id == (Integer) entry[0]) {
+                    return entry[1];
+                }
+            }
+            return null;
+        }
+
+        Object lookupByValue(Object value) {
+            for (Object[] entry : list) {
+                if (value.equals(entry[1])) {
+                    return entry[0];
+                }
+            }
+            return null;
+        }
+
+        int size() {
+            return list.size();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.util.MultiPatternMatcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MultiPatternMatcherTest extends TestBase {
+
+    @Test
+    public void testOverlappingWords() {
+        MultiPatternMatcher matcher = new MultiPatternMatcher(Arrays.asList("he", "she", "his", "hers"));
+        assertTrue(matcher.containsAny("ushers"));
+        assertFalse(matcher.containsAll("ushers"));
+        assertTrue(matcher.containsAll("ushers in his house"));
+        assertFalse(matcher.containsAny("HE SHE"));
+        assertFalse(matcher.containsAny(""));
+    }
+
+    @Test
+    public void testEmptyWords() {
+        MultiPatternMatcher none = new MultiPatternMatcher(Collections.<String>emptyList());
+        assertFalse(none.containsAny("text"));
+        assertTrue(none.containsAll("text"));
+
+        MultiPatternMatcher empty = new MultiPatternMatcher(Arrays.asList("", "x"));
+        assertTrue(empty.containsAny("abc"));
+        assertFalse(empty.containsAll("abc"));
+        assertEquals(2, new MultiPatternMatcher(Arrays.asList("a", "b", "a")).getPatternCount());
+    }
+
+    @Test
+    public void testSameAsContains() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            List<String> words = new ArrayList<>();
+            for (int i = random.nextInt(6); i > 0; i--) {
+                words.add(randomText(random, 1 + random.nextInt(4)));
+            }
+            String text = randomText(random, random.nextInt(30));
+            boolean any = false;
+            boolean all = true;
+            for (String word : words) {
+                any |= text.contains(word);
+                all &= text.contains(word);
+            }
+            MultiPatternMatcher matcher = new MultiPatternMatcher(words);
+            assertEquals(words + " in " + text, any, matcher.containsAny(text));
+            assertEquals(words + " in " + text, all, matcher.containsAll(text));
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(3)));
+        }
+        return text.toString();
+    }
+}
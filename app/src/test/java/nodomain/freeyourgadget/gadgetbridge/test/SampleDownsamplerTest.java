@@ -0,0 +1,118 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import nodomain.freeyourgadget.gadgetbridge.activities.charts.SampleDownsampler;
+import nodomain.freeyourgadget.gadgetbridge.model.ActivityKind;
+import nodomain.freeyourgadget.gadgetbridge.model.SampleColumns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SampleDownsamplerTest extends TestBase {
+    private static final int START = 1500000000;
+    private static final int BUCKETS = 720;
+
+    @Test
+    public void testFewSamplesUnchanged() {
+        SampleColumns samples = createSamples(2 * BUCKETS);
+        assertSame(samples, SampleDownsampler.downsample(samples, BUCKETS));
+        assertSame(samples, SampleDownsampler.downsample(samples, 0));
+    }
+
+    @Test
+    public void testKeepsEdgesAndPeaks() {
+        // four weeks of minute samples
+        SampleColumns samples = createSamples(4 * 7 * 24 * 60);
+        SampleColumns downsampled = SampleDownsampler.downsample(samples, BUCKETS);
+
+        assertTrue("" + downsampled.size(), downsampled.size() < samples.size() / 4);
+        assertEquals(samples.getTimestamp(0), downsampled.getTimestamp(0));
+        assertEquals(samples.getTimestamp(samples.size() - 1), downsampled.getTimestamp(downsampled.size() - 1));
+
+        Set<Integer> kept = new HashSet<>();
+        for (int i = 0; i < downsampled.size(); i++) {
+            if (i > 0) {
+                assertTrue(downsampled.getTimestamp(i) > downsampled.getTimestamp(i - 1));
+            }
+            kept.add(downsampled.getTimestamp(i));
+        }
+        float maxIntensity = 0;
+        int maxIntensityTimestamp = 0;
+        int maxHeartRate = 0;
+        int maxHeartRateTimestamp = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            if (i > 0 && samples.getKind(i) != samples.getKind(i - 1)) {
+                assertTrue("kind change at " + samples.getTimestamp(i), kept.contains(samples.getTimestamp(i)));
+                assertTrue("kind change at " + samples.getTimestamp(i), kept.contains(samples.getTimestamp(i - 1)));
+            }
+            if (samples.getIntensity(i) > maxIntensity) {
+                maxIntensity = samples.getIntensity(i);
+                maxIntensityTimestamp = samples.getTimestamp(i);
+            }
+            if (samples.getHeartRate(i) > maxHeartRate) {
+                maxHeartRate = samples.getHeartRate(i);
+                maxHeartRateTimestamp = samples.getTimestamp(i);
+            }
+        }
+        assertTrue(kept.contains(maxIntensityTimestamp));
+        assertTrue(kept.contains(maxHeartRateTimestamp));
+    }
+
+    @Test
+    public void testDetailRange() {
+        SampleColumns samples = createSamples(4 * 7 * 24 * 60);
+        int detailFrom = START + 10 * 24 * 60 * 60;
+        int detailTo = detailFrom + 12 * 60 * 60;
+
+        SampleColumns overview = SampleDownsampler.downsample(samples, BUCKETS);
+        SampleColumns detail = SampleDownsampler.downsample(samples, BUCKETS, detailFrom, detailTo);
+        int overviewInRange = countInRange(overview, detailFrom, detailTo);
+        int detailInRange = countInRange(detail, detailFrom, detailTo);
+        // 720 minutes at 720 buckets: every sample is kept
+        assertEquals(countInRange(samples, detailFrom, detailTo), detailInRange);
+        assertTrue(overviewInRange + " < " + detailInRange, overviewInRange < detailInRange);
+        assertClose(overview.size() - overviewInRange, detail.size() - detailInRange, 24);
+    }
+
+    private static int countInRange(SampleColumns samples, int from, int to) {
+        int count = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            if (samples.getTimestamp(i) >= from && samples.getTimestamp(i) <= to) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void assertClose(int expected, int actual, int delta) {
+        assertTrue(expected + " != " + actual, Math.abs(expected - actual) <= delta);
+    }
+
+    /**
+     * Minute samples with nightly sleep phases and random intensities and heart rates.
+     */
+    private static SampleColumns createSamples(int count) {
+        Random random = new Random(42);
+        SampleColumns samples = new SampleColumns(count);
+        int kind = ActivityKind.TYPE_ACTIVITY;
+        for (int i = 0; i < count; i++) {
+            int minuteOfDay = i % (24 * 60);
+            if (minuteOfDay < 7 * 60) {
+                if (random.nextInt(20) == 0) {
+                    kind = kind == ActivityKind.TYPE_DEEP_SLEEP ? ActivityKind.TYPE_LIGHT_SLEEP : ActivityKind.TYPE_DEEP_SLEEP;
+                }
+            } else {
+                kind = random.nextInt(500) == 0 ? ActivityKind.TYPE_NOT_WORN : ActivityKind.TYPE_ACTIVITY;
+            }
+            int heartRate = kind == ActivityKind.TYPE_NOT_WORN ? 0 : 50 + random.nextInt(100);
+            samples.add(START + i * 60, kind, kind, random.nextInt(100), random.nextFloat(), heartRate);
+        }
+        return samples;
+    }
+}
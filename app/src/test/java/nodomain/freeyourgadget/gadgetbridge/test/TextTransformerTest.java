@@ -0,0 +1,67 @@
+package nodomain.freeyourgadget.gadgetbridge.test;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import nodomain.freeyourgadget.gadgetbridge.util.LanguageUtils;
+import nodomain.freeyourgadget.gadgetbridge.util.TextTransformer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TextTransformerTest extends TestBase {
+    @Test
+    public void testReplace() {
+        TextTransformer transformer = new TextTransformer.Builder()
+                .put('a', "A")
+                .put("😀", ":-D")
+                .put('ä', "ae")
+                .build();
+        assertEquals(3, transformer.size());
+        assertEquals("bAnAnA", transformer.transform("banana"));
+        assertEquals("Hi :-D, Baer", transformer.transform("Hi 😀, Bär"));
+        // unpaired surrogates are kept
+        assertEquals("\uD83D:-D\uDE00", transformer.transform("\uD83D😀\uDE00"));
+
+        String unchanged = "nothing to do here";
+        assertSame(unchanged, transformer.transform(unchanged));
+        assertNull(transformer.transform(null));
+    }
+
+    @Test
+    public void testSameAsReplace() {
+        Random random = new Random(42);
+        String[] codePoints = {"a", "b", "ä", "א", "😀", "😁"};
+        for (int round = 0; round < 200; round++) {
+            TextTransformer.Builder builder = new TextTransformer.Builder();
+            String[][] mapping = new String[random.nextInt(4)][];
+            for (int i = 0; i < mapping.length; i++) {
+                mapping[i] = new String[]{codePoints[random.nextInt(codePoints.length)], "<" + i + ">"};
+            }
+            // String#replace() applies the first mapping of a code point, the builder the last one
+            for (int i = mapping.length - 1; i >= 0; i--) {
+                builder.put(mapping[i][0], mapping[i][1]);
+            }
+            TextTransformer transformer = builder.build();
+
+            StringBuilder text = new StringBuilder();
+            for (int i = random.nextInt(20); i > 0; i--) {
+                text.append(codePoints[random.nextInt(codePoints.length)]);
+            }
+            String expected = text.toString();
+            for (String[] replacement : mapping) {
+                expected = expected.replace(replacement[0], replacement[1]);
+            }
+            assertEquals(expected, transformer.transform(text.toString()));
+        }
+    }
+
+    @Test
+    public void testTransliterateUnchanged() {
+        // plain ASCII needs no copy at all
+        String text = "Meeting moved to 3pm, see you there";
+        assertSame(text, LanguageUtils.transliterate(text));
+    }
+}